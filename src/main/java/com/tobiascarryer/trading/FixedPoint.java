@@ -0,0 +1,245 @@
+package com.tobiascarryer.trading;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Helpers for numbers stored as a long scaled by a power of ten.
+ * For example, 0.0123 with a scale of 8 is stored as 1230000.
+ */
+public class FixedPoint {
+
+	// POWERS_OF_TEN[n] = 10^n, the largest power of ten a long can hold is 10^18
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1l;
+		for( int i = 1; i < POWERS_OF_TEN.length; i++ )
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10l;
+	}
+
+	/**
+	 * @param exponent, between 0 and 18
+	 * @return 10^exponent
+	 */
+	public static long powerOfTen(int exponent) {
+		return POWERS_OF_TEN[exponent];
+	}
+
+	/**
+	 * Parses a plain decimal string (ex. "0.00123000") without creating a BigDecimal.
+	 * Takes a CharSequence so a decoder can pass a reused StringBuilder instead of a new String per number.
+	 * Digits past the scale are rounded half even, the same way BigDecimal.setScale would.
+	 * @param number, plain decimal number. Exponents are not supported.
+	 * @param scale, number of decimal places to keep
+	 * @return number * 10^scale
+	 * @throws NumberFormatException if number is not a plain decimal or does not fit in a long
+	 */
+	public static long parse(CharSequence number, int scale) {
+		int length = number.length();
+		if( length == 0 )
+			throw new NumberFormatException("Empty number");
+
+		int i = 0;
+		boolean negative = false;
+		if( number.charAt(0) == '-' || number.charAt(0) == '+' ) {
+			negative = number.charAt(0) == '-';
+			i++;
+		}
+
+		long unscaled = 0l;
+		int decimals = -1; // -1 until the decimal point has been read
+		int discardedDigits = 0;
+		int firstDiscardedDigit = 0;
+		boolean discardedNonZero = false; // True if a digit after the first discarded digit is not zero
+		boolean hasDigits = false;
+		for( ; i < length; i++ ) {
+			char c = number.charAt(i);
+			if( c == '.' && decimals == -1 ) {
+				decimals = 0;
+				continue;
+			}
+			int digit = c - '0';
+			if( digit < 0 || digit > 9 )
+				throw new NumberFormatException("Not a plain decimal number: "+number);
+			hasDigits = true;
+
+			if( decimals == scale ) {
+				// Past the scale, only remember what is needed to round.
+				if( discardedDigits == 0 )
+					firstDiscardedDigit = digit;
+				else
+					discardedNonZero |= digit != 0;
+				discardedDigits++;
+				continue;
+			}
+
+			if( unscaled > (Long.MAX_VALUE - digit) / 10l )
+				throw new NumberFormatException("Number does not fit in a long at scale "+scale+": "+number);
+			unscaled = unscaled * 10l + digit;
+			if( decimals != -1 )
+				decimals++;
+		}
+		if( !hasDigits )
+			throw new NumberFormatException("Not a plain decimal number: "+number);
+
+		// Pad with zeroes if the number had fewer decimals than the scale.
+		for( int d = Math.max(decimals, 0); d < scale; d++ ) {
+			if( unscaled > Long.MAX_VALUE / 10l )
+				throw new NumberFormatException("Number does not fit in a long at scale "+scale+": "+number);
+			unscaled *= 10l;
+		}
+
+		// Round half even
+		if( firstDiscardedDigit > 5 || (firstDiscardedDigit == 5 && (discardedNonZero || (unscaled & 1l) == 1l)) )
+			unscaled++;
+
+		return negative ? -unscaled : unscaled;
+	}
+
+	/**
+	 * @param value
+	 * @param scale, number of decimal places to keep
+	 * @return value * 10^scale rounded half even
+	 * @throws ArithmeticException if the value does not fit in a long at the scale
+	 */
+	public static long fromBigDecimal(BigDecimal value, int scale) {
+		return value.setScale(scale, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+	}
+
+	/**
+	 * @param unscaled, number * 10^fromScale
+	 * @param fromScale, number of decimal places in unscaled
+	 * @param toScale, number of decimal places to keep
+	 * @return number * 10^toScale rounded half even
+	 * @throws ArithmeticException if the result does not fit in a long
+	 */
+	public static long rescale(long unscaled, int fromScale, int toScale) {
+		if( fromScale == toScale )
+			return unscaled;
+		if( fromScale < toScale )
+			return Math.multiplyExact(unscaled, powerOfTen(toScale - fromScale));
+
+		long divisor = powerOfTen(fromScale - toScale);
+		long quotient = unscaled / divisor;
+		long remainder = Math.abs(unscaled % divisor);
+		long half = divisor / 2l;
+		if( remainder > half || (remainder == half && (quotient & 1l) == 1l) )
+			quotient += unscaled < 0 ? -1l : 1l;
+		return quotient;
+	}
+
+	/**
+	 * Same as Math.multiplyHigh in Java 9.
+	 * @return The most significant 64 bits of the 128 bit product of x and y.
+	 */
+	public static long multiplyHigh(long x, long y) {
+		// Technique from section 8-2 of Henry S. Warren, Jr., Hacker's Delight (2nd ed.)
+		long x1 = x >> 32;
+		long x2 = x & 0xFFFFFFFFl;
+		long y1 = y >> 32;
+		long y2 = y & 0xFFFFFFFFl;
+		long z2 = x2 * y2;
+		long t = x1 * y2 + (z2 >>> 32);
+		long z1 = t & 0xFFFFFFFFl;
+		long z0 = t >> 32;
+		z1 += x2 * y1;
+		return x1 * y1 + z0 + (z1 >> 32);
+	}
+
+	/**
+	 * Compares a*b to c*d exactly, even if the products do not fit in a long.
+	 * @param a, b, c, d, must not be negative
+	 * @return A negative number, zero or a positive number if a*b is less than, equal to or greater than c*d.
+	 */
+	public static int compareProducts(long a, long b, long c, long d) {
+		int compareHigh = Long.compare(multiplyHigh(a, b), multiplyHigh(c, d));
+		if( compareHigh != 0 )
+			return compareHigh;
+		return Long.compareUnsigned(a * b, c * d);
+	}
+
+	/**
+	 * Computes a*b/d rounded down without losing the bits of a*b that do not fit in a long.
+	 * The remainder can be computed by the caller as a*b - quotient*d, which does not overflow.
+	 * @param a, b, must not be negative
+	 * @param d, must be greater than zero
+	 * @return floor(a*b/d)
+	 * @throws ArithmeticException if the result does not fit in a long
+	 */
+	public static long multiplyDivideFloor(long a, long b, long d) {
+		long high = multiplyHigh(a, b);
+		if( Long.compareUnsigned(high, d) >= 0 )
+			throw new ArithmeticException("Quotient does not fit in a long");
+		long quotient = divideUnsigned(high, a * b, d);
+		if( quotient < 0 )
+			throw new ArithmeticException("Quotient does not fit in a long");
+		return quotient;
+	}
+
+	/**
+	 * @param a, b, must not be negative
+	 * @param d, must be greater than zero
+	 * @return a*b/d rounded half even, the same as BigDecimal.divide with RoundingMode.HALF_EVEN
+	 * @throws ArithmeticException if the result does not fit in a long
+	 */
+	public static long multiplyDivide(long a, long b, long d) {
+		long quotient = multiplyDivideFloor(a, b, d);
+		long remainder = a * b - quotient * d;
+		long distanceToNext = d - remainder;
+		if( remainder > distanceToNext || (remainder == distanceToNext && (quotient & 1l) == 1l) )
+			return Math.addExact(quotient, 1l);
+		return quotient;
+	}
+
+	/**
+	 * Divides the unsigned 128 bit number high:low by divisor. Algorithm divlu from
+	 * Henry S. Warren, Jr., Hacker's Delight (2nd ed.), section 9-4.
+	 * @param high, must be less than divisor when both are treated as unsigned
+	 * @return The unsigned quotient
+	 */
+	private static long divideUnsigned(long high, long low, long divisor) {
+		final long base = 1l << 32;
+		final long mask = base - 1l;
+
+		// Normalize so the most significant bit of the divisor is set
+		int shift = Long.numberOfLeadingZeros(divisor);
+		divisor <<= shift;
+		long divisorHigh = divisor >>> 32;
+		long divisorLow = divisor & mask;
+		long numerator32 = (high << shift) | (shift == 0 ? 0l : low >>> (64 - shift));
+		long numerator10 = low << shift;
+		long numerator1 = numerator10 >>> 32;
+		long numerator0 = numerator10 & mask;
+
+		long quotient1 = Long.divideUnsigned(numerator32, divisorHigh);
+		long remainderEstimate = numerator32 - quotient1 * divisorHigh;
+		while( Long.compareUnsigned(quotient1, base) >= 0
+				|| Long.compareUnsigned(quotient1 * divisorLow, base * remainderEstimate + numerator1) > 0 ) {
+			quotient1--;
+			remainderEstimate += divisorHigh;
+			if( Long.compareUnsigned(remainderEstimate, base) >= 0 )
+				break;
+		}
+
+		long numerator21 = numerator32 * base + numerator1 - quotient1 * divisor;
+		long quotient0 = Long.divideUnsigned(numerator21, divisorHigh);
+		remainderEstimate = numerator21 - quotient0 * divisorHigh;
+		while( Long.compareUnsigned(quotient0, base) >= 0
+				|| Long.compareUnsigned(quotient0 * divisorLow, base * remainderEstimate + numerator0) > 0 ) {
+			quotient0--;
+			remainderEstimate += divisorHigh;
+			if( Long.compareUnsigned(remainderEstimate, base) >= 0 )
+				break;
+		}
+		return quotient1 * base + quotient0;
+	}
+
+	/**
+	 * @param unscaled, number * 10^scale
+	 * @param scale, number of decimal places in unscaled
+	 * @return The number as a BigDecimal with the given scale
+	 */
+	public static BigDecimal toBigDecimal(long unscaled, int scale) {
+		return BigDecimal.valueOf(unscaled, scale);
+	}
+}
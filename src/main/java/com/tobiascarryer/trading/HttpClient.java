@@ -0,0 +1,175 @@
+package com.tobiascarryer.trading;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Makes the REST calls that are not made by an exchange's own API library.
+ *
+ * Connections are kept alive and pooled per host by HttpURLConnection, so polling the same host does not
+ * open a new TCP and TLS connection every time. A connection only goes back to the pool once its response
+ * has been read to the end and closed, which every method here does even when the response is an error.
+ * Responses are requested gzipped and read in blocks straight into the JSON parser.
+ */
+public class HttpClient {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private static HttpClient shared;
+
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+
+	static {
+		// Idle connections kept per host, read by the JDK the first time it opens a connection
+		if( System.getProperty("http.maxConnections") == null )
+			System.setProperty("http.maxConnections", "10");
+	}
+
+	/**
+	 * Reads a response body. The stream is closed by the HttpClient.
+	 */
+	public interface ResponseHandler<T> {
+		T read(InputStream body) throws IOException;
+	}
+
+	/**
+	 * @param connectTimeoutMillis, longest wait to connect to the host
+	 * @param readTimeoutMillis, longest wait for the next bytes of the response
+	 */
+	public HttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * @return The client used unless another one is given
+	 */
+	public static synchronized HttpClient getShared() {
+		if( shared == null )
+			shared = new HttpClient(5000, 15000);
+		return shared;
+	}
+
+	/**
+	 * Sends a GET request and passes the body to handler.
+	 * @throws IOException if the request fails or the response status is not 2xx
+	 */
+	public <T> T get(String url, ResponseHandler<T> handler) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(this.connectTimeoutMillis);
+		connection.setReadTimeout(this.readTimeoutMillis);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		connection.setRequestProperty("Connection", "keep-alive");
+
+		int status;
+		try {
+			status = connection.getResponseCode();
+		} catch( IOException e ) {
+			connection.disconnect();
+			throw e;
+		}
+
+		if( status < 200 || status >= 300 ) {
+			// Reading the error body lets the connection be reused
+			InputStream error = connection.getErrorStream();
+			if( error != null )
+				drainAndClose(error);
+			throw new IOException("HTTP "+status+" from "+url);
+		}
+
+		InputStream body = new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
+		try {
+			if( "gzip".equalsIgnoreCase(connection.getContentEncoding()) )
+				body = new GZIPInputStream(body, BUFFER_SIZE);
+			T result = handler.read(body);
+			drain(body);
+			return result;
+		} finally {
+			body.close();
+		}
+	}
+
+	/**
+	 * @throws IOException if the request fails or the body is not a JSON array
+	 */
+	public JSONArray getJsonArray(String url) throws IOException {
+		return get(url, (InputStream body) -> {
+			try {
+				return new JSONArray(tokenize(body));
+			} catch( JSONException e ) {
+				throw new IOException("Invalid JSON array from "+url, e);
+			}
+		});
+	}
+
+	/**
+	 * @throws IOException if the request fails or the body is not a JSON object
+	 */
+	public JSONObject getJsonObject(String url) throws IOException {
+		return get(url, (InputStream body) -> {
+			try {
+				return new JSONObject(tokenize(body));
+			} catch( JSONException e ) {
+				throw new IOException("Invalid JSON object from "+url, e);
+			}
+		});
+	}
+
+	/**
+	 * Saves the body to file, replacing it if it exists.
+	 */
+	public void download(String url, File file) throws IOException {
+		get(url, (InputStream body) -> {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if( parent != null )
+				parent.mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while( (read = body.read(buffer)) != -1 )
+					out.write(buffer, 0, read);
+			} finally {
+				out.close();
+			}
+			return null;
+		});
+	}
+
+	private static JSONTokener tokenize(InputStream body) {
+		return new JSONTokener(new InputStreamReader(body, UTF8));
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		while( in.read(buffer) != -1 ) {}
+	}
+
+	private static void drainAndClose(InputStream in) {
+		try {
+			drain(in);
+		} catch( IOException e ) {
+			// The connection is not reused
+		} finally {
+			try {
+				in.close();
+			} catch( IOException e ) {}
+		}
+	}
+}
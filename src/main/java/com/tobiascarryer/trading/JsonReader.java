@@ -1,35 +1,15 @@
 package com.tobiascarryer.trading;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.URL;
-import java.nio.charset.Charset;
 
 import org.json.JSONArray;
 
 public class JsonReader {
 
-  private static String readAll(Reader rd) throws IOException {
-    StringBuilder sb = new StringBuilder();
-    int cp;
-    while( (cp = rd.read()) != -1 ) {
-      sb.append((char) cp);
-    }
-    return sb.toString();
-  }
-
+  /**
+   * Reads the array through the shared HttpClient so repeated calls reuse the same connection.
+   */
   public static JSONArray readJsonArrayFromUrl(String url) throws IOException {
-	  InputStream is = new URL(url).openStream();
-	  try {
-		BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-		String jsonText = readAll(rd);
-		JSONArray json = new JSONArray(jsonText);
-		return json;
-	} finally {
-		is.close();
-	}
+	  return HttpClient.getShared().getJsonArray(url);
   }
 }
@@ -1,12 +1,31 @@
 package com.tobiascarryer.trading.bots;
 
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 import com.tobiascarryer.trading.ApiSecrets;
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.exchanges.BalanceLedger;
+import com.tobiascarryer.trading.exchanges.BookEvent;
+import com.tobiascarryer.trading.exchanges.BookEventStream;
+import com.tobiascarryer.trading.exchanges.BookObserver;
 import com.tobiascarryer.trading.exchanges.Exchange;
 import com.tobiascarryer.trading.exchanges.ExchangeFactory;
+import com.tobiascarryer.trading.exchanges.FeeObserver;
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
-import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
 
 import java.util.HashMap;
 import java.math.BigDecimal;
@@ -19,8 +38,47 @@ public class ArbitrageBot {
 	private BigDecimal percentageOfMinorCurrencyToTrade = new BigDecimal("1");
 	private BigDecimal percentageOfMajorCurrencyToTrade = new BigDecimal("1");
 	
-	// Used to stop threads
-	private boolean arbitraging = true;
+	// Used to stop the scanner
+	private volatile boolean arbitraging = true;
+	private ThreadPoolExecutor scanner;
+	private Timer cooldownTicks;
+	private Exchange[] exchanges;
+	private BookObserver bookObserver;
+	private FeeObserver feeObserver;
+	// Book changes of every exchange when there are scanner threads, read by whichever scanner thread holds the
+	// queue so the ingest threads never wait for it. Indexed like exchanges.
+	private BookEventStream[] bookEventStreams;
+	// getMissedEvents() of each stream when it was last read. Only accessed while synchronized on the queue.
+	private long[] missedBookEvents;
+	private Map<CurrencyPair, Integer> currencyIndexes;
+	// Set by the fee observer for the scanner threads to re-score every opportunity
+	private volatile boolean feesChanged = false;
+	
+	// Every (buy exchange, sell exchange, major currency) combination ordered by its estimated profit.
+	// Only accessed while synchronized on the queue.
+	private OpportunityQueue opportunities;
+	private String[] majorCurrencies;
+	// Replaced as a whole when a fee changes so a reader always sees the ratios of a single set of fees.
+	private volatile BuySellRatios buySellRatios;
+	private TopOfBookSlot[][] topOfBooks; // topOfBooks[currency][exchange]
+	private CooldownRegistry cooldowns;
+	// Opportunities a scanner thread is executing, by id. Only accessed while synchronized on the queue.
+	private boolean[] inFlight;
+	private double estimatedAsk, estimatedBid; // Prices read by the last call to estimateProfit
+	private final CooldownRegistry.ExpiryObserver rescoreExpired = (int id) ->
+		rescore(id / (exchanges.length * exchanges.length), (id / exchanges.length) % exchanges.length, id % exchanges.length);
+	// Scans waiting for a scanner thread
+	private final AtomicInteger scheduled = new AtomicInteger(0);
+	private int scannerThreads = 1;
+	// Set while the thread that changed a book scans, when there are no scanner threads
+	private boolean scanningInline = false;
+	private LongSupplier clock = System::currentTimeMillis;
+	
+	// Executed opportunities are not executed again until the cooldown expires or their prices move.
+	private static final long COOLDOWN_TICK_MILLIS = 250;
+	private static final int BOOK_EVENT_CAPACITY = 1024;
+	private long cooldownMillis = 30000;
+	private double cooldownPriceMovement = 0.005;
 	
 	/**
 	 * @param minorCurrency, symbol
@@ -34,89 +92,380 @@ public class ArbitrageBot {
 	
 	public void startArbitraging(String[] majorCurrenciesToTrade, Exchange[] exchanges) {
 		// Prepare the buy/sell target ratios. They are used to determine whether an
-		// exchange is profitable to arbitrage.
-		final BuySellRatios buySellRatios = calculateBuySellRatios(exchanges);
+		// exchange is profitable to arbitrage. Each exchange is identified by its index in exchanges.
+		this.buySellRatios = calculateBuySellRatios(exchanges);
+		this.exchanges = exchanges;
+		this.majorCurrencies = majorCurrenciesToTrade;
+		this.opportunities = new OpportunityQueue(majorCurrenciesToTrade.length * exchanges.length * exchanges.length);
+		this.cooldowns = new CooldownRegistry(this.opportunities.size(), this.cooldownMillis, COOLDOWN_TICK_MILLIS, this.cooldownPriceMovement);
+		this.inFlight = new boolean[this.opportunities.size()];
 		
-		arbitraging = true;
-		for( final String majorCurrency: majorCurrenciesToTrade ) {
-			System.out.println("Starting arbitrage thread for major currency "+majorCurrency+" and minor currency "+minorCurrency+".");
-			new Thread() {
+		// Look up the top of book slots once so scoring an opportunity does not look up any books.
+		final Map<CurrencyPair, Integer> currencyIndexes = new HashMap<>();
+		this.currencyIndexes = currencyIndexes;
+		this.topOfBooks = new TopOfBookSlot[majorCurrenciesToTrade.length][exchanges.length];
+		for( int c=0; c<majorCurrenciesToTrade.length; c++ ) {
+			System.out.println("Starting arbitrage scanner for major currency "+majorCurrenciesToTrade[c]+" and minor currency "+minorCurrency+".");
+			currencyIndexes.put(CurrencyPair.of(majorCurrenciesToTrade[c], minorCurrency), c);
+			for( int i=0; i<exchanges.length; i++ )
+				this.topOfBooks[c][i] = exchanges[i].getTopOfBookSlot(majorCurrenciesToTrade[c], minorCurrency);
+		}
+		
+		// Index of every exchange so an observer can tell which opportunities to re-score.
+		final Map<Exchange, Integer> exchangeIndexes = new IdentityHashMap<>();
+		for( int i=0; i<exchanges.length; i++ )
+			exchangeIndexes.put(exchanges[i], i);
+		
+		// Every scanner thread takes the best opportunity left. Threads sharing a balance reserve it in the
+		// exchange's BalanceLedger, so concurrent opportunities cannot be sized against the same funds.
+		// Without scanner threads the cooldowns expire when the books change, see scanInline.
+		if( this.scannerThreads > 0 ) {
+			this.scanner = new ThreadPoolExecutor(this.scannerThreads, this.scannerThreads, 0l, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(this.scannerThreads));
+			// A single timer expires every cooldown instead of one task per execution.
+			this.cooldownTicks = new Timer(true);
+			this.cooldownTicks.scheduleAtFixedRate(new TimerTask() {
 				public void run() {
-					while( arbitraging ) {
-				        // O(n!/2) every exchange must be checked against every other exchange
-						// Could split up each exchange with each major currency to be its own Thread.
-						for( int i=0; i<exchanges.length-1; i++ ) {
-							if( exchanges[i].supports(majorCurrency, minorCurrency) && exchanges[i].canWithdraw(majorCurrency) ) {
-								for( int n=i+1; n<exchanges.length; n++ ) {
-									if( exchanges[n].supports(majorCurrency, minorCurrency) && exchanges[n].canWithdraw(majorCurrency) ) {
-										try {
-											// Minimum spread between two exchanges
-											BigDecimal minBuySellRatio = buySellRatios.get(exchanges[i], exchanges[n]);
-											
-											// Maximum trade volume is a percentage of the balance on each of the exchanges
-											BigDecimal maxExchangeIBuyVolume = exchanges[i].getBalance(minorCurrency).multiply(percentageOfMinorCurrencyToTrade);
-											BigDecimal maxExchangeNBuyVolume = exchanges[n].getBalance(minorCurrency).multiply(percentageOfMinorCurrencyToTrade);
-											BigDecimal maxExchangeISellVolume = exchanges[i].getBalance(majorCurrency).multiply(percentageOfMajorCurrencyToTrade);
-											BigDecimal maxExchangeNSellVolume = exchanges[n].getBalance(majorCurrency).multiply(percentageOfMajorCurrencyToTrade);
-											
-											// Buy on exchange i and sell on exchange n
-											ArbitrageOpportunity opportunity1 = null;
-											if( isArbitrageProfitable(minBuySellRatio, exchanges[i], exchanges[n], majorCurrency) ) {
-												opportunity1 = new ArbitrageOpportunity(exchanges[i], exchanges[n], majorCurrency, minorCurrency);
-												opportunity1.optimizeOrders(minBuySellRatio, maxExchangeIBuyVolume, maxExchangeNSellVolume);
-											}
-												
-											// Buy on exchange n and sell on exchange i
-											ArbitrageOpportunity opportunity2 = null;
-											if( isArbitrageProfitable(minBuySellRatio, exchanges[n], exchanges[i], majorCurrency) ) {
-												opportunity2 = new ArbitrageOpportunity(exchanges[n], exchanges[i], majorCurrency, minorCurrency);
-												opportunity2.optimizeOrders(minBuySellRatio, maxExchangeNBuyVolume, maxExchangeISellVolume);
-											}
-											
-											// The biggest minimum of the two exchanges is taken so the order can execute in both.
-											BigDecimal minTrade = exchanges[i].getMinimumMinorVolume(majorCurrency, minorCurrency).max(exchanges[n].getMinimumMinorVolume(majorCurrency, minorCurrency));
-											boolean opportunity1CanTrade = opportunity1 != null && opportunity1.getOpportunityVolume().compareTo(minTrade) != -1;
-											boolean opportunity2CanTrade = opportunity2 != null && opportunity2.getOpportunityVolume().compareTo(minTrade) != -1;
-											
-											// If there is a tradeable opportunity
-											if( opportunity1CanTrade || opportunity2CanTrade ) {	
-												// Find the optimal price and volume for the opportunity then execute.
-												if( opportunity1CanTrade && opportunity2CanTrade ) {
-													ArbitrageOpportunity best = ArbitrageOpportunity.mostValuable(opportunity1, opportunity2);
-													best.executeOpportunity();
-													System.out.println("Predicted profit: "+best.calculatePredictedProfit()+" "+majorCurrency);
-												} else if( opportunity1CanTrade ) {
-													opportunity1.executeOpportunity();
-													System.out.println("Predicted profit: "+opportunity1.calculatePredictedProfit()+" "+majorCurrency);
-												} else if( opportunity2CanTrade ) {
-													opportunity2.executeOpportunity();
-													System.out.println("Predicted profit: "+opportunity2.calculatePredictedProfit()+" "+majorCurrency);
-												}
-											
-												// Wait so the same opportunity is not exploited twice.
-												try {
-													Thread.sleep(30000);
-												} catch (InterruptedException e) {
-													e.printStackTrace();
-												}
-											}
-										} catch( RatioDoesNotExistException e ) {
-											e.printStackTrace();
-										} catch( NotEnoughBalanceException e ) {
-											e.printStackTrace();
-											System.out.println("Not enough balance for the opportunity.");
-										}
-									}
-								}
-							}
-						}
+					expireCooldowns();
+				}
+			}, 0, COOLDOWN_TICK_MILLIS);
+			// The ingest threads only publish which books changed and wake a scanner thread up, the opportunities
+			// are re-scored by the scanner threads, see readBookEvents.
+			this.bookEventStreams = new BookEventStream[exchanges.length];
+			this.missedBookEvents = new long[exchanges.length];
+			for( int i=0; i<exchanges.length; i++ ) {
+				this.bookEventStreams[i] = exchanges[i].openBookEventStream(BOOK_EVENT_CAPACITY);
+				this.bookEventStreams[i].setPublishListener(this::schedule);
+			}
+			this.bookObserver = null;
+		} else {
+			// Re-scored on the thread that changed the book so a replay scores every change in the same order
+			this.bookEventStreams = null;
+			this.bookObserver = (Exchange exchange, String majorCurrency, String minorCurrencyOfBook) -> {
+				// Books of other minor currencies are not in the map
+				Integer currencyIndex = currencyIndexes.get(CurrencyPair.of(majorCurrency, minorCurrencyOfBook));
+				Integer exchangeIndex = exchangeIndexes.get(exchange);
+				if( currencyIndex != null && exchangeIndex != null ) {
+					rescoreBook(currencyIndex, exchangeIndex);
+					schedule();
+				}
+			};
+		}
+		arbitraging = true;
+		// Fees change when an exchange starts or stops discounting them (ex. paying with BNB on Binance).
+		this.feeObserver = (Exchange exchange) -> {
+			this.buySellRatios = calculateBuySellRatios(exchanges);
+			if( this.bookEventStreams != null ) {
+				this.feesChanged = true;
+			} else {
+				for( int c=0; c<majorCurrenciesToTrade.length; c++ )
+					rescoreCurrency(c);
+			}
+			schedule();
+		};
+		for( Exchange exchange: exchanges ) {
+			if( this.bookObserver != null )
+				exchange.attachBookObserver(this.bookObserver);
+			exchange.attachFeeObserver(this.feeObserver);
+		}
+		
+		// Score every opportunity once since books received before starting will not notify the observer again.
+		for( int c=0; c<majorCurrenciesToTrade.length; c++ )
+			rescoreCurrency(c);
+		schedule();
+	}
+	
+	/**
+	 * Re-scores the opportunities that buy or sell a major currency on an exchange, O(n log n) for n exchanges.
+	 */
+	private void rescoreBook(int currency, int exchangeIndex) {
+		synchronized( this.opportunities ) {
+			for( int n=0; n<exchanges.length; n++ ) {
+				if( n == exchangeIndex )
+					continue;
+				rescore(currency, exchangeIndex, n);
+				rescore(currency, n, exchangeIndex);
+			}
+		}
+	}
+	
+	private void rescoreCurrency(int currency) {
+		synchronized( this.opportunities ) {
+			for( int i=0; i<exchanges.length; i++ ) {
+				for( int n=0; n<exchanges.length; n++ ) {
+					if( i != n )
+						rescore(currency, i, n);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Opportunities being executed or cooling down keep a score of negative infinity so no other thread takes them.
+	 * Must be synchronized on the queue.
+	 */
+	private void rescore(int currency, int buyIndex, int sellIndex) {
+		int id = opportunityId(currency, buyIndex, sellIndex);
+		double score = estimateProfit(currency, buyIndex, sellIndex);
+		if( this.inFlight[id] || this.cooldowns.isCoolingDown(id, this.estimatedAsk, this.estimatedBid) )
+			score = Double.NEGATIVE_INFINITY;
+		this.opportunities.update(id, score);
+	}
+	
+	/**
+	 * Re-scores the opportunities of every book that changed since the streams were last read, every book of an
+	 * exchange whose stream dropped changes and every opportunity after a fee changed. Must be synchronized on the queue, which also keeps the streams
+	 * read by a single scanner thread at a time.
+	 */
+	private void readBookEvents() {
+		if( this.bookEventStreams == null )
+			return;
+		if( this.feesChanged ) {
+			// Cleared first, fees changing again while re-scoring set it for the next read
+			this.feesChanged = false;
+			for( int c=0; c<this.majorCurrencies.length; c++ )
+				rescoreCurrency(c);
+		}
+		for( int i=0; i<this.bookEventStreams.length; i++ ) {
+			BookEventStream stream = this.bookEventStreams[i];
+			// Read first, changes dropped while draining are caught up on by the next read
+			long missed = stream.getMissedEvents();
+			BookEvent event;
+			while( (event = stream.poll()) != null ) {
+				// Books of other minor currencies are not in the map
+				Integer currencyIndex = this.currencyIndexes.get(event.getPair());
+				if( currencyIndex != null )
+					rescoreBook(currencyIndex, i);
+			}
+			if( missed != this.missedBookEvents[i] ) {
+				this.missedBookEvents[i] = missed;
+				for( int c=0; c<this.majorCurrencies.length; c++ )
+					rescoreBook(c, i);
+			}
+		}
+	}
+	
+	private void expireCooldowns() {
+		boolean profitable;
+		synchronized( this.opportunities ) {
+			this.cooldowns.advance(this.clock.getAsLong(), this.rescoreExpired);
+			profitable = this.opportunities.peekScore() > 0;
+		}
+		if( profitable )
+			schedule();
+	}
+	
+	private int opportunityId(int currency, int buyIndex, int sellIndex) {
+		return (currency * exchanges.length + buyIndex) * exchanges.length + sellIndex;
+	}
+	
+	/**
+	 * Profit from buying the volume of the best ask and bid beyond what the target profit requires,
+	 * measured in the minor currency. Only an estimate to order the opportunities, isArbitrageProfitable
+	 * and ArbitrageOpportunity decide whether it is traded.
+	 * Post: estimatedAsk and estimatedBid are the prices read, NaN if they could not be read.
+	 * @return Negative infinity if the books have not been received yet.
+	 */
+	private double estimateProfit(int currency, int buyIndex, int sellIndex) {
+		String majorCurrency = this.majorCurrencies[currency];
+		this.estimatedAsk = Double.NaN;
+		this.estimatedBid = Double.NaN;
+		double ask, askVolume, bid, bidVolume;
+		TopOfBookSlot toBuyOn = this.topOfBooks[currency][buyIndex];
+		TopOfBookSlot toSellOn = this.topOfBooks[currency][sellIndex];
+		try {
+			if( toBuyOn != null ) {
+				TopOfBook top = toBuyOn.get();
+				if( !top.hasAsk() )
+					return Double.NEGATIVE_INFINITY;
+				ask = top.getAskPrice() / (double) FixedPoint.powerOfTen(TopOfBook.PRICE_SCALE);
+				askVolume = top.getAskQuantity() / (double) FixedPoint.powerOfTen(top.getQuantityScale());
+			} else {
+				OrderBookIterator asks = exchanges[buyIndex].getAsksIterator(majorCurrency, minorCurrency);
+				if( !asks.hasNext() )
+					return Double.NEGATIVE_INFINITY;
+				OrderBookEntry lowestAsk = asks.next();
+				ask = lowestAsk.getPrice().doubleValue();
+				askVolume = lowestAsk.getMajorCurrencyAmount().doubleValue();
+			}
+			if( toSellOn != null ) {
+				TopOfBook top = toSellOn.get();
+				if( !top.hasBid() )
+					return Double.NEGATIVE_INFINITY;
+				bid = top.getBidPrice() / (double) FixedPoint.powerOfTen(TopOfBook.PRICE_SCALE);
+				bidVolume = top.getBidQuantity() / (double) FixedPoint.powerOfTen(top.getQuantityScale());
+			} else {
+				OrderBookIterator bids = exchanges[sellIndex].getBidsIterator(majorCurrency, minorCurrency);
+				if( !bids.hasNext() )
+					return Double.NEGATIVE_INFINITY;
+				OrderBookEntry highestBid = bids.next();
+				bid = highestBid.getPrice().doubleValue();
+				bidVolume = highestBid.getMajorCurrencyAmount().doubleValue();
+			}
+		} catch( BookNotFoundException | ArithmeticException e ) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		
+		this.estimatedAsk = ask;
+		this.estimatedBid = bid;
+		
+		// The ask is profitable up to bid * ratio
+		double ratio = this.buySellRatios.ratio(buyIndex, sellIndex);
+		return Math.min(askVolume, bidVolume) * (bid * ratio - ask);
+	}
+	
+	/**
+	 * Queues a scan unless every scanner thread already has one waiting.
+	 */
+	private void schedule() {
+		if( this.scanner == null ) {
+			scanInline();
+			return;
+		}
+		int waiting;
+		do {
+			waiting = this.scheduled.get();
+			if( !arbitraging || waiting >= this.scanner.getMaximumPoolSize() )
+				return;
+		} while( !this.scheduled.compareAndSet(waiting, waiting + 1) );
+		try {
+			this.scanner.execute(this::executeBestOpportunities);
+		} catch( RejectedExecutionException e ) {
+			// The bot stopped
+			this.scheduled.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Expires the cooldowns and scans on the thread that changed a book. Books changed by the orders of the scan
+	 * notify the observer again on the same thread, the scan that is running picks those changes up.
+	 */
+	private void scanInline() {
+		if( !arbitraging || this.scanningInline )
+			return;
+		this.scanningInline = true;
+		try {
+			synchronized( this.opportunities ) {
+				this.cooldowns.advance(this.clock.getAsLong(), this.rescoreExpired);
+			}
+			this.scheduled.incrementAndGet();
+			executeBestOpportunities();
+		} finally {
+			this.scanningInline = false;
+		}
+	}
+	
+	/**
+	 * Executes opportunities from the most to the least profitable until none of them are estimated to be profitable.
+	 * An opportunity that cannot be traded is removed from the queue until one of its books changes.
+	 */
+	private void executeBestOpportunities() {
+		// Allow the next change to schedule another scan before this one reads the queue.
+		this.scheduled.decrementAndGet();
+		while( arbitraging ) {
+			int id;
+			synchronized( this.opportunities ) {
+				readBookEvents();
+				if( !(this.opportunities.peekScore() > 0) )
+					return;
+				id = this.opportunities.peek();
+				this.opportunities.update(id, Double.NEGATIVE_INFINITY);
+				// Claimed until its cooldown starts, a book change cannot give it back its score meanwhile
+				this.inFlight[id] = true;
+			}
+			int currency = id / (exchanges.length * exchanges.length);
+			int buyIndex = (id / exchanges.length) % exchanges.length;
+			int sellIndex = id % exchanges.length;
+			boolean executed = false;
+			try {
+				executed = executeIfTradeable(currency, buyIndex, sellIndex);
+			} finally {
+				synchronized( this.opportunities ) {
+					if( executed ) {
+						// The same opportunity is not exploited twice while the books still show the orders it
+						// traded against, or while one side of it is left to unwind. Every other opportunity keeps
+						// being executed.
+						estimateProfit(currency, buyIndex, sellIndex);
+						this.cooldowns.start(id, this.clock.getAsLong(), this.estimatedAsk, this.estimatedBid);
+						this.opportunities.update(id, Double.NEGATIVE_INFINITY);
 					}
-			    }
-			}.start();
-		}	
+					this.inFlight[id] = false;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return True if either order of the opportunity was accepted, a single leg holds part of the trade as well
+	 */
+	private boolean executeIfTradeable(int currency, int buyIndex, int sellIndex) {
+		String majorCurrency = this.majorCurrencies[currency];
+		Exchange exchangeToBuyOn = this.exchanges[buyIndex];
+		Exchange exchangeToSellOn = this.exchanges[sellIndex];
+		if( !exchangeToBuyOn.supports(majorCurrency, minorCurrency) || !exchangeToBuyOn.canWithdraw(majorCurrency) )
+			return false;
+		if( !exchangeToSellOn.supports(majorCurrency, minorCurrency) || !exchangeToSellOn.canWithdraw(majorCurrency) )
+			return false;
+		
+		// Minimum spread between two exchanges, read once so a fee change cannot mix ratios.
+		BuySellRatios ratios = this.buySellRatios;
+		BigDecimal minBuySellRatio = ratios.get(buyIndex, sellIndex);
+		if( !isArbitrageProfitable(minBuySellRatio, ratios.unscaled(buyIndex, sellIndex), exchangeToBuyOn, exchangeToSellOn,
+				this.topOfBooks[currency][buyIndex], this.topOfBooks[currency][sellIndex], majorCurrency) )
+			return false;
+		
+		// Maximum trade volume is a percentage of the balance on each of the exchanges. It is reserved before
+		// sizing the orders so other scanner threads only size their opportunities against what is left.
+		BalanceLedger.Reservation minorToSpend = reservePercentage(exchangeToBuyOn, minorCurrency, percentageOfMinorCurrencyToTrade);
+		BalanceLedger.Reservation majorToSell = reservePercentage(exchangeToSellOn, majorCurrency, percentageOfMajorCurrencyToTrade);
+		try {
+			ArbitrageOpportunity opportunity = new ArbitrageOpportunity(exchangeToBuyOn, exchangeToSellOn, majorCurrency, minorCurrency);
+			opportunity.optimizeOrders(minBuySellRatio, minorToSpend.getAmount(), majorToSell.getAmount());
+			
+			// The biggest minimum of the two exchanges is taken so the order can execute in both.
+			BigDecimal minTrade = exchangeToBuyOn.getMinimumMinorVolume(majorCurrency, minorCurrency).max(exchangeToSellOn.getMinimumMinorVolume(majorCurrency, minorCurrency));
+			if( opportunity.getOpportunityVolume().compareTo(minTrade) == -1 )
+				return false;
+			
+			// Only hold what the orders need while they are sent
+			minorToSpend.shrinkTo(opportunity.getBuyOrder().getMajorAmountToTrade().multiply(opportunity.getBuyOrder().getPrice()));
+			majorToSell.shrinkTo(opportunity.getSellOrder().getMajorAmountToTrade());
+			ArbitrageOpportunity.Execution execution = opportunity.executeOpportunity();
+			// Accepted orders hold their balance until the exchange takes them out of it
+			if( opportunity.getBuyAck() != null )
+				minorToSpend.commit();
+			if( opportunity.getSellAck() != null )
+				majorToSell.commit();
+			if( execution == ArbitrageOpportunity.Execution.BOTH )
+				System.out.println("Predicted profit: "+opportunity.calculatePredictedProfit()+" "+majorCurrency);
+			return execution.isAnyAccepted();
+		} finally {
+			// Does nothing to what was committed
+			minorToSpend.release();
+			majorToSell.release();
+		}
 	}
 	
-	private boolean isArbitrageProfitable(BigDecimal minimumBuySellRatio, Exchange exchangeToBuyOn, Exchange exchangeToSellOn, String majorCurrency) {
+	/**
+	 * @return A reservation of percentage of the balance that is not reserved yet, zero if there is no balance
+	 */
+	private static BalanceLedger.Reservation reservePercentage(Exchange exchange, String currency, BigDecimal percentage) {
+		BalanceLedger ledger = exchange.getBalanceLedger();
+		BigDecimal available = ledger.getAvailable(currency);
+		BigDecimal max = available == null ? BigDecimal.ZERO : available.multiply(percentage);
+		return ledger.reserveUpTo(currency, max);
+	}
+	
+	/**
+	 * Uses the published top of books when both exchanges publish them, otherwise asks the exchanges for their best prices.
+	 * @param minimumBuySellRatioUnscaled, minimumBuySellRatio * 10^8
+	 * @param topOfBookToBuyOn, null if exchangeToBuyOn does not publish its top of book
+	 * @param topOfBookToSellOn, null if exchangeToSellOn does not publish its top of book
+	 */
+	private boolean isArbitrageProfitable(BigDecimal minimumBuySellRatio, long minimumBuySellRatioUnscaled, Exchange exchangeToBuyOn, Exchange exchangeToSellOn,
+			TopOfBookSlot topOfBookToBuyOn, TopOfBookSlot topOfBookToSellOn, String majorCurrency) {
+		if( topOfBookToBuyOn != null && topOfBookToSellOn != null )
+			return isArbitrageProfitable(minimumBuySellRatioUnscaled, topOfBookToBuyOn.get(), topOfBookToSellOn.get());
+		
 		// buy (ask) / sell (bid), should be < 1 if the arbitrage is profitable before fees and other deductions
 		try {
 			BigDecimal buySellRatio = exchangeToBuyOn.getLowestAsk(majorCurrency, minorCurrency).divide(exchangeToSellOn.getHighestBid(majorCurrency, minorCurrency), 8, RoundingMode.FLOOR);
@@ -128,6 +477,50 @@ public class ArbitrageBot {
 		}
 	}
 	
+	/**
+	 * Same result as dividing the ask by the bid to 8 decimal places (rounded down) and comparing it to the
+	 * minimum ratio, without creating any objects.
+	 * @param minimumBuySellRatioUnscaled, minimum ratio * 10^8
+	 */
+	private static boolean isArbitrageProfitable(long minimumBuySellRatioUnscaled, TopOfBook toBuyOn, TopOfBook toSellOn) {
+		// The order book has not been received yet.
+		if( !toBuyOn.hasAsk() || !toSellOn.hasBid() || toSellOn.getBidPrice() == 0l )
+			return false;
+		
+		// floor(ask/bid * 10^8) <= ratio * 10^8 is the same as ask * 10^8 < (ratio * 10^8 + 1) * bid
+		// since both prices are at TopOfBook.PRICE_SCALE. The products can be wider than a long.
+		return FixedPoint.compareProducts(toBuyOn.getAskPrice(), FixedPoint.powerOfTen(8), minimumBuySellRatioUnscaled + 1l, toSellOn.getBidPrice()) < 0;
+	}
+	
+	/**
+	 * Takes effect the next time the bot starts arbitraging.
+	 * @param millis, how long an executed opportunity waits before it can be executed again
+	 * @param priceMovement, the wait ends early when the best ask or bid moves by more than this fraction
+	 * of the price the opportunity was executed at (0.005 for 0.5%)
+	 */
+	public void setCooldown(long millis, double priceMovement) {
+		this.cooldownMillis = millis;
+		this.cooldownPriceMovement = priceMovement;
+	}
+	
+	/**
+	 * Takes effect the next time the bot starts arbitraging.
+	 * @param threads, number of opportunities sized and executed at the same time. 0 to scan on the thread that
+	 * changed a book instead, so replaying recorded books trades the same way every time.
+	 */
+	public void setScannerThreads(int threads) {
+		assert(threads >= 0);
+		this.scannerThreads = threads;
+	}
+	
+	/**
+	 * Takes effect the next time the bot starts arbitraging.
+	 * @param clock, milliseconds since the epoch used to time the cooldowns. Replace it to replay recorded books.
+	 */
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+	
 	/**
 	 * Set the minor currency used when arbitraging.
 	 * @param minorCurrency, the symbol for the minor currency (ex. BTC or ETH)
@@ -149,10 +542,25 @@ public class ArbitrageBot {
 	
 	public void stop() {
 		this.arbitraging = false;
+		if( this.exchanges != null ) {
+			for( Exchange exchange: this.exchanges ) {
+				if( this.bookObserver != null )
+					exchange.detachBookObserver(this.bookObserver);
+				exchange.detachFeeObserver(this.feeObserver);
+			}
+		}
+		if( this.bookEventStreams != null ) {
+			for( int i=0; i<this.bookEventStreams.length; i++ )
+				this.exchanges[i].closeBookEventStream(this.bookEventStreams[i]);
+		}
+		if( this.scanner != null )
+			this.scanner.shutdown();
+		if( this.cooldownTicks != null )
+			this.cooldownTicks.cancel();
 	}
 	
 	private BuySellRatios calculateBuySellRatios(Exchange[] exchanges) {
-		BuySellRatios buySellRatios = new BuySellRatios();
+		BuySellRatios buySellRatios = new BuySellRatios(exchanges.length);
 		for( int i=0; i<exchanges.length-1; i++ ) {
 			for( int n=i+1; n<exchanges.length; n++ ) {
 				/*
@@ -183,40 +591,48 @@ public class ArbitrageBot {
 				 */
 				BigDecimal buySellRatio = (exchanges[i].getPostTradingFee().multiply(exchanges[n].getPostTradingFee())).divide(this.targetProfit, 8, RoundingMode.FLOOR);
 				// Attach ratio to both exchanges since the order the exchanges are accessed/tested could change.
-				buySellRatios.put(exchanges[i], exchanges[n], buySellRatio);
-				buySellRatios.put(exchanges[n], exchanges[i], buySellRatio);
+				buySellRatios.put(i, n, buySellRatio);
+				buySellRatios.put(n, i, buySellRatio);
 			}
 		}
 		return buySellRatios;
 	}
 	
-	private class BuySellRatios {
-		Map<Exchange, Map<Exchange, BigDecimal>> buySellRatios = new HashMap<>();
+	/**
+	 * Minimum buy/sell ratio of every pair of exchanges, stored in flat arrays indexed by
+	 * buyIndex * exchangeCount + sellIndex. Not modified after calculateBuySellRatios returns it.
+	 */
+	private static final class BuySellRatios {
+		private final int exchangeCount;
+		private final long[] unscaled; // ratio * 10^8, 0 between an exchange and itself
+		private final double[] ratios;
 		
-		void put(Exchange exchangeAddingTo, Exchange exchangeToAdd, BigDecimal ratio) {
-			// Get the order books for exchangeAddingTo and add the ratio when
-			// trading against exchangeToAdd.
-			Map<Exchange, BigDecimal> ratiosByExchange = buySellRatios.getOrDefault(exchangeAddingTo, new HashMap<Exchange, BigDecimal>());
-			ratiosByExchange.put(exchangeToAdd, ratio);
-			buySellRatios.put(exchangeAddingTo, ratiosByExchange);
+		BuySellRatios(int exchangeCount) {
+			this.exchangeCount = exchangeCount;
+			this.unscaled = new long[exchangeCount * exchangeCount];
+			this.ratios = new double[exchangeCount * exchangeCount];
 		}
 		
-		BigDecimal get(Exchange exchange, Exchange otherExchange) throws RatioDoesNotExistException {
-			// Return the book if it exists. The exception exists because a book not existing must always
-			// be handled and forgetting to handle it is unacceptable.
-			if( buySellRatios.get(exchange) == null ) {
-				throw new RatioDoesNotExistException("Ratio could not be found between two exchanges. exchange does not exist");
-			}
-			BigDecimal ratio = buySellRatios.get(exchange).get(otherExchange);
-			if( ratio == null ) {
-				throw new RatioDoesNotExistException("Ratio could not be found between two exchanges. otherExchange does not exist");
-			}
-			return ratio;
+		void put(int buyIndex, int sellIndex, BigDecimal ratio) {
+			int index = buyIndex * this.exchangeCount + sellIndex;
+			this.unscaled[index] = FixedPoint.fromBigDecimal(ratio, 8);
+			this.ratios[index] = ratio.doubleValue();
+		}
+		
+		BigDecimal get(int buyIndex, int sellIndex) {
+			return FixedPoint.toBigDecimal(unscaled(buyIndex, sellIndex), 8);
+		}
+		
+		/**
+		 * @return The ratio * 10^8
+		 */
+		long unscaled(int buyIndex, int sellIndex) {
+			return this.unscaled[buyIndex * this.exchangeCount + sellIndex];
+		}
+		
+		double ratio(int buyIndex, int sellIndex) {
+			return this.ratios[buyIndex * this.exchangeCount + sellIndex];
 		}
-	}
-	
-	private class RatioDoesNotExistException extends Exception {
-		public RatioDoesNotExistException(String message) { super(message); }
 	}
 	
 	public static void main(String[] args) throws InterruptedException {
@@ -2,21 +2,28 @@ package com.tobiascarryer.trading.bots;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+import com.tobiascarryer.trading.FixedPoint;
 import com.tobiascarryer.trading.exchanges.Exchange;
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
 import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
 import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
 import com.tobiascarryer.trading.exchanges.orders.OrderType;
 
 public class ArbitrageOpportunity {
 	
 	private Order buyOrder, sellOrder;
+	private OrderAck buyAck, sellAck; // Set once the exchanges accept the orders
 	private Exchange exchangeToBuyOn, exchangeToSellOn;
 	private String majorCurrency, minorCurrency;
 	private int majorScale, minorScale;
+	private final OptimizedOrders optimizedOrders = new OptimizedOrders();
 	
 	public ArbitrageOpportunity(Exchange exchangeToBuyOn, Exchange exchangeToSellOn, String majorCurrency, String minorCurrency) {
 		this.buyOrder = new Order(OrderType.BUY, new BigDecimal("0"), new BigDecimal("0"), majorCurrency, minorCurrency);
@@ -36,6 +43,194 @@ public class ArbitrageOpportunity {
 	 * @param maxSellVolume, the maximum volume in the sell-exchange measured in the major currency
 	 */
 	public void optimizeOrders(BigDecimal buySellRatio, BigDecimal maxBuyVolume, BigDecimal maxSellVolume) {
+		if( this.majorScale <= OrderBookIterator.ENTRY_SCALE && this.minorScale <= OrderBookIterator.ENTRY_SCALE ) {
+			try {
+				if( optimizeOrdersWithFixedPoint(buySellRatio, maxBuyVolume, maxSellVolume) )
+					return;
+			} catch( ArithmeticException e ) {
+				// A value does not fit in a long, the BigDecimal implementation has no limit.
+			}
+		}
+		optimizeOrdersWithBigDecimal(buySellRatio, maxBuyVolume, maxSellVolume);
+	}
+	
+	/**
+	 * Same algorithm as optimizeOrdersWithBigDecimal with every amount stored as a long with ENTRY_SCALE
+	 * decimal places. Each BigDecimal operation is replaced by integer arithmetic that rounds the same way,
+	 * using 128 bit intermediate products where the BigDecimal implementation would need more than a long.
+	 * Levels are read without creating OrderBookEntry objects when the books are snapshots.
+	 * @return False if the books could not be found, the BigDecimal implementation reports the error.
+	 * @throws ArithmeticException if a value does not fit in a long
+	 */
+	private boolean optimizeOrdersWithFixedPoint(BigDecimal buySellRatio, BigDecimal maxBuyVolume, BigDecimal maxSellVolume) {
+		OrderBookIterator asksIterator;
+		OrderBookIterator bidsIterator;
+		try {
+			asksIterator = exchangeToBuyOn.getAsksIterator(majorCurrency, minorCurrency);
+			bidsIterator = exchangeToSellOn.getBidsIterator(majorCurrency, minorCurrency);
+		} catch (BookNotFoundException e) {
+			return false;
+		}
+		
+		// buyPrice/sellPrice rounded to 8 decimal places is <= buySellRatio when it is <= floor(buySellRatio * 10^8) * 10^-8
+		long ratio = buySellRatio.setScale(OrderBookIterator.ENTRY_SCALE, RoundingMode.FLOOR).unscaledValue().longValueExact();
+		if( ratio < 0l || ratio > (Long.MAX_VALUE - 1l) / 2l )
+			return false;
+		
+		OptimizedOrders result = this.optimizedOrders;
+		result.minorCurrencyRemaining = FixedPoint.fromBigDecimal(maxBuyVolume.setScale(this.minorScale, RoundingMode.FLOOR), OrderBookIterator.ENTRY_SCALE);
+		result.majorCurrencyRemaining = FixedPoint.fromBigDecimal(maxSellVolume.setScale(this.majorScale, RoundingMode.FLOOR), OrderBookIterator.ENTRY_SCALE);
+		walkBooks(ratio, asksIterator, bidsIterator, result);
+		
+		// Commit the results to the internal Order objects to be executed. Scales match the BigDecimal implementation.
+		long majorStep = FixedPoint.powerOfTen(OrderBookIterator.ENTRY_SCALE - this.majorScale);
+		if( result.profitable ) {
+			this.buyOrder.setPrice(FixedPoint.toBigDecimal(result.biggestBuyPrice, OrderBookIterator.ENTRY_SCALE));
+			this.buyOrder.setMajorAmountToTrade(FixedPoint.toBigDecimal(result.majorCurrencyBought / majorStep, this.majorScale));
+			this.sellOrder.setPrice(FixedPoint.toBigDecimal(result.smallestSellPrice, OrderBookIterator.ENTRY_SCALE));
+		} else {
+			this.buyOrder.setPrice(new BigDecimal("0"));
+			this.buyOrder.setMajorAmountToTrade(new BigDecimal("0"));
+			this.sellOrder.setPrice(new BigDecimal("1000"));
+		}
+		this.sellOrder.setMajorAmountToTrade(maxSellVolume.subtract(FixedPoint.toBigDecimal(result.majorCurrencyRemaining / majorStep, this.majorScale)));
+		return true;
+	}
+	
+	/**
+	 * Post: result holds the prices and volumes to trade at.
+	 * @param ratio, floor(buySellRatio * 10^8)
+	 * @param result, minorCurrencyRemaining and majorCurrencyRemaining set to the maximum volumes
+	 */
+	private void walkBooks(long ratio, OrderBookIterator asksIterator, OrderBookIterator bidsIterator, OptimizedOrders result) {
+		final long unit = FixedPoint.powerOfTen(OrderBookIterator.ENTRY_SCALE);
+		final long majorStep = FixedPoint.powerOfTen(OrderBookIterator.ENTRY_SCALE - this.majorScale);
+		final long minorStep = FixedPoint.powerOfTen(OrderBookIterator.ENTRY_SCALE - this.minorScale);
+		long minorCurrencyRemaining = result.minorCurrencyRemaining;
+		long majorCurrencyRemaining = result.majorCurrencyRemaining;
+		long majorCurrencyBought = 0l;
+		long biggestBuyPrice = 0l;
+		long smallestSellPrice = 0l;
+		boolean profitable = false;
+		
+		boolean hasAsk = asksIterator.hasNext();
+		boolean hasBid = bidsIterator.hasNext();
+		long askPrice = 0l, askMinorCurrencyAmount = 0l, bidPrice = 0l, bidMinorCurrencyAmount = 0l;
+		if( hasAsk ) {
+			asksIterator.nextLevel();
+			askPrice = asksIterator.getLevelPrice();
+			askMinorCurrencyAmount = asksIterator.getLevelMinorCurrencyAmount();
+		}
+		if( hasBid ) {
+			bidsIterator.nextLevel();
+			bidPrice = bidsIterator.getLevelPrice();
+			bidMinorCurrencyAmount = bidsIterator.getLevelMinorCurrencyAmount();
+		}
+		
+		while( minorCurrencyRemaining > 0l && majorCurrencyRemaining > 0l ) {
+			if( !hasAsk || !hasBid )
+				break; // No more orders to trade against.
+			
+			// round(ask/bid) <= ratio is the same as 2*ask*10^8 < (2*ratio + 1)*bid, or equal when rounding half even goes down to ratio.
+			int comparison = FixedPoint.compareProducts(askPrice, 2l * unit, 2l * ratio + 1l, bidPrice);
+			if( comparison > 0 || (comparison == 0 && (ratio & 1l) == 1l) )
+				break; // The optimal volume and prices have been determined.
+			
+			biggestBuyPrice = askPrice;
+			smallestSellPrice = bidPrice;
+			profitable = true;
+			
+			// The smaller order is filled in full or all the remaining volume is used.
+			boolean askIsBigger = askMinorCurrencyAmount > bidMinorCurrencyAmount;
+			long biggerOrder = askIsBigger ? askMinorCurrencyAmount : bidMinorCurrencyAmount;
+			long volume = Math.min(askIsBigger ? bidMinorCurrencyAmount : askMinorCurrencyAmount, minorCurrencyRemaining);
+			
+			// The value of the remaining major currency has 16 decimal places and is only smaller than volume when
+			// the major currency runs out, in which case every remaining unit of it is bought.
+			if( FixedPoint.compareProducts(majorCurrencyRemaining, askPrice, volume, unit) >= 0 ) {
+				majorCurrencyBought += floor(FixedPoint.multiplyDivide(volume, unit, askPrice), majorStep);
+				majorCurrencyRemaining = floor(majorCurrencyRemaining - FixedPoint.multiplyDivide(volume, unit, bidPrice), majorStep);
+				biggerOrder -= volume;
+				minorCurrencyRemaining = floor(minorCurrencyRemaining - volume, minorStep);
+			} else {
+				// volume = majorCurrencyRemaining * askPrice = whole + fraction/unit
+				long whole = FixedPoint.multiplyDivideFloor(majorCurrencyRemaining, askPrice, unit);
+				long fraction = majorCurrencyRemaining * askPrice - whole * unit;
+				majorCurrencyBought += majorCurrencyRemaining;
+				majorCurrencyRemaining = floor(majorCurrencyRemaining - FixedPoint.multiplyDivide(majorCurrencyRemaining, askPrice, bidPrice), majorStep);
+				biggerOrder = subtractRoundingHalfEven(biggerOrder, whole, fraction, unit);
+				minorCurrencyRemaining = floor(minorCurrencyRemaining - whole - (fraction > 0l ? 1l : 0l), minorStep);
+			}
+			
+			if( askIsBigger ) {
+				askMinorCurrencyAmount = biggerOrder;
+				hasBid = bidsIterator.hasNext();
+				if( hasBid ) {
+					bidsIterator.nextLevel();
+					bidPrice = bidsIterator.getLevelPrice();
+					bidMinorCurrencyAmount = bidsIterator.getLevelMinorCurrencyAmount();
+				}
+			} else {
+				bidMinorCurrencyAmount = biggerOrder;
+				hasAsk = asksIterator.hasNext();
+				if( hasAsk ) {
+					asksIterator.nextLevel();
+					askPrice = asksIterator.getLevelPrice();
+					askMinorCurrencyAmount = asksIterator.getLevelMinorCurrencyAmount();
+				}
+			}
+		}
+		
+		result.minorCurrencyRemaining = minorCurrencyRemaining;
+		result.majorCurrencyRemaining = majorCurrencyRemaining;
+		result.majorCurrencyBought = majorCurrencyBought;
+		result.biggestBuyPrice = biggestBuyPrice;
+		result.smallestSellPrice = smallestSellPrice;
+		result.profitable = profitable;
+	}
+	
+	/**
+	 * @return value rounded down to a multiple of step, the same as BigDecimal.setScale with RoundingMode.FLOOR
+	 */
+	private static long floor(long value, long step) {
+		return value - Math.floorMod(value, step);
+	}
+	
+	/**
+	 * @return value - (whole + fraction/unit) rounded half even to a whole number
+	 */
+	private static long subtractRoundingHalfEven(long value, long whole, long fraction, long unit) {
+		long result = value - whole;
+		if( fraction == 0l )
+			return result;
+		// The exact result is between result - 1 and result, fraction/unit away from result.
+		long twiceFraction = 2l * fraction;
+		if( twiceFraction > unit || (twiceFraction == unit && (result & 1l) == 1l) )
+			return result - 1l;
+		return result;
+	}
+	
+	/**
+	 * Reused by every call to optimizeOrders so the fixed-point implementation does not allocate while walking the books.
+	 * Amounts have ENTRY_SCALE decimal places.
+	 */
+	private static final class OptimizedOrders {
+		long minorCurrencyRemaining;
+		long majorCurrencyRemaining;
+		long majorCurrencyBought;
+		long biggestBuyPrice;
+		long smallestSellPrice;
+		boolean profitable;
+	}
+	
+	/**
+	 * Reference implementation of optimizeOrders that uses BigDecimals throughout. Used when the books or
+	 * volumes are too large for the fixed-point implementation, which must give exactly the same results.
+	 * @param buySellRatio, buy/sell ratios <= to buySellRatio are considered to be profitable.
+	 * @param maxBuyVolume, the maximum volume in the buy-exchange measured in the minor currency
+	 * @param maxSellVolume, the maximum volume in the sell-exchange measured in the major currency
+	 */
+	public void optimizeOrdersWithBigDecimal(BigDecimal buySellRatio, BigDecimal maxBuyVolume, BigDecimal maxSellVolume) {
 		/*
 		 * While there is currency remaining:
 		 * 	Get the side with the smaller order
@@ -74,9 +269,13 @@ public class ArbitrageOpportunity {
 		// Track how much of the major currency is bought to commit it to the Order object
 		BigDecimal majorCurrencyBought = new BigDecimal("0");
 		
-		OrderBookEntry nextBiggestAsk = asksIterator.next();
-		OrderBookEntry nextSmallestBid = bidsIterator.next();
+		// null once every level on that side has been used
+		OrderBookEntry nextBiggestAsk = asksIterator.hasNext() ? asksIterator.next() : null;
+		OrderBookEntry nextSmallestBid = bidsIterator.hasNext() ? bidsIterator.next() : null;
 		while( minorCurrencyRemaining.compareTo(new BigDecimal("0")) == 1 && majorCurrencyRemaining.compareTo(new BigDecimal("0")) == 1 ) {
+			if( nextBiggestAsk == null || nextSmallestBid == null )
+				break; // No more orders to trade against.
+			
 			// Get the price before it changes when the next bid/ask is fetched.
 			BigDecimal buyPrice = nextBiggestAsk.getPrice();
 			BigDecimal sellPrice = nextSmallestBid.getPrice();
@@ -96,7 +295,7 @@ public class ArbitrageOpportunity {
 					majorCurrencyBought = majorCurrencyBought.add(volumeToReduceBy.divide(nextBiggestAsk.getPrice(), 8, RoundingMode.HALF_EVEN).setScale(this.majorScale, RoundingMode.FLOOR));
 					majorCurrencyRemaining = majorCurrencyRemaining.subtract(volumeToReduceBy.divide(nextSmallestBid.getPrice(), 8, RoundingMode.HALF_EVEN)).setScale(this.majorScale, RoundingMode.FLOOR);
 					nextBiggestAsk.setMinorCurrencyAmount(nextBiggestAsk.getMinorCurrencyAmount().subtract(volumeToReduceBy));
-					nextSmallestBid = bidsIterator.next();
+					nextSmallestBid = bidsIterator.hasNext() ? bidsIterator.next() : null;
 				} else {
 					// Fill the smallest order in full or use up all the remaining volume.
 					BigDecimal remainingMajorCurrencyValue = majorCurrencyRemaining.multiply(nextBiggestAsk.getPrice());
@@ -104,7 +303,7 @@ public class ArbitrageOpportunity {
 					majorCurrencyBought = majorCurrencyBought.add(volumeToReduceBy.divide(nextBiggestAsk.getPrice(), 8, RoundingMode.HALF_EVEN).setScale(this.majorScale, RoundingMode.FLOOR));
 					majorCurrencyRemaining = majorCurrencyRemaining.subtract(volumeToReduceBy.divide(nextSmallestBid.getPrice(), 8, RoundingMode.HALF_EVEN)).setScale(this.majorScale, RoundingMode.FLOOR);
 					nextSmallestBid.setMinorCurrencyAmount(nextSmallestBid.getMinorCurrencyAmount().subtract(volumeToReduceBy));
-					nextBiggestAsk = asksIterator.next();
+					nextBiggestAsk = asksIterator.hasNext() ? asksIterator.next() : null;
 				}
 				
 				// Keep track of how much of the minor currency was used so it can be committed to the Order objects later.
@@ -121,6 +320,14 @@ public class ArbitrageOpportunity {
 		this.sellOrder.setMajorAmountToTrade(maxSellVolume.subtract(majorCurrencyRemaining));
 	}
 	
+	public Order getBuyOrder() {
+		return this.buyOrder;
+	}
+	
+	public Order getSellOrder() {
+		return this.sellOrder;
+	}
+	
 	/**
 	 * @return The minor currency volume of each Order.
 	 */
@@ -128,10 +335,77 @@ public class ArbitrageOpportunity {
 		return this.buyOrder.getMajorAmountToTrade().multiply(this.buyOrder.getPrice()).setScale(this.minorScale, RoundingMode.FLOOR);
 	}
 	
-	public void executeOpportunity() throws NotEnoughBalanceException {
-		this.exchangeToSellOn.sell(this.sellOrder);
-		this.exchangeToBuyOn.buy(this.buyOrder);
+	/**
+	 * Which orders of an opportunity their exchanges accepted.
+	 */
+	public enum Execution {
+		NONE, SELL_ONLY, BUY_ONLY, BOTH;
+		
+		/**
+		 * @return True if one side of the trade was placed, even if the other was not
+		 */
+		public boolean isAnyAccepted() {
+			return this != NONE;
+		}
+	}
+	
+	/**
+	 * Sends both orders at the same time and waits for both exchanges to answer, so only one side of the
+	 * trade is held for as long as the slowest order takes instead of both orders one after the other.
+	 * The buy is not sent if the sell fails before reaching its exchange, for example without enough balance.
+	 * Orders that fail, for not having enough balance or any other reason, are printed.
+	 * @return The orders that were accepted, see getSellAck and getBuyAck
+	 */
+	public Execution executeOpportunity() {
+		CompletableFuture<OrderAck> sell = this.exchangeToSellOn.submit(this.sellOrder);
+		if( sell.isCompletedExceptionally() ) {
+			waitForAck(sell);
+			return Execution.NONE;
+		}
+		CompletableFuture<OrderAck> buy = this.exchangeToBuyOn.submit(this.buyOrder);
+		this.sellAck = waitForAck(sell);
+		this.buyAck = waitForAck(buy);
+		if( this.sellAck == null && this.buyAck == null )
+			return Execution.NONE;
+		if( this.sellAck == null ) {
+			System.out.println("Only the buy of the opportunity was accepted.");
+			return Execution.BUY_ONLY;
+		}
+		if( this.buyAck == null ) {
+			System.out.println("Only the sell of the opportunity was accepted.");
+			return Execution.SELL_ONLY;
+		}
 		System.out.println("Executed opportunity of volume "+this.getOpportunityVolume()+" "+this.minorCurrency);
+		System.out.println("Sell accepted in "+TimeUnit.NANOSECONDS.toMillis(this.sellAck.getLatencyNanos())+"ms, buy accepted in "+TimeUnit.NANOSECONDS.toMillis(this.buyAck.getLatencyNanos())+"ms");
+		return Execution.BOTH;
+	}
+	
+	/**
+	 * @return Null if the exchange did not accept the order, the error is printed
+	 */
+	private static OrderAck waitForAck(CompletableFuture<OrderAck> ack) {
+		try {
+			return ack.join();
+		} catch( CompletionException e ) {
+			if( e.getCause() instanceof NotEnoughBalanceException )
+				System.out.println("Not enough balance for the opportunity.");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * @return When the sell order was sent and accepted, null if it has not been accepted
+	 */
+	public OrderAck getSellAck() {
+		return this.sellAck;
+	}
+	
+	/**
+	 * @return When the buy order was sent and accepted, null if it has not been accepted
+	 */
+	public OrderAck getBuyAck() {
+		return this.buyAck;
 	}
 	
 	/**
@@ -0,0 +1,163 @@
+package com.tobiascarryer.trading.bots;
+
+import java.util.Arrays;
+
+/**
+ * Keeps executed opportunities from being executed again until their cooldown expires or the prices they
+ * were executed at move. Opportunities are identified by an id between 0 and capacity - 1.
+ *
+ * Expiry uses a timing wheel: time is split into ticks and every cooling opportunity is linked into the
+ * slot of the tick it expires on. Starting, ending and checking a cooldown take O(1) time and do not
+ * allocate, and advancing the wheel only visits the opportunities that expire.
+ *
+ * Not thread safe.
+ */
+public class CooldownRegistry {
+
+	private static final int NONE = -1;
+
+	/**
+	 * Receives every opportunity whose cooldown expired.
+	 */
+	public interface ExpiryObserver {
+		public void onCooldownExpired(int id);
+	}
+
+	private final long tickMillis;
+	private final long ttlTicks;
+	private final double maxPriceMovement;
+
+	// slots[tick % slots.length] is the first id of a doubly linked list through next and previous
+	private final int[] slots;
+	private final int[] next;
+	private final int[] previous;
+	private final long[] expiryTicks;
+	private final boolean[] coolingDown;
+	private final double[] askPrices;
+	private final double[] bidPrices;
+	private long currentTick = -1;
+
+	/**
+	 * @param capacity, number of opportunities
+	 * @param ttlMillis, how long an opportunity cools down for
+	 * @param tickMillis, precision of the expiry. A cooldown lasts between ttlMillis and ttlMillis + tickMillis.
+	 * @param maxPriceMovement, a cooldown ends early when the ask or bid moves by more than this fraction of
+	 * the price it was executed at (0.005 for 0.5%)
+	 */
+	public CooldownRegistry(int capacity, long ttlMillis, long tickMillis, double maxPriceMovement) {
+		this.tickMillis = tickMillis;
+		this.ttlTicks = (ttlMillis + tickMillis - 1) / tickMillis;
+		this.maxPriceMovement = maxPriceMovement;
+		this.slots = new int[(int) this.ttlTicks + 2];
+		Arrays.fill(this.slots, NONE);
+		this.next = new int[capacity];
+		this.previous = new int[capacity];
+		this.expiryTicks = new long[capacity];
+		this.coolingDown = new boolean[capacity];
+		this.askPrices = new double[capacity];
+		this.bidPrices = new double[capacity];
+	}
+
+	/**
+	 * Starts or restarts the cooldown of an opportunity.
+	 * @param nowMillis, current time
+	 * @param askPrice, price the opportunity bought at
+	 * @param bidPrice, price the opportunity sold at
+	 */
+	public void start(int id, long nowMillis, double askPrice, double bidPrice) {
+		if( this.coolingDown[id] )
+			unlink(id);
+		long nowTick = nowMillis / this.tickMillis;
+		if( this.currentTick == -1 )
+			this.currentTick = nowTick;
+		// Ticks that have already been advanced past are never visited again
+		long expiryTick = Math.max(nowTick, this.currentTick) + this.ttlTicks + 1;
+		this.expiryTicks[id] = expiryTick;
+		this.coolingDown[id] = true;
+		this.askPrices[id] = askPrice;
+		this.bidPrices[id] = bidPrice;
+		link(id, (int) (expiryTick % this.slots.length));
+	}
+
+	/**
+	 * Ends the cooldown of an opportunity before it expires.
+	 */
+	public void end(int id) {
+		if( !this.coolingDown[id] )
+			return;
+		unlink(id);
+		this.coolingDown[id] = false;
+	}
+
+	public boolean isCoolingDown(int id) {
+		return this.coolingDown[id];
+	}
+
+	/**
+	 * Ends the cooldown if the best ask or bid moved enough since the opportunity was executed that it is a
+	 * different opportunity.
+	 * @return True if the opportunity is still cooling down
+	 */
+	public boolean isCoolingDown(int id, double askPrice, double bidPrice) {
+		if( !this.coolingDown[id] )
+			return false;
+		if( hasMoved(this.askPrices[id], askPrice) || hasMoved(this.bidPrices[id], bidPrice) ) {
+			end(id);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean hasMoved(double from, double to) {
+		return Math.abs(to - from) > from * this.maxPriceMovement;
+	}
+
+	/**
+	 * Expires every cooldown whose time is up.
+	 * @param nowMillis, current time
+	 * @param observer, notified of each opportunity that expired after it stopped cooling down
+	 */
+	public void advance(long nowMillis, ExpiryObserver observer) {
+		long nowTick = nowMillis / this.tickMillis;
+		if( this.currentTick == -1 ) {
+			this.currentTick = nowTick;
+			return;
+		}
+		// Every slot is visited once per turn of the wheel, so a long pause only needs to visit each slot once.
+		long firstTick = Math.max(this.currentTick + 1, nowTick - this.slots.length + 1);
+		for( long tick = firstTick; tick <= nowTick; tick++ ) {
+			int slot = (int) (tick % this.slots.length);
+			int id = this.slots[slot];
+			while( id != NONE ) {
+				int following = this.next[id];
+				if( this.expiryTicks[id] <= nowTick ) {
+					unlink(id);
+					this.coolingDown[id] = false;
+					observer.onCooldownExpired(id);
+				}
+				id = following;
+			}
+		}
+		this.currentTick = Math.max(this.currentTick, nowTick);
+	}
+
+	private void link(int id, int slot) {
+		int head = this.slots[slot];
+		this.previous[id] = NONE;
+		this.next[id] = head;
+		if( head != NONE )
+			this.previous[head] = id;
+		this.slots[slot] = id;
+	}
+
+	private void unlink(int id) {
+		int following = this.next[id];
+		int preceding = this.previous[id];
+		if( following != NONE )
+			this.previous[following] = preceding;
+		if( preceding != NONE )
+			this.next[preceding] = following;
+		else
+			this.slots[(int) (this.expiryTicks[id] % this.slots.length)] = following;
+	}
+}
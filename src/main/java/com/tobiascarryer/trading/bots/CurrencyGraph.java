@@ -0,0 +1,216 @@
+package com.tobiascarryer.trading.bots;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+
+/**
+ * Graph of the currencies on a single exchange. Every monitored book adds two edges: buying the major
+ * currency with the minor currency at the lowest ask and selling the major currency for the minor
+ * currency at the highest bid.
+ *
+ * An edge's weight is -ln(rate) where rate is the amount of the currency received for one unit of the
+ * currency given, after fees. Following a cycle multiplies the rates, so a cycle whose weights add up to
+ * less than -ln(targetProfit) ends with more of the currency it started with than targetProfit requires.
+ *
+ * Only one thread may use the graph at a time.
+ */
+public class CurrencyGraph {
+
+	private final Map<String, Integer> currencyIds = new HashMap<>();
+	private final List<String> currencies = new ArrayList<>();
+	private final List<List<Edge>> edgesFrom = new ArrayList<>();
+	private final Map<Long, Edge> edgesByCurrencies = new HashMap<>();
+
+	// Reused by findCycles
+	private boolean[] onPath = new boolean[0];
+	private Edge[] path = new Edge[0];
+
+	/**
+	 * Conversion from one currency to another by trading a book.
+	 */
+	public static class Edge {
+		private final int from, to;
+		private final String majorCurrency, minorCurrency;
+		private final OrderType type;
+		private double weight = Double.POSITIVE_INFINITY;
+
+		Edge(int from, int to, String majorCurrency, String minorCurrency, OrderType type) {
+			this.from = from;
+			this.to = to;
+			this.majorCurrency = majorCurrency;
+			this.minorCurrency = minorCurrency;
+			this.type = type;
+		}
+
+		public int getFrom() {
+			return this.from;
+		}
+
+		public int getTo() {
+			return this.to;
+		}
+
+		public String getMajorCurrency() {
+			return this.majorCurrency;
+		}
+
+		public String getMinorCurrency() {
+			return this.minorCurrency;
+		}
+
+		/**
+		 * @return BUY if the edge buys the major currency with the minor currency, SELL if it sells the major currency.
+		 */
+		public OrderType getType() {
+			return this.type;
+		}
+
+		/**
+		 * @return -ln(rate), positive infinity if the book has no orders on the side the edge trades against.
+		 */
+		public double getWeight() {
+			return this.weight;
+		}
+	}
+
+	/**
+	 * Receives every profitable cycle found by findCycles.
+	 */
+	public interface CycleObserver {
+		/**
+		 * @param cycle, edges in the order they are traded. The array is reused, copy it to keep it.
+		 * @param length, number of edges in the cycle
+		 * @param weight, sum of the weights of the edges
+		 */
+		public void onCycleFound(Edge[] cycle, int length, double weight);
+	}
+
+	/**
+	 * Adds the buy and sell edges of a book if they are not already in the graph.
+	 * @param majorCurrency, symbol
+	 * @param minorCurrency, symbol
+	 */
+	public void addBook(String majorCurrency, String minorCurrency) {
+		int major = idOf(majorCurrency);
+		int minor = idOf(minorCurrency);
+		if( getEdge(minor, major) == null )
+			addEdge(new Edge(minor, major, majorCurrency, minorCurrency, OrderType.BUY));
+		if( getEdge(major, minor) == null )
+			addEdge(new Edge(major, minor, majorCurrency, minorCurrency, OrderType.SELL));
+	}
+
+	/**
+	 * @return The edge that buys the major currency with the minor currency, null if the book was not added.
+	 */
+	public Edge getBuyEdge(String majorCurrency, String minorCurrency) {
+		Integer major = this.currencyIds.get(majorCurrency.toUpperCase());
+		Integer minor = this.currencyIds.get(minorCurrency.toUpperCase());
+		return major == null || minor == null ? null : getEdge(minor, major);
+	}
+
+	/**
+	 * @return The edge that sells the major currency for the minor currency, null if the book was not added.
+	 */
+	public Edge getSellEdge(String majorCurrency, String minorCurrency) {
+		Integer major = this.currencyIds.get(majorCurrency.toUpperCase());
+		Integer minor = this.currencyIds.get(minorCurrency.toUpperCase());
+		return major == null || minor == null ? null : getEdge(major, minor);
+	}
+
+	/**
+	 * @param edge, in this graph
+	 * @param rate, amount of the currency received for one unit of the currency given after fees. 0 if the edge cannot be traded.
+	 * @return True if the weight of the edge decreased, which is the only way a cycle through it can become more profitable.
+	 */
+	public boolean setRate(Edge edge, double rate) {
+		double weight = rate > 0 ? -Math.log(rate) : Double.POSITIVE_INFINITY;
+		boolean decreased = weight < edge.weight;
+		edge.weight = weight;
+		return decreased;
+	}
+
+	/**
+	 * Looks for profitable cycles that trade changedEdge. When a single edge changes, any cycle that became
+	 * profitable must go through it, so only the cycles through it are searched instead of the whole graph.
+	 * The search visits every simple path of at most maxLength - 1 edges from the end of changedEdge back
+	 * to its start, which is O(d^(maxLength-2)) for currencies with d books.
+	 * @param changedEdge, edge whose weight decreased
+	 * @param maxLength, maximum number of trades in a cycle. 3 for triangular arbitrage.
+	 * @param maxWeight, cycles are profitable when their weight is below maxWeight. -ln(targetProfit)
+	 * @param observer, receives each profitable cycle starting with changedEdge
+	 * @return The number of profitable cycles found
+	 */
+	public int findCycles(Edge changedEdge, int maxLength, double maxWeight, CycleObserver observer) {
+		if( changedEdge.weight == Double.POSITIVE_INFINITY || maxLength < 2 )
+			return 0;
+		if( this.path.length < maxLength )
+			this.path = new Edge[maxLength];
+		if( this.onPath.length < this.currencies.size() )
+			this.onPath = new boolean[this.currencies.size()];
+
+		this.path[0] = changedEdge;
+		this.onPath[changedEdge.from] = true;
+		this.onPath[changedEdge.to] = true;
+		int found = search(changedEdge.to, changedEdge.from, 1, maxLength, changedEdge.weight, maxWeight, observer);
+		this.onPath[changedEdge.from] = false;
+		this.onPath[changedEdge.to] = false;
+		return found;
+	}
+
+	private int search(int currency, int start, int length, int maxLength, double weight, double maxWeight, CycleObserver observer) {
+		int found = 0;
+		for( Edge edge: this.edgesFrom.get(currency) ) {
+			if( edge.weight == Double.POSITIVE_INFINITY )
+				continue;
+			this.path[length] = edge;
+			if( edge.to == start ) {
+				if( weight + edge.weight < maxWeight ) {
+					observer.onCycleFound(this.path, length + 1, weight + edge.weight);
+					found++;
+				}
+			} else if( length + 1 < maxLength && !this.onPath[edge.to] ) {
+				this.onPath[edge.to] = true;
+				found += search(edge.to, start, length + 1, maxLength, weight + edge.weight, maxWeight, observer);
+				this.onPath[edge.to] = false;
+			}
+		}
+		return found;
+	}
+
+	public String getCurrency(int id) {
+		return this.currencies.get(id);
+	}
+
+	public int getCurrencyCount() {
+		return this.currencies.size();
+	}
+
+	private int idOf(String currency) {
+		String symbol = currency.toUpperCase();
+		Integer id = this.currencyIds.get(symbol);
+		if( id == null ) {
+			id = this.currencies.size();
+			this.currencyIds.put(symbol, id);
+			this.currencies.add(symbol);
+			this.edgesFrom.add(new ArrayList<Edge>());
+		}
+		return id;
+	}
+
+	private Edge getEdge(int from, int to) {
+		return this.edgesByCurrencies.get(key(from, to));
+	}
+
+	private void addEdge(Edge edge) {
+		this.edgesFrom.get(edge.from).add(edge);
+		this.edgesByCurrencies.put(key(edge.from, edge.to), edge);
+	}
+
+	private static long key(int from, int to) {
+		return ((long) from << 32) | (to & 0xFFFFFFFFl);
+	}
+}
@@ -0,0 +1,247 @@
+package com.tobiascarryer.trading.bots;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.tobiascarryer.trading.exchanges.Exchange;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+
+/**
+ * Arbitrage opportunity made of a cycle of trades on a single exchange, for example BTC to ETH to NEO
+ * and back to BTC. Each trade is made with the balance already on the exchange so every order can be
+ * placed at once, the same way ArbitrageOpportunity trades with the balances on two exchanges.
+ */
+public class CycleOpportunity {
+
+	// Rates are kept with more decimal places than amounts so multiplying them does not lose precision.
+	private static final int RATE_SCALE = 16;
+	private static final int AMOUNT_SCALE = OrderBookIterator.ENTRY_SCALE;
+
+	private final Exchange exchange;
+	private final CurrencyGraph.Edge[] legs;
+	private final Order[] orders;
+	private BigDecimal volume = new BigDecimal("0");
+	private BigDecimal predictedProfit = new BigDecimal("0");
+	private int ordersExecuted = 0;
+
+	/**
+	 * @param exchange, where every trade is made
+	 * @param cycle, trades in the order they convert the currencies. Copied.
+	 * @param length, number of trades in cycle
+	 */
+	public CycleOpportunity(Exchange exchange, CurrencyGraph.Edge[] cycle, int length) {
+		this.exchange = exchange;
+		this.legs = new CurrencyGraph.Edge[length];
+		this.orders = new Order[length];
+		for( int k = 0; k < length; k++ ) {
+			this.legs[k] = cycle[k];
+			this.orders[k] = new Order(cycle[k].getType(), new BigDecimal("0"), new BigDecimal("0"), cycle[k].getMajorCurrency(), cycle[k].getMinorCurrency());
+		}
+	}
+
+	/**
+	 * Post: the orders have set their volume and price to maximize profit when the trades are executed.
+	 *
+	 * Walks the books of every trade at once. The levels at the top of each book give the rate of the
+	 * whole cycle. While it is profitable, the volume that fills the smallest level (measured in the
+	 * currency the cycle starts with) is traded through every level and the filled level is replaced by
+	 * the next one in its book. The same as ArbitrageOpportunity.optimizeOrders for a cycle of two trades.
+	 * @param targetProfit, cycles that return at least targetProfit times the volume traded are profitable
+	 * @param maxInputVolumes, maxInputVolumes[k] is the maximum amount of the currency given by trade k
+	 */
+	public void optimizeOrders(BigDecimal targetProfit, BigDecimal[] maxInputVolumes) {
+		int length = this.legs.length;
+		OrderBookIterator[] iterators = new OrderBookIterator[length];
+		try {
+			for( int k = 0; k < length; k++ )
+				iterators[k] = createIterator(this.legs[k]);
+		} catch( BookNotFoundException e ) {
+			e.printStackTrace();
+			System.out.println("No order book data to optimize with. Orders are being set to zero volume.");
+			for( Order order: this.orders )
+				order.setMajorAmountToTrade(new BigDecimal("0"));
+			return;
+		}
+		BigDecimal fee = this.exchange.getPostTradingFee();
+
+		OrderBookEntry[] levels = new OrderBookEntry[length];
+		BigDecimal[] levelRemaining = new BigDecimal[length];
+		BigDecimal[] inputRemaining = new BigDecimal[length];
+		BigDecimal[] traded = new BigDecimal[length]; // Major currency bought or sold
+		BigDecimal[] worstPrices = new BigDecimal[length];
+		for( int k = 0; k < length; k++ ) {
+			levels[k] = iterators[k].hasNext() ? iterators[k].next() : null;
+			levelRemaining[k] = levels[k] == null ? null : inputCapacity(this.legs[k], levels[k]);
+			inputRemaining[k] = maxInputVolumes[k].setScale(AMOUNT_SCALE, RoundingMode.FLOOR);
+			traded[k] = new BigDecimal("0");
+		}
+
+		BigDecimal totalVolume = new BigDecimal("0");
+		BigDecimal totalProfit = new BigDecimal("0");
+		boolean outOfBalance = false;
+		while( !outOfBalance && !hasEmptyBook(levels) ) {
+			// Find the volume that fills the smallest level and the rate of the cycle at the current levels.
+			BigDecimal cycleRate = new BigDecimal("1");
+			BigDecimal volumeToTrade = null;
+			int smallestLevel = -1;
+			for( int k = 0; k < length; k++ ) {
+				BigDecimal levelVolume = levelRemaining[k].min(inputRemaining[k]).divide(cycleRate, AMOUNT_SCALE, RoundingMode.FLOOR);
+				if( volumeToTrade == null || levelVolume.compareTo(volumeToTrade) == -1 ) {
+					volumeToTrade = levelVolume;
+					smallestLevel = k;
+					outOfBalance = inputRemaining[k].compareTo(levelRemaining[k]) != 1;
+				}
+				cycleRate = cycleRate.multiply(rate(this.legs[k], levels[k].getPrice(), fee)).setScale(RATE_SCALE, RoundingMode.FLOOR);
+			}
+			if( cycleRate.compareTo(targetProfit) == -1 )
+				break; // The optimal volume and prices have been determined.
+			if( outOfBalance && volumeToTrade.signum() == 0 )
+				break;
+
+			// Trade the volume through every level. What each trade receives after fees is given to the next trade.
+			BigDecimal amount = volumeToTrade;
+			for( int k = 0; k < length; k++ ) {
+				BigDecimal price = levels[k].getPrice();
+				levelRemaining[k] = levelRemaining[k].subtract(amount);
+				inputRemaining[k] = inputRemaining[k].subtract(amount);
+				worstPrices[k] = price;
+				if( this.legs[k].getType() == OrderType.BUY ) {
+					BigDecimal bought = amount.divide(price, AMOUNT_SCALE, RoundingMode.FLOOR);
+					traded[k] = traded[k].add(bought);
+					amount = bought.multiply(fee).setScale(AMOUNT_SCALE, RoundingMode.FLOOR);
+				} else {
+					traded[k] = traded[k].add(amount);
+					amount = amount.multiply(price).multiply(fee).setScale(AMOUNT_SCALE, RoundingMode.FLOOR);
+				}
+			}
+			totalVolume = totalVolume.add(volumeToTrade);
+			totalProfit = totalProfit.add(amount.subtract(volumeToTrade));
+
+			// Get the next order of the book whose level was filled.
+			OrderBookIterator filledBook = iterators[smallestLevel];
+			levels[smallestLevel] = filledBook.hasNext() ? filledBook.next() : null;
+			if( levels[smallestLevel] != null )
+				levelRemaining[smallestLevel] = inputCapacity(this.legs[smallestLevel], levels[smallestLevel]);
+		}
+
+		// Commit the results to the internal Order objects to be executed.
+		this.volume = totalVolume;
+		this.predictedProfit = totalProfit;
+		for( int k = 0; k < length; k++ ) {
+			int scale = this.exchange.getQuantityDecimalPrecision(this.legs[k].getMajorCurrency(), this.legs[k].getMinorCurrency());
+			this.orders[k].setMajorAmountToTrade(traded[k].setScale(scale, RoundingMode.FLOOR));
+			this.orders[k].setPrice(worstPrices[k] == null ? new BigDecimal("0") : worstPrices[k]);
+		}
+	}
+
+	/**
+	 * @return True if a book has run out of orders to trade against.
+	 */
+	private static boolean hasEmptyBook(OrderBookEntry[] levels) {
+		for( OrderBookEntry level: levels ) {
+			if( level == null )
+				return true;
+		}
+		return false;
+	}
+
+	private OrderBookIterator createIterator(CurrencyGraph.Edge leg) throws BookNotFoundException {
+		if( leg.getType() == OrderType.BUY )
+			return this.exchange.getAsksIterator(leg.getMajorCurrency(), leg.getMinorCurrency());
+		return this.exchange.getBidsIterator(leg.getMajorCurrency(), leg.getMinorCurrency());
+	}
+
+	/**
+	 * @return Amount of the currency given by leg that level can take.
+	 */
+	private static BigDecimal inputCapacity(CurrencyGraph.Edge leg, OrderBookEntry level) {
+		return leg.getType() == OrderType.BUY ? level.getMinorCurrencyAmount() : level.getMajorCurrencyAmount();
+	}
+
+	/**
+	 * @return Amount of the currency received by leg for one unit of the currency given, after fees.
+	 */
+	private static BigDecimal rate(CurrencyGraph.Edge leg, BigDecimal price, BigDecimal fee) {
+		if( leg.getType() == OrderType.BUY )
+			return fee.divide(price, RATE_SCALE, RoundingMode.FLOOR);
+		return price.multiply(fee);
+	}
+
+	/**
+	 * @return True if every order meets the exchange's minimum quantity and volume.
+	 */
+	public boolean meetsMinimums() {
+		for( Order order: this.orders ) {
+			BigDecimal minQuantity = this.exchange.getMinimumQuantity(order.getMajorCurrency(), order.getMinorCurrency());
+			BigDecimal minVolume = this.exchange.getMinimumMinorVolume(order.getMajorCurrency(), order.getMinorCurrency());
+			if( order.getMajorAmountToTrade().signum() == 0 || order.getMajorAmountToTrade().compareTo(minQuantity) == -1 )
+				return false;
+			if( order.getMajorAmountToTrade().multiply(order.getPrice()).compareTo(minVolume) == -1 )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Places the orders one after the other, stopping at the first one that fails.
+	 */
+	public void executeOpportunity() throws NotEnoughBalanceException {
+		this.ordersExecuted = 0;
+		for( Order order: this.orders ) {
+			if( order.getAction() == OrderType.BUY )
+				this.exchange.buy(order);
+			else
+				this.exchange.sell(order);
+			this.ordersExecuted++;
+		}
+		System.out.println("Executed cycle of volume "+this.volume+" "+getStartCurrency());
+	}
+
+	/**
+	 * @return Number of orders placed by the last executeOpportunity, the first ones of getOrders
+	 */
+	public int getOrdersExecuted() {
+		return this.ordersExecuted;
+	}
+
+	/**
+	 * @return The amount of the starting currency traded through the cycle.
+	 */
+	public BigDecimal getOpportunityVolume() {
+		return this.volume;
+	}
+
+	/**
+	 * @return The predicted amount of the starting currency profited after executing the opportunity.
+	 */
+	public BigDecimal calculatePredictedProfit() {
+		return this.predictedProfit;
+	}
+
+	/**
+	 * @return Symbol of the currency the cycle starts and ends with.
+	 */
+	public String getStartCurrency() {
+		CurrencyGraph.Edge first = this.legs[0];
+		return first.getType() == OrderType.BUY ? first.getMinorCurrency() : first.getMajorCurrency();
+	}
+
+	/**
+	 * @return Trades in the order they convert the currencies.
+	 */
+	public CurrencyGraph.Edge[] getLegs() {
+		return this.legs;
+	}
+
+	/**
+	 * @return Orders in the order they convert the currencies.
+	 */
+	public Order[] getOrders() {
+		return this.orders;
+	}
+}
@@ -1,29 +1,27 @@
 package com.tobiascarryer.trading.bots;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.TimeZone;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import com.tobiascarryer.trading.ApiSecrets;
-import com.tobiascarryer.trading.JsonReader;
+import com.tobiascarryer.trading.HttpClient;
 import com.tobiascarryer.trading.charts.Candle;
+import com.tobiascarryer.trading.charts.CandleBuffer;
 import com.tobiascarryer.trading.charts.Candlesticks;
 import com.tobiascarryer.trading.charts.CandlesticksObserver;
 import com.tobiascarryer.trading.charts.ChildCandleUnifier;
 import com.tobiascarryer.trading.charts.ChildCandleUnifierObserver;
 import com.tobiascarryer.trading.charts.HeikinAshiCandlesticks;
 import com.tobiascarryer.trading.charts.indicators.TrueRange;
+import com.tobiascarryer.trading.exchanges.BitmexCandleDecoder;
 import com.tobiascarryer.trading.exchanges.BitmexExchange;
 import com.tobiascarryer.trading.exchanges.BitmexOrder;
+import com.tobiascarryer.trading.exchanges.MarginExchange;
 
 import io.reactivex.disposables.Disposable;
 
@@ -32,7 +30,7 @@ public class HeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildC
 	private TrueRange trueRangeIndicator;
 	private Candle previousHeikinAshiCandle;
 	
-	private BitmexExchange bitmex;
+	private MarginExchange bitmex;
 	private boolean openLong = false;
 	private boolean openShort = false;
 	private boolean synced = false;
@@ -40,6 +38,10 @@ public class HeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildC
 	
 	private Disposable tickerSubscription;
 	
+	// Decimal places kept for historical prices, XBT/USD moves in increments of 0.5
+	private static final int PRICE_SCALE = 8;
+	private BitmexCandleDecoder candleDecoder = new BitmexCandleDecoder();
+	
 	public static void main(String[] args) {
 		int margin = 3;
 		// Allows margin trades to be kept open for 7 days on x5 margin without moving the liquidation price too much.
@@ -51,61 +53,57 @@ public class HeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildC
 		bot.startTrading();
 	}
 	
-	public HeikinAshiMomentumBotBitmex(BitmexExchange bitmex) {
+	/**
+	 * @param bitmex, Bitmex or a simulation of it
+	 */
+	public HeikinAshiMomentumBotBitmex(MarginExchange bitmex) {
 		this.bitmex = bitmex;
 	}
 	
 	
 	public void startTrading() {
-		try {
-			int entryLimit = 3; // Only use current and previous, 3rd is kept just in case something is unaccounted for
-			trueRangeIndicator = new TrueRange(entryLimit);
-			Candlesticks candlesticks = new HeikinAshiCandlesticks(entryLimit);
-			candlesticks.attachOnCandleObserver(trueRangeIndicator);
-			candlesticks.attachOnCandleObserver(this);
-			
-			// Prepare to process historical data, the fewer format objects are created the more optimized
-			TimeZone tz = TimeZone.getTimeZone("UTC");
-			DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-			df.setTimeZone(tz);
-			
-			// Fetch historical data from Bitmex so the bot doesn't have to collect data before starting.
-			JSONArray[] paginatedHistoricalData = paginateXBTHistoricalData(df, 5);
+		int entryLimit = 3; // Only use current and previous, 3rd is kept just in case something is unaccounted for
+		trueRangeIndicator = new TrueRange(entryLimit);
+		Candlesticks candlesticks = new HeikinAshiCandlesticks(entryLimit);
+		candlesticks.attachOnCandleObserver(trueRangeIndicator);
+		candlesticks.attachOnCandleObserver(this);
+		
+		// Prepare to request historical data, the fewer format objects are created the more optimized
+		TimeZone tz = TimeZone.getTimeZone("UTC");
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		df.setTimeZone(tz);
+		
+		// Fetch historical data from Bitmex so the bot doesn't have to collect data before starting.
+		CandleBuffer[] paginatedHistoricalData = paginateXBTHistoricalData(df, 5);
+		
+		ChildCandleUnifier unifier = null;
+		
+		for( int n = 0; n < paginatedHistoricalData.length; n++ ) {
+			CandleBuffer historicalData = paginatedHistoricalData[n];
+			if( historicalData.size() == 0 )
+				continue;
 			
-			ChildCandleUnifier unifier = null;
+			// 4 hours to milliseconds = 1.44e7
+			long timePerCandle = 14400000l;
 			
-			for( int n = 0; n < paginatedHistoricalData.length; n++ ) {
-				JSONArray historicalData = paginatedHistoricalData[n];
-				
-				// 4 hours to milliseconds = 1.44e7
-				long timePerCandle = 14400000l;
-				
-				// Processing data starts with the first 1 hour historical candle
-				// The bot starts running in the middle of a candle by offsetting the endTime
-				// for the first candle to only have half the time as the other candles. This is
-				// justifiable because the first candle will never be used in decision making.
-				// It is only needed to calculate the following heikin ashi candles.
-				Date timestampOfFirstCandle = df.parse(historicalData.getJSONObject(0).getString("timestamp"));
-				long endTime = timestampOfFirstCandle.getTime() + (timePerCandle / 2l);
+			// Processing data starts with the first 1 hour historical candle
+			// The bot starts running in the middle of a candle by offsetting the endTime
+			// for the first candle to only have half the time as the other candles. This is
+			// justifiable because the first candle will never be used in decision making.
+			// It is only needed to calculate the following heikin ashi candles.
+			long endTime = historicalData.getTimestamp(0) + (timePerCandle / 2l);
 
-				unifier = new ChildCandleUnifier(timePerCandle, endTime, candlesticks);
-				unifier.attachChildCandleUnifierObserver(this);
-				
-				// Process the historical data so there are heikin ashi candles for the bot to analyze
-				for( int i = 0; i < historicalData.length(); i++ ) {
-					JSONObject historicalEntry = historicalData.getJSONObject(i);
-					long entryTimestamp = df.parse(historicalEntry.getString("timestamp")).getTime();
-					unifier.processChildCandle(getCandleFromHistoricalData(historicalEntry), entryTimestamp);
-				}
-				synced = true;
-			}
+			unifier = new ChildCandleUnifier(timePerCandle, endTime, candlesticks);
+			unifier.attachChildCandleUnifierObserver(this);
 			
-			// Start the bot
-			// It is only designed to trade XBT/USD
-			tickerSubscription = bitmex.startMonitoringTicker("XBT", "USD", unifier);
-		} catch (JSONException | ParseException e) {
-			e.printStackTrace();
+			// Process the historical data so there are heikin ashi candles for the bot to analyze
+			historicalData.feed(unifier, Long.MIN_VALUE);
+			synced = true;
 		}
+		
+		// Start the bot
+		// It is only designed to trade XBT/USD
+		tickerSubscription = bitmex.startMonitoringTicker("XBT", "USD", unifier);
 	}
 
 	@Override
@@ -207,12 +205,8 @@ public class HeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildC
 		this.tickerSubscription.dispose();
 	}
 	
-	public Candle getCandleFromHistoricalData(JSONObject historicalEntry) {
-		return new Candle(historicalEntry.getBigDecimal("high"), historicalEntry.getBigDecimal("low"), historicalEntry.getBigDecimal("open"), historicalEntry.getBigDecimal("close"));
-	}
-	
-	public JSONArray[] paginateXBTHistoricalData(DateFormat df, int numberOfPages) {
-		JSONArray[] jsonPages = new JSONArray[numberOfPages];
+	public CandleBuffer[] paginateXBTHistoricalData(DateFormat df, int numberOfPages) {
+		CandleBuffer[] pages = new CandleBuffer[numberOfPages];
 		for( int page = 1; page <= numberOfPages; page++ ) {
 			// ISO 8603 format (2018-numberOfPages-31T01:30:00.000Z)
 			Calendar fourteenDaysAgo = Calendar.getInstance();
@@ -222,16 +216,16 @@ public class HeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildC
 			fourteenDaysAgo.set(Calendar.MILLISECOND, 0);
 			fourteenDaysAgo.add(Calendar.HOUR, -336*page); // Back 14 days * number of pages
 			String startTime = df.format(fourteenDaysAgo.getTime());
-			jsonPages[numberOfPages-page] = getXBTHistoricalData(startTime, 337);;
+			pages[numberOfPages-page] = getXBTHistoricalData(startTime, 337);
 		}
-		return jsonPages;
+		return pages;
 	}
 	
 	/**
-	 * @param df, formatted to output dates in UTC
+	 * @param startTime, ISO 8601 time in UTC
 	 * @return Historical data sorted from oldest to newest in 1 hour candles. The most recent candle is incomplete
 	 */
-	public JSONArray getXBTHistoricalData(String startTime, int count) {
+	public CandleBuffer getXBTHistoricalData(String startTime, int count) {
 		// Encode reserved characters so startTime can be sent in a URL.
 		// This practice is known as percent encoding.
 		startTime = startTime.replaceAll(":", "%3A");
@@ -239,7 +233,12 @@ public class HeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildC
 		String tradeHistoryUrl = "https://www.bitmex.com/api/v1/trade/bucketed?binSize=1h&partial=true&symbol=XBTUSD&columns=timestamp%2C%20open%2C%20high%2C%20low%2C%20close&count="+count+"&reverse=false&startTime="+startTime;
 		
 		try {
-			return JsonReader.readJsonArrayFromUrl(tradeHistoryUrl);
+			CandleBuffer candles = new CandleBuffer(PRICE_SCALE, count);
+			HttpClient.getShared().get(tradeHistoryUrl, (InputStream body) -> {
+				candleDecoder.decode(body, candles);
+				return candles;
+			});
+			return candles;
 		} catch ( IOException e) {
 			e.printStackTrace();
 			System.out.println("Irrecoverable. Shutting down.");
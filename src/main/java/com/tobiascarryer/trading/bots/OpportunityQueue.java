@@ -0,0 +1,101 @@
+package com.tobiascarryer.trading.bots;
+
+import java.util.Arrays;
+
+/**
+ * Indexed max-heap of a fixed number of opportunities, each identified by an id between 0 and capacity - 1.
+ * Changing the score of an opportunity moves it up or down the heap in O(log n) time, so the queue can be
+ * kept up to date as books change and the most profitable opportunity read in O(1) time.
+ *
+ * Every id is always in the queue. Opportunities that cannot be traded have a score of negative infinity.
+ * Not thread safe.
+ */
+public class OpportunityQueue {
+
+	private final int[] heap; // heap[position] = id
+	private final int[] positions; // positions[id] = position in heap
+	private final double[] scores; // scores[id]
+
+	/**
+	 * @param capacity, number of opportunities
+	 */
+	public OpportunityQueue(int capacity) {
+		this.heap = new int[capacity];
+		this.positions = new int[capacity];
+		this.scores = new double[capacity];
+		Arrays.fill(this.scores, Double.NEGATIVE_INFINITY);
+		for( int id = 0; id < capacity; id++ ) {
+			this.heap[id] = id;
+			this.positions[id] = id;
+		}
+	}
+
+	/**
+	 * @param id, of the opportunity
+	 * @param score, estimated profit. Negative infinity if it cannot be traded.
+	 */
+	public void update(int id, double score) {
+		double previous = this.scores[id];
+		this.scores[id] = score;
+		if( score > previous )
+			siftUp(this.positions[id]);
+		else if( score < previous )
+			siftDown(this.positions[id]);
+	}
+
+	/**
+	 * @return Id of the opportunity with the highest score.
+	 */
+	public int peek() {
+		return this.heap[0];
+	}
+
+	/**
+	 * @return The highest score, negative infinity if the queue is empty.
+	 */
+	public double peekScore() {
+		return this.heap.length == 0 ? Double.NEGATIVE_INFINITY : this.scores[this.heap[0]];
+	}
+
+	public double getScore(int id) {
+		return this.scores[id];
+	}
+
+	public int size() {
+		return this.heap.length;
+	}
+
+	private void siftUp(int position) {
+		int id = this.heap[position];
+		while( position > 0 ) {
+			int parent = (position - 1) >>> 1;
+			if( this.scores[this.heap[parent]] >= this.scores[id] )
+				break;
+			move(this.heap[parent], position);
+			position = parent;
+		}
+		move(id, position);
+	}
+
+	private void siftDown(int position) {
+		int id = this.heap[position];
+		int size = this.heap.length;
+		while( true ) {
+			int child = 2 * position + 1;
+			if( child >= size )
+				break;
+			if( child + 1 < size && this.scores[this.heap[child + 1]] > this.scores[this.heap[child]] )
+				child++;
+			if( this.scores[this.heap[child]] <= this.scores[id] )
+				break;
+			move(this.heap[child], position);
+			position = child;
+		}
+		move(id, position);
+	}
+
+	private void move(int id, int position) {
+		this.heap[position] = id;
+		this.positions[id] = position;
+	}
+}
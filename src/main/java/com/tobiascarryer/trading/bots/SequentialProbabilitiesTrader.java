@@ -7,9 +7,8 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -22,6 +21,7 @@ import org.apache.commons.io.input.ReversedLinesFileReader;
 
 import com.tobiascarryer.trading.ApiSecrets;
 import com.tobiascarryer.trading.HelperMethods;
+import com.tobiascarryer.trading.HttpClient;
 import com.tobiascarryer.trading.charts.Candle;
 import com.tobiascarryer.trading.exchanges.AlphaVantageDataPoint;
 import com.tobiascarryer.trading.models.ModelPrediction;
@@ -97,13 +97,13 @@ public class SequentialProbabilitiesTrader {
 	
 	public void processLatestDailyCandleFromAlphaVantage(File parentDirectory) throws IOException {
 		try {
-			URL alphaVantageDailyDataURL = new URL("https://www.alphavantage.co/query?function=TIME_SERIES_DAILY&symbol="+tickerToObserve+"&apikey="+ApiSecrets.alphaVantageKey+"&datatype=csv");
+			String alphaVantageDailyDataURL = "https://www.alphavantage.co/query?function=TIME_SERIES_DAILY&symbol="+tickerToObserve+"&apikey="+ApiSecrets.alphaVantageKey+"&datatype=csv";
 			
-			URLConnection connection = alphaVantageDailyDataURL.openConnection();
-			Scanner scanner = new Scanner(connection.getInputStream());
-			scanner.next(); // Skip csv file titles
-			AlphaVantageDataPoint dataPoint = AlphaVantageDataPoint.parseLine(scanner.next());
-			scanner.close();
+			AlphaVantageDataPoint dataPoint = HttpClient.getShared().get(alphaVantageDailyDataURL, (InputStream body) -> {
+				Scanner scanner = new Scanner(body, "UTF-8");
+				scanner.next(); // Skip csv file titles
+				return AlphaVantageDataPoint.parseLine(scanner.next());
+			});
 			handlePrediction(processCandle(dataPoint.candle), parentDirectory);
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
@@ -0,0 +1,322 @@
+package com.tobiascarryer.trading.bots;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.tobiascarryer.trading.ApiSecrets;
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.exchanges.BalanceLedger;
+import com.tobiascarryer.trading.exchanges.BookObserver;
+import com.tobiascarryer.trading.exchanges.Exchange;
+import com.tobiascarryer.trading.exchanges.FeeObserver;
+import com.tobiascarryer.trading.exchanges.ExchangeFactory;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+
+/**
+ * Arbitrages cycles of trades within a single exchange, for example BTC to ETH to NEO and back to BTC.
+ *
+ * The monitored books form a CurrencyGraph. When a book changes only the cycles through its edges are
+ * searched, so a change costs the same no matter how many books are monitored. The most profitable cycle
+ * found is sized by walking the depth of its books and executed if every trade meets the exchange's minimums.
+ */
+public class TriangularArbitrageBot {
+
+	private final BigDecimal targetProfit;
+	private final int maxCycleLength;
+	private BigDecimal percentageToTrade = new BigDecimal("1");
+
+	// Used to stop the scanner
+	private volatile boolean arbitraging = true;
+	private volatile boolean coolingDown = false;
+	private ExecutorService scanner;
+	private Timer cooldowns;
+	private Exchange exchange;
+	private BookObserver bookObserver;
+	private FeeObserver feeObserver;
+
+	// Only used by the scanner thread
+	private final CurrencyGraph graph = new CurrencyGraph();
+	private final Map<CurrencyPair, Book> books = new HashMap<>();
+	private double maxCycleWeight;
+	private double postTradingFee;
+	private CycleOpportunity bestCycle;
+	private double bestCycleWeight;
+
+	// Pairs of the books that changed since they were last scanned
+	private final Set<CurrencyPair> changedBooks = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private volatile boolean everyBookChanged = false;
+
+	/**
+	 * @param targetProfit, ROI + 100% (1% ROI would be 1.01)
+	 * @param maxCycleLength, maximum number of trades in a cycle. 3 for triangular arbitrage.
+	 */
+	public TriangularArbitrageBot(BigDecimal targetProfit, int maxCycleLength) {
+		this.targetProfit = targetProfit;
+		this.maxCycleLength = maxCycleLength;
+	}
+
+	/**
+	 * Book of a pair and the edges it adds to the graph.
+	 */
+	private static class Book {
+		final String majorCurrency, minorCurrency;
+		final TopOfBookSlot topOfBook;
+		final CurrencyGraph.Edge buyEdge, sellEdge;
+
+		Book(String majorCurrency, String minorCurrency, TopOfBookSlot topOfBook, CurrencyGraph.Edge buyEdge, CurrencyGraph.Edge sellEdge) {
+			this.majorCurrency = majorCurrency;
+			this.minorCurrency = minorCurrency;
+			this.topOfBook = topOfBook;
+			this.buyEdge = buyEdge;
+			this.sellEdge = sellEdge;
+		}
+	}
+
+	/**
+	 * Assumes the books of the pairs are being monitored.
+	 * @param currencies, symbols. Every pair of them supported by the exchange is added to the graph.
+	 * @param exchange
+	 */
+	public void startArbitraging(String[] currencies, Exchange exchange) {
+		for( String majorCurrency: currencies ) {
+			for( String minorCurrency: currencies ) {
+				if( majorCurrency.equalsIgnoreCase(minorCurrency) || !exchange.supports(majorCurrency, minorCurrency) )
+					continue;
+				this.graph.addBook(majorCurrency, minorCurrency);
+				this.books.put(CurrencyPair.of(majorCurrency, minorCurrency), new Book(majorCurrency, minorCurrency, exchange.getTopOfBookSlot(majorCurrency, minorCurrency),
+						this.graph.getBuyEdge(majorCurrency, minorCurrency), this.graph.getSellEdge(majorCurrency, minorCurrency)));
+			}
+		}
+		System.out.println("Starting triangular arbitrage scanner for "+this.books.size()+" books and "+this.graph.getCurrencyCount()+" currencies.");
+
+		this.maxCycleWeight = -Math.log(this.targetProfit.doubleValue());
+		this.scanner = Executors.newSingleThreadExecutor();
+		this.cooldowns = new Timer(true);
+		this.arbitraging = true;
+		this.exchange = exchange;
+		this.bookObserver = (Exchange exchangeOfBook, String majorCurrency, String minorCurrency) -> {
+			if( exchangeOfBook == this.exchange )
+				bookChanged(CurrencyPair.of(majorCurrency, minorCurrency));
+		};
+		exchange.attachBookObserver(this.bookObserver);
+		// Every rate includes the fee so every book is checked again when it changes.
+		this.feeObserver = (Exchange exchangeOfFee) -> everyBookChanged();
+		exchange.attachFeeObserver(this.feeObserver);
+
+		// Check every book once since books received before starting will not notify the observer again.
+		everyBookChanged();
+	}
+
+	private void bookChanged(CurrencyPair pair) {
+		this.changedBooks.add(pair);
+		schedule();
+	}
+
+	private void everyBookChanged() {
+		this.everyBookChanged = true;
+		schedule();
+	}
+
+	private void schedule() {
+		if( !this.arbitraging || this.coolingDown || !this.scheduled.compareAndSet(false, true) )
+			return;
+		try {
+			this.scanner.execute(this::scan);
+		} catch( RejectedExecutionException e ) {
+			// The bot stopped
+			this.scheduled.set(false);
+		}
+	}
+
+	private void scan() {
+		// Allow the next change to schedule another scan before this one reads the books.
+		this.scheduled.set(false);
+		if( !this.arbitraging )
+			return;
+
+		// Update every changed edge before searching so the cycles are found with the latest rates.
+		List<CurrencyGraph.Edge> improvedEdges = new ArrayList<>();
+		if( this.everyBookChanged ) {
+			this.everyBookChanged = false;
+			this.changedBooks.clear();
+			this.postTradingFee = this.exchange.getPostTradingFee().doubleValue();
+			for( Book book: this.books.values() ) {
+				updateRates(book);
+				improvedEdges.add(book.buyEdge);
+				improvedEdges.add(book.sellEdge);
+			}
+		} else {
+			for( CurrencyPair pair: this.changedBooks ) {
+				this.changedBooks.remove(pair);
+				Book book = this.books.get(pair);
+				if( book == null )
+					continue;
+				boolean[] improved = updateRates(book);
+				if( improved[0] )
+					improvedEdges.add(book.buyEdge);
+				if( improved[1] )
+					improvedEdges.add(book.sellEdge);
+			}
+		}
+
+		// Only the cycles through an edge whose rate improved can have become profitable.
+		this.bestCycle = null;
+		for( CurrencyGraph.Edge edge: improvedEdges ) {
+			this.graph.findCycles(edge, this.maxCycleLength, this.maxCycleWeight, (CurrencyGraph.Edge[] cycle, int length, double weight) -> {
+				if( this.bestCycle == null || weight < this.bestCycleWeight ) {
+					this.bestCycle = new CycleOpportunity(this.exchange, cycle, length);
+					this.bestCycleWeight = weight;
+				}
+			});
+		}
+		if( this.bestCycle != null && executeCycle(this.bestCycle) ) {
+			// Wait so the same opportunity is not exploited twice. Every book is checked once the wait is over.
+			this.coolingDown = true;
+			this.cooldowns.schedule(new TimerTask() {
+				public void run() {
+					coolingDown = false;
+					everyBookChanged();
+				}
+			}, 30000);
+		}
+		this.bestCycle = null;
+	}
+
+	/**
+	 * @return True for each of the buy and sell edges whose rate improved.
+	 */
+	private boolean[] updateRates(Book book) {
+		double ask = 0, bid = 0;
+		if( book.topOfBook != null ) {
+			TopOfBook top = book.topOfBook.get();
+			if( top.hasAsk() )
+				ask = top.getAskPrice() / (double) FixedPoint.powerOfTen(TopOfBook.PRICE_SCALE);
+			if( top.hasBid() )
+				bid = top.getBidPrice() / (double) FixedPoint.powerOfTen(TopOfBook.PRICE_SCALE);
+		} else {
+			try {
+				ask = this.exchange.getLowestAsk(book.majorCurrency, book.minorCurrency).doubleValue();
+				bid = this.exchange.getHighestBid(book.majorCurrency, book.minorCurrency).doubleValue();
+			} catch( BookNotFoundException e ) {
+				// The order book has not been received yet, the edges cannot be traded.
+				ask = 0;
+				bid = 0;
+			}
+		}
+		boolean buyImproved = this.graph.setRate(book.buyEdge, ask > 0 ? this.postTradingFee / ask : 0);
+		boolean sellImproved = this.graph.setRate(book.sellEdge, bid * this.postTradingFee);
+		return new boolean[] {buyImproved, sellImproved};
+	}
+
+	/**
+	 * @return True if any order of the cycle was placed
+	 */
+	private boolean executeCycle(CycleOpportunity cycle) {
+		// Maximum trade volume is a percentage of the balance of each currency given. It is reserved before
+		// sizing the orders so other bots on the exchange only size their opportunities against what is left.
+		BalanceLedger ledger = this.exchange.getBalanceLedger();
+		CurrencyGraph.Edge[] legs = cycle.getLegs();
+		BalanceLedger.Reservation[] reservations = new BalanceLedger.Reservation[legs.length];
+		BigDecimal[] maxInputVolumes = new BigDecimal[legs.length];
+		try {
+			for( int k = 0; k < legs.length; k++ ) {
+				String currencyGiven = legs[k].getType() == OrderType.BUY ? legs[k].getMinorCurrency() : legs[k].getMajorCurrency();
+				BigDecimal available = ledger.getAvailable(currencyGiven);
+				// Nothing to trade without a balance of every currency given
+				if( available == null )
+					return false;
+				reservations[k] = ledger.reserveUpTo(currencyGiven, available.multiply(this.percentageToTrade));
+				maxInputVolumes[k] = reservations[k].getAmount();
+			}
+			cycle.optimizeOrders(this.targetProfit, maxInputVolumes);
+			if( cycle.getOpportunityVolume().signum() == 0 || !cycle.meetsMinimums() )
+				return false;
+
+			// Only hold what the orders need while they are sent
+			Order[] orders = cycle.getOrders();
+			for( int k = 0; k < orders.length; k++ ) {
+				Order order = orders[k];
+				reservations[k].shrinkTo(order.getAction() == OrderType.BUY ? order.getMajorAmountToTrade().multiply(order.getPrice()) : order.getMajorAmountToTrade());
+			}
+			try {
+				cycle.executeOpportunity();
+				System.out.println("Predicted profit: "+cycle.calculatePredictedProfit()+" "+cycle.getStartCurrency());
+			} catch( NotEnoughBalanceException e ) {
+				e.printStackTrace();
+				System.out.println("Not enough balance for the cycle.");
+			} finally {
+				// Placed orders hold their balance until the exchange takes them out of it
+				for( int k = 0; k < cycle.getOrdersExecuted(); k++ )
+					reservations[k].commit();
+			}
+			return cycle.getOrdersExecuted() > 0;
+		} finally {
+			// Does nothing to what was committed
+			for( BalanceLedger.Reservation reservation: reservations ) {
+				if( reservation != null )
+					reservation.release();
+			}
+		}
+	}
+
+	/**
+	 * @param percentage, maximum amount of a currency that can be traded at once. Measured as percentage of its balance
+	 */
+	public void setPercentageToTrade(BigDecimal percentage) {
+		assert(percentage.compareTo(new BigDecimal("0")) == 1);
+		this.percentageToTrade = percentage;
+	}
+
+	public void stop() {
+		this.arbitraging = false;
+		if( this.exchange != null ) {
+			this.exchange.detachBookObserver(this.bookObserver);
+			this.exchange.detachFeeObserver(this.feeObserver);
+		}
+		if( this.scanner != null )
+			this.scanner.shutdown();
+		if( this.cooldowns != null )
+			this.cooldowns.cancel();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		ExchangeFactory factory = ExchangeFactory.newFactory();
+
+		// Triangular Arbitrage Bot Configuration
+		// Set before running
+		BigDecimal targetProfit = new BigDecimal("1.002");
+		String[] currencies = {"BTC", "ETH", "BNB", "NEO", "USDT"};
+		Exchange binance = factory.newBinanceExchange(ApiSecrets.binanceKey, ApiSecrets.binanceSecret);
+
+		// Let account and supports data arrive from the exchange
+		Thread.sleep(10000);
+
+		// Start monitoring every book between the currencies
+		for( String minorCurrency: currencies )
+			binance.startMonitoringBook(currencies, minorCurrency);
+
+		// Let order book data arrive from the exchange
+		Thread.sleep(10000);
+
+		TriangularArbitrageBot bot = new TriangularArbitrageBot(targetProfit, 3);
+		bot.startArbitraging(currencies, binance);
+	}
+}
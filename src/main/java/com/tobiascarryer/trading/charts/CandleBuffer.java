@@ -0,0 +1,125 @@
+package com.tobiascarryer.trading.charts;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Candles stored column by column in primitive arrays, so a page of historical data is a handful of arrays
+ * instead of a JSON object, four BigDecimals and a Date per candle.
+ * Prices are stored as a long scaled by a power of ten (see FixedPoint).
+ */
+public class CandleBuffer {
+
+	private final int scale;
+	private long[] timestamps;
+	private long[] opens;
+	private long[] highs;
+	private long[] lows;
+	private long[] closes;
+	private int size = 0;
+
+	/**
+	 * @param scale, number of decimal places kept for prices
+	 * @param initialCapacity, candles held before the arrays need to grow
+	 */
+	public CandleBuffer(int scale, int initialCapacity) {
+		this.scale = scale;
+		int capacity = Math.max(1, initialCapacity);
+		this.timestamps = new long[capacity];
+		this.opens = new long[capacity];
+		this.highs = new long[capacity];
+		this.lows = new long[capacity];
+		this.closes = new long[capacity];
+	}
+
+	/**
+	 * @param timestamp, milliseconds since the epoch
+	 * @param open, high, low, close, prices * 10^scale
+	 */
+	public void add(long timestamp, long open, long high, long low, long close) {
+		if( this.size == this.timestamps.length ) {
+			int capacity = this.size * 2;
+			this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+			this.opens = Arrays.copyOf(this.opens, capacity);
+			this.highs = Arrays.copyOf(this.highs, capacity);
+			this.lows = Arrays.copyOf(this.lows, capacity);
+			this.closes = Arrays.copyOf(this.closes, capacity);
+		}
+		this.timestamps[this.size] = timestamp;
+		this.opens[this.size] = open;
+		this.highs[this.size] = high;
+		this.lows[this.size] = low;
+		this.closes[this.size] = close;
+		this.size++;
+	}
+
+	/**
+	 * Empties the buffer but keeps its arrays so it can be filled again without allocating.
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getScale() {
+		return this.scale;
+	}
+
+	public long getTimestamp(int i) {
+		return this.timestamps[i];
+	}
+
+	public long getOpen(int i) {
+		return this.opens[i];
+	}
+
+	public long getHigh(int i) {
+		return this.highs[i];
+	}
+
+	public long getLow(int i) {
+		return this.lows[i];
+	}
+
+	public long getClose(int i) {
+		return this.closes[i];
+	}
+
+	/**
+	 * @return The i-th candle for code that works with BigDecimal prices, such as ChildCandleUnifier
+	 */
+	public Candle getCandle(int i) {
+		return new Candle(toBigDecimal(this.highs[i]), toBigDecimal(this.lows[i]), toBigDecimal(this.opens[i]), toBigDecimal(this.closes[i]));
+	}
+
+	/**
+	 * Passes every candle to unifier, oldest first.
+	 * @param afterTimestamp, candles older than this are skipped
+	 * @return Timestamp of the last candle passed, afterTimestamp if none were
+	 */
+	public long feed(ChildCandleUnifier unifier, long afterTimestamp) {
+		long last = afterTimestamp;
+		for( int i = 0; i < this.size; i++ ) {
+			if( this.timestamps[i] < last )
+				continue;
+			last = this.timestamps[i];
+			unifier.processChildCandle(getCandle(i), last);
+		}
+		return last;
+	}
+
+	/**
+	 * @return The price with only the decimals it needs, the same as parsing it from the exchange's response
+	 */
+	private BigDecimal toBigDecimal(long unscaled) {
+		int decimals = this.scale;
+		while( decimals > 0 && unscaled % 10l == 0l ) {
+			unscaled /= 10l;
+			decimals--;
+		}
+		return BigDecimal.valueOf(unscaled, decimals);
+	}
+}
@@ -0,0 +1,62 @@
+package com.tobiascarryer.trading.exchanges;
+
+/**
+ * How often to poll the book of a pair, based on how often its top of book changed between past polls.
+ *
+ * The rate of changes is an exponentially weighted moving average of changes per millisecond. The interval
+ * aims for half of the polls to see a change: pairs that change on every poll are polled faster until they
+ * reach the minimum interval, and each poll that sees no change slows an idle pair down until it reaches
+ * the maximum interval.
+ */
+public class AdaptivePollingInterval {
+
+	// Fraction of the polls that should see a change
+	private static final double TARGET_CHANGES_PER_POLL = 0.5;
+
+	private final long minMillis;
+	private final long maxMillis;
+	private final double smoothing;
+	private double changesPerMilli;
+	private long intervalMillis;
+	private long lastPollMillis = -1l;
+
+	/**
+	 * @param minMillis, fastest the pair is polled, usually what the request budget allows
+	 * @param maxMillis, slowest the pair is polled
+	 * @param smoothing, weight of the latest poll in the average, between 0 and 1
+	 */
+	public AdaptivePollingInterval(long minMillis, long maxMillis, double smoothing) {
+		this.minMillis = minMillis;
+		this.maxMillis = maxMillis;
+		this.smoothing = smoothing;
+		// Poll as fast as allowed until the pair has been observed
+		this.intervalMillis = minMillis;
+		this.changesPerMilli = TARGET_CHANGES_PER_POLL / minMillis;
+	}
+
+	/**
+	 * @param nowMillis, time of the poll
+	 * @param changed, true if the top of book changed since the last poll
+	 */
+	public synchronized void polled(long nowMillis, boolean changed) {
+		if( this.lastPollMillis != -1l ) {
+			long elapsed = Math.max(1l, nowMillis - this.lastPollMillis);
+			double observed = changed ? 1.0 / elapsed : 0.0;
+			this.changesPerMilli = (1 - this.smoothing) * this.changesPerMilli + this.smoothing * observed;
+			double interval = this.changesPerMilli > 0 ? TARGET_CHANGES_PER_POLL / this.changesPerMilli : this.maxMillis;
+			this.intervalMillis = Math.max(this.minMillis, Math.min(this.maxMillis, (long) interval));
+		}
+		this.lastPollMillis = nowMillis;
+	}
+
+	public synchronized long getIntervalMillis() {
+		return this.intervalMillis;
+	}
+
+	/**
+	 * @return When the pair should be polled next, 0 if it has never been polled
+	 */
+	public synchronized long getNextPollMillis() {
+		return this.lastPollMillis == -1l ? 0l : this.lastPollMillis + this.intervalMillis;
+	}
+}
@@ -0,0 +1,306 @@
+package com.tobiascarryer.trading.exchanges;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+
+/**
+ * Balances of the account on one exchange, shared by the threads that keep them in sync and every bot trading on it.
+ *
+ * Each asset has a total, as reported by the exchange, and an amount reserved by bots that are sizing or sending
+ * orders. A bot reserves what it is about to trade before sizing its orders, so two opportunities that spend the
+ * same balance at the same time cannot both be sized against all of it. Every change is a compare and set on the
+ * asset's account, nothing is locked.
+ * The exchange settles the total itself, from its balance feed or in buy and sell. A reservation whose order was
+ * accepted is committed so it keeps holding its amount until the total changes, otherwise the balance would look
+ * available again between the ack and the balance update that pays for the order. Amounts are kept to SCALE
+ * decimal places.
+ */
+public class BalanceLedger {
+
+	public static final int SCALE = 8;
+
+	private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<String, Account>();
+
+	/**
+	 * @param asset, not case sensitive
+	 * @return The account of the asset, created with a zero balance the first time it is requested
+	 */
+	public Account getAccount(String asset) {
+		String key = asset.toUpperCase();
+		Account account = this.accounts.get(key);
+		if( account == null )
+			account = this.accounts.computeIfAbsent(key, (String k) -> new Account());
+		return account;
+	}
+
+	/**
+	 * @return Total minus what is reserved, null if the asset has no balance
+	 */
+	public BigDecimal getAvailable(String asset) {
+		Account account = this.accounts.get(asset.toUpperCase());
+		return account == null ? null : FixedPoint.toBigDecimal(account.getAvailable(), SCALE);
+	}
+
+	/**
+	 * @return Balance reported by the exchange including what is reserved, null if the asset has no balance
+	 */
+	public BigDecimal getTotal(String asset) {
+		Account account = this.accounts.get(asset.toUpperCase());
+		return account == null ? null : FixedPoint.toBigDecimal(account.getTotal(), SCALE);
+	}
+
+	/**
+	 * Replaces the total with the balance reported by the exchange. Reservations are kept, committed ones until
+	 * the total changes.
+	 */
+	public void setTotal(String asset, BigDecimal total) {
+		getAccount(asset).setTotal(toUnits(total, RoundingMode.HALF_EVEN));
+	}
+
+	/**
+	 * @param delta, negative to subtract
+	 */
+	public void add(String asset, BigDecimal delta) {
+		getAccount(asset).add(toUnits(delta, RoundingMode.HALF_EVEN));
+	}
+
+	/**
+	 * @throws NotEnoughBalanceException if less than amount is available
+	 */
+	public Reservation reserve(String asset, BigDecimal amount) throws NotEnoughBalanceException {
+		Account account = getAccount(asset);
+		long units = toUnits(amount, RoundingMode.CEILING);
+		if( !account.reserve(units) )
+			throw new NotEnoughBalanceException();
+		return new Reservation(account, units);
+	}
+
+	/**
+	 * @param max, most to reserve
+	 * @return A reservation of max or of everything available if that is less, which can be zero
+	 */
+	public Reservation reserveUpTo(String asset, BigDecimal max) {
+		Account account = getAccount(asset);
+		return new Reservation(account, account.reserveUpTo(toUnits(max, RoundingMode.FLOOR)));
+	}
+
+	private static long toUnits(BigDecimal amount, RoundingMode roundingMode) {
+		return amount.setScale(SCALE, roundingMode).unscaledValue().longValueExact();
+	}
+
+	/**
+	 * Balance of one asset in units of 10^-SCALE. Exchanges that settle their own fills hold on to it to avoid
+	 * looking the asset up for every fill.
+	 */
+	public static final class Account {
+
+		private final AtomicReference<State> state = new AtomicReference<State>(new State(0l, 0l, 0l, 0l));
+
+		private Account() {}
+
+		public long getTotal() {
+			return this.state.get().total;
+		}
+
+		public long getReserved() {
+			return this.state.get().reserved;
+		}
+
+		/**
+		 * @return Total minus what is reserved, zero if the total dropped below the reservations
+		 */
+		public long getAvailable() {
+			State current = this.state.get();
+			return Math.max(0l, current.total - current.reserved);
+		}
+
+		/**
+		 * Settles the committed reservations if the total changed, see Reservation.commit. A poll that reports
+		 * the same total was most likely sent before the orders filled.
+		 */
+		public void setTotal(long total) {
+			State current;
+			do {
+				current = this.state.get();
+			} while( !this.state.compareAndSet(current, current.settle(total)) );
+		}
+
+		/**
+		 * Settles the committed reservations unless delta is zero, see Reservation.commit.
+		 */
+		public void add(long delta) {
+			State current;
+			do {
+				current = this.state.get();
+			} while( !this.state.compareAndSet(current, current.settle(current.total + delta)) );
+		}
+
+		/**
+		 * Takes amount out of the total if the total is at least amount. Used by exchanges to fill an order,
+		 * reservations are ignored since the order being filled is what they were made for. Settles the committed
+		 * reservations, see Reservation.commit.
+		 * @return False if the total is less than amount
+		 */
+		public boolean withdraw(long amount) {
+			State current;
+			do {
+				current = this.state.get();
+				if( current.total < amount )
+					return false;
+			} while( !this.state.compareAndSet(current, current.settle(current.total - amount)) );
+			return true;
+		}
+
+		private boolean reserve(long amount) {
+			State current;
+			do {
+				current = this.state.get();
+				if( current.total - current.reserved < amount )
+					return false;
+			} while( !this.state.compareAndSet(current, current.reserve(amount)) );
+			return true;
+		}
+
+		private long reserveUpTo(long max) {
+			State current;
+			long amount;
+			do {
+				current = this.state.get();
+				amount = Math.max(0l, Math.min(max, current.total - current.reserved));
+				if( amount == 0l )
+					return 0l;
+			} while( !this.state.compareAndSet(current, current.reserve(amount)) );
+			return amount;
+		}
+
+		private void unreserve(long amount) {
+			State current;
+			do {
+				current = this.state.get();
+			} while( !this.state.compareAndSet(current, current.reserve(-amount)) );
+		}
+
+		/**
+		 * Keeps amount reserved until the total changes, unless it changed since settlements was read.
+		 */
+		private void commit(long amount, long settlements) {
+			State current;
+			State next;
+			do {
+				current = this.state.get();
+				next = current.settlements == settlements ? current.commit(amount) : current.reserve(-amount);
+			} while( !this.state.compareAndSet(current, next) );
+		}
+
+		private long getSettlements() {
+			return this.state.get().settlements;
+		}
+	}
+
+	/**
+	 * Replaced as a whole so the total and the reservations always change together.
+	 */
+	private static final class State {
+		private final long total;
+		// Includes what is committed
+		private final long reserved;
+		private final long committed;
+		// Number of times the total changed
+		private final long settlements;
+
+		private State(long total, long reserved, long committed, long settlements) {
+			this.total = total;
+			this.reserved = reserved;
+			this.committed = committed;
+			this.settlements = settlements;
+		}
+
+		/**
+		 * @param amount, negative to unreserve
+		 */
+		private State reserve(long amount) {
+			return new State(this.total, this.reserved + amount, this.committed, this.settlements);
+		}
+
+		private State commit(long amount) {
+			return new State(this.total, this.reserved, this.committed + amount, this.settlements);
+		}
+
+		/**
+		 * @return The new total with the committed reservations released, the total accounts for their orders.
+		 * This state if the total did not change.
+		 */
+		private State settle(long total) {
+			if( total == this.total )
+				return this;
+			return new State(total, this.reserved - this.committed, 0l, this.settlements + 1l);
+		}
+	}
+
+	/**
+	 * Part of a balance held for an order that is being sized or sent. Committed once the exchange accepts the
+	 * order, released if it does not.
+	 */
+	public static final class Reservation {
+
+		private final Account account;
+		private final AtomicLong amount;
+		// Of the account when the reservation was made
+		private final long settlements;
+
+		private Reservation(Account account, long amount) {
+			this.account = account;
+			this.amount = new AtomicLong(amount);
+			this.settlements = account.getSettlements();
+		}
+
+		/**
+		 * @return Amount still held, zero once released
+		 */
+		public BigDecimal getAmount() {
+			return FixedPoint.toBigDecimal(this.amount.get(), SCALE);
+		}
+
+		/**
+		 * Gives back what the orders did not need so other opportunities can use it.
+		 * @param needed, kept rounded up. Nothing is given back if it is more than the amount held.
+		 */
+		public void shrinkTo(BigDecimal needed) {
+			long keep = Math.max(0l, toUnits(needed, RoundingMode.CEILING));
+			long held;
+			do {
+				held = this.amount.get();
+				if( keep >= held )
+					return;
+			} while( !this.amount.compareAndSet(held, keep) );
+			this.account.unreserve(held - keep);
+		}
+
+		/**
+		 * Keeps holding the amount until the total changes, which is when the exchange has taken the order out of
+		 * it. If the total already changed since the reservation was made, for example an exchange that settles
+		 * orders in buy and sell, the amount is given back right away. Committing or releasing afterwards does
+		 * nothing.
+		 */
+		public void commit() {
+			long held = this.amount.getAndSet(0l);
+			if( held != 0l )
+				this.account.commit(held, this.settlements);
+		}
+
+		/**
+		 * Gives the amount back to the balance. Releasing twice, or after committing, does nothing.
+		 */
+		public void release() {
+			long held = this.amount.getAndSet(0l);
+			if( held != 0l )
+				this.account.unreserve(held);
+		}
+	}
+}
@@ -3,18 +3,72 @@ package com.tobiascarryer.trading.exchanges;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.exchanges.pairs.TradingPair;
+import com.tobiascarryer.trading.exchanges.pairs.TradingPairs;
+import com.tobiascarryer.trading.journal.MarketDataJournal;
 
 public abstract class BasicExchange implements Exchange {
 
-	protected Map<String, BigDecimal> balances = new HashMap<String, BigDecimal>();
+	// Sends the orders of exchanges whose clients block until the exchange answers, one thread per order in flight.
+	private static final ExecutorService orderSenders = Executors.newCachedThreadPool((Runnable task) -> {
+		Thread thread = new Thread(task, "order-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Applies every update to the books and balances of this exchange in the order they arrived, see ingest.
+	// The thread is only started by the first update.
+	private volatile Thread ingestThread;
+	private final ExecutorService ingestExecutor = Executors.newSingleThreadExecutor((Runnable task) -> {
+		Thread thread = new Thread(task, "ingest-"+getClass().getSimpleName());
+		thread.setDaemon(true);
+		this.ingestThread = thread;
+		return thread;
+	});
+	// Receive time of the update being run by the ingest thread
+	private long receivedNanos = 0l;
+	// Written by the ingest thread, null when nothing is recorded
+	private volatile MarketDataJournal journal;
+
+	// Written by the ingest thread and read by every bot, see BalanceLedger
+	protected final BalanceLedger balances = new BalanceLedger();
 	protected Map<String, Boolean> canWithdrawAsset = new HashMap<String, Boolean>();
 	protected final Set<String> tickersSupported = new HashSet<String>();
+	private final OrderBooks<TopOfBookSlot> topOfBookSlots = new OrderBooks<TopOfBookSlot>();
+	// Tickers and trading rules of every pair, made once instead of on every call
+	private final TradingPairs tradingPairs = new TradingPairs(this::makeTicker);
+	// Notified from the threads that update the books, observers are rarely attached so copying on write is cheap.
+	private final List<BookObserver> bookObservers = new CopyOnWriteArrayList<BookObserver>();
+	private final List<BookEventStream> bookEventStreams = new CopyOnWriteArrayList<BookEventStream>();
+	private final List<FeeObserver> feeObservers = new CopyOnWriteArrayList<FeeObserver>();
 	
+	/**
+	 * @return The balance that is not reserved by a bot, null if the asset has no balance
+	 */
 	@Override
 	public BigDecimal getBalance(String asset) {
-		return this.balances.get(asset.toUpperCase());
+		return this.balances.getAvailable(asset);
+	}
+	
+	@Override
+	public BalanceLedger getBalanceLedger() {
+		return this.balances;
 	}
 
 	@Override
@@ -23,19 +77,235 @@ public abstract class BasicExchange implements Exchange {
 		return this.canWithdrawAsset.get(asset.toUpperCase());
 	}
 	
+	/**
+	 * Runs the update on the ingest thread of this exchange after every update passed in before it. Exchanges pass
+	 * whatever their clients call back with in here instead of changing the books and balances on the client's
+	 * thread, so a single thread owns them and the books never need a lock.
+	 */
+	protected void ingest(Runnable update) {
+		final long received = MarketDataJournal.nowNanos();
+		this.ingestExecutor.execute(() -> {
+			try {
+				this.receivedNanos = received;
+				update.run();
+			} catch( RuntimeException e ) {
+				// One bad update must not stop the updates after it
+				e.printStackTrace();
+			}
+		});
+	}
+	
+	/**
+	 * Only call from the ingest thread.
+	 * @return Nanoseconds since the epoch when the update being ingested was received
+	 */
+	protected long getReceivedNanos() {
+		return this.receivedNanos;
+	}
+	
+	/**
+	 * Records every book and balance update of this exchange from now on.
+	 * @param journal, only written by this exchange's ingest thread so it must not be shared with another exchange. null to stop recording.
+	 */
+	public void setJournal(MarketDataJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * @return Journal the ingest thread records to, null if there is none
+	 */
+	protected MarketDataJournal getJournal() {
+		return this.journal;
+	}
+	
+	/**
+	 * Only call from the ingest thread. Replaces the total balance and records it.
+	 * @param total, balance reported by the exchange
+	 */
+	protected void updateBalance(String asset, BigDecimal total) {
+		this.balances.setTotal(asset, total);
+		MarketDataJournal journal = this.journal;
+		if( journal != null )
+			journal.writeBalance(asset.toUpperCase(), this.balances.getAccount(asset).getTotal(), BalanceLedger.SCALE, this.receivedNanos);
+	}
+	
+	/**
+	 * Only call from the ingest thread. Records every level of the book as of its last publish().
+	 */
+	protected void journalBook(String majorCurrency, String minorCurrency, PriceLevelBook book) {
+		MarketDataJournal journal = this.journal;
+		if( journal != null )
+			journal.writeSnapshot(getTradingPair(majorCurrency, minorCurrency).getPair(), book.getSnapshot(), this.receivedNanos);
+	}
+	
+	/**
+	 * Only call from the ingest thread, after publishing a book whose changes were recorded as deltas. Records every
+	 * level of the book when the journal is due a checkpoint of it, so the book can be rebuilt without reading the
+	 * journal from the start.
+	 */
+	protected void checkpointBook(String majorCurrency, String minorCurrency, PriceLevelBook book) {
+		MarketDataJournal journal = this.journal;
+		if( journal == null )
+			return;
+		CurrencyPair pair = getTradingPair(majorCurrency, minorCurrency).getPair();
+		if( journal.isCheckpointDue(pair, this.receivedNanos) )
+			journal.writeSnapshot(pair, book.getSnapshot(), this.receivedNanos);
+	}
+	
+	@Override
+	public BookEventStream openBookEventStream(int capacity) {
+		BookEventStream stream = new BookEventStream(capacity);
+		this.bookEventStreams.add(stream);
+		return stream;
+	}
+	
+	@Override
+	public void closeBookEventStream(BookEventStream stream) {
+		this.bookEventStreams.remove(stream);
+	}
+	
+	@Override
+	public void attachBookObserver(BookObserver observer) {
+		this.bookObservers.add(observer);
+	}
+	
+	@Override
+	public void detachBookObserver(BookObserver observer) {
+		this.bookObservers.remove(observer);
+	}
+	
+	/**
+	 * Call after the book of a pair changed.
+	 * @param majorCurrency, symbol
+	 * @param minorCurrency, symbol
+	 */
+	protected void notifyBookObservers(String majorCurrency, String minorCurrency) {
+		for( BookObserver observer: this.bookObservers ) {
+			try {
+				observer.onBookChanged(this, majorCurrency, minorCurrency);
+			} catch( RuntimeException e ) {
+				// An observer failing must not stop the book from being kept in sync.
+				e.printStackTrace();
+			}
+		}
+		// Nothing is allocated for the event while no stream is open
+		if( !this.bookEventStreams.isEmpty() )
+			publishBookEvent(new BookEvent(this, CurrencyPair.of(majorCurrency, minorCurrency)));
+	}
+	
+	private void publishBookEvent(BookEvent event) {
+		// Every stream has a single producer, events from any other thread are handed to the ingest thread first
+		if( Thread.currentThread() != this.ingestThread ) {
+			ingest(() -> publishBookEvent(event));
+			return;
+		}
+		for( BookEventStream stream: this.bookEventStreams )
+			stream.publish(event);
+	}
+	
+	@Override
+	public void attachFeeObserver(FeeObserver observer) {
+		this.feeObservers.add(observer);
+	}
+	
+	@Override
+	public void detachFeeObserver(FeeObserver observer) {
+		this.feeObservers.remove(observer);
+	}
+	
+	/**
+	 * Call after getPostTradingFee changed.
+	 */
+	protected void notifyFeeObservers() {
+		for( FeeObserver observer: this.feeObservers ) {
+			try {
+				observer.onFeeChanged(this);
+			} catch( RuntimeException e ) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Checks the order on the calling thread, then sends it with buy or sell on another thread. Exchanges with an
+	 * asynchronous client override this.
+	 */
+	@Override
+	public CompletableFuture<OrderAck> submit(Order order) {
+		CompletableFuture<OrderAck> ack = new CompletableFuture<>();
+		// A bot sending both legs of a trade must see a leg fail before it sends the other one
+		try {
+			checkBalance(order);
+		} catch( NotEnoughBalanceException e ) {
+			ack.completeExceptionally(e);
+			return ack;
+		}
+		orderSenders.execute(() -> {
+			long sent = System.nanoTime();
+			try {
+				if( order.getAction() == OrderType.BUY )
+					buy(order);
+				else
+					sell(order);
+				ack.complete(new OrderAck(order, sent, System.nanoTime()));
+			} catch( NotEnoughBalanceException | RuntimeException e ) {
+				ack.completeExceptionally(e);
+			}
+		});
+		return ack;
+	}
+	
+	/**
+	 * Checks the balance the order needs without asking the exchange. The total is checked, what a bot reserved
+	 * for the order is still there to pay for it.
+	 * @throws NotEnoughBalanceException if a buy costs more than the total of the minor currency or a sell is for
+	 * more than the total of the major currency
+	 */
+	protected void checkBalance(Order order) throws NotEnoughBalanceException {
+		boolean buying = order.getAction() == OrderType.BUY;
+		BigDecimal needed = buying ? order.getMajorAmountToTrade().multiply(order.getPrice()) : order.getMajorAmountToTrade();
+		BigDecimal total = this.balances.getTotal(buying ? order.getMinorCurrency() : order.getMajorCurrency());
+		if( total == null || needed.compareTo(total) == 1 )
+			throw new NotEnoughBalanceException();
+	}
+	
 	@Override
 	public Boolean supports(String majorCurrency, String minorCurrency) {
-		return this.tickersSupported.contains(makeTicker(majorCurrency, minorCurrency)); 
+		return this.tickersSupported.contains(getTradingPair(majorCurrency, minorCurrency).getTicker()); 
+	}
+	
+	/**
+	 * @param majorCurrency, not case sensitive
+	 * @param minorCurrency, not case sensitive
+	 * @return The ticker and trading rules of the pair on this exchange
+	 */
+	protected TradingPair getTradingPair(String majorCurrency, String minorCurrency) {
+		return this.tradingPairs.get(majorCurrency, minorCurrency);
+	}
+	
+	/**
+	 * Exchanges that publish their top of book override this to return publishedTopOfBookSlot.
+	 */
+	@Override
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return null;
+	}
+	
+	/**
+	 * @return The slot for the pair, created the first time it is requested so readers can get it before the book arrives.
+	 */
+	protected TopOfBookSlot publishedTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return this.topOfBookSlots.putIfAbsent(majorCurrency, minorCurrency, new TopOfBookSlot());
 	}
 	
 	@Override
 	public int getQuantityDecimalPrecision(String majorCurrency, String minorCurrency) {
-		return 8;
+		return getTradingPair(majorCurrency, minorCurrency).getQuantityDecimalPrecision();
 	}
 
 	@Override
 	public int getPriceDecimalPrecision(String majorCurrency, String minorCurrency) {
-		return 8;
+		return getTradingPair(majorCurrency, minorCurrency).getPriceDecimalPrecision();
 	}
 	
 	/**
@@ -1,16 +1,27 @@
 package com.tobiascarryer.trading.exchanges;
 
+import com.binance.api.client.BinanceApiCallback;
 import com.binance.api.client.BinanceApiClientFactory;
 import com.binance.api.client.BinanceApiWebSocketClient;
 import com.binance.api.client.BinanceApiAsyncRestClient;
 import com.binance.api.client.domain.market.OrderBook;
+// Binance API's OrderBookEntry, different than the OrderBookEntry in the orderbook package
 import com.binance.api.client.domain.market.OrderBookEntry;
 import com.tobiascarryer.trading.JsonReader;
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
 import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.BookDelta;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+import com.tobiascarryer.trading.exchanges.orderbook.UpdateIdSequence;
 import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.exchanges.pairs.TradingPair;
+import com.tobiascarryer.trading.journal.MarketDataJournal;
 import com.binance.api.client.domain.general.ExchangeInfo;
 import com.binance.api.client.domain.general.FilterType;
 import com.binance.api.client.domain.general.SymbolInfo;
@@ -28,75 +39,90 @@ import com.binance.api.client.domain.event.UserDataUpdateEvent.UserDataUpdateEve
 import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 
 final class BinanceExchange extends BasicExchange {
 	
 	private BinanceApiClientFactory clientFactory;
 	private BinanceApiAsyncRestClient asyncClient;
 	private BinanceApiWebSocketClient websocketClient;
-	private boolean useBNB = false;
+	private volatile boolean useBNB = false;
+	// Binance only takes fees in BNB while there is BNB left to pay them with
+	private volatile boolean payingFeesWithBNB = false;
 	
-	private Map<String, Integer> quantityPrecision = new HashMap<String, Integer>();
-	private Map<String, Integer> pricePrecision = new HashMap<String, Integer>();
-	private Map<String, BigDecimal> minMinorVolume = new HashMap<String, BigDecimal>();
-	private Map<String, BigDecimal> minQuantity = new HashMap<String, BigDecimal>();
+	// Binance allows 1200 request weight per minute
+	private final PollingScheduler.Budget budget;
 	
-	// Binance API's OrderBookEntry, different than the OrderBookEntry in the orderbook package
-	private OrderBooks<List<OrderBookEntry>> asks = new OrderBooks<List<OrderBookEntry>>();
-	private OrderBooks<List<OrderBookEntry>> bids = new OrderBooks<List<OrderBookEntry>>();
+	// Symbols whose depth events share one websocket connection
+	private static final int SYMBOLS_PER_CONNECTION = 100;
+	// Levels per side in a snapshot, 100 levels cost 1 request weight where 1000 levels cost 10
+	private static final int SNAPSHOT_DEPTH = 100;
+	private static final double SNAPSHOT_WEIGHT = 1;
+	private static final int SNAPSHOTS_IN_FLIGHT = 4;
+	// Depth events kept per symbol while its snapshot is on the way
+	private static final int MAX_BUFFERED_EVENTS = 1000;
+	
+	private OrderBooks<PriceLevelBook> books = new OrderBooks<PriceLevelBook>();
+	// Every symbol being monitored by ticker, to route the events of a combined stream to their book
+	private final Map<String, DepthStream> depthStreams = new ConcurrentHashMap<String, DepthStream>();
+	private final RequestQueue snapshots;
 	
 	// Account websocket variable, needs to be an object variable to be modifiable in an async method
 	private long lastKeepAliveTime = 0l;
 	
-	public BinanceExchange(String key, String secret, boolean useBNB) {
+	public BinanceExchange(String key, String secret, boolean useBNB, PollingScheduler scheduler) {
 		this.clientFactory = BinanceApiClientFactory.newInstance(key, secret);
 		this.asyncClient = this.clientFactory.newAsyncRestClient();
 		this.websocketClient = this.clientFactory.newWebSocketClient();
 		this.useBNB = useBNB;
+		this.budget = scheduler.newBudget(20, 20);
+		this.snapshots = new RequestQueue(scheduler, this.budget, PollingScheduler.Priority.BOOK, SNAPSHOTS_IN_FLIGHT);
 		
 		this.asyncClient.getExchangeInfo((ExchangeInfo exchangeInfo) -> {
 			for( SymbolInfo symbolInfo: exchangeInfo.getSymbols() ) {
+				TradingPair pair = getTradingPair(symbolInfo.getBaseAsset(), symbolInfo.getQuoteAsset());
+				pair.setQuantityDecimalPrecision(countDecimalPlaces(symbolInfo.getSymbolFilter(FilterType.LOT_SIZE).getStepSize()));
+				pair.setPriceDecimalPrecision(countDecimalPlaces(symbolInfo.getSymbolFilter(FilterType.PRICE_FILTER).getTickSize()));
+				pair.setMinimumMinorVolume(new BigDecimal(symbolInfo.getSymbolFilter(FilterType.MIN_NOTIONAL).getMinNotional()));
+				pair.setMinimumQuantity(new BigDecimal(symbolInfo.getSymbolFilter(FilterType.LOT_SIZE).getMinQty()));
+				// Supported once the trading rules are known
 				tickersSupported.add(symbolInfo.getSymbol());
-				quantityPrecision.put(symbolInfo.getSymbol(), countDecimalPlaces(symbolInfo.getSymbolFilter(FilterType.LOT_SIZE).getStepSize()));
-				pricePrecision.put(symbolInfo.getSymbol(), countDecimalPlaces(symbolInfo.getSymbolFilter(FilterType.PRICE_FILTER).getTickSize()));
-				minMinorVolume.put(symbolInfo.getSymbol(), new BigDecimal(symbolInfo.getSymbolFilter(FilterType.MIN_NOTIONAL).getMinNotional()));
-				minQuantity.put(symbolInfo.getSymbol(), new BigDecimal(symbolInfo.getSymbolFilter(FilterType.LOT_SIZE).getMinQty()));
 			}
 		});
 		
 		// Check what wallets are under maintenance every two seconds
-		(new Timer()).schedule((new TimerTask() {
-            public void run() {
-				try {
-					JSONArray assets = JsonReader.readJsonArrayFromUrl("https://www.binance.com/assetWithdraw/getAllAsset.html");
-					for( int i=0; i < assets.length(); i++ ) {
-	            		JSONObject asset = assets.getJSONObject(i);
-	            		canWithdrawAsset.put(asset.getString("assetCode"), asset.getBoolean("enableWithdraw"));
-	            	}
-				} catch (JSONException | IOException e) {
-					e.printStackTrace();
+		scheduler.schedule(this.budget, PollingScheduler.Priority.METADATA, 1, 2000, 0.1, () -> {
+			try {
+				JSONArray assets = JsonReader.readJsonArrayFromUrl("https://www.binance.com/assetWithdraw/getAllAsset.html");
+				for( int i=0; i < assets.length(); i++ ) {
+					JSONObject asset = assets.getJSONObject(i);
+					canWithdrawAsset.put(asset.getString("assetCode"), asset.getBoolean("enableWithdraw"));
 				}
-            }
-        }), 0, 2000);
+			} catch (JSONException | IOException e) {
+				e.printStackTrace();
+			}
+		});
 		
 		// Keep the balance in sync
 		this.asyncClient.getAccount((Account account) -> {
-			for( AssetBalance assetBalance: account.getBalances() ) {
-				this.balances.put(assetBalance.getAsset(), new BigDecimal(assetBalance.getFree()));
-			}
+			ingest(() -> {
+				for( AssetBalance assetBalance: account.getBalances() ) {
+					updateBalance(assetBalance.getAsset(), new BigDecimal(assetBalance.getFree()));
+				}
+				updateFeeCurrency();
+			});
 			
 			// Use websocket to keep balances updated after the initial query.
 			startUserDataStream();
@@ -109,9 +135,12 @@ final class BinanceExchange extends BasicExchange {
 			this.lastKeepAliveTime = startTime;
 			Closeable ws = this.websocketClient.onUserDataUpdateEvent(listenKey.getListenKey(), (UserDataUpdateEvent update) -> {
 				if( update.getEventType() == UserDataUpdateEventType.ACCOUNT_UPDATE ) {
-					for( AssetBalance assetBalance: update.getAccountUpdateEvent().getBalances() ) {
-						this.balances.put(assetBalance.getAsset(), new BigDecimal(assetBalance.getFree()));
-					}
+					ingest(() -> {
+						for( AssetBalance assetBalance: update.getAccountUpdateEvent().getBalances() ) {
+							updateBalance(assetBalance.getAsset(), new BigDecimal(assetBalance.getFree()));
+						}
+						updateFeeCurrency();
+					});
 				}
 				
 				// If time passed > 30 minutes in nanoseconds
@@ -141,74 +170,230 @@ final class BinanceExchange extends BasicExchange {
 		});
 	}
 	
+	/**
+	 * Opens one combined stream per SYMBOLS_PER_CONNECTION symbols, then requests the snapshots through a queue
+	 * so only a few are in flight at once and their request weight stays within the budget.
+	 */
 	@Override
 	public void startMonitoringBook(final String[] majorCurrencies, final String minorCurrency) {
+		List<DepthStream> streams = new ArrayList<DepthStream>();
 		for( String majorCurrency: majorCurrencies ) {
-			String ticker = makeTicker(majorCurrency, minorCurrency);
+			if( !supports(majorCurrency, minorCurrency) )
+				continue;
+			DepthStream stream = new DepthStream(majorCurrency, minorCurrency);
+			if( this.depthStreams.putIfAbsent(stream.ticker, stream) == null )
+				streams.add(stream);
+		}
+		
+		// The streams are opened before the snapshots are requested so no event is missed in between,
+		// events that arrive before their snapshot are buffered.
+		for( int first = 0; first < streams.size(); first += SYMBOLS_PER_CONNECTION ) {
+			StringBuilder symbols = new StringBuilder();
+			for( int i = first; i < Math.min(streams.size(), first + SYMBOLS_PER_CONNECTION); i++ ) {
+				if( symbols.length() > 0 )
+					symbols.append(',');
+				// Unknown why ticker has to be lower case for the websocket. It must be upper case
+				// for the async client anyway.
+				symbols.append(streams.get(i).ticker.toLowerCase());
+			}
+			this.websocketClient.onDepthEvent(symbols.toString(), (DepthEvent depthEvent) -> {
+				DepthStream stream = this.depthStreams.get(depthEvent.getSymbol());
+				if( stream != null )
+					ingest(() -> stream.onDepthEvent(depthEvent));
+			});
+		}
+		
+		for( DepthStream stream: streams )
+			requestSnapshot(stream);
+	}
+	
+	private void requestSnapshot(final DepthStream stream) {
+		this.snapshots.add(SNAPSHOT_WEIGHT, (Runnable done) -> {
+			this.asyncClient.getOrderBook(stream.ticker, SNAPSHOT_DEPTH, new BinanceApiCallback<OrderBook>() {
+				@Override
+				public void onResponse(OrderBook snapshot) {
+					done.run();
+					ingest(() -> stream.onSnapshot(snapshot));
+				}
+				
+				@Override
+				public void onFailure(Throwable cause) {
+					done.run();
+					cause.printStackTrace();
+					// Back of the queue, the other symbols are not held up by this one
+					requestSnapshot(stream);
+				}
+			});
+		});
+	}
+	
+	/**
+	 * Book of one symbol kept in sync with its depth events. Events received before the snapshot are buffered and
+	 * the ones newer than the snapshot are applied to it, as Binance documents for keeping a local order book.
+	 *
+	 * If an event does not continue from the last one applied, events were missed and the book is wrong. The book
+	 * is then taken out of books and its top of book is emptied, so nothing trades on it, while a new snapshot is
+	 * requested and the events are buffered again. The books of the other symbols are not affected. An event with
+	 * a level that cannot be parsed is dropped before it changes the book or the journal, so the next event finds
+	 * the gap it left.
+	 *
+	 * Events and snapshots are only handled on the ingest thread, so the stream needs no lock. When a journal is
+	 * set, every event applied is recorded as a delta and every book (re)built from a snapshot as a snapshot. The
+	 * book is also recorded whole as a checkpoint every checkpoint interval of the journal.
+	 */
+	private final class DepthStream {
+		private final String majorCurrency;
+		private final String minorCurrency;
+		private final String ticker;
+		private final CurrencyPair pair;
+		private final TopOfBookSlot topOfBook;
+		// Everything below is only accessed by the ingest thread
+		private final Deque<DepthEvent> buffered = new ArrayDeque<DepthEvent>();
+		private PriceLevelBook book; // Null until the first snapshot arrives
+		private BookDelta delta; // Levels of the event being applied, created with the book
+		private UpdateIdSequence sequence; // Null while waiting for a snapshot
+		
+		private DepthStream(String majorCurrency, String minorCurrency) {
+			this.majorCurrency = majorCurrency;
+			this.minorCurrency = minorCurrency;
+			this.ticker = getTradingPair(majorCurrency, minorCurrency).getTicker();
+			this.pair = getTradingPair(majorCurrency, minorCurrency).getPair();
+			this.topOfBook = publishedTopOfBookSlot(majorCurrency, minorCurrency);
+		}
+		
+		private void onDepthEvent(DepthEvent depthEvent) {
+			if( this.sequence == null ) {
+				buffer(depthEvent);
+				return;
+			}
+			// An event that cannot be parsed counts as missed, the next one resyncs the book
+			if( !parse(depthEvent) )
+				return;
+			UpdateIdSequence.Result result = this.sequence.next(depthEvent.getFirstUpdateId(), depthEvent.getFinalUpdateId());
+			if( result == UpdateIdSequence.Result.OLD )
+				return;
+			if( result == UpdateIdSequence.Result.GAP ) {
+				resync(depthEvent);
+			} else {
+				apply(getJournal());
+				// Readers only see the book once the whole event has been applied
+				this.book.publish();
+				checkpointBook(this.majorCurrency, this.minorCurrency, this.book);
+			}
+			notifyBookObservers(this.majorCurrency, this.minorCurrency);
+		}
+		
+		private void onSnapshot(OrderBook snapshot) {
+			if( this.book == null ) {
+				this.book = new PriceLevelBook(getPriceDecimalPrecision(this.majorCurrency, this.minorCurrency), getQuantityDecimalPrecision(this.majorCurrency, this.minorCurrency), this.topOfBook);
+				this.delta = new BookDelta(this.book.getPriceScale(), this.book.getQuantityScale());
+			} else
+				this.book.clear();
+			for( OrderBookEntry ask: snapshot.getAsks() )
+				this.book.updateAsk(ask.getPrice(), ask.getQty());
+			for( OrderBookEntry bid: snapshot.getBids() )
+				this.book.updateBid(bid.getPrice(), bid.getQty());
 			
-			if( supports(majorCurrency, minorCurrency) ) {
-				this.asyncClient.getOrderBook(ticker, 1000, (OrderBook orderBookResponse) -> {
-					this.asks.put(majorCurrency, minorCurrency, orderBookResponse.getAsks());
-					this.bids.put(majorCurrency, minorCurrency, orderBookResponse.getBids());
-					
-					final long snapshotUpdateId = orderBookResponse.getLastUpdateId();
-					
-					// Unknown why ticker has to be lower case for the websocket. It must be upper case
-					// for the async client anyway.
-					websocketClient.onDepthEvent(ticker.toLowerCase(), (DepthEvent depthEvent) -> {
-						// Drop any event where u is <= lastUpdateId in the snapshot
-						if( depthEvent.getFinalUpdateId() <= snapshotUpdateId )
-							return; // Update is for data before the snapshot
-
-						// Set up dictionary for what to update to make the updates take O(n)
-						// time rather than O(n^2) if each entry would have to be search to check if
-						// it was updated.
-						HashMap<String, String> toUpdate = new HashMap<String, String>();
-						Set<String> toRemove = new HashSet<String>();
-						for( int i=0; i < depthEvent.getBids().size(); i++ ) {
-							if( depthEvent.getBids().get(i).getQty().equals("0") )
-								toRemove.add(depthEvent.getBids().get(i).getPrice());
-							else
-								toUpdate.put(depthEvent.getBids().get(i).getPrice(), depthEvent.getBids().get(i).getQty());
-						}
-						
-						// Process the data sent to the websocket to keep the order book in sync.
-						try {
-							List<OrderBookEntry> asksToUpdate = this.asks.get(majorCurrency, minorCurrency);
-							List<OrderBookEntry> bidsToUpdate = this.bids.get(majorCurrency, minorCurrency);
-						
-							// Update amounts if they changed or remove them if their quantity is zero
-							for( Iterator<OrderBookEntry> iter = asksToUpdate.listIterator(); iter.hasNext(); ) {
-								OrderBookEntry ask = iter.next();
-								if( toUpdate.containsKey(ask.getPrice()) )
-									ask.setQty(toUpdate.get(ask.getPrice()));
-								else if( toRemove.contains(ask.getPrice()) )
-									iter.remove();
-							}
-							for( Iterator<OrderBookEntry> iter = bidsToUpdate.listIterator(); iter.hasNext(); ) {
-								OrderBookEntry bid = iter.next();
-								if( toUpdate.containsKey(bid.getPrice()) )
-									bid.setQty(toUpdate.get(bid.getPrice()));
-								else if( toRemove.contains(bid.getPrice()) )
-									iter.remove();
-							}
-							
-							// Set the updated data in the OrderBooks data structure
-							this.asks.put(majorCurrency, minorCurrency, asksToUpdate);
-							this.bids.put(majorCurrency, minorCurrency, bidsToUpdate);
-						} catch( BookNotFoundException e ) {
-							e.printStackTrace(System.out);
-							System.out.println("Book does not exist. Is it being set properly? Was the book fetched and set before trying to be kept in sync?");
-						}
-					});
-				});
+			this.sequence = new UpdateIdSequence(snapshot.getLastUpdateId());
+			while( !this.buffered.isEmpty() ) {
+				DepthEvent depthEvent = this.buffered.poll();
+				if( !parse(depthEvent) )
+					continue;
+				UpdateIdSequence.Result result = this.sequence.next(depthEvent.getFirstUpdateId(), depthEvent.getFinalUpdateId());
+				if( result == UpdateIdSequence.Result.GAP ) {
+					// The buffer overflowed or the snapshot is older than the stream, try again
+					resync(depthEvent);
+					return;
+				}
+				// The buffered events are part of the snapshot recorded below
+				if( result == UpdateIdSequence.Result.APPLY )
+					apply(null);
 			}
+			this.book.publish();
+			journalBook(this.majorCurrency, this.minorCurrency, this.book);
+			books.put(this.majorCurrency, this.minorCurrency, this.book);
+			notifyBookObservers(this.majorCurrency, this.minorCurrency);
+		}
+		
+		/**
+		 * @param missed, first event after the gap, it is applied after the new snapshot if it is newer. Older than
+		 * every event still buffered, which are only left when it was taken from the buffer.
+		 */
+		private void resync(DepthEvent missed) {
+			System.out.println("Missed depth events for "+this.ticker+" after update "+this.sequence.getLastUpdateId()+", resyncing its book.");
+			this.sequence = null;
+			books.remove(this.majorCurrency, this.minorCurrency);
+			this.topOfBook.publish(TopOfBook.EMPTY);
+			MarketDataJournal journal = getJournal();
+			if( journal != null )
+				journal.writeEmptyBook(this.pair, this.book.getPriceScale(), this.book.getQuantityScale(), getReceivedNanos());
+			// In front of any newer buffered events. There is room, the buffer is empty or missed was just polled from it
+			this.buffered.addFirst(missed);
+			requestSnapshot(this);
+		}
+		
+		private void buffer(DepthEvent depthEvent) {
+			// The oldest events are the most likely to be older than the snapshot
+			if( this.buffered.size() == MAX_BUFFERED_EVENTS )
+				this.buffered.poll();
+			this.buffered.add(depthEvent);
+		}
+		
+		/**
+		 * Parses every level of the event into delta before anything is changed.
+		 * @return False if a level could not be parsed, which is printed
+		 */
+		private boolean parse(DepthEvent depthEvent) {
+			// Each entry is the new absolute quantity at that price. A quantity of zero
+			// removes the price level, any other quantity inserts or replaces it.
+			this.delta.clear();
+			try {
+				for( OrderBookEntry ask: depthEvent.getAsks() )
+					this.delta.addAsk(ask.getPrice(), ask.getQty());
+				for( OrderBookEntry bid: depthEvent.getBids() )
+					this.delta.addBid(bid.getPrice(), bid.getQty());
+				return true;
+			} catch( NumberFormatException e ) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		/**
+		 * Applies the event last parsed.
+		 * @param journal, records the event as a delta. null to not record it.
+		 */
+		private void apply(MarketDataJournal journal) {
+			this.delta.applyTo(this.book);
+			if( journal != null )
+				journal.writeDelta(this.pair, this.delta, getReceivedNanos());
+		}
+	}
+	
+	/**
+	 * @param useBNB, true to pay fees with BNB whenever there is BNB in the account
+	 */
+	public void setUseBNB(boolean useBNB) {
+		this.useBNB = useBNB;
+		updateFeeCurrency();
+	}
+	
+	/**
+	 * Notifies the fee observers when fees start or stop being paid with BNB.
+	 */
+	private synchronized void updateFeeCurrency() {
+		// What is reserved by bots still pays fees
+		BigDecimal bnbBalance = this.balances.getTotal("BNB");
+		boolean payingWithBNB = this.useBNB && bnbBalance != null && bnbBalance.signum() == 1;
+		if( payingWithBNB != this.payingFeesWithBNB ) {
+			this.payingFeesWithBNB = payingWithBNB;
+			notifyFeeObservers();
 		}
 	}
 	
 	@Override
 	public BigDecimal getPostTradingFee() {
-		if( this.useBNB ) {
+		if( this.payingFeesWithBNB ) {
 			return new BigDecimal("0.9995");
 		} else {
 			return new BigDecimal("0.999");
@@ -217,12 +402,12 @@ final class BinanceExchange extends BasicExchange {
 	
 	@Override
 	public BigDecimal getLowestAsk(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return new BigDecimal(this.asks.get(majorCurrency, minorCurrency).get(0).getPrice());
+		return this.books.get(majorCurrency, minorCurrency).getLowestAsk();
 	}
 	
 	@Override
 	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return new BigDecimal(this.bids.get(majorCurrency, minorCurrency).get(0).getPrice());
+		return this.books.get(majorCurrency, minorCurrency).getHighestBid();
 	}
 	
 	@Override
@@ -231,43 +416,36 @@ final class BinanceExchange extends BasicExchange {
 	}
 	
 	@Override
-	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createBinanceIterator(this.bids.get(majorCurrency, minorCurrency));
-	}
-
-	@Override
-	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createBinanceIterator(this.asks.get(majorCurrency, minorCurrency));
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return publishedTopOfBookSlot(majorCurrency, minorCurrency);
 	}
 	
 	@Override
-	public int getQuantityDecimalPrecision(String majorCurrency, String minorCurrency) {
-		return this.quantityPrecision.get(this.makeTicker(majorCurrency, minorCurrency));
+	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.books.get(majorCurrency, minorCurrency).getBidsIterator();
 	}
 
 	@Override
-	public int getPriceDecimalPrecision(String majorCurrency, String minorCurrency) {
-		return this.pricePrecision.get(this.makeTicker(majorCurrency, minorCurrency));
+	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.books.get(majorCurrency, minorCurrency).getAsksIterator();
 	}
 	
 	@Override
 	public BigDecimal getMinimumMinorVolume(String majorCurrency, String minorCurrency) {
-		return this.minMinorVolume.get(this.makeTicker(majorCurrency, minorCurrency));
+		return getTradingPair(majorCurrency, minorCurrency).getMinimumMinorVolume();
 	}
 	
 	@Override
 	public BigDecimal getMinimumQuantity(String majorCurrency, String minorCurrency) {
-		return this.minQuantity.get(this.makeTicker(majorCurrency, minorCurrency));
+		return getTradingPair(majorCurrency, minorCurrency).getMinimumQuantity();
 	}
 	
-	private String makeQuantityForOrder(BigDecimal amount, String symbol) {
-		int precision = this.quantityPrecision.get(symbol);
-		return amount.setScale(precision).toPlainString();
+	private String makeQuantityForOrder(BigDecimal amount, TradingPair pair) {
+		return amount.setScale(pair.getQuantityDecimalPrecision()).toPlainString();
 	}
 	
-	private String makePriceForOrder(BigDecimal price, String symbol) {
-		int precision = this.pricePrecision.get(symbol);
-		return price.setScale(precision).toPlainString();
+	private String makePriceForOrder(BigDecimal price, TradingPair pair) {
+		return price.setScale(pair.getPriceDecimalPrecision()).toPlainString();
 	}
 	
 	///                                        ///
@@ -275,25 +453,58 @@ final class BinanceExchange extends BasicExchange {
 	///                                        ///
 	@Override
 	public void buy(Order order) throws NotEnoughBalanceException {
-		final String symbol = makeTicker(order.getMajorCurrency(), order.getMinorCurrency());
-		final String quantity = makeQuantityForOrder(order.getMajorAmountToTrade(), symbol);
-		final String price = makePriceForOrder(order.getPrice(), symbol);
-		NewOrder binanceOrder = new NewOrder(symbol, OrderSide.BUY, OrderType.LIMIT, TimeInForce.GTC, quantity, price);
-		this.asyncClient.newOrderTest(binanceOrder, (Void)->{});
+		send(order);
 	}
 
 	@Override
 	public void sell(Order order) throws NotEnoughBalanceException {
-		// No need to wait until a sell order reaches the exchange to know if there is enough balance.
-		if( order.getMajorAmountToTrade().compareTo(this.balances.get(order.getMajorCurrency())) == 1 )
-			throw new NotEnoughBalanceException();
-		final String symbol = makeTicker(order.getMajorCurrency(), order.getMinorCurrency());
-		final String quantity = makeQuantityForOrder(order.getMajorAmountToTrade(), symbol);
-		final String price = makePriceForOrder(order.getPrice(), symbol);
-		NewOrder binanceOrder = new NewOrder(symbol, OrderSide.SELL, OrderType.LIMIT, TimeInForce.GTC, quantity, price);
-		this.asyncClient.newOrderTest(binanceOrder, (Void)->{});
+		send(order);
 	}
-
+	
+	/**
+	 * Submits the order and waits for the exchange to accept it.
+	 * @throws CompletionException if the order failed for any other reason than the balance
+	 */
+	private void send(Order order) throws NotEnoughBalanceException {
+		try {
+			submit(order).join();
+		} catch( CompletionException e ) {
+			if( e.getCause() instanceof NotEnoughBalanceException )
+				throw (NotEnoughBalanceException) e.getCause();
+			throw e;
+		}
+	}
+	
+	@Override
+	public CompletableFuture<OrderAck> submit(Order order) {
+		final CompletableFuture<OrderAck> ack = new CompletableFuture<>();
+		final boolean selling = order.getAction() == com.tobiascarryer.trading.exchanges.orders.OrderType.SELL;
+		try {
+			checkBalance(order);
+		} catch( NotEnoughBalanceException e ) {
+			ack.completeExceptionally(e);
+			return ack;
+		}
+		final TradingPair pair = getTradingPair(order.getMajorCurrency(), order.getMinorCurrency());
+		final String symbol = pair.getTicker();
+		final String quantity = makeQuantityForOrder(order.getMajorAmountToTrade(), pair);
+		final String price = makePriceForOrder(order.getPrice(), pair);
+		NewOrder binanceOrder = new NewOrder(symbol, selling ? OrderSide.SELL : OrderSide.BUY, OrderType.LIMIT, TimeInForce.GTC, quantity, price);
+		final long sent = System.nanoTime();
+		this.asyncClient.newOrderTest(binanceOrder, new BinanceApiCallback<Void>() {
+			@Override
+			public void onResponse(Void response) {
+				ack.complete(new OrderAck(order, sent, System.nanoTime()));
+			}
+			
+			@Override
+			public void onFailure(Throwable cause) {
+				ack.completeExceptionally(cause);
+			}
+		});
+		return ack;
+	}
+	
 	/* @Override
 	public void withdraw(String asset, String address, BigDecimal amount) {
 		// Could hardcode a map of addresses to address names if Binance begins to require an actual name.
@@ -0,0 +1,321 @@
+package com.tobiascarryer.trading.exchanges;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.charts.CandleBuffer;
+
+/**
+ * Decodes the response of Bitmex's trade/bucketed endpoint straight into a CandleBuffer.
+ *
+ * The response is tokenized as it is read. Only timestamp, open, high, low and close are kept, any other
+ * field is skipped without being decoded. Buckets without trades have null prices when partial=true is
+ * not enough to fill them, those are skipped since they are not candles.
+ * Not thread safe, each thread decoding responses needs its own decoder.
+ */
+public class BitmexCandleDecoder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final char[] buffer = new char[8192];
+	private int position = 0;
+	private int limit = 0;
+	private Reader reader;
+	// Reused for every key and value so decoding a row does not allocate
+	private final StringBuilder token = new StringBuilder(32);
+
+	/**
+	 * Adds every complete bucket in body to candles, oldest first if the request had reverse=false.
+	 * @throws IOException if body can not be read or is not an array of buckets
+	 */
+	public void decode(InputStream body, CandleBuffer candles) throws IOException {
+		decode(new InputStreamReader(body, UTF8), candles);
+	}
+
+	public void decode(Reader reader, CandleBuffer candles) throws IOException {
+		this.reader = reader;
+		this.position = 0;
+		this.limit = 0;
+		try {
+			expect('[');
+			if( peekSkippingWhitespace() == ']' ) {
+				this.position++;
+				return;
+			}
+			do {
+				decodeBucket(candles);
+			} while( nextSeparator(']') );
+		} finally {
+			this.reader = null;
+		}
+	}
+
+	private void decodeBucket(CandleBuffer candles) throws IOException {
+		expect('{');
+		long timestamp = 0l, open = 0l, high = 0l, low = 0l, close = 0l;
+		// Bit per field that was present and not null: timestamp, open, high, low, close
+		int found = 0;
+		if( peekSkippingWhitespace() == '}' ) {
+			this.position++;
+			return;
+		}
+		do {
+			readString();
+			int field = field(this.token);
+			expect(':');
+			if( field == -1 || peekSkippingWhitespace() == 'n' ) {
+				skipValue();
+				continue;
+			}
+			if( field == 0 ) {
+				readString();
+				timestamp = parseIsoMillis(this.token);
+			} else {
+				readNumber();
+				long price;
+				try {
+					price = FixedPoint.parse(this.token, candles.getScale());
+				} catch( NumberFormatException e ) {
+					throw new IOException("Invalid price: "+this.token, e);
+				}
+				if( field == 1 )
+					open = price;
+				else if( field == 2 )
+					high = price;
+				else if( field == 3 )
+					low = price;
+				else
+					close = price;
+			}
+			found |= 1 << field;
+		} while( nextSeparator('}') );
+
+		if( found == 0b11111 )
+			candles.add(timestamp, open, high, low, close);
+	}
+
+	/**
+	 * @return 0 to 4 for timestamp, open, high, low and close, -1 for any other field
+	 */
+	private static int field(CharSequence key) {
+		if( equals(key, "timestamp") )
+			return 0;
+		if( equals(key, "open") )
+			return 1;
+		if( equals(key, "high") )
+			return 2;
+		if( equals(key, "low") )
+			return 3;
+		if( equals(key, "close") )
+			return 4;
+		return -1;
+	}
+
+	private static boolean equals(CharSequence a, String b) {
+		if( a.length() != b.length() )
+			return false;
+		for( int i = 0; i < b.length(); i++ )
+			if( a.charAt(i) != b.charAt(i) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Parses an ISO 8601 UTC time such as 2018-05-31T01:30:00.000Z without SimpleDateFormat.
+	 * Fractions of a second are optional and an offset such as +01:00 may be given instead of Z.
+	 * @return Milliseconds since the epoch
+	 * @throws IOException if time is not in that format
+	 */
+	public static long parseIsoMillis(CharSequence time) throws IOException {
+		try {
+			int year = digits(time, 0, 4);
+			int month = digits(time, 5, 2);
+			int day = digits(time, 8, 2);
+			int hour = digits(time, 11, 2);
+			int minute = digits(time, 14, 2);
+			int second = digits(time, 17, 2);
+			if( time.charAt(4) != '-' || time.charAt(7) != '-' || time.charAt(10) != 'T' || time.charAt(13) != ':' || time.charAt(16) != ':' )
+				throw new IOException("Not an ISO 8601 time: "+time);
+
+			int i = 19;
+			int millis = 0;
+			if( i < time.length() && time.charAt(i) == '.' ) {
+				i++;
+				int multiplier = 100;
+				while( i < time.length() && Character.isDigit(time.charAt(i)) ) {
+					millis += (time.charAt(i) - '0') * multiplier;
+					multiplier /= 10;
+					i++;
+				}
+			}
+
+			int offsetMinutes = 0;
+			char zone = i < time.length() ? time.charAt(i) : 'Z';
+			if( zone == '+' || zone == '-' ) {
+				offsetMinutes = digits(time, i+1, 2) * 60 + digits(time, i+4, 2);
+				if( zone == '-' )
+					offsetMinutes = -offsetMinutes;
+			} else if( zone != 'Z' ) {
+				throw new IOException("Not an ISO 8601 time: "+time);
+			}
+
+			long seconds = daysSinceEpoch(year, month, day) * 86400l + hour * 3600l + minute * 60l + second - offsetMinutes * 60l;
+			return seconds * 1000l + millis;
+		} catch( IndexOutOfBoundsException e ) {
+			throw new IOException("Not an ISO 8601 time: "+time, e);
+		}
+	}
+
+	/**
+	 * Days from 1970-01-01 to a date in the proleptic Gregorian calendar.
+	 * Algorithm days_from_civil from Howard Hinnant, chrono-Compatible Low-Level Date Algorithms.
+	 */
+	private static long daysSinceEpoch(int year, int month, int day) {
+		if( month <= 2 )
+			year--;
+		long era = Math.floorDiv(year, 400);
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int digits(CharSequence text, int start, int count) throws IOException {
+		int value = 0;
+		for( int i = start; i < start + count; i++ ) {
+			int digit = text.charAt(i) - '0';
+			if( digit < 0 || digit > 9 )
+				throw new IOException("Not an ISO 8601 time: "+text);
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return True after a comma, false after close
+	 */
+	private boolean nextSeparator(char close) throws IOException {
+		char c = nextSkippingWhitespace();
+		if( c == ',' )
+			return true;
+		if( c == close )
+			return false;
+		throw new IOException("Expected ',' or '"+close+"' but found '"+c+"'");
+	}
+
+	/**
+	 * Reads a string into token, without its quotes.
+	 */
+	private void readString() throws IOException {
+		expect('"');
+		this.token.setLength(0);
+		while( true ) {
+			char c = next();
+			if( c == '"' )
+				return;
+			if( c == '\\' ) {
+				char escaped = next();
+				switch( escaped ) {
+				case 'b': c = '\b'; break;
+				case 'f': c = '\f'; break;
+				case 'n': c = '\n'; break;
+				case 'r': c = '\r'; break;
+				case 't': c = '\t'; break;
+				case 'u':
+					int code = 0;
+					for( int i = 0; i < 4; i++ )
+						code = code * 16 + Character.digit(next(), 16);
+					c = (char) code;
+					break;
+				default: c = escaped;
+				}
+			}
+			this.token.append(c);
+		}
+	}
+
+	/**
+	 * Reads a number, or any other value that is not a string, object or array, into token.
+	 */
+	private void readNumber() throws IOException {
+		peekSkippingWhitespace();
+		this.token.setLength(0);
+		while( true ) {
+			if( this.position == this.limit && !fill() )
+				return;
+			char c = this.buffer[this.position];
+			if( c == ',' || c == '}' || c == ']' || Character.isWhitespace(c) )
+				return;
+			this.token.append(c);
+			this.position++;
+		}
+	}
+
+	private void skipValue() throws IOException {
+		char c = peekSkippingWhitespace();
+		if( c == '"' ) {
+			readString();
+		} else if( c == '{' || c == '[' ) {
+			this.position++;
+			char close = c == '{' ? '}' : ']';
+			if( peekSkippingWhitespace() == close ) {
+				this.position++;
+				return;
+			}
+			do {
+				if( close == '}' ) {
+					readString();
+					expect(':');
+				}
+				skipValue();
+			} while( nextSeparator(close) );
+		} else {
+			readNumber();
+		}
+	}
+
+	private void expect(char expected) throws IOException {
+		char c = nextSkippingWhitespace();
+		if( c != expected )
+			throw new IOException("Expected '"+expected+"' but found '"+c+"'");
+	}
+
+	private char nextSkippingWhitespace() throws IOException {
+		char c = peekSkippingWhitespace();
+		this.position++;
+		return c;
+	}
+
+	private char peekSkippingWhitespace() throws IOException {
+		while( true ) {
+			if( this.position == this.limit && !fill() )
+				throw new IOException("Unexpected end of response");
+			char c = this.buffer[this.position];
+			if( !Character.isWhitespace(c) )
+				return c;
+			this.position++;
+		}
+	}
+
+	private char next() throws IOException {
+		if( this.position == this.limit && !fill() )
+			throw new IOException("Unexpected end of response");
+		return this.buffer[this.position++];
+	}
+
+	/**
+	 * @return False if the end of the response was reached
+	 */
+	private boolean fill() throws IOException {
+		int read = this.reader.read(this.buffer, 0, this.buffer.length);
+		if( read <= 0 )
+			return false;
+		this.position = 0;
+		this.limit = read;
+		return true;
+	}
+}
@@ -13,9 +13,12 @@ import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
 
+import com.tobiascarryer.trading.FixedPoint;
 import com.tobiascarryer.trading.HelperMethods;
 import com.tobiascarryer.trading.charts.Candle;
 import com.tobiascarryer.trading.charts.ChildCandleUnifier;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.journal.MarketDataJournal;
 
 import org.knowm.xchange.bitmex.service.BitmexAccountService;
 import org.knowm.xchange.bitmex.service.BitmexTradeServiceRaw;
@@ -23,7 +26,7 @@ import org.knowm.xchange.bitmex.service.BitmexTradeServiceRaw;
 /**
  * This class has only been tested on BTC/USD.
  */
-public final class BitmexExchange {
+public final class BitmexExchange implements MarginExchange {
 	
 	private final org.knowm.xchange.bitmex.BitmexExchange bitmexBackend;
 	private BitmexStreamingExchange bitmexWebsocket;
@@ -38,6 +41,8 @@ public final class BitmexExchange {
 	private BigDecimal diffFromActualPriceToOrder;
 	private BigDecimal percentageToTrade;
 	private BigDecimal percentChangeToStop; // Percent difference from the entry to put a stop order
+	// Written by the ticker subscription's thread, null when nothing is recorded
+	private volatile MarketDataJournal journal;
 	
 	public BitmexExchange(String key, String secret, int margin, boolean useSandbox, BigDecimal diffFromActualPriceToOrder, BigDecimal percentageToTrade, BigDecimal percentChangeToStop) {
 		if( margin > 25 ) {
@@ -63,8 +68,10 @@ public final class BitmexExchange {
 		bitmexBackend = (org.knowm.xchange.bitmex.BitmexExchange) org.knowm.xchange.ExchangeFactory.INSTANCE.createExchange(exSpec);
 	}
 	
+	@Override
 	public Disposable startMonitoringTicker(String majorCurrency, String minorCurrency, ChildCandleUnifier unifier) {
 		symbol = majorCurrency.toUpperCase()+minorCurrency.toUpperCase();
+		final com.tobiascarryer.trading.exchanges.pairs.CurrencyPair pair = com.tobiascarryer.trading.exchanges.pairs.CurrencyPair.of(majorCurrency, minorCurrency);
 		
 		// Connect to Bitmex websocket
 		bitmexWebsocket = (BitmexStreamingExchange) StreamingExchangeFactory.INSTANCE.createExchange(createWebsocketSpecification(key, secret, useSandbox));
@@ -75,6 +82,10 @@ public final class BitmexExchange {
 		return bitmexWebsocket.getStreamingMarketDataService()
 		        .getTicker(new CurrencyPair(majorCurrency, minorCurrency))
 		        .subscribe(ticker -> {
+		        	long receivedNanos = MarketDataJournal.nowNanos();
+		        	MarketDataJournal journal = this.journal;
+		        	if( journal != null )
+		        		journal.writeTicker(pair, TopOfBook.PRICE_SCALE, FixedPoint.fromBigDecimal(ticker.getBid(), TopOfBook.PRICE_SCALE), FixedPoint.fromBigDecimal(ticker.getAsk(), TopOfBook.PRICE_SCALE), ticker.getTimestamp().getTime(), receivedNanos);
 		        	Candle childCandle = new Candle(ticker.getAsk(), ticker.getBid(), ticker.getBid(), ticker.getBid());
 		        	System.out.println("Socket " + ticker.getTimestamp().getTime());
 		            unifier.processChildCandle(childCandle, ticker.getTimestamp().getTime());
@@ -84,6 +95,15 @@ public final class BitmexExchange {
 		        });
 	}
 	
+	/**
+	 * Records every ticker received from now on. Only one ticker is monitored at a time, so the journal has a single writer.
+	 * @param journal, must not be shared with another exchange. null to stop recording.
+	 */
+	public void setJournal(MarketDataJournal journal) {
+		this.journal = journal;
+	}
+	
+	@Override
 	public BigDecimal getAvailableMarginBalance() {
 		try {
 			return ((BitmexAccountService) bitmexBackend.getAccountService()).getBitmexMarginAccountStatus(new Currency("XBt")).getAvailableMargin();
@@ -125,6 +145,7 @@ public final class BitmexExchange {
 	///                                        ///
 	///    Methods requiring authentication    ///
 	///                                        ///
+	@Override
 	public BitmexOrder openLong(BigDecimal price) {
 		BigDecimal orderQty = contractsFor(price, getAmountToTrade());
 		try {
@@ -137,6 +158,7 @@ public final class BitmexExchange {
 		}
 	}
 
+	@Override
 	public BitmexOrder openShort(BigDecimal price) {
 		BigDecimal orderQty = contractsFor(price, getAmountToTrade()).negate();
 		try {
@@ -149,6 +171,7 @@ public final class BitmexExchange {
 		}
 	}
 	
+	@Override
 	public void closeLong(BigDecimal orderQty) {
 		try {
 			((BitmexTradeServiceRaw) bitmexBackend.getTradeService()).placeLimitOrder(symbol, orderQty.negate(), highestBid.subtract(diffFromActualPriceToOrder), "Close");
@@ -157,6 +180,7 @@ public final class BitmexExchange {
 		}
 	}
 	
+	@Override
 	public void closeShort(BigDecimal orderQty) {
 		try {
 			((BitmexTradeServiceRaw) bitmexBackend.getTradeService()).placeLimitOrder(symbol, orderQty.negate(), lowestAsk.add(diffFromActualPriceToOrder), "Close");
@@ -165,6 +189,7 @@ public final class BitmexExchange {
 		}
 	}
 	
+	@Override
 	public void cancelOrder(String orderId) {
 		((BitmexTradeServiceRaw) bitmexBackend.getTradeService()).cancelBitmexOrder(orderId);
 	}
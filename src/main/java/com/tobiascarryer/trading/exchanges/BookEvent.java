@@ -0,0 +1,26 @@
+package com.tobiascarryer.trading.exchanges;
+
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+
+/**
+ * The book of a pair changed on an exchange. Read the book or its top of book from the exchange for the new levels,
+ * they are at least as new as the change the event was published for.
+ */
+public final class BookEvent {
+
+	private final Exchange exchange;
+	private final CurrencyPair pair;
+
+	public BookEvent(Exchange exchange, CurrencyPair pair) {
+		this.exchange = exchange;
+		this.pair = pair;
+	}
+
+	public Exchange getExchange() {
+		return this.exchange;
+	}
+
+	public CurrencyPair getPair() {
+		return this.pair;
+	}
+}
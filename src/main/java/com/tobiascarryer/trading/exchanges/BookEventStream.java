@@ -0,0 +1,65 @@
+package com.tobiascarryer.trading.exchanges;
+
+/**
+ * Book changes of one exchange handed from its ingest thread to a single strategy thread.
+ *
+ * The ingest thread never waits for the strategy. When the strategy falls more than the capacity behind, the
+ * newest events are dropped and counted in getMissedEvents(), after which the strategy should read every book
+ * it uses again instead of relying on the events.
+ */
+public class BookEventStream {
+
+	private final SpscRingBuffer<BookEvent> events;
+	// Only written by the ingest thread
+	private volatile long missedEvents = 0l;
+	private volatile Runnable publishListener;
+
+	/**
+	 * @param capacity, most events waiting to be read, rounded up to a power of two
+	 */
+	public BookEventStream(int capacity) {
+		this.events = new SpscRingBuffer<BookEvent>(capacity);
+	}
+
+	/**
+	 * Only called by the exchange that opened the stream, from its ingest thread.
+	 */
+	public void publish(BookEvent event) {
+		if( !this.events.offer(event) )
+			this.missedEvents++;
+		Runnable listener = this.publishListener;
+		if( listener != null )
+			listener.run();
+	}
+
+	/**
+	 * @param listener, run on the ingest thread after every event is published, even a dropped one. Meant to
+	 * wake the strategy up, it must not block or take locks the strategy holds while it reads the books.
+	 */
+	public void setPublishListener(Runnable listener) {
+		this.publishListener = listener;
+	}
+
+	/**
+	 * Only call from the strategy thread.
+	 * @return The oldest event, null if there are none.
+	 */
+	public BookEvent poll() {
+		return this.events.poll();
+	}
+
+	/**
+	 * Only call from the strategy thread.
+	 * @param waitStrategy, how to wait while there are no events
+	 */
+	public BookEvent take(SpscRingBuffer.WaitStrategy waitStrategy) throws InterruptedException {
+		return this.events.take(waitStrategy);
+	}
+
+	/**
+	 * @return Number of events dropped because the strategy was too far behind
+	 */
+	public long getMissedEvents() {
+		return this.missedEvents;
+	}
+}
@@ -0,0 +1,11 @@
+package com.tobiascarryer.trading.exchanges;
+
+public interface BookObserver {
+	/**
+	 * Called by the thread that updated the book, so it should return quickly.
+	 * @param exchange, exchange whose book changed
+	 * @param majorCurrency, symbol
+	 * @param minorCurrency, symbol
+	 */
+	public void onBookChanged(Exchange exchange, String majorCurrency, String minorCurrency);
+}
@@ -9,78 +9,127 @@ import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
 import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
 import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
 import com.dylanjsa.cryptopia.remote.data.Balance;
-import com.dylanjsa.cryptopia.remote.data.MarketOrder;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TimerTask;
-import java.util.Timer;
+import java.util.Map;
 
 final class CryptopiaExchange extends BasicExchange {
 	
 	private final CryptopiaClient client = new CryptopiaClient();
 	
-	private final OrderBooks<List<MarketOrder>> asks = new OrderBooks<List<MarketOrder>>();
-	private final OrderBooks<List<MarketOrder>> bids = new OrderBooks<List<MarketOrder>>();
+	private final OrderBooks<PriceLevelBook> books = new OrderBooks<PriceLevelBook>();
 	
-	public CryptopiaExchange(String key, String secret) {
+	private final PollingScheduler scheduler;
+	private final PollingScheduler.Budget budget;
+	private static final long MIN_BOOK_POLL_MILLIS = 1000;
+	private static final long MAX_BOOK_POLL_MILLIS = 30000;
+	
+	public CryptopiaExchange(String key, String secret, PollingScheduler scheduler) {
 		this.client.setKey(key);
 		this.client.setSecretKey(secret);
+		this.scheduler = scheduler;
+		this.budget = scheduler.newBudget(4, 4);
 		
 		// Check what wallets are under maintenance every five seconds
-		(new Timer()).schedule((new TimerTask() {
-            public void run() {
-            	boolean memoizeSupportsFunction = tickersSupported.isEmpty();
-            	for( com.dylanjsa.cryptopia.remote.data.Currency currency: client.getCurrencies() ) {
-            		String symbol = cleanSymbol(currency.getSymbol());
-            		canWithdrawAsset.put(symbol, currency.getStatus() == CurrencyStatus.OK);
-            		
-	        		if( memoizeSupportsFunction ) {
-	        			// Cryptopia lists all assets with the following minor currencies:
-	        			// BTC, USDT, NZDT
-	        			tickersSupported.add(makeTicker(symbol, "BTC"));
-	        			tickersSupported.add(makeTicker(symbol, "USDT"));
-	        			tickersSupported.add(makeTicker(symbol, "NZDT"));
-	        		}
-        				
-        		}
-            }
-        }), 0, 5000);
+		scheduler.schedule(this.budget, PollingScheduler.Priority.METADATA, 1, 5000, 0.1, () -> {
+			boolean memoizeSupportsFunction = tickersSupported.isEmpty();
+			for( com.dylanjsa.cryptopia.remote.data.Currency currency: client.getCurrencies() ) {
+				String symbol = cleanSymbol(currency.getSymbol());
+				canWithdrawAsset.put(symbol, currency.getStatus() == CurrencyStatus.OK);
+				
+				if( memoizeSupportsFunction ) {
+					// Cryptopia lists all assets with the following minor currencies:
+					// BTC, USDT, NZDT
+					tickersSupported.add(makeTicker(symbol, "BTC"));
+					tickersSupported.add(makeTicker(symbol, "USDT"));
+					tickersSupported.add(makeTicker(symbol, "NZDT"));
+				}
+			}
+		});
 		
 		// Keep the balances in sync by fetching them every second.
-		(new Timer()).schedule((new TimerTask() {
-            public void run() {
-            	for( Balance balance: client.getBalance("") ) {
-            		String symbol = cleanSymbol(balance.getSymbol());
-            		balances.put(symbol, balance.getAvailable());
-            	}
-            }
-        }), 0, 1000);
+		scheduler.schedule(this.budget, PollingScheduler.Priority.BALANCE, 1, 1000, 0.1, () -> {
+			List<Balance> polledBalances = client.getBalance("");
+			ingest(() -> {
+				for( Balance balance: polledBalances ) {
+					String symbol = cleanSymbol(balance.getSymbol());
+					updateBalance(symbol, balance.getAvailable());
+				}
+			});
+		});
 	}
 	
 	public void startMonitoringBook(String[] majorCurrencies, final String minorCurrency) {
-		final List<String> tickersToRequest = new ArrayList<>();
+		final Map<CurrencyPair, PolledBook> polledBooks = new HashMap<>();
 		for( String majorCurrency: majorCurrencies ) {
 			if( supports(majorCurrency, minorCurrency) )
-				tickersToRequest.add(makeTicker(majorCurrency, minorCurrency));
+				polledBooks.put(CurrencyPair.of(majorCurrency, minorCurrency), new PolledBook(makeTicker(majorCurrency, minorCurrency), publishedTopOfBookSlot(majorCurrency, minorCurrency)));
 		}
 		
-		// Keep order book in sync every second
-		(new Timer()).schedule((new TimerTask() {
-            public void run() {
-            	List<MarketOrderGroup> marketOrderGroups = client.getMarketOrderGroups(tickersToRequest);
-            	for( MarketOrderGroup marketOrderGroup: marketOrderGroups ) {
-            		// Format for the market name is "MAJOR_MINOR" including the quotes.
-            		// Substring 1 gets MAJOR_MINOR" then splitting by _ gets the MAJOR on its own.
-            		String majorCurrency = marketOrderGroup.getMarket().substring(1).split("_")[0];
-            		asks.put(majorCurrency, minorCurrency, marketOrderGroup.getSell());
-            		bids.put(majorCurrency, minorCurrency, marketOrderGroup.getBuy());
-            	}
-            }
-        }), 0, 1000);
+		// Keep the order books in sync, requesting only the books that are due in each call. Books whose top
+		// of book changes often are requested up to every second, idle books down to every thirty seconds.
+		this.scheduler.schedule(this.budget, PollingScheduler.Priority.BOOK, 1, () -> untilNextBookPoll(polledBooks.values()), 0.1, () -> {
+			long now = System.currentTimeMillis();
+			List<String> tickersToRequest = new ArrayList<>();
+			for( PolledBook polledBook: polledBooks.values() ) {
+				// Books due soon are requested in the same call
+				if( polledBook.interval.getNextPollMillis() <= now + MIN_BOOK_POLL_MILLIS / 2 )
+					tickersToRequest.add(polledBook.ticker);
+			}
+			if( tickersToRequest.isEmpty() )
+				return;
+			
+			// Only the request is made on the scheduler's thread, the books are replaced on the ingest thread
+			List<MarketOrderGroup> marketOrderGroups = client.getMarketOrderGroups(tickersToRequest);
+			ingest(() -> {
+				for( MarketOrderGroup marketOrderGroup: marketOrderGroups ) {
+					// Format for the market name is "MAJOR_MINOR" including the quotes.
+					// Substring 1 gets MAJOR_MINOR" then splitting by _ gets the MAJOR on its own.
+					String majorCurrency = marketOrderGroup.getMarket().substring(1).split("_")[0];
+					PolledBook polledBook = polledBooks.get(CurrencyPair.of(majorCurrency, minorCurrency));
+					TopOfBook previousTopOfBook = polledBook == null ? null : polledBook.topOfBook.get();
+					PriceLevelBook book = new PriceLevelBook(getPriceDecimalPrecision(majorCurrency, minorCurrency), getQuantityDecimalPrecision(majorCurrency, minorCurrency), publishedTopOfBookSlot(majorCurrency, minorCurrency));
+					book.replaceWithCryptopiaLevels(marketOrderGroup.getSell(), marketOrderGroup.getBuy());
+					journalBook(majorCurrency, minorCurrency, book);
+					books.put(majorCurrency, minorCurrency, book);
+					// A new top of book is only published when it changed
+					if( polledBook != null )
+						polledBook.interval.polled(now, polledBook.topOfBook.get() != previousTopOfBook);
+					notifyBookObservers(majorCurrency, minorCurrency);
+				}
+			});
+		});
+	}
+	
+	/**
+	 * Book of a pair polled at an interval that adapts to how often it changes.
+	 */
+	private static class PolledBook {
+		final String ticker;
+		final TopOfBookSlot topOfBook;
+		final AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN_BOOK_POLL_MILLIS, MAX_BOOK_POLL_MILLIS, 0.2);
+		
+		PolledBook(String ticker, TopOfBookSlot topOfBook) {
+			this.ticker = ticker;
+			this.topOfBook = topOfBook;
+		}
+	}
+	
+	private static long untilNextBookPoll(Collection<PolledBook> polledBooks) {
+		long next = Long.MAX_VALUE;
+		for( PolledBook polledBook: polledBooks )
+			next = Math.min(next, polledBook.interval.getNextPollMillis());
+		return Math.max(MIN_BOOK_POLL_MILLIS, Math.min(MAX_BOOK_POLL_MILLIS, next - System.currentTimeMillis()));
 	}
 	
 	public BigDecimal getPostTradingFee() {
@@ -95,26 +144,31 @@ final class CryptopiaExchange extends BasicExchange {
 	}
 	
 	public BigDecimal getLowestAsk(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return this.asks.get(majorCurrency, minorCurrency).get(0).getPrice();
+		return this.books.get(majorCurrency, minorCurrency).getLowestAsk();
 	}
 	
 	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return this.bids.get(majorCurrency, minorCurrency).get(0).getPrice();
+		return this.books.get(majorCurrency, minorCurrency).getHighestBid();
+	}
+	
+	@Override
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return publishedTopOfBookSlot(majorCurrency, minorCurrency);
 	}
 	
 	@Override
 	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createCryptopiaIterator(this.bids.get(majorCurrency, minorCurrency));
+		return this.books.get(majorCurrency, minorCurrency).getBidsIterator();
 	}
 
 	@Override
 	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createCryptopiaIterator(this.asks.get(majorCurrency, minorCurrency));
+		return this.books.get(majorCurrency, minorCurrency).getAsksIterator();
 	}
 	
 	@Override
 	public BigDecimal getMinimumMinorVolume(String majorCurrency, String minorCurrency) {
-		String upperCaseSymbol = minorCurrency.toUpperCase();
+		String upperCaseSymbol = getTradingPair(majorCurrency, minorCurrency).getPair().getMinorCurrency();
 		if( upperCaseSymbol.equals("NZDT") || upperCaseSymbol.equals("USDT") )
 			return new BigDecimal("1");
 		else
@@ -1,10 +1,13 @@
 package com.tobiascarryer.trading.exchanges;
 
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
 
 import com.tobiascarryer.trading.exchanges.exceptions.*;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
 import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
 
 public interface Exchange {
 	
@@ -13,12 +16,44 @@ public interface Exchange {
 	 */
 	public BigDecimal getPostTradingFee();
 	
+	/**
+	 * @param observer, notified every time getPostTradingFee changes
+	 */
+	public void attachFeeObserver(FeeObserver observer);
+	
+	/**
+	 * @param observer, stops being notified when the fee changes
+	 */
+	public void detachFeeObserver(FeeObserver observer);
+	
 	/**
 	 * @param majorCurrencies, array of major currency symbols whose order book should be monitored
 	 * @param minorCurrency, minor currency to monitor in
 	 */
 	public void startMonitoringBook(String[] majorCurrencies, String minorCurrency);
 	
+	/**
+	 * @param observer, notified every time the book of a monitored pair changes
+	 */
+	public void attachBookObserver(BookObserver observer);
+	
+	/**
+	 * @param observer, stops being notified when books change
+	 */
+	public void detachBookObserver(BookObserver observer);
+	
+	/**
+	 * For a strategy that reads the book changes on its own thread instead of in a BookObserver.
+	 * @param capacity, most events waiting to be read before new ones are dropped
+	 * @return Stream of every book change of the monitored pairs from now on, read by a single thread
+	 */
+	public BookEventStream openBookEventStream(int capacity);
+	
+	/**
+	 * @param stream, stops receiving book changes
+	 */
+	public void closeBookEventStream(BookEventStream stream);
+	
 	/**
 	 * @param majorCurrency, symbol
 	 * @param minorCurrency, symbol
@@ -48,6 +83,15 @@ public interface Exchange {
 	 */
 	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException;
 	
+	/**
+	 * The slot never changes for a pair, so it can be looked up once and read in a loop.
+	 * @param majorCurrency, symbol
+	 * @param minorCurrency, symbol
+	 * @return Slot the best bid and ask of the pair are published to. null if the exchange does not publish its top of book,
+	 * use getLowestAsk and getHighestBid instead.
+	 */
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency);
+	
 	/**
 	 * @return OrderBookIterator to iterate through the bids from highest to lowest, agnostic to the exchange the bids are from. 
 	 */
@@ -70,12 +114,26 @@ public interface Exchange {
 	 */
 	public void sell(Order order) throws NotEnoughBalanceException;
 	
+	/**
+	 * Sends a buy or sell order without waiting for the exchange. Checks that can be made without asking the exchange,
+	 * like whether there is enough balance, are made before returning so a failed order is completed right away.
+	 * @param order
+	 * @return Completed when the exchange accepts the order, or exceptionally with NotEnoughBalanceException or
+	 * the error the exchange returned.
+	 */
+	public CompletableFuture<OrderAck> submit(Order order);
+	
 	/**
 	 * @param asset, symbol
 	 * @return The balance available to trade with.
 	 */
 	public BigDecimal getBalance(String asset);
 	
+	/**
+	 * @return Balances of the account, used to reserve what an order will spend before sizing it.
+	 */
+	public BalanceLedger getBalanceLedger();
+	
 	/**
 	 * @param majorCurrency, symbol
 	 * @param minorCurrency, symbol
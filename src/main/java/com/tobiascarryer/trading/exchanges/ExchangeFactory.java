@@ -6,23 +6,39 @@ package com.tobiascarryer.trading.exchanges;
 
 public class ExchangeFactory {
 	
+	private final PollingScheduler scheduler;
+	
+	private ExchangeFactory(PollingScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Exchanges created by the factory poll on the shared scheduler.
+	 */
 	public static ExchangeFactory newFactory() {
-		return new ExchangeFactory();
+		return new ExchangeFactory(PollingScheduler.getShared());
+	}
+	
+	/**
+	 * @param scheduler, polls of every exchange created by the factory
+	 */
+	public static ExchangeFactory newFactory(PollingScheduler scheduler) {
+		return new ExchangeFactory(scheduler);
 	}
 	
 	public BinanceExchange newBinanceExchange(String key, String secret) {
-		return new BinanceExchange(key, secret, false);
+		return new BinanceExchange(key, secret, false, this.scheduler);
 	}
 	
 	public BinanceExchange newBinanceExchange(String key, String secret, boolean useBNBToPayFees) {
-		return new BinanceExchange(key, secret, useBNBToPayFees);
+		return new BinanceExchange(key, secret, useBNBToPayFees, this.scheduler);
 	}
 	
 	public CryptopiaExchange newCryptopiaExchange(String key, String secret) {
-		return new CryptopiaExchange(key, secret);
+		return new CryptopiaExchange(key, secret, this.scheduler);
 	}
 	
 	public QuadrigaCXExchange newQuadrigaExchange(String key, String secret, String clientId, boolean usesFiatFees) {
-		return new QuadrigaCXExchange(key, secret, clientId, usesFiatFees);
+		return new QuadrigaCXExchange(key, secret, clientId, usesFiatFees, this.scheduler);
 	}
 }
@@ -0,0 +1,9 @@
+package com.tobiascarryer.trading.exchanges;
+
+public interface FeeObserver {
+	/**
+	 * Called by the thread that noticed the change, so it should return quickly.
+	 * @param exchange, exchange whose getPostTradingFee changed
+	 */
+	public void onFeeChanged(Exchange exchange);
+}
@@ -0,0 +1,56 @@
+package com.tobiascarryer.trading.exchanges;
+
+import java.math.BigDecimal;
+
+import com.tobiascarryer.trading.charts.ChildCandleUnifier;
+
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Exchange that trades a single pair on margin, like Bitmex. Each position is opened with a stop that closes it
+ * if the price moves against it.
+ */
+public interface MarginExchange {
+	
+	/**
+	 * Passes every ticker update of the pair to unifier as a child candle.
+	 * @param majorCurrency, symbol
+	 * @param minorCurrency, symbol
+	 * @return Disposed to stop the updates
+	 */
+	public Disposable startMonitoringTicker(String majorCurrency, String minorCurrency, ChildCandleUnifier unifier);
+	
+	/**
+	 * @return Margin that can be used to open a position
+	 */
+	public BigDecimal getAvailableMarginBalance();
+	
+	/**
+	 * Places a limit buy above price and a stop below it.
+	 * @param price, current price of the pair
+	 * @return The order and its stop, null if it could not be placed
+	 */
+	public BitmexOrder openLong(BigDecimal price);
+	
+	/**
+	 * Places a limit sell below price and a stop above it.
+	 * @param price, current price of the pair
+	 * @return The order and its stop, null if it could not be placed
+	 */
+	public BitmexOrder openShort(BigDecimal price);
+	
+	/**
+	 * @param orderQty, quantity of the order that opened the long
+	 */
+	public void closeLong(BigDecimal orderQty);
+	
+	/**
+	 * @param orderQty, quantity of the order that opened the short, negative
+	 */
+	public void closeShort(BigDecimal orderQty);
+	
+	/**
+	 * @param orderId, id of an order or a stop
+	 */
+	public void cancelOrder(String orderId);
+}
@@ -0,0 +1,212 @@
+package com.tobiascarryer.trading.exchanges;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the polls of every exchange on one pool of threads instead of a timer per poll.
+ *
+ * Each exchange has a Budget: a TokenBucket of the request weight its API allows. A poll that comes due
+ * waits in its budget's queue until the budget can afford it. When several polls are waiting the books
+ * go first, then balances, then metadata such as supported currencies and wallet status. Every period is
+ * jittered so the polls of different exchanges and pairs do not line up into bursts.
+ */
+public class PollingScheduler {
+
+	/**
+	 * Order polls of the same budget run in when they are waiting for weight.
+	 */
+	public enum Priority {
+		BOOK, BALANCE, METADATA
+	}
+
+	private static PollingScheduler shared;
+
+	private final ScheduledThreadPoolExecutor executor;
+	private long pollsCreated = 0l;
+
+	/**
+	 * @param threads, most polls that run at the same time across every exchange
+	 */
+	public PollingScheduler(int threads) {
+		this.executor = new ScheduledThreadPoolExecutor(threads);
+		this.executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * @return The scheduler the exchanges use unless they are given another one
+	 */
+	public static synchronized PollingScheduler getShared() {
+		if( shared == null )
+			shared = new PollingScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		return shared;
+	}
+
+	/**
+	 * @param capacity, most request weight that can be spent at once
+	 * @param weightPerSecond, request weight the exchange allows per second
+	 */
+	public Budget newBudget(double capacity, double weightPerSecond) {
+		return new Budget(capacity, weightPerSecond);
+	}
+
+	/**
+	 * Runs poll every period until it is cancelled. The first run is within jitter * period of now.
+	 * @param budget, of the exchange polled
+	 * @param priority
+	 * @param weight, request weight of one run, at most the capacity of the budget
+	 * @param periodMillis, time between the end of a run and when the next one is due
+	 * @param jitter, fraction of the period each wait is randomly lengthened or shortened by (0.1 for 10%)
+	 * @param poll, exceptions it throws are printed and do not stop it from being run again
+	 * @throws IllegalArgumentException if the weight is more than the budget can ever afford
+	 */
+	public Poll schedule(Budget budget, Priority priority, double weight, long periodMillis, double jitter, Runnable poll) {
+		return schedule(budget, priority, weight, () -> periodMillis, jitter, poll);
+	}
+	
+	/**
+	 * Same as schedule with a fixed period, except the period is asked for again after every run so it can adapt
+	 * to what the poll found.
+	 * @param periodMillis, time between the end of a run and when the next one is due
+	 */
+	public Poll schedule(Budget budget, Priority priority, double weight, LongSupplier periodMillis, double jitter, Runnable poll) {
+		budget.checkWeight(weight);
+		Poll scheduled;
+		synchronized( this ) {
+			scheduled = new Poll(budget, priority, weight, periodMillis, jitter, poll, this.pollsCreated++);
+		}
+		scheduled.scheduleAfter((long) (ThreadLocalRandom.current().nextDouble() * jitter * periodMillis.getAsLong()));
+		return scheduled;
+	}
+
+	/**
+	 * Runs request once, as soon as budget can afford it and no poll of a higher priority is waiting.
+	 * @param weight, request weight of the request, at most the capacity of the budget
+	 * @param request, exceptions it throws are printed
+	 * @throws IllegalArgumentException if the weight is more than the budget can ever afford
+	 */
+	public void submit(Budget budget, Priority priority, double weight, Runnable request) {
+		budget.checkWeight(weight);
+		Poll once;
+		synchronized( this ) {
+			once = new Poll(budget, priority, weight, null, 0, request, this.pollsCreated++);
+		}
+		executor.execute(() -> budget.enqueue(once));
+	}
+
+	/**
+	 * Stops every poll. Only needed when the exchanges are no longer used.
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Request weight one exchange allows, shared by all of its polls.
+	 */
+	public class Budget {
+		private final TokenBucket bucket;
+		// Polls that are due, highest priority first then the order they were created in
+		private final PriorityQueue<Poll> due = new PriorityQueue<>((Poll a, Poll b) -> {
+			int byPriority = a.priority.compareTo(b.priority);
+			return byPriority != 0 ? byPriority : Long.compare(a.sequence, b.sequence);
+		});
+		private boolean retryScheduled = false;
+
+		private Budget(double capacity, double weightPerSecond) {
+			this.bucket = new TokenBucket(capacity, weightPerSecond, System.nanoTime());
+		}
+
+		/**
+		 * A poll heavier than the bucket would wait at the head of the queue forever, blocking every poll behind it.
+		 */
+		private void checkWeight(double weight) {
+			if( weight > this.bucket.getCapacity() )
+				throw new IllegalArgumentException("A weight of "+weight+" is more than the budget's capacity of "+this.bucket.getCapacity()+".");
+		}
+
+		private synchronized void enqueue(Poll poll) {
+			this.due.add(poll);
+			run();
+		}
+
+		/**
+		 * Starts the waiting polls the budget can afford and checks again once it can afford the next one.
+		 */
+		private synchronized void run() {
+			this.retryScheduled = false;
+			while( !this.due.isEmpty() ) {
+				Poll next = this.due.peek();
+				long now = System.nanoTime();
+				if( !this.bucket.tryAcquire(next.weight, now) ) {
+					if( !this.retryScheduled ) {
+						this.retryScheduled = true;
+						executor.schedule(this::run, this.bucket.nanosUntilAvailable(next.weight, now), TimeUnit.NANOSECONDS);
+					}
+					return;
+				}
+				this.due.poll();
+				if( !next.cancelled )
+					executor.execute(next::run);
+			}
+		}
+
+		private synchronized void remove(Poll poll) {
+			this.due.remove(poll);
+		}
+	}
+
+	/**
+	 * A poll that keeps running until it is cancelled, or a request submitted to run once.
+	 */
+	public class Poll {
+		private final Budget budget;
+		private final Priority priority;
+		private final double weight;
+		private final LongSupplier periodMillis; // Null to run once
+		private final double jitter;
+		private final Runnable poll;
+		private final long sequence;
+		private volatile boolean cancelled = false;
+
+		private Poll(Budget budget, Priority priority, double weight, LongSupplier periodMillis, double jitter, Runnable poll, long sequence) {
+			this.budget = budget;
+			this.priority = priority;
+			this.weight = weight;
+			this.periodMillis = periodMillis;
+			this.jitter = jitter;
+			this.poll = poll;
+			this.sequence = sequence;
+		}
+
+		private void run() {
+			try {
+				this.poll.run();
+			} catch( RuntimeException e ) {
+				e.printStackTrace();
+			} finally {
+				if( this.periodMillis != null ) {
+					double offset = (2 * ThreadLocalRandom.current().nextDouble() - 1) * this.jitter;
+					scheduleAfter((long) (this.periodMillis.getAsLong() * (1 + offset)));
+				}
+			}
+		}
+
+		private void scheduleAfter(long delayMillis) {
+			if( this.cancelled || executor.isShutdown() )
+				return;
+			executor.schedule(() -> this.budget.enqueue(this), delayMillis, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Stops the poll after the current run, if it is running.
+		 */
+		public void cancel() {
+			this.cancelled = true;
+			this.budget.remove(this);
+		}
+	}
+}
@@ -2,9 +2,8 @@ package com.tobiascarryer.trading.exchanges;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TimerTask;
 
 import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -16,39 +15,35 @@ import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
 import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
 import com.tobiascarryer.trading.exchanges.orders.Order;
 
-import java.util.Timer;
-
 final class QuadrigaCXExchange extends BasicExchange {
 	
 	private final org.knowm.xchange.Exchange quadrigaBackend;
 	
-	private final OrderBooks<List<LimitOrder>> asks = new OrderBooks<List<LimitOrder>>();
-	private final OrderBooks<List<LimitOrder>> bids = new OrderBooks<List<LimitOrder>>();
+	private final OrderBooks<PriceLevelBook> books = new OrderBooks<PriceLevelBook>();
 	
 	private boolean useFiatFees = false;
 	
-	public QuadrigaCXExchange(String key, String secret, String clientId, boolean useFiatFees) {
+	// QuadrigaCX allows very few requests, polling the book every five seconds uses most of them.
+	private final PollingScheduler scheduler;
+	private final PollingScheduler.Budget budget;
+	
+	public QuadrigaCXExchange(String key, String secret, String clientId, boolean useFiatFees, PollingScheduler scheduler) {
 		org.knowm.xchange.ExchangeSpecification exSpec = new org.knowm.xchange.quadrigacx.QuadrigaCxExchange().getDefaultExchangeSpecification();
 		exSpec.setApiKey(key);
 		exSpec.setSecretKey(secret);
 		exSpec.setUserName(clientId);
 		quadrigaBackend = org.knowm.xchange.ExchangeFactory.INSTANCE.createExchange(exSpec);
 		
+		this.scheduler = scheduler;
+		this.budget = scheduler.newBudget(2, 0.25);
+		
 		// Keep the balances in sync by fetching them every one and a half minutes.
-		new Thread() {
-		    public void run() {
-		    	while(true) {
-		    		try {
-						Thread.sleep((System.currentTimeMillis() % 90000l)-10l);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-			    	updateBalances();
-		    	}
-		    }
-		}.start();
+		scheduler.schedule(this.budget, PollingScheduler.Priority.BALANCE, 1, 90000, 0.05, this::updateBalances);
 		
 		this.useFiatFees = useFiatFees;
 		
@@ -74,11 +69,14 @@ final class QuadrigaCXExchange extends BasicExchange {
 	
 	private void updateBalances() {
 		try {
-			for( Entry<String, Wallet> wallet: quadrigaBackend.getAccountService().getAccountInfo().getWallets().entrySet() ) {
-				for( Entry<Currency, Balance> balance: wallet.getValue().getBalances().entrySet() ) {
-					balances.put(balance.getKey().getCurrencyCode(), balance.getValue().getTotal());
+			Map<String, Wallet> wallets = quadrigaBackend.getAccountService().getAccountInfo().getWallets();
+			ingest(() -> {
+				for( Entry<String, Wallet> wallet: wallets.entrySet() ) {
+					for( Entry<Currency, Balance> balance: wallet.getValue().getBalances().entrySet() ) {
+						updateBalance(balance.getKey().getCurrencyCode(), balance.getValue().getTotal());
+					}
 				}
-			}
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -92,23 +90,27 @@ final class QuadrigaCXExchange extends BasicExchange {
 		this.tickersSupported.add(makeTicker(majorCurrency, minorCurrency));
 		final CurrencyPair pair = new CurrencyPair(majorCurrency, minorCurrency);
 		
-		// Keep order book in sync every fifteen seconds.
-		(new Timer()).schedule((new TimerTask() {
-            public void run() {
-            	// Balances are updated every 90 seconds, skip if within 15 seconds to avoid going over the API limit.
-            	long timeSinceBalanceUpdate = System.currentTimeMillis() % 90000l;
-            	if( timeSinceBalanceUpdate < 75000l && timeSinceBalanceUpdate > 15000l ) {
-					try {
-						org.knowm.xchange.dto.marketdata.OrderBook orderbook = quadrigaBackend.getMarketDataService().getOrderBook(pair);
-						asks.put(majorCurrency, minorCurrency, orderbook.getAsks());
-	            		bids.put(majorCurrency, minorCurrency, orderbook.getBids());
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-					
-            }
-        }), 0, 5000);
+		// Keep order book in sync every five seconds while it is changing, slowing down to every minute while it is
+		// not. The budget keeps the book and balance requests under the API limit.
+		final TopOfBookSlot topOfBook = publishedTopOfBookSlot(majorCurrency, minorCurrency);
+		final AdaptivePollingInterval interval = new AdaptivePollingInterval(5000, 60000, 0.2);
+		this.scheduler.schedule(this.budget, PollingScheduler.Priority.BOOK, 1, interval::getIntervalMillis, 0.1, () -> {
+			try {
+				org.knowm.xchange.dto.marketdata.OrderBook orderbook = quadrigaBackend.getMarketDataService().getOrderBook(pair);
+				ingest(() -> {
+					TopOfBook previousTopOfBook = topOfBook.get();
+					PriceLevelBook book = new PriceLevelBook(getPriceDecimalPrecision(majorCurrency, minorCurrency), getQuantityDecimalPrecision(majorCurrency, minorCurrency), topOfBook);
+					book.replaceWithXChangeLevels(orderbook.getAsks(), orderbook.getBids());
+					journalBook(majorCurrency, minorCurrency, book);
+					books.put(majorCurrency, minorCurrency, book);
+					// A new top of book is only published when it changed
+					interval.polled(System.currentTimeMillis(), topOfBook.get() != previousTopOfBook);
+					notifyBookObservers(majorCurrency, minorCurrency);
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
 	}
 	
 	public BigDecimal getPostTradingFee() {
@@ -125,26 +127,31 @@ final class QuadrigaCXExchange extends BasicExchange {
 	}
 	
 	public BigDecimal getLowestAsk(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return this.asks.get(majorCurrency, minorCurrency).get(0).getLimitPrice();
+		return this.books.get(majorCurrency, minorCurrency).getLowestAsk();
 	}
 	
 	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return this.bids.get(majorCurrency, minorCurrency).get(0).getLimitPrice();
+		return this.books.get(majorCurrency, minorCurrency).getHighestBid();
+	}
+	
+	@Override
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return publishedTopOfBookSlot(majorCurrency, minorCurrency);
 	}
 	
 	@Override
 	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createXChangeIterator(this.bids.get(majorCurrency, minorCurrency));
+		return this.books.get(majorCurrency, minorCurrency).getBidsIterator();
 	}
 
 	@Override
 	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createXChangeIterator(this.asks.get(majorCurrency, minorCurrency));
+		return this.books.get(majorCurrency, minorCurrency).getAsksIterator();
 	}
 	
 	@Override
 	public BigDecimal getMinimumMinorVolume(String majorCurrency, String minorCurrency) {
-		switch( minorCurrency.toUpperCase() ) {
+		switch( getTradingPair(majorCurrency, minorCurrency).getPair().getMinorCurrency() ) {
 		case "CAD": return new BigDecimal("10");
 		case "USD": return new BigDecimal("10");
 		default: return new BigDecimal("0.000001");
@@ -153,7 +160,7 @@ final class QuadrigaCXExchange extends BasicExchange {
 	
 	@Override
 	public BigDecimal getMinimumQuantity(String majorCurrency, String minorCurrency) {
-		switch( minorCurrency.toUpperCase() ) {
+		switch( getTradingPair(majorCurrency, minorCurrency).getPair().getMinorCurrency() ) {
 		case "CAD": return new BigDecimal("0.005");
 		case "USD": return new BigDecimal("0.005");
 		default: return new BigDecimal("0.000001");
@@ -175,8 +182,8 @@ final class QuadrigaCXExchange extends BasicExchange {
 		
 		// Keep track of the balance internally for the few seconds until a proper update is received
 		// update task is in the constructor
-		this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).add(order.getMajorAmountToTrade()));
-		this.balances.put(order.getMinorCurrency(), this.balances.get(order.getMinorCurrency()).add(order.getMajorAmountToTrade().multiply(order.getPrice())));
+		this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade());
+		this.balances.add(order.getMinorCurrency(), order.getMajorAmountToTrade().multiply(order.getPrice()).negate());
 	}
 
 	@Override
@@ -188,5 +195,9 @@ final class QuadrigaCXExchange extends BasicExchange {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		
+		// Same as buy, until the next update is received
+		this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade().negate());
+		this.balances.add(order.getMinorCurrency(), order.getMajorAmountToTrade().multiply(order.getPrice()));
 	}
 }
@@ -0,0 +1,102 @@
+package com.tobiascarryer.trading.exchanges;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * One-off requests, such as order book snapshots, sent in the order they were added with at most maxInFlight
+ * waiting for a response. Each request is sent through the exchange's Budget, so a burst of requests at startup
+ * is spread out at the request weight the exchange allows instead of being sent all at once.
+ */
+public class RequestQueue {
+
+	/**
+	 * A request made with an asynchronous client.
+	 */
+	public interface Request {
+		/**
+		 * @param done, must be run once the response or the failure arrives so the next request can be sent
+		 */
+		void send(Runnable done);
+	}
+
+	private final PollingScheduler scheduler;
+	private final PollingScheduler.Budget budget;
+	private final PollingScheduler.Priority priority;
+	private final int maxInFlight;
+	private final Queue<Pending> waiting = new ArrayDeque<Pending>();
+	private int inFlight = 0;
+
+	/**
+	 * @param budget, of the exchange the requests are sent to
+	 * @param priority, of the requests compared to the polls of the same budget
+	 * @param maxInFlight, most requests waiting for a response at once
+	 */
+	public RequestQueue(PollingScheduler scheduler, PollingScheduler.Budget budget, PollingScheduler.Priority priority, int maxInFlight) {
+		this.scheduler = scheduler;
+		this.budget = budget;
+		this.priority = priority;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @param weight, request weight of the request
+	 */
+	public void add(double weight, Request request) {
+		synchronized( this ) {
+			this.waiting.add(new Pending(weight, request));
+		}
+		sendWaiting();
+	}
+
+	/**
+	 * @return Requests not sent yet
+	 */
+	public synchronized int size() {
+		return this.waiting.size();
+	}
+
+	private void sendWaiting() {
+		while( true ) {
+			Pending next;
+			synchronized( this ) {
+				if( this.inFlight >= this.maxInFlight || this.waiting.isEmpty() )
+					return;
+				next = this.waiting.poll();
+				this.inFlight++;
+			}
+			this.scheduler.submit(this.budget, this.priority, next.weight, () -> send(next));
+		}
+	}
+
+	private void send(Pending pending) {
+		try {
+			pending.request.send(() -> done(pending));
+		} catch( RuntimeException e ) {
+			done(pending);
+			throw e;
+		}
+	}
+
+	private void done(Pending pending) {
+		synchronized( this ) {
+			// A request that runs done twice only frees its place once
+			if( pending.done )
+				return;
+			pending.done = true;
+			this.inFlight--;
+		}
+		sendWaiting();
+	}
+
+	private static final class Pending {
+		private final double weight;
+		private final Request request;
+		private boolean done = false; // Only changed while the queue is locked
+
+		private Pending(double weight, Request request) {
+			this.weight = weight;
+			this.request = request;
+		}
+	}
+}
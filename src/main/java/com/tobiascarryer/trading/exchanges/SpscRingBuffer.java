@@ -0,0 +1,130 @@
+package com.tobiascarryer.trading.exchanges;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue between exactly one producer thread and exactly one consumer thread.
+ *
+ * Neither side locks. The producer only writes the tail and the consumer only writes the head, each on its
+ * own padded cache line, and each side keeps a copy of the other's counter so it only reads the other
+ * side's cache line when the buffer looks full or empty. A full buffer rejects the entry instead of making
+ * the producer wait, the producer decides what to do with it.
+ */
+public class SpscRingBuffer<E> {
+
+	/**
+	 * What the consumer does while the buffer is empty, from the lowest latency to the lowest CPU use.
+	 */
+	public enum WaitStrategy {
+		/** Checks again straight away, keeps a core busy while waiting */
+		BUSY_SPIN,
+		/** Lets other threads use the core between checks */
+		YIELD,
+		/** Sleeps for PARK_NANOS between checks */
+		PARK;
+
+		private static final long PARK_NANOS = 50000l;
+
+		void idle() {
+			if( this == YIELD )
+				Thread.yield();
+			else if( this == PARK )
+				LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	private final Object[] entries;
+	private final int mask;
+	// Next position to write, only written by the producer. Its cached value is the producer's copy of the head.
+	private final Sequence tail = new Sequence();
+	// Next position to read, only written by the consumer. Its cached value is the consumer's copy of the tail.
+	private final Sequence head = new Sequence();
+
+	/**
+	 * @param capacity, rounded up to a power of two
+	 */
+	public SpscRingBuffer(int capacity) {
+		if( capacity < 1 || capacity > (1 << 30) )
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+		int size = Integer.highestOneBit(capacity);
+		if( size < capacity )
+			size <<= 1;
+		this.entries = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Only call from the producer thread.
+	 * @return False if the buffer is full, the entry was not added.
+	 */
+	public boolean offer(E entry) {
+		if( entry == null )
+			throw new NullPointerException();
+		long tail = this.tail.get();
+		if( tail - this.tail.cached >= this.entries.length ) {
+			this.tail.cached = this.head.get();
+			if( tail - this.tail.cached >= this.entries.length )
+				return false;
+		}
+		this.entries[(int) tail & this.mask] = entry;
+		// The entry is written before the consumer can see the new tail
+		this.tail.lazySet(tail + 1l);
+		return true;
+	}
+
+	/**
+	 * Only call from the consumer thread.
+	 * @return The oldest entry, null if the buffer is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long head = this.head.get();
+		if( head >= this.head.cached ) {
+			this.head.cached = this.tail.get();
+			if( head >= this.head.cached )
+				return null;
+		}
+		int index = (int) head & this.mask;
+		E entry = (E) this.entries[index];
+		this.entries[index] = null;
+		this.head.lazySet(head + 1l);
+		return entry;
+	}
+
+	/**
+	 * Only call from the consumer thread. Waits with the wait strategy until an entry is added.
+	 * @return The oldest entry
+	 * @throws InterruptedException, if the consumer thread was interrupted while waiting
+	 */
+	public E take(WaitStrategy waitStrategy) throws InterruptedException {
+		E entry;
+		while( (entry = poll()) == null ) {
+			if( Thread.interrupted() )
+				throw new InterruptedException();
+			waitStrategy.idle();
+		}
+		return entry;
+	}
+
+	/**
+	 * @return Number of entries waiting, may be out of date by the time it returns when called from another thread.
+	 */
+	public int size() {
+		return (int) (this.tail.get() - this.head.get());
+	}
+
+	public int capacity() {
+		return this.entries.length;
+	}
+
+	/**
+	 * Counter padded so it does not share a cache line with the other side's counter.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Sequence extends AtomicLong {
+		// Copy of the other side's counter, only accessed by the thread that writes this one
+		long cached = 0l;
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
@@ -0,0 +1,62 @@
+package com.tobiascarryer.trading.exchanges;
+
+/**
+ * Request weight an exchange allows. The bucket holds up to capacity weight and refills at a constant
+ * rate, so short bursts are allowed while the average stays below the exchange's limit.
+ * Not thread safe.
+ */
+public class TokenBucket {
+
+	private final double capacity;
+	private final double weightPerNano;
+	private double available;
+	private long lastRefill;
+
+	/**
+	 * @param capacity, most weight that can be spent at once
+	 * @param weightPerSecond, rate the bucket refills at
+	 * @param nowNanos, current time from System.nanoTime(). The bucket starts full.
+	 */
+	public TokenBucket(double capacity, double weightPerSecond, long nowNanos) {
+		this.capacity = capacity;
+		this.weightPerNano = weightPerSecond / 1e9;
+		this.available = capacity;
+		this.lastRefill = nowNanos;
+	}
+
+	/**
+	 * @return True if the weight was available and has been spent
+	 */
+	public boolean tryAcquire(double weight, long nowNanos) {
+		refill(nowNanos);
+		if( this.available < weight )
+			return false;
+		this.available -= weight;
+		return true;
+	}
+
+	/**
+	 * @return Nanoseconds until the weight is available, 0 if it is available now
+	 */
+	public long nanosUntilAvailable(double weight, long nowNanos) {
+		refill(nowNanos);
+		if( this.available >= weight )
+			return 0l;
+		return (long) Math.ceil((weight - this.available) / this.weightPerNano);
+	}
+
+	/**
+	 * @return Most weight that can be spent at once, a weight above it is never available
+	 */
+	public double getCapacity() {
+		return this.capacity;
+	}
+
+	private void refill(long nowNanos) {
+		long elapsed = nowNanos - this.lastRefill;
+		if( elapsed <= 0l )
+			return;
+		this.available = Math.min(this.capacity, this.available + elapsed * this.weightPerNano);
+		this.lastRefill = nowNanos;
+	}
+}
@@ -0,0 +1,116 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+import java.util.Arrays;
+
+import com.tobiascarryer.trading.FixedPoint;
+
+/**
+ * Levels of one update to a book, parsed to fixed point before any of them is applied. A level that cannot be
+ * parsed fails the whole update, so neither the book nor a journal record is left with only part of it.
+ *
+ * Meant to be reused for every update of a book by its writer, parsing does not allocate once the levels fit.
+ */
+public class BookDelta {
+
+	private final int priceScale;
+	private final int quantityScale;
+	// Asks first, then bids
+	private long[] prices = new long[16];
+	private long[] quantities = new long[16];
+	private int askLevels = 0;
+	private int bidLevels = 0;
+
+	/**
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 */
+	public BookDelta(int priceScale, int quantityScale) {
+		this.priceScale = priceScale;
+		this.quantityScale = quantityScale;
+	}
+
+	/**
+	 * Removes every level to start the next update.
+	 */
+	public void clear() {
+		this.askLevels = 0;
+		this.bidLevels = 0;
+	}
+
+	/**
+	 * Add every ask before the first bid.
+	 * @param quantity, a quantity of zero removes the level
+	 * @throws NumberFormatException if the price or quantity is not a plain decimal, see FixedPoint.parse
+	 */
+	public void addAsk(CharSequence price, CharSequence quantity) {
+		if( this.bidLevels != 0 )
+			throw new IllegalStateException("Asks must be added before the bids.");
+		add(price, quantity);
+		this.askLevels++;
+	}
+
+	/**
+	 * @param quantity, a quantity of zero removes the level
+	 * @throws NumberFormatException if the price or quantity is not a plain decimal, see FixedPoint.parse
+	 */
+	public void addBid(CharSequence price, CharSequence quantity) {
+		add(price, quantity);
+		this.bidLevels++;
+	}
+
+	private void add(CharSequence price, CharSequence quantity) {
+		// Both are parsed before the level is kept
+		long ticks = FixedPoint.parse(price, this.priceScale);
+		long lots = FixedPoint.parse(quantity, this.quantityScale);
+		int level = this.askLevels + this.bidLevels;
+		if( level == this.prices.length ) {
+			this.prices = Arrays.copyOf(this.prices, level * 2);
+			this.quantities = Arrays.copyOf(this.quantities, level * 2);
+		}
+		this.prices[level] = ticks;
+		this.quantities[level] = lots;
+	}
+
+	/**
+	 * Updates every level of the book. Not visible to readers until the book is published.
+	 * @param book, with the same scales
+	 */
+	public void applyTo(PriceLevelBook book) {
+		for( int level = 0; level < this.askLevels; level++ )
+			book.updateAsk(this.prices[level], this.quantities[level]);
+		for( int level = this.askLevels; level < this.askLevels + this.bidLevels; level++ )
+			book.updateBid(this.prices[level], this.quantities[level]);
+	}
+
+	public int getPriceScale() {
+		return this.priceScale;
+	}
+
+	public int getQuantityScale() {
+		return this.quantityScale;
+	}
+
+	public int getAskLevels() {
+		return this.askLevels;
+	}
+
+	public int getBidLevels() {
+		return this.bidLevels;
+	}
+
+	/**
+	 * @param level, asks first then bids
+	 * @return Price in ticks
+	 */
+	public long getPrice(int level) {
+		return this.prices[level];
+	}
+
+	/**
+	 * @param level, asks first then bids
+	 * @return Quantity in lots
+	 */
+	public long getQuantity(int level) {
+		return this.quantities[level];
+	}
+}
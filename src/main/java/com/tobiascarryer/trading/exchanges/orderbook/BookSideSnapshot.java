@@ -0,0 +1,88 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+/**
+ * Immutable copy of one side of a PriceLevelBook. The arrays are never modified after the
+ * snapshot is created, so any number of threads can read it without copying or locking.
+ *
+ * Levels are stored in chunks of CHUNK_SIZE from the worst price to the best, the same order as
+ * FixedPointBookSide. Most updates are close to the best price, so the next snapshot only copies the
+ * chunks from the first level that changed to the best level and shares the chunks before it with this one.
+ */
+public final class BookSideSnapshot {
+
+	static final int CHUNK_BITS = 5;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final long[][] priceChunks;
+	private final long[][] quantityChunks;
+	private final int levels;
+	private final int priceScale;
+	private final int quantityScale;
+
+	/**
+	 * The chunks are not copied and must not be modified after being passed in.
+	 * @param priceChunks, in ticks, levels sorted from the worst price to the best. Every chunk but the last is full.
+	 * @param quantityChunks, in lots, measured in the major currency
+	 * @param levels, number of levels in the chunks
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 */
+	BookSideSnapshot(long[][] priceChunks, long[][] quantityChunks, int levels, int priceScale, int quantityScale) {
+		this.priceChunks = priceChunks;
+		this.quantityChunks = quantityChunks;
+		this.levels = levels;
+		this.priceScale = priceScale;
+		this.quantityScale = quantityScale;
+	}
+
+	static BookSideSnapshot empty(int priceScale, int quantityScale) {
+		return new BookSideSnapshot(new long[0][], new long[0][], 0, priceScale, quantityScale);
+	}
+
+	public int size() {
+		return this.levels;
+	}
+
+	public boolean isEmpty() {
+		return this.levels == 0;
+	}
+
+	/**
+	 * @param depth, 0 for the best level
+	 * @return Price of the level in ticks
+	 */
+	public long getPrice(int depth) {
+		int index = this.levels - 1 - depth;
+		return this.priceChunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	/**
+	 * @param depth, 0 for the best level
+	 * @return Quantity of the major currency in the level in lots
+	 */
+	public long getQuantity(int depth) {
+		int index = this.levels - 1 - depth;
+		return this.quantityChunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	public int getPriceScale() {
+		return this.priceScale;
+	}
+
+	public int getQuantityScale() {
+		return this.quantityScale;
+	}
+
+	int chunkCount() {
+		return this.priceChunks.length;
+	}
+
+	long[] getPriceChunk(int chunk) {
+		return this.priceChunks[chunk];
+	}
+
+	long[] getQuantityChunk(int chunk) {
+		return this.quantityChunks[chunk];
+	}
+}
@@ -0,0 +1,42 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+/**
+ * Immutable version of both sides of a PriceLevelBook. The writer publishes a new BookSnapshot
+ * through a single volatile reference on every publish(), so a reader that holds one always sees
+ * asks and bids from the same update, no matter how many updates are published while it reads.
+ */
+public final class BookSnapshot {
+
+	private final long version;
+	private final BookSideSnapshot asks;
+	private final BookSideSnapshot bids;
+
+	/**
+	 * @param version, 0 for the empty book, one more for every publish() after it
+	 * @param asks, from lowest to highest
+	 * @param bids, from highest to lowest
+	 */
+	BookSnapshot(long version, BookSideSnapshot asks, BookSideSnapshot bids) {
+		this.version = version;
+		this.asks = asks;
+		this.bids = bids;
+	}
+
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return The asks from lowest to highest
+	 */
+	public BookSideSnapshot getAsks() {
+		return this.asks;
+	}
+
+	/**
+	 * @return The bids from highest to lowest
+	 */
+	public BookSideSnapshot getBids() {
+		return this.bids;
+	}
+}
@@ -0,0 +1,171 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+import java.util.Arrays;
+
+/**
+ * One side of an order book stored as parallel arrays of fixed-point prices and quantities.
+ * Prices are in ticks (price * 10^priceScale) and quantities in lots (quantity * 10^quantityScale).
+ *
+ * Levels are stored from the worst price to the best price so the best level is at the end of
+ * the arrays. Most updates happen close to the best price, which keeps the number of levels that
+ * have to be shifted when a level is inserted or removed small. For the same reason each snapshot
+ * shares the chunks of levels worse than the first level that changed with the snapshot before it.
+ */
+public class FixedPointBookSide {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// True for bids (higher prices are better), false for asks (lower prices are better)
+	private final boolean higherIsBetter;
+	private long[] prices = new long[INITIAL_CAPACITY];
+	private long[] quantities = new long[INITIAL_CAPACITY];
+	private int size = 0;
+	// Levels below this index are the same as in the last snapshot
+	private int firstChanged = 0;
+	private BookSideSnapshot lastSnapshot = null;
+
+	/**
+	 * @param higherIsBetter, true for bids and false for asks
+	 */
+	public FixedPointBookSide(boolean higherIsBetter) {
+		this.higherIsBetter = higherIsBetter;
+	}
+
+	/**
+	 * Inserts, updates or removes the level at price in O(log n) time to find the level plus
+	 * the time to shift the levels between it and the best level.
+	 * @param price, in ticks
+	 * @param quantity, in lots. A quantity of zero removes the level.
+	 */
+	public void update(long price, long quantity) {
+		int index = search(price);
+		if( index >= 0 ) {
+			this.firstChanged = Math.min(this.firstChanged, index);
+			if( quantity == 0l ) {
+				// Remove the level by shifting the better levels down
+				System.arraycopy(this.prices, index+1, this.prices, index, this.size-index-1);
+				System.arraycopy(this.quantities, index+1, this.quantities, index, this.size-index-1);
+				this.size--;
+			} else {
+				this.quantities[index] = quantity;
+			}
+		} else if( quantity != 0l ) {
+			// Insert the level by shifting the better levels up
+			int insertionPoint = -(index + 1);
+			this.firstChanged = Math.min(this.firstChanged, insertionPoint);
+			ensureCapacity(this.size + 1);
+			System.arraycopy(this.prices, insertionPoint, this.prices, insertionPoint+1, this.size-insertionPoint);
+			System.arraycopy(this.quantities, insertionPoint, this.quantities, insertionPoint+1, this.size-insertionPoint);
+			this.prices[insertionPoint] = price;
+			this.quantities[insertionPoint] = quantity;
+			this.size++;
+		}
+	}
+
+	/**
+	 * Replaces every level in the side.
+	 * @param bestFirstPrices, in ticks, sorted from the best price to the worst
+	 * @param bestFirstQuantities, in lots
+	 * @param levels, number of levels to read from the arrays
+	 */
+	public void replace(long[] bestFirstPrices, long[] bestFirstQuantities, int levels) {
+		this.size = 0;
+		this.firstChanged = 0;
+		ensureCapacity(levels);
+		for( int depth = 0; depth < levels; depth++ ) {
+			this.prices[levels-1-depth] = bestFirstPrices[depth];
+			this.quantities[levels-1-depth] = bestFirstQuantities[depth];
+		}
+		this.size = levels;
+	}
+
+	public void clear() {
+		this.size = 0;
+		this.firstChanged = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * @param depth, 0 for the best level
+	 * @return Price of the level in ticks
+	 */
+	public long getPrice(int depth) {
+		return this.prices[this.size-1-depth];
+	}
+
+	/**
+	 * @param depth, 0 for the best level
+	 * @return Quantity of the level in lots
+	 */
+	public long getQuantity(int depth) {
+		return this.quantities[this.size-1-depth];
+	}
+
+	/**
+	 * Only copies the chunks from the first level changed since the last snapshot to the best level,
+	 * the chunks before it are shared with the last snapshot.
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 * @return Immutable copy of the levels.
+	 */
+	public BookSideSnapshot snapshot(int priceScale, int quantityScale) {
+		int chunks = (this.size + BookSideSnapshot.CHUNK_SIZE - 1) >>> BookSideSnapshot.CHUNK_BITS;
+		// Only full chunks are shared, so every chunk but the last of a snapshot stays full
+		int sharedChunks = 0;
+		if( this.lastSnapshot != null && this.lastSnapshot.getPriceScale() == priceScale && this.lastSnapshot.getQuantityScale() == quantityScale )
+			sharedChunks = Math.min(this.firstChanged >>> BookSideSnapshot.CHUNK_BITS, chunks);
+		long[][] priceChunks = new long[chunks][];
+		long[][] quantityChunks = new long[chunks][];
+		for( int chunk = 0; chunk < chunks; chunk++ ) {
+			if( chunk < sharedChunks ) {
+				priceChunks[chunk] = this.lastSnapshot.getPriceChunk(chunk);
+				quantityChunks[chunk] = this.lastSnapshot.getQuantityChunk(chunk);
+			} else {
+				int from = chunk << BookSideSnapshot.CHUNK_BITS;
+				int to = Math.min(from + BookSideSnapshot.CHUNK_SIZE, this.size);
+				priceChunks[chunk] = Arrays.copyOfRange(this.prices, from, to);
+				quantityChunks[chunk] = Arrays.copyOfRange(this.quantities, from, to);
+			}
+		}
+		this.lastSnapshot = new BookSideSnapshot(priceChunks, quantityChunks, this.size, priceScale, quantityScale);
+		this.firstChanged = this.size;
+		return this.lastSnapshot;
+	}
+
+	/**
+	 * Binary search over the levels which are sorted from worst to best.
+	 * @return Index of the price, or -(insertion point) - 1 if the price is not in the side.
+	 */
+	private int search(long price) {
+		int low = 0;
+		int high = this.size - 1;
+		while( low <= high ) {
+			int middle = (low + high) >>> 1;
+			long middlePrice = this.prices[middle];
+			if( middlePrice == price )
+				return middle;
+			// Worse prices come first: lower bids and higher asks.
+			boolean middleIsWorse = this.higherIsBetter ? middlePrice < price : middlePrice > price;
+			if( middleIsWorse )
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return -(low + 1);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if( capacity > this.prices.length ) {
+			int newCapacity = Math.max(capacity, this.prices.length * 2);
+			this.prices = Arrays.copyOf(this.prices, newCapacity);
+			this.quantities = Arrays.copyOf(this.quantities, newCapacity);
+		}
+	}
+}
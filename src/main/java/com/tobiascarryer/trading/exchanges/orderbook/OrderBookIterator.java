@@ -1,59 +1,140 @@
 package com.tobiascarryer.trading.exchanges.orderbook;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 import org.knowm.xchange.dto.trade.LimitOrder;
 
 import com.dylanjsa.cryptopia.remote.data.MarketOrder;
+import com.tobiascarryer.trading.FixedPoint;
 
+/**
+ * Iterates through one side of an order book from the best price to the worst.
+ *
+ * Creating an iterator does not copy the book. An entry is only created when its level is
+ * reached by next(), and every entry returned is a new object owned by the iterator. Callers
+ * such as ArbitrageOpportunity.optimizeOrders can modify the entries to keep track of how much
+ * of each level they have consumed without modifying the book or any other iterator.
+ */
 public class OrderBookIterator {
-	private OrderBookEntry[] entries;
+
+	/**
+	 * Creates a new entry for the level at depth. Must not return an entry shared with anything else.
+	 */
+	private interface LevelReader {
+		OrderBookEntry read(int depth);
+	}
+
+	private final LevelReader reader;
+	private final int levels;
 	private int currentEntry = 0;
+
+	// Only set by createSnapshotIterator
+	private final BookSideSnapshot snapshot;
 	
-	private OrderBookIterator(OrderBookEntry[] entries) {
-		this.entries = entries;
-	}
+	// Level read by nextLevel(), at ENTRY_SCALE decimal places
+	private long levelPrice;
+	private long levelMinorCurrencyAmount;
 	
+	/**
+	 * Number of decimal places OrderBookEntry rounds its price and minor currency amount to.
+	 */
+	public static final int ENTRY_SCALE = 8;
+
+	private OrderBookIterator(LevelReader reader, int levels, BookSideSnapshot snapshot) {
+		this.reader = reader;
+		this.levels = levels;
+		this.snapshot = snapshot;
+	}
+
 	public OrderBookEntry next() {
-		return this.entries[currentEntry++];
+		return this.reader.read(currentEntry++);
 	}
 
 	public boolean hasNext() {
-		return currentEntry < this.entries.length;
+		return currentEntry < this.levels;
 	}
-	
-	public static OrderBookIterator createCryptopiaIterator(List<MarketOrder> entriesToProcess) {
-		OrderBookEntry[] assimilatedEntries = new OrderBookEntry[entriesToProcess.size()];
-		for( int i=0; i < entriesToProcess.size(); i++ )
-			assimilatedEntries[i] = new OrderBookEntry(entriesToProcess.get(i).getPrice(), entriesToProcess.get(i).getTotal());
-		return new OrderBookIterator(assimilatedEntries);
+
+	/**
+	 * Moves to the next level like next() but keeps its values as longs, so no objects are created
+	 * when iterating through a snapshot. The values are the same an OrderBookEntry of the level would have.
+	 * @throws ArithmeticException if the level does not fit in a long at ENTRY_SCALE or its price is zero
+	 */
+	public void nextLevel() {
+		if( this.snapshot == null ) {
+			OrderBookEntry entry = next();
+			this.levelPrice = FixedPoint.fromBigDecimal(entry.getPrice(), ENTRY_SCALE);
+			this.levelMinorCurrencyAmount = FixedPoint.fromBigDecimal(entry.getMinorCurrencyAmount(), ENTRY_SCALE);
+			return;
+		}
+		
+		int depth = currentEntry++;
+		long price = this.snapshot.getPrice(depth);
+		long quantity = this.snapshot.getQuantity(depth);
+		int priceScale = this.snapshot.getPriceScale();
+		int productScale = priceScale + this.snapshot.getQuantityScale();
+		this.levelPrice = FixedPoint.rescale(price, priceScale, ENTRY_SCALE);
+		if( this.levelPrice == 0l )
+			throw new ArithmeticException("Division by zero"); // OrderBookEntry divides by the price
+		// The entry's minor currency amount is the exact price * quantity rounded half even.
+		if( productScale >= ENTRY_SCALE )
+			this.levelMinorCurrencyAmount = FixedPoint.multiplyDivide(price, quantity, FixedPoint.powerOfTen(productScale - ENTRY_SCALE));
+		else
+			this.levelMinorCurrencyAmount = Math.multiplyExact(Math.multiplyExact(price, quantity), FixedPoint.powerOfTen(ENTRY_SCALE - productScale));
 	}
 	
-	public static OrderBookIterator createBinanceIterator(List<com.binance.api.client.domain.market.OrderBookEntry> entriesToProcess) {
-		OrderBookEntry[] assimilatedEntries = new OrderBookEntry[entriesToProcess.size()];
-		for( int i=0; i < entriesToProcess.size(); i++ )
-			assimilatedEntries[i] = new OrderBookEntry(entriesToProcess.get(i).getPrice(), entriesToProcess.get(i).getQty());
-		return new OrderBookIterator(assimilatedEntries);
+	/**
+	 * @return Price of the level read by nextLevel(), at ENTRY_SCALE decimal places
+	 */
+	public long getLevelPrice() {
+		return this.levelPrice;
 	}
 	
+	/**
+	 * @return Minor currency amount of the level read by nextLevel(), at ENTRY_SCALE decimal places
+	 */
+	public long getLevelMinorCurrencyAmount() {
+		return this.levelMinorCurrencyAmount;
+	}
+
+	/**
+	 * @return The immutable levels being iterated through, or null if the iterator was not
+	 * created from a snapshot.
+	 */
+	public BookSideSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	public static OrderBookIterator createCryptopiaIterator(List<MarketOrder> entriesToProcess) {
+		return new OrderBookIterator(depth -> new OrderBookEntry(entriesToProcess.get(depth).getPrice(), entriesToProcess.get(depth).getTotal()),
+				entriesToProcess.size(), null);
+	}
+
+	/**
+	 * @param snapshot, levels sorted from the best price to the worst
+	 * @return An instance of OrderBookIterator that iterates through the snapshot.
+	 */
+	public static OrderBookIterator createSnapshotIterator(BookSideSnapshot snapshot) {
+		return new OrderBookIterator(depth -> {
+			BigDecimal price = FixedPoint.toBigDecimal(snapshot.getPrice(depth), snapshot.getPriceScale());
+			BigDecimal quantity = FixedPoint.toBigDecimal(snapshot.getQuantity(depth), snapshot.getQuantityScale());
+			return new OrderBookEntry(price, price.multiply(quantity));
+		}, snapshot.size(), snapshot);
+	}
+
 	public static OrderBookIterator createXChangeIterator(List<LimitOrder> entriesToProcess) {
-		OrderBookEntry[] assimilatedEntries = new OrderBookEntry[entriesToProcess.size()];
-		for( int i=0; i < entriesToProcess.size(); i++ )
-			assimilatedEntries[i] = new OrderBookEntry(entriesToProcess.get(i).getLimitPrice(), entriesToProcess.get(i).getRemainingAmount());
-		return new OrderBookIterator(assimilatedEntries);
+		return new OrderBookIterator(depth -> new OrderBookEntry(entriesToProcess.get(depth).getLimitPrice(), entriesToProcess.get(depth).getRemainingAmount()),
+				entriesToProcess.size(), null);
 	}
-	
+
 	/**
 	 * Cloning entries before iterating is important because modifying the entries' values modifies them for every object
-	 * that had a reference to that particular entry.
+	 * that had a reference to that particular entry. Entries are cloned as they are reached.
 	 * @param entriesToClone, the entries that should be cloned
 	 * @return An instance of OrderBookIterator that iterates through the entries cloned.
 	 */
 	public static OrderBookIterator createIteratorByCloning(OrderBookEntry[] entriesToClone) {
-		OrderBookEntry[] entriesClone = new OrderBookEntry[entriesToClone.length];
-		for( int i=0; i < entriesToClone.length; i++ ) {
-			entriesClone[i] = new OrderBookEntry(entriesToClone[i].getPrice(), entriesToClone[i].getMinorCurrencyAmount());
-		}
-		return new OrderBookIterator(entriesClone);
+		return new OrderBookIterator(depth -> new OrderBookEntry(entriesToClone[depth].getPrice(), entriesToClone[depth].getMinorCurrencyAmount()),
+				entriesToClone.length, null);
 	}
 }
@@ -3,11 +3,13 @@ package com.tobiascarryer.trading.exchanges.orderbook;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
 
 public class OrderBooks<T> {
-	
-	private ConcurrentHashMap<String, ConcurrentHashMap<String, T>> orderBooks = new ConcurrentHashMap<String, ConcurrentHashMap<String, T>>();
-	
+
+	// Pairs are interned so the map compares them by identity.
+	private ConcurrentHashMap<CurrencyPair, T> orderBooks = new ConcurrentHashMap<CurrencyPair, T>();
+
 	/**
 	 * Removes previous book and replaces it with the new book.
 	 * @param majorCurrency, not case sensitive
@@ -15,16 +17,45 @@ public class OrderBooks<T> {
 	 * @param book
 	 */
 	public void put(String majorCurrency, String minorCurrency, T book) {
-		// Currencies are equal regardless of case. (ex. ETH = eth)
-		majorCurrency = majorCurrency.toLowerCase();
-		minorCurrency = minorCurrency.toLowerCase();
-		
-		// Get the order books for the minor currency and add book to it.
-		ConcurrentHashMap<String, T> booksForMinorCurrency = orderBooks.getOrDefault(minorCurrency, new ConcurrentHashMap<String, T>());
-		booksForMinorCurrency.put(majorCurrency, book);
-		orderBooks.put(minorCurrency, booksForMinorCurrency);
+		put(CurrencyPair.of(majorCurrency, minorCurrency), book);
+	}
+
+	/**
+	 * Removes previous book and replaces it with the new book.
+	 */
+	public void put(CurrencyPair pair, T book) {
+		orderBooks.put(pair, book);
+	}
+
+	/**
+	 * Stores book only if there is no book for the pair yet.
+	 * @param majorCurrency, not case sensitive
+	 * @param minorCurrency, not case sensitive
+	 * @param book
+	 * @return The book stored for the pair, which is the existing book if there was one.
+	 */
+	public T putIfAbsent(String majorCurrency, String minorCurrency, T book) {
+		return putIfAbsent(CurrencyPair.of(majorCurrency, minorCurrency), book);
 	}
-	
+
+	/**
+	 * Stores book only if there is no book for the pair yet.
+	 * @return The book stored for the pair, which is the existing book if there was one.
+	 */
+	public T putIfAbsent(CurrencyPair pair, T book) {
+		T existing = orderBooks.putIfAbsent(pair, book);
+		return existing == null ? book : existing;
+	}
+
+	/**
+	 * Removes the book of the pair so get throws BookNotFoundException until a book is put again.
+	 * @param majorCurrency, not case sensitive
+	 * @param minorCurrency, not case sensitive
+	 */
+	public void remove(String majorCurrency, String minorCurrency) {
+		orderBooks.remove(CurrencyPair.of(majorCurrency, minorCurrency));
+	}
+
 	/**
 	 * Merges entries in the existing book with the entries from the new book.
 	 * @param majorCurrency, not case sensitive
@@ -32,18 +63,18 @@ public class OrderBooks<T> {
 	 * @return book
 	 */
 	public T get(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		// Currencies are equal regardless of case. (ex. ETH = eth)
-		majorCurrency = majorCurrency.toLowerCase();
-		minorCurrency = minorCurrency.toLowerCase();
-		
+		return get(CurrencyPair.of(majorCurrency, minorCurrency));
+	}
+
+	/**
+	 * @return book
+	 */
+	public T get(CurrencyPair pair) throws BookNotFoundException {
 		// Return the book if it exists. The exception exists because a book not existing must always
 		// be handled and forgetting to handle it is unacceptable.
-		if( orderBooks.get(minorCurrency) == null ) {
-			throw new BookNotFoundException("Minor currency ("+minorCurrency+") does not have any books stored.");
-		}
-		T toReturn = orderBooks.get(minorCurrency).get(majorCurrency);
+		T toReturn = orderBooks.get(pair);
 		if( toReturn == null ) {
-			throw new BookNotFoundException("Major currency ("+majorCurrency+") does not have a book stored for this minor currency ("+minorCurrency+").");
+			throw new BookNotFoundException("Major currency ("+pair.getMajorCurrency()+") does not have a book stored for this minor currency ("+pair.getMinorCurrency()+").");
 		}
 		return toReturn;
 	}
@@ -0,0 +1,259 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import com.dylanjsa.cryptopia.remote.data.MarketOrder;
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+
+/**
+ * Order book for a single trading pair where every price level is keyed by its price.
+ * Prices and quantities are stored as fixed-point longs scaled by the pair's price and
+ * quantity decimal precision, so keeping the book in sync does not create BigDecimals.
+ *
+ * The book has a single writer. Updates are made to a private copy of the levels and only become
+ * visible to readers when the writer calls publish(), which replaces the published BookSnapshot with
+ * a new version holding both sides. A side that did not change is reused as is and a side that did
+ * shares every chunk of levels before its first change with the last version. Readers never lock or
+ * copy: reading the best level and creating an iterator both take O(1) time no matter how deep the book is.
+ */
+public class PriceLevelBook {
+
+	private final int priceScale;
+	private final int quantityScale;
+	
+	// Only accessed by the writer
+	private final FixedPointBookSide asks = new FixedPointBookSide(false);
+	private final FixedPointBookSide bids = new FixedPointBookSide(true);
+	private boolean asksChanged = false;
+	private boolean bidsChanged = false;
+	
+	// Read by any thread
+	private volatile BookSnapshot published;
+	private final TopOfBookSlot topOfBook;
+
+	/**
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 */
+	public PriceLevelBook(int priceScale, int quantityScale) {
+		this(priceScale, quantityScale, new TopOfBookSlot());
+	}
+
+	/**
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 * @param topOfBook, slot the best bid and ask are published to. Can be shared with the books that replace this one.
+	 */
+	public PriceLevelBook(int priceScale, int quantityScale, TopOfBookSlot topOfBook) {
+		this.priceScale = priceScale;
+		this.quantityScale = quantityScale;
+		BookSideSnapshot empty = BookSideSnapshot.empty(priceScale, quantityScale);
+		this.published = new BookSnapshot(0l, empty, empty);
+		this.topOfBook = topOfBook;
+	}
+
+	public int getPriceScale() {
+		return this.priceScale;
+	}
+
+	public int getQuantityScale() {
+		return this.quantityScale;
+	}
+
+	/**
+	 * Inserts, updates or removes the ask level at price. Not visible to readers until publish() is called.
+	 * @param price, quoted in the minor currency
+	 * @param quantity, measured in the major currency. A quantity of zero removes the level.
+	 */
+	public void updateAsk(String price, String quantity) {
+		updateAsk(FixedPoint.parse(price, this.priceScale), FixedPoint.parse(quantity, this.quantityScale));
+	}
+
+	/**
+	 * Inserts, updates or removes the bid level at price. Not visible to readers until publish() is called.
+	 * @param price, quoted in the minor currency
+	 * @param quantity, measured in the major currency. A quantity of zero removes the level.
+	 */
+	public void updateBid(String price, String quantity) {
+		updateBid(FixedPoint.parse(price, this.priceScale), FixedPoint.parse(quantity, this.quantityScale));
+	}
+
+	/**
+	 * @param price, in ticks (price * 10^priceScale)
+	 * @param quantity, in lots (quantity * 10^quantityScale). A quantity of zero removes the level.
+	 */
+	public void updateAsk(long price, long quantity) {
+		this.asks.update(price, quantity);
+		this.asksChanged = true;
+	}
+
+	/**
+	 * @param price, in ticks (price * 10^priceScale)
+	 * @param quantity, in lots (quantity * 10^quantityScale). A quantity of zero removes the level.
+	 */
+	public void updateBid(long price, long quantity) {
+		this.bids.update(price, quantity);
+		this.bidsChanged = true;
+	}
+
+	/**
+	 * Removes every level from both sides of the book. Not visible to readers until publish() is called.
+	 */
+	public void clear() {
+		this.asks.clear();
+		this.bids.clear();
+		this.asksChanged = true;
+		this.bidsChanged = true;
+	}
+
+	/**
+	 * Makes every update since the last call visible to readers as one new version of the book.
+	 * Call once after applying a batch of updates, for example every level of a depth event.
+	 */
+	public void publish() {
+		if( !this.asksChanged && !this.bidsChanged )
+			return;
+		BookSnapshot last = this.published;
+		BookSideSnapshot asksSnapshot = last.getAsks();
+		BookSideSnapshot bidsSnapshot = last.getBids();
+		if( this.asksChanged ) {
+			asksSnapshot = this.asks.snapshot(this.priceScale, this.quantityScale);
+			this.asksChanged = false;
+		}
+		if( this.bidsChanged ) {
+			bidsSnapshot = this.bids.snapshot(this.priceScale, this.quantityScale);
+			this.bidsChanged = false;
+		}
+		this.published = new BookSnapshot(last.getVersion() + 1l, asksSnapshot, bidsSnapshot);
+		publishTopOfBook();
+	}
+
+	/**
+	 * @return Both sides of the book as of the last publish(). Read the sides from it instead of calling
+	 * getAsks() and getBids() when they have to be from the same update.
+	 */
+	public BookSnapshot getSnapshot() {
+		return this.published;
+	}
+
+	/**
+	 * @return Number of times the book was published, a new version means the levels changed.
+	 */
+	public long getVersion() {
+		return this.published.getVersion();
+	}
+
+	/**
+	 * @return Slot holding the best bid and ask as of the last publish().
+	 */
+	public TopOfBookSlot getTopOfBookSlot() {
+		return this.topOfBook;
+	}
+
+	private void publishTopOfBook() {
+		long bidPrice = 0l, bidQuantity = 0l, askPrice = 0l, askQuantity = 0l;
+		if( !this.bids.isEmpty() ) {
+			bidPrice = FixedPoint.rescale(this.bids.getPrice(0), this.priceScale, TopOfBook.PRICE_SCALE);
+			bidQuantity = this.bids.getQuantity(0);
+		}
+		if( !this.asks.isEmpty() ) {
+			askPrice = FixedPoint.rescale(this.asks.getPrice(0), this.priceScale, TopOfBook.PRICE_SCALE);
+			askQuantity = this.asks.getQuantity(0);
+		}
+		// Most updates are deeper in the book, only publish when the best levels changed.
+		if( !this.topOfBook.get().hasLevels(bidPrice, bidQuantity, askPrice, askQuantity, this.quantityScale) )
+			this.topOfBook.publish(new TopOfBook(bidPrice, bidQuantity, askPrice, askQuantity, this.quantityScale));
+	}
+
+	public BigDecimal getLowestAsk() throws BookNotFoundException {
+		BookSideSnapshot asksSnapshot = this.published.getAsks();
+		if( asksSnapshot.isEmpty() )
+			throw new BookNotFoundException("Book does not have any asks.");
+		return FixedPoint.toBigDecimal(asksSnapshot.getPrice(0), this.priceScale);
+	}
+
+	public BigDecimal getHighestBid() throws BookNotFoundException {
+		BookSideSnapshot bidsSnapshot = this.published.getBids();
+		if( bidsSnapshot.isEmpty() )
+			throw new BookNotFoundException("Book does not have any bids.");
+		return FixedPoint.toBigDecimal(bidsSnapshot.getPrice(0), this.priceScale);
+	}
+
+	/**
+	 * @return The asks from lowest to highest as of the last publish().
+	 */
+	public BookSideSnapshot getAsks() {
+		return this.published.getAsks();
+	}
+
+	/**
+	 * @return The bids from highest to lowest as of the last publish().
+	 */
+	public BookSideSnapshot getBids() {
+		return this.published.getBids();
+	}
+
+	/**
+	 * @return OrderBookIterator through the asks from lowest to highest.
+	 */
+	public OrderBookIterator getAsksIterator() {
+		return OrderBookIterator.createSnapshotIterator(this.published.getAsks());
+	}
+
+	/**
+	 * @return OrderBookIterator through the bids from highest to lowest.
+	 */
+	public OrderBookIterator getBidsIterator() {
+		return OrderBookIterator.createSnapshotIterator(this.published.getBids());
+	}
+
+	/**
+	 * Replaces both sides of the book with the levels polled from Cryptopia and publishes them.
+	 * @param asksToProcess, sorted from lowest to highest price
+	 * @param bidsToProcess, sorted from highest to lowest price
+	 */
+	public void replaceWithCryptopiaLevels(List<MarketOrder> asksToProcess, List<MarketOrder> bidsToProcess) {
+		long[][] asksLevels = new long[2][asksToProcess.size()];
+		for( int i=0; i < asksToProcess.size(); i++ ) {
+			asksLevels[0][i] = FixedPoint.fromBigDecimal(asksToProcess.get(i).getPrice(), this.priceScale);
+			asksLevels[1][i] = FixedPoint.fromBigDecimal(asksToProcess.get(i).getVolume(), this.quantityScale);
+		}
+		long[][] bidsLevels = new long[2][bidsToProcess.size()];
+		for( int i=0; i < bidsToProcess.size(); i++ ) {
+			bidsLevels[0][i] = FixedPoint.fromBigDecimal(bidsToProcess.get(i).getPrice(), this.priceScale);
+			bidsLevels[1][i] = FixedPoint.fromBigDecimal(bidsToProcess.get(i).getVolume(), this.quantityScale);
+		}
+		replace(asksLevels, bidsLevels);
+	}
+
+	/**
+	 * Replaces both sides of the book with the levels polled from an XChange exchange and publishes them.
+	 * @param asksToProcess, sorted from lowest to highest price
+	 * @param bidsToProcess, sorted from highest to lowest price
+	 */
+	public void replaceWithXChangeLevels(List<LimitOrder> asksToProcess, List<LimitOrder> bidsToProcess) {
+		long[][] asksLevels = new long[2][asksToProcess.size()];
+		for( int i=0; i < asksToProcess.size(); i++ ) {
+			asksLevels[0][i] = FixedPoint.fromBigDecimal(asksToProcess.get(i).getLimitPrice(), this.priceScale);
+			asksLevels[1][i] = FixedPoint.fromBigDecimal(asksToProcess.get(i).getRemainingAmount(), this.quantityScale);
+		}
+		long[][] bidsLevels = new long[2][bidsToProcess.size()];
+		for( int i=0; i < bidsToProcess.size(); i++ ) {
+			bidsLevels[0][i] = FixedPoint.fromBigDecimal(bidsToProcess.get(i).getLimitPrice(), this.priceScale);
+			bidsLevels[1][i] = FixedPoint.fromBigDecimal(bidsToProcess.get(i).getRemainingAmount(), this.quantityScale);
+		}
+		replace(asksLevels, bidsLevels);
+	}
+
+	private void replace(long[][] asksLevels, long[][] bidsLevels) {
+		this.asks.replace(asksLevels[0], asksLevels[1], asksLevels[0].length);
+		this.bids.replace(bidsLevels[0], bidsLevels[1], bidsLevels[0].length);
+		this.asksChanged = true;
+		this.bidsChanged = true;
+		publish();
+	}
+}
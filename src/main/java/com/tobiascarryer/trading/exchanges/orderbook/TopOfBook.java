@@ -0,0 +1,85 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+/**
+ * Immutable best bid and best ask of a trading pair. A new instance is published every time
+ * either best level changes, so a reader always sees a bid and an ask from the same update.
+ *
+ * Prices are normalized to PRICE_SCALE decimal places so the top of books of different
+ * exchanges can be compared without converting them. Quantities keep the pair's quantity scale.
+ */
+public final class TopOfBook {
+
+	public static final int PRICE_SCALE = 8;
+	
+	/**
+	 * Top of book of a pair that has not been received yet.
+	 */
+	public static final TopOfBook EMPTY = new TopOfBook(0l, 0l, 0l, 0l, 0);
+
+	private final long bidPrice;
+	private final long bidQuantity;
+	private final long askPrice;
+	private final long askQuantity;
+	private final int quantityScale;
+
+	/**
+	 * @param bidPrice, in ticks at PRICE_SCALE
+	 * @param bidQuantity, in lots, 0 if there are no bids
+	 * @param askPrice, in ticks at PRICE_SCALE
+	 * @param askQuantity, in lots, 0 if there are no asks
+	 * @param quantityScale, number of decimal places in a quantity
+	 */
+	public TopOfBook(long bidPrice, long bidQuantity, long askPrice, long askQuantity, int quantityScale) {
+		this.bidPrice = bidPrice;
+		this.bidQuantity = bidQuantity;
+		this.askPrice = askPrice;
+		this.askQuantity = askQuantity;
+		this.quantityScale = quantityScale;
+	}
+
+	public boolean hasBid() {
+		return this.bidQuantity != 0l;
+	}
+
+	public boolean hasAsk() {
+		return this.askQuantity != 0l;
+	}
+
+	/**
+	 * @return Price of the highest bid in ticks at PRICE_SCALE
+	 */
+	public long getBidPrice() {
+		return this.bidPrice;
+	}
+
+	/**
+	 * @return Quantity of the major currency at the highest bid in lots
+	 */
+	public long getBidQuantity() {
+		return this.bidQuantity;
+	}
+
+	/**
+	 * @return Price of the lowest ask in ticks at PRICE_SCALE
+	 */
+	public long getAskPrice() {
+		return this.askPrice;
+	}
+
+	/**
+	 * @return Quantity of the major currency at the lowest ask in lots
+	 */
+	public long getAskQuantity() {
+		return this.askQuantity;
+	}
+
+	public int getQuantityScale() {
+		return this.quantityScale;
+	}
+
+	boolean hasLevels(long bidPrice, long bidQuantity, long askPrice, long askQuantity, int quantityScale) {
+		return this.bidPrice == bidPrice && this.bidQuantity == bidQuantity
+				&& this.askPrice == askPrice && this.askQuantity == askQuantity
+				&& this.quantityScale == quantityScale;
+	}
+}
@@ -0,0 +1,25 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+/**
+ * Holds the latest TopOfBook of a trading pair. The slot of a pair never changes, so readers can
+ * look it up once and then read it in a loop without locking, allocating or looking up the book.
+ */
+public final class TopOfBookSlot {
+
+	private volatile TopOfBook topOfBook = TopOfBook.EMPTY;
+
+	/**
+	 * @return The latest top of book, TopOfBook.EMPTY if the book has not been received yet.
+	 */
+	public TopOfBook get() {
+		return this.topOfBook;
+	}
+
+	/**
+	 * Only the thread that writes the book should publish to its slot.
+	 * @param topOfBook, replaces the previous top of book
+	 */
+	public void publish(TopOfBook topOfBook) {
+		this.topOfBook = topOfBook;
+	}
+}
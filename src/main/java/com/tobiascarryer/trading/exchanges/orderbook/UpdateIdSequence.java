@@ -0,0 +1,50 @@
+package com.tobiascarryer.trading.exchanges.orderbook;
+
+/**
+ * Checks that the depth events of a book continue from its snapshot without any missing in between.
+ *
+ * Every event covers a range of update ids, from its first to its final update id. An event is only applied
+ * if its range starts at most one past the last id applied and ends after it. A range that starts further
+ * along means events were missed and the book no longer matches the exchange's until it is resynced.
+ */
+public class UpdateIdSequence {
+
+	public enum Result {
+		/** Continues the sequence, apply it */
+		APPLY,
+		/** Only covers updates already in the book, drop it */
+		OLD,
+		/** Updates before it were missed, the book must be resynced */
+		GAP
+	}
+
+	private long lastUpdateId;
+
+	/**
+	 * @param snapshotUpdateId, last update id included in the snapshot the book was built from
+	 */
+	public UpdateIdSequence(long snapshotUpdateId) {
+		this.lastUpdateId = snapshotUpdateId;
+	}
+
+	/**
+	 * Call with the events in the order they were received. The sequence moves on when the result is APPLY.
+	 * @param firstUpdateId, U of the event
+	 * @param finalUpdateId, u of the event
+	 */
+	public Result next(long firstUpdateId, long finalUpdateId) {
+		if( finalUpdateId <= this.lastUpdateId )
+			return Result.OLD;
+		if( firstUpdateId > this.lastUpdateId + 1l )
+			return Result.GAP;
+		this.lastUpdateId = finalUpdateId;
+		return Result.APPLY;
+	}
+
+	/**
+	 * @return Final update id of the last event applied, the snapshot's if none were
+	 */
+	public long getLastUpdateId() {
+		return this.lastUpdateId;
+	}
+}
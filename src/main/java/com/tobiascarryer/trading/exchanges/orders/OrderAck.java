@@ -0,0 +1,41 @@
+package com.tobiascarryer.trading.exchanges.orders;
+
+/**
+ * Confirmation that an exchange accepted an order.
+ */
+public class OrderAck {
+
+	private final Order order;
+	private final long sentNanos;
+	private final long acknowledgedNanos;
+
+	/**
+	 * @param order, order that was accepted
+	 * @param sentNanos, System.nanoTime() when the order was sent
+	 * @param acknowledgedNanos, System.nanoTime() when the exchange accepted it
+	 */
+	public OrderAck(Order order, long sentNanos, long acknowledgedNanos) {
+		this.order = order;
+		this.sentNanos = sentNanos;
+		this.acknowledgedNanos = acknowledgedNanos;
+	}
+
+	public Order getOrder() {
+		return this.order;
+	}
+
+	public long getSentNanos() {
+		return this.sentNanos;
+	}
+
+	public long getAcknowledgedNanos() {
+		return this.acknowledgedNanos;
+	}
+
+	/**
+	 * @return Time between sending the order and the exchange accepting it
+	 */
+	public long getLatencyNanos() {
+		return this.acknowledgedNanos - this.sentNanos;
+	}
+}
@@ -0,0 +1,93 @@
+package com.tobiascarryer.trading.exchanges.pairs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A major and minor currency, interned so there is only one CurrencyPair for each pair regardless of the case
+ * of the symbols (ex. ETH/BTC = eth/btc). Pairs can be compared by identity and are numbered from 0 in the order
+ * they are first requested so they can index arrays.
+ */
+public final class CurrencyPair {
+
+	// Canonical pairs by upper case symbols, minor currency first
+	private static final ConcurrentMap<String, ConcurrentMap<String, CurrencyPair>> pairs = new ConcurrentHashMap<>();
+	// Pairs by the symbols exactly as they were requested, so looking up a known pair does not create any strings
+	private static final ConcurrentMap<String, ConcurrentMap<String, CurrencyPair>> pairsBySpelling = new ConcurrentHashMap<>();
+	private static int pairCount = 0;
+
+	private final String majorCurrency;
+	private final String minorCurrency;
+	private final int id;
+
+	private CurrencyPair(String majorCurrency, String minorCurrency, int id) {
+		this.majorCurrency = majorCurrency;
+		this.minorCurrency = minorCurrency;
+		this.id = id;
+	}
+
+	/**
+	 * @param majorCurrency, not case sensitive
+	 * @param minorCurrency, not case sensitive
+	 * @return The only pair of the two currencies
+	 */
+	public static CurrencyPair of(String majorCurrency, String minorCurrency) {
+		ConcurrentMap<String, CurrencyPair> pairsOfMinor = pairsBySpelling.get(minorCurrency);
+		if( pairsOfMinor != null ) {
+			CurrencyPair pair = pairsOfMinor.get(majorCurrency);
+			if( pair != null )
+				return pair;
+		}
+		CurrencyPair pair = intern(majorCurrency.toUpperCase(), minorCurrency.toUpperCase());
+		pairsBySpelling.computeIfAbsent(minorCurrency, (String key) -> new ConcurrentHashMap<String, CurrencyPair>()).putIfAbsent(majorCurrency, pair);
+		return pair;
+	}
+
+	private static synchronized CurrencyPair intern(String majorCurrency, String minorCurrency) {
+		ConcurrentMap<String, CurrencyPair> pairsOfMinor = pairs.computeIfAbsent(minorCurrency, (String key) -> new ConcurrentHashMap<String, CurrencyPair>());
+		CurrencyPair pair = pairsOfMinor.get(majorCurrency);
+		if( pair == null ) {
+			pair = new CurrencyPair(majorCurrency, minorCurrency, pairCount++);
+			pairsOfMinor.put(majorCurrency, pair);
+		}
+		return pair;
+	}
+
+	/**
+	 * @return Number of pairs created so far, every id is smaller than it.
+	 */
+	public static synchronized int getPairCount() {
+		return pairCount;
+	}
+
+	/**
+	 * @return Symbol in upper case
+	 */
+	public String getMajorCurrency() {
+		return this.majorCurrency;
+	}
+
+	/**
+	 * @return Symbol in upper case
+	 */
+	public String getMinorCurrency() {
+		return this.minorCurrency;
+	}
+
+	/**
+	 * @return Number of the pair, between 0 and getPairCount() - 1
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.id;
+	}
+
+	@Override
+	public String toString() {
+		return this.majorCurrency+"/"+this.minorCurrency;
+	}
+}
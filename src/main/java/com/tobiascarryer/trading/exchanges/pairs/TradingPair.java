@@ -0,0 +1,83 @@
+package com.tobiascarryer.trading.exchanges.pairs;
+
+import java.math.BigDecimal;
+
+/**
+ * What an exchange knows about a CurrencyPair: its ticker and trading rules. Created once per pair and exchange
+ * by TradingPairs so none of it is rebuilt or looked up by string on every call.
+ */
+public final class TradingPair {
+
+	private final CurrencyPair pair;
+	private final String ticker;
+	private volatile int quantityDecimalPrecision = 8;
+	private volatile int priceDecimalPrecision = 8;
+	private volatile BigDecimal minimumMinorVolume;
+	private volatile BigDecimal minimumQuantity;
+
+	/**
+	 * @param pair
+	 * @param ticker, symbol of the pair on the exchange
+	 */
+	public TradingPair(CurrencyPair pair, String ticker) {
+		this.pair = pair;
+		this.ticker = ticker;
+	}
+
+	public CurrencyPair getPair() {
+		return this.pair;
+	}
+
+	public String getTicker() {
+		return this.ticker;
+	}
+
+	/**
+	 * @return 8 until the exchange sets it
+	 */
+	public int getQuantityDecimalPrecision() {
+		return this.quantityDecimalPrecision;
+	}
+
+	public void setQuantityDecimalPrecision(int quantityDecimalPrecision) {
+		this.quantityDecimalPrecision = quantityDecimalPrecision;
+	}
+
+	/**
+	 * @return 8 until the exchange sets it
+	 */
+	public int getPriceDecimalPrecision() {
+		return this.priceDecimalPrecision;
+	}
+
+	public void setPriceDecimalPrecision(int priceDecimalPrecision) {
+		this.priceDecimalPrecision = priceDecimalPrecision;
+	}
+
+	/**
+	 * @return Null until the exchange sets it
+	 */
+	public BigDecimal getMinimumMinorVolume() {
+		return this.minimumMinorVolume;
+	}
+
+	public void setMinimumMinorVolume(BigDecimal minimumMinorVolume) {
+		this.minimumMinorVolume = minimumMinorVolume;
+	}
+
+	/**
+	 * @return Null until the exchange sets it
+	 */
+	public BigDecimal getMinimumQuantity() {
+		return this.minimumQuantity;
+	}
+
+	public void setMinimumQuantity(BigDecimal minimumQuantity) {
+		this.minimumQuantity = minimumQuantity;
+	}
+
+	@Override
+	public String toString() {
+		return this.ticker;
+	}
+}
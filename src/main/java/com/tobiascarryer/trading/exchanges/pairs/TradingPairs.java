@@ -0,0 +1,54 @@
+package com.tobiascarryer.trading.exchanges.pairs;
+
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
+/**
+ * The TradingPair of every CurrencyPair on one exchange, indexed by the id of the CurrencyPair.
+ * Looking up a pair that was already created is a single array read.
+ */
+public final class TradingPairs {
+
+	private final BiFunction<String, String, String> makeTicker;
+	private volatile TradingPair[] tradingPairs = new TradingPair[0];
+
+	/**
+	 * @param makeTicker, creates the ticker of the exchange from the major and minor currency
+	 */
+	public TradingPairs(BiFunction<String, String, String> makeTicker) {
+		this.makeTicker = makeTicker;
+	}
+
+	/**
+	 * @param majorCurrency, not case sensitive
+	 * @param minorCurrency, not case sensitive
+	 */
+	public TradingPair get(String majorCurrency, String minorCurrency) {
+		return get(CurrencyPair.of(majorCurrency, minorCurrency));
+	}
+
+	/**
+	 * @return The trading pair, created the first time it is requested.
+	 */
+	public TradingPair get(CurrencyPair pair) {
+		TradingPair[] tradingPairs = this.tradingPairs;
+		if( pair.getId() < tradingPairs.length && tradingPairs[pair.getId()] != null )
+			return tradingPairs[pair.getId()];
+		return create(pair);
+	}
+
+	private synchronized TradingPair create(CurrencyPair pair) {
+		TradingPair[] tradingPairs = this.tradingPairs;
+		if( pair.getId() >= tradingPairs.length )
+			tradingPairs = Arrays.copyOf(tradingPairs, Math.max(CurrencyPair.getPairCount(), 2 * tradingPairs.length));
+		else if( tradingPairs[pair.getId()] != null )
+			return tradingPairs[pair.getId()];
+		else
+			tradingPairs = tradingPairs.clone();
+		TradingPair tradingPair = new TradingPair(pair, this.makeTicker.apply(pair.getMajorCurrency(), pair.getMinorCurrency()));
+		tradingPairs[pair.getId()] = tradingPair;
+		// Readers only see the array once the pair is in it
+		this.tradingPairs = tradingPairs;
+		return tradingPair;
+	}
+}
@@ -0,0 +1,110 @@
+package com.tobiascarryer.trading.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+
+/**
+ * Rebuilds the book of a pair as it was at any time recorded in a MarketDataJournal, then moves it forward one
+ * update at a time. For example to see the book an order filled against, or to start a backtest part way through
+ * a journal.
+ *
+ * seek finds the last checkpoint of the pair at or before the time in the JournalIndex and applies the deltas
+ * recorded after it up to the time, so rebuilding a book reads at most one checkpoint interval of the journal.
+ */
+public class BookHistory implements Closeable {
+
+	private final JournalIndex index;
+	private final JournalReader reader;
+	private CurrencyPair pair;
+	private PriceLevelBook book;
+	private long receivedNanos;
+	// The reader is on a record seek read past but did not apply
+	private boolean pending = false;
+
+	/**
+	 * Indexes the journal, see JournalIndex.
+	 * @param directory, written by a MarketDataJournal
+	 */
+	public BookHistory(File directory) throws IOException {
+		this.index = JournalIndex.load(directory);
+		this.reader = new JournalReader(this.index.getSegmentFiles());
+	}
+
+	/**
+	 * Rebuilds the book of the pair with every update received at or before nanos.
+	 * @param nanos, nanoseconds since the epoch
+	 * @return False if the journal has no checkpoint of the pair at or before nanos
+	 */
+	public boolean seek(CurrencyPair pair, long nanos) throws IOException {
+		JournalIndex.Checkpoint checkpoint = this.index.find(pair, nanos);
+		if( checkpoint == null )
+			return false;
+		this.reader.seek(checkpoint.segment, checkpoint.position, checkpoint.pairs);
+		this.pair = pair;
+		this.book = new PriceLevelBook(this.reader.getPriceScale(), this.reader.getQuantityScale());
+		apply();
+		this.pending = false;
+		while( this.reader.next() ) {
+			if( this.reader.getReceivedNanos() > nanos ) {
+				this.pending = true;
+				break;
+			}
+			if( isBookOfPair() )
+				apply();
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the next update of the book after the ones already applied. Only call after seek returned true.
+	 * Checkpoints are updates as well, they leave the book as it was.
+	 * @return False once every record was read
+	 */
+	public boolean next() throws IOException {
+		while( this.pending || this.reader.next() ) {
+			this.pending = false;
+			if( isBookOfPair() ) {
+				apply();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Book as of the last update applied, replaced by every seek
+	 */
+	public PriceLevelBook getBook() {
+		return this.book;
+	}
+
+	/**
+	 * @return Nanoseconds since the epoch when the last update applied was received
+	 */
+	public long getReceivedNanos() {
+		return this.receivedNanos;
+	}
+
+	public JournalIndex getIndex() {
+		return this.index;
+	}
+
+	@Override
+	public void close() {
+		this.reader.close();
+	}
+
+	private boolean isBookOfPair() {
+		byte type = this.reader.getType();
+		return (type == MarketDataJournal.BOOK_SNAPSHOT || type == MarketDataJournal.BOOK_DELTA) && this.reader.getPair() == this.pair;
+	}
+
+	private void apply() {
+		this.reader.applyBook(this.book);
+		this.receivedNanos = this.reader.getReceivedNanos();
+	}
+}
@@ -0,0 +1,217 @@
+package com.tobiascarryer.trading.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+
+/**
+ * Sparse index of the checkpoints in a MarketDataJournal directory, the BOOK_SNAPSHOT records every book can be
+ * rebuilt from. Only a checkpoint's receive time, pair and position are kept, not the records between them.
+ *
+ * The journal writes the index of a segment to journal-<index>.idx next to it once the segment is full or the
+ * journal is closed. A segment without an index file, the one still being written or one left by a writer that
+ * stopped without closing, is indexed by reading it.
+ *
+ * An index file is big endian: int INDEX_MAGIC, int VERSION, long first and long last receive time of the
+ * segment's records, int number of pairs followed by the int id and UTF major and minor currency of every pair
+ * defined in the segment, then int number of checkpoints followed by the long receive time, int position in the
+ * segment and int pair id of every checkpoint in the order they were written.
+ */
+public class JournalIndex {
+
+	static final int INDEX_MAGIC = 0x3158444d; // "MDX1"
+
+	private final File[] segmentFiles;
+	private final Segment[] segments;
+
+	/**
+	 * @param directory, written by a MarketDataJournal
+	 */
+	public static JournalIndex load(File directory) throws IOException {
+		return new JournalIndex(MarketDataJournal.segmentFiles(directory));
+	}
+
+	JournalIndex(File[] segmentFiles) throws IOException {
+		this.segmentFiles = segmentFiles;
+		this.segments = new Segment[segmentFiles.length];
+		for( int i = 0; i < segmentFiles.length; i++ ) {
+			File indexFile = indexFile(segmentFiles[i]);
+			this.segments[i] = indexFile.isFile() ? Segment.read(indexFile) : Segment.scan(segmentFiles[i]);
+		}
+	}
+
+	/**
+	 * @return Receive time of the first record, Long.MAX_VALUE if the journal has no records
+	 */
+	public long getFirstNanos() {
+		long first = Long.MAX_VALUE;
+		for( Segment segment: this.segments )
+			first = Math.min(first, segment.firstNanos);
+		return first;
+	}
+
+	/**
+	 * @return Receive time of the last record, Long.MIN_VALUE if the journal has no records
+	 */
+	public long getLastNanos() {
+		long last = Long.MIN_VALUE;
+		for( Segment segment: this.segments )
+			last = Math.max(last, segment.lastNanos);
+		return last;
+	}
+
+	File[] getSegmentFiles() {
+		return this.segmentFiles;
+	}
+
+	/**
+	 * Skips the segments whose records were all received after nanos, then looks through the checkpoints of the
+	 * newest segments first.
+	 * @return The last checkpoint of the pair received at or before nanos, null if there is none
+	 */
+	Checkpoint find(CurrencyPair pair, long nanos) {
+		for( int s = this.segments.length - 1; s >= 0; s-- ) {
+			Segment segment = this.segments[s];
+			if( segment.firstNanos > nanos )
+				continue;
+			for( int i = segment.checkpoints - 1; i >= 0; i-- ) {
+				if( segment.checkpointPairs[i] == pair && segment.checkpointNanos[i] <= nanos )
+					return new Checkpoint(s, segment.checkpointPositions[i], segment.pairs);
+			}
+		}
+		return null;
+	}
+
+	static File indexFile(File segmentFile) {
+		String name = segmentFile.getName();
+		return new File(segmentFile.getParentFile(), name.substring(0, name.length() - ".dat".length())+".idx");
+	}
+
+	/**
+	 * Where a reader starts to rebuild a book.
+	 */
+	static final class Checkpoint {
+		final int segment;
+		final int position;
+		// Pairs defined in the segment by their id
+		final Map<Integer, CurrencyPair> pairs;
+
+		private Checkpoint(int segment, int position, Map<Integer, CurrencyPair> pairs) {
+			this.segment = segment;
+			this.position = position;
+			this.pairs = pairs;
+		}
+	}
+
+	/**
+	 * Index of one segment. Built by the journal while it writes the segment, or read back.
+	 */
+	static final class Segment {
+		private long firstNanos = Long.MAX_VALUE;
+		private long lastNanos = Long.MIN_VALUE;
+		private final Map<Integer, CurrencyPair> pairs = new HashMap<Integer, CurrencyPair>();
+		private long[] checkpointNanos = new long[16];
+		private int[] checkpointPositions = new int[16];
+		private CurrencyPair[] checkpointPairs = new CurrencyPair[16];
+		private int checkpoints = 0;
+
+		void addRecord(long receivedNanos) {
+			if( receivedNanos < this.firstNanos )
+				this.firstNanos = receivedNanos;
+			if( receivedNanos > this.lastNanos )
+				this.lastNanos = receivedNanos;
+		}
+
+		void addPair(CurrencyPair pair) {
+			this.pairs.put(pair.getId(), pair);
+		}
+
+		void addCheckpoint(CurrencyPair pair, int position, long receivedNanos) {
+			if( this.checkpoints == this.checkpointNanos.length ) {
+				this.checkpointNanos = Arrays.copyOf(this.checkpointNanos, this.checkpoints * 2);
+				this.checkpointPositions = Arrays.copyOf(this.checkpointPositions, this.checkpoints * 2);
+				this.checkpointPairs = Arrays.copyOf(this.checkpointPairs, this.checkpoints * 2);
+			}
+			this.checkpointNanos[this.checkpoints] = receivedNanos;
+			this.checkpointPositions[this.checkpoints] = position;
+			this.checkpointPairs[this.checkpoints] = pair;
+			this.checkpoints++;
+		}
+
+		void write(File indexFile) throws IOException {
+			try( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile))) ) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(MarketDataJournal.VERSION);
+				out.writeLong(this.firstNanos);
+				out.writeLong(this.lastNanos);
+				out.writeInt(this.pairs.size());
+				for( CurrencyPair pair: this.pairs.values() ) {
+					out.writeInt(pair.getId());
+					out.writeUTF(pair.getMajorCurrency());
+					out.writeUTF(pair.getMinorCurrency());
+				}
+				out.writeInt(this.checkpoints);
+				for( int i = 0; i < this.checkpoints; i++ ) {
+					out.writeLong(this.checkpointNanos[i]);
+					out.writeInt(this.checkpointPositions[i]);
+					out.writeInt(this.checkpointPairs[i].getId());
+				}
+			}
+		}
+
+		/**
+		 * Pair ids are only unique within the process that wrote the journal, so the pairs are looked up again by
+		 * their currencies.
+		 */
+		static Segment read(File indexFile) throws IOException {
+			try( DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile))) ) {
+				if( in.readInt() != INDEX_MAGIC )
+					throw new IOException(indexFile+" is not a journal index.");
+				int version = in.readInt();
+				if( version != MarketDataJournal.VERSION )
+					throw new IOException(indexFile+" was written by journal version "+version+".");
+				Segment segment = new Segment();
+				segment.firstNanos = in.readLong();
+				segment.lastNanos = in.readLong();
+				int pairs = in.readInt();
+				for( int i = 0; i < pairs; i++ ) {
+					int id = in.readInt();
+					segment.pairs.put(id, CurrencyPair.of(in.readUTF(), in.readUTF()));
+				}
+				int checkpoints = in.readInt();
+				for( int i = 0; i < checkpoints; i++ ) {
+					long receivedNanos = in.readLong();
+					int position = in.readInt();
+					segment.addCheckpoint(segment.pairs.get(in.readInt()), position, receivedNanos);
+				}
+				return segment;
+			}
+		}
+
+		/**
+		 * Reads every record of a segment that has no index file.
+		 */
+		static Segment scan(File segmentFile) throws IOException {
+			Segment segment = new Segment();
+			try( JournalReader reader = new JournalReader(new File[] {segmentFile}) ) {
+				while( reader.next() ) {
+					segment.addRecord(reader.getReceivedNanos());
+					if( reader.getType() == MarketDataJournal.BOOK_SNAPSHOT )
+						segment.addCheckpoint(reader.getPair(), reader.getPosition(), reader.getReceivedNanos());
+				}
+				segment.pairs.putAll(reader.getPairs());
+			}
+			return segment;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package com.tobiascarryer.trading.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+
+/**
+ * Reads the records of a MarketDataJournal directory in the order they were written, from the oldest segment to the
+ * newest. The reader is a cursor: next() moves it to the following record and the getters read the fields of the
+ * current record, see MarketDataJournal for which fields each record type has. PAIR records are read by the reader
+ * itself and never returned.
+ */
+public class JournalReader implements Closeable {
+
+	private final File[] segmentFiles;
+	private int segmentFile = -1;
+	private MappedByteBuffer segment;
+	// Pairs defined in the current segment by their id
+	private final Map<Integer, CurrencyPair> pairs = new HashMap<Integer, CurrencyPair>();
+
+	// Current record
+	private int start = -1;
+	private int length = 0;
+
+	/**
+	 * @param directory, written by a MarketDataJournal
+	 */
+	public JournalReader(File directory) {
+		this(MarketDataJournal.segmentFiles(directory));
+	}
+
+	JournalReader(File[] segmentFiles) {
+		this.segmentFiles = segmentFiles;
+	}
+
+	/**
+	 * @return False once every record was read
+	 */
+	public boolean next() throws IOException {
+		while( true ) {
+			if( this.segment != null ) {
+				int position = this.start < 0 ? MarketDataJournal.SEGMENT_HEADER_LENGTH : this.start + this.length;
+				int recordLength = position + 4 > this.segment.capacity() ? 0 : this.segment.getInt(position);
+				if( recordLength > 0 ) {
+					this.start = position;
+					this.length = recordLength;
+					if( getType() != MarketDataJournal.PAIR )
+						return true;
+					CurrencyPair pair = CurrencyPair.of(getAscii(this.start + MarketDataJournal.RECORD_HEADER_LENGTH), getAscii(this.start + MarketDataJournal.RECORD_HEADER_LENGTH + 1 + this.segment.get(this.start + MarketDataJournal.RECORD_HEADER_LENGTH)));
+					this.pairs.put(this.segment.getInt(this.start + 16), pair);
+					continue;
+				}
+			}
+			// End of the segment
+			if( this.segmentFile + 1 >= this.segmentFiles.length ) {
+				this.segment = null;
+				return false;
+			}
+			this.segmentFile++;
+			// Null if the writer stopped before the segment was started
+			this.segment = map(this.segmentFiles[this.segmentFile]);
+			this.pairs.clear();
+			this.start = -1;
+			this.length = 0;
+		}
+	}
+
+	/**
+	 * Moves the reader to a record, next() then continues with the record after it.
+	 * @param segmentFile, index of the segment in the files the reader was made with
+	 * @param position, offset of the record in the segment
+	 * @param pairs, defined in the segment by their id
+	 */
+	void seek(int segmentFile, int position, Map<Integer, CurrencyPair> pairs) throws IOException {
+		this.segmentFile = segmentFile;
+		this.segment = map(this.segmentFiles[segmentFile]);
+		if( this.segment == null )
+			throw new IOException(this.segmentFiles[segmentFile]+" has no records.");
+		this.pairs.clear();
+		this.pairs.putAll(pairs);
+		this.start = position;
+		this.length = this.segment.getInt(position);
+	}
+
+	/**
+	 * @return Offset of the current record in its segment
+	 */
+	int getPosition() {
+		return this.start;
+	}
+
+	/**
+	 * @return Pairs defined in the current segment so far by their id
+	 */
+	Map<Integer, CurrencyPair> getPairs() {
+		return this.pairs;
+	}
+
+	public byte getType() {
+		return this.segment.get(this.start + 4);
+	}
+
+	public int getPriceScale() {
+		return this.segment.get(this.start + 5);
+	}
+
+	public int getQuantityScale() {
+		return this.segment.get(this.start + 6);
+	}
+
+	/**
+	 * @return Nanoseconds since the epoch when the data was received
+	 */
+	public long getReceivedNanos() {
+		return this.segment.getLong(this.start + 8);
+	}
+
+	/**
+	 * @return Pair of a book or ticker record, null for a balance
+	 */
+	public CurrencyPair getPair() {
+		return this.pairs.get(this.segment.getInt(this.start + 16));
+	}
+
+	///  BOOK_SNAPSHOT and BOOK_DELTA  ///
+
+	public int getAskLevels() {
+		return this.segment.getInt(this.start + MarketDataJournal.RECORD_HEADER_LENGTH);
+	}
+
+	public int getBidLevels() {
+		return this.segment.getInt(this.start + MarketDataJournal.RECORD_HEADER_LENGTH + 4);
+	}
+
+	/**
+	 * @param level, asks from the best price first, then bids from the best price first
+	 * @return Price in ticks
+	 */
+	public long getLevelPrice(int level) {
+		return this.segment.getLong(levelOffset(level));
+	}
+
+	/**
+	 * @param level, asks from the best price first, then bids from the best price first
+	 * @return Quantity in lots
+	 */
+	public long getLevelQuantity(int level) {
+		return this.segment.getLong(levelOffset(level) + 8);
+	}
+
+	/**
+	 * Applies the BOOK_SNAPSHOT or BOOK_DELTA record to the book and publishes it. The levels are rescaled to the
+	 * scales of the book if the record has other ones.
+	 */
+	public void applyBook(PriceLevelBook book) {
+		if( getType() == MarketDataJournal.BOOK_SNAPSHOT )
+			book.clear();
+		int priceScale = getPriceScale();
+		int quantityScale = getQuantityScale();
+		int asks = getAskLevels();
+		int levels = asks + getBidLevels();
+		for( int i = 0; i < levels; i++ ) {
+			long price = FixedPoint.rescale(getLevelPrice(i), priceScale, book.getPriceScale());
+			long quantity = FixedPoint.rescale(getLevelQuantity(i), quantityScale, book.getQuantityScale());
+			if( i < asks )
+				book.updateAsk(price, quantity);
+			else
+				book.updateBid(price, quantity);
+		}
+		book.publish();
+	}
+
+	///  TICKER  ///
+
+	public long getBid() {
+		return this.segment.getLong(this.start + MarketDataJournal.RECORD_HEADER_LENGTH);
+	}
+
+	public long getAsk() {
+		return this.segment.getLong(this.start + MarketDataJournal.RECORD_HEADER_LENGTH + 8);
+	}
+
+	public long getExchangeMillis() {
+		return this.segment.getLong(this.start + MarketDataJournal.RECORD_HEADER_LENGTH + 16);
+	}
+
+	///  BALANCE  ///
+
+	public String getAsset() {
+		return getAscii(this.start + MarketDataJournal.RECORD_HEADER_LENGTH);
+	}
+
+	/**
+	 * @return Total at getQuantityScale()
+	 */
+	public long getBalance() {
+		int offset = this.start + MarketDataJournal.RECORD_HEADER_LENGTH;
+		return this.segment.getLong(offset + 1 + this.segment.get(offset));
+	}
+
+	@Override
+	public void close() {
+		this.segment = null;
+		this.segmentFile = this.segmentFiles.length;
+	}
+
+	private int levelOffset(int level) {
+		return this.start + MarketDataJournal.RECORD_HEADER_LENGTH + 8 + level * MarketDataJournal.LEVEL_LENGTH;
+	}
+
+	private String getAscii(int offset) {
+		int characters = this.segment.get(offset);
+		StringBuilder text = new StringBuilder(characters);
+		for( int i = 0; i < characters; i++ )
+			text.append((char) this.segment.get(offset + 1 + i));
+		return text.toString();
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		try( RandomAccessFile raf = new RandomAccessFile(file, "r") ) {
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if( mapped.capacity() < MarketDataJournal.SEGMENT_HEADER_LENGTH || mapped.getInt(0) == 0 )
+				return null;
+			if( mapped.getInt(0) != MarketDataJournal.MAGIC )
+				throw new IOException(file+" is not a journal segment.");
+			if( mapped.getInt(4) != MarketDataJournal.VERSION )
+				throw new IOException(file+" was written by journal version "+mapped.getInt(4)+".");
+			return mapped;
+		}
+	}
+}
@@ -0,0 +1,433 @@
+package com.tobiascarryer.trading.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.tobiascarryer.trading.exchanges.orderbook.BookDelta;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSideSnapshot;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSnapshot;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+
+/**
+ * Append-only binary record of the market data an exchange received, written through memory-mapped files.
+ *
+ * The journal is split in segments of segmentSize bytes named journal-<index>.dat. The next segment is created,
+ * mapped and touched on a background thread while the current one is written, so rolling to it only swaps a
+ * reference. Writing a record copies its fields straight into the mapped segment and does not allocate.
+ *
+ * Every segment starts with a SEGMENT_HEADER_LENGTH byte header (MAGIC, VERSION, segment index) followed by the
+ * records, little endian. Every record starts with a RECORD_HEADER_LENGTH byte header:
+ *   int length, written last so a record is only readable once it is complete. 0 marks the end of the segment.
+ *   byte type, byte priceScale, byte quantityScale, byte unused
+ *   long receivedNanos, nanoseconds since the epoch when the data was received
+ *   int pairId, id of a pair defined by a PAIR record earlier in the same segment
+ *   int unused
+ * followed by the body of its type:
+ *   PAIR: byte length and ASCII characters of the major currency, then the same for the minor currency
+ *   BOOK_SNAPSHOT, BOOK_DELTA: int askLevels, int bidLevels, then long price and long quantity of every level,
+ *     asks before bids, best price first. A delta level with a quantity of zero removes the level.
+ *   TICKER: long bid, long ask, long exchange timestamp in milliseconds
+ *   BALANCE: byte length and ASCII characters of the asset, long total at quantityScale
+ *
+ * Exchanges that record their books as deltas also write a BOOK_SNAPSHOT of a book, a checkpoint, whenever
+ * isCheckpointDue says so: the first time the book changes in a segment and then once per checkpoint interval.
+ * The position of every checkpoint is kept in a JournalIndex, written next to the segment, so BookHistory can
+ * rebuild a book at any time from the checkpoint before it instead of from the start of the journal.
+ *
+ * A journal has a single writer, the ingest thread of the exchange it records. Give every exchange its own journal.
+ */
+public class MarketDataJournal implements Closeable {
+
+	public static final int MAGIC = 0x314a444d; // "MDJ1"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 27;
+	public static final long DEFAULT_CHECKPOINT_INTERVAL_NANOS = 60l * 1000000000l;
+	static final int SEGMENT_HEADER_LENGTH = 16;
+	static final int RECORD_HEADER_LENGTH = 24;
+	static final int LEVEL_LENGTH = 16;
+	private static final int PAGE_SIZE = 4096;
+
+	///  Record types  ///
+	public static final byte PAIR = 1;
+	public static final byte BOOK_SNAPSHOT = 2;
+	public static final byte BOOK_DELTA = 3;
+	public static final byte TICKER = 4;
+	public static final byte BALANCE = 5;
+
+	// Wall clock time read once, then moved on by the monotonic clock, which is cheaper to read and has nanoseconds
+	private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1000000l;
+	private static final long BASE_NANO_TIME = System.nanoTime();
+
+	private final File directory;
+	private final int segmentSize;
+	private final ExecutorService mapper = Executors.newSingleThreadExecutor((Runnable task) -> {
+		Thread thread = new Thread(task, "journal-mapper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Only accessed by the writer
+	private MappedByteBuffer segment;
+	private long segmentIndex;
+	private int position;
+	private Future<MappedByteBuffer> nextSegment;
+	// Pairs defined in the current segment, a bit per pair id
+	private long[] definedPairs = new long[1];
+	// Book record being written, -1 when there is none
+	private int bookStart = -1;
+	private int bookLength;
+	private int levelsLeft;
+	private CurrencyPair bookPair;
+	// Checkpoints of the current segment, and the receive time of the last one of every pair by pair id
+	private JournalIndex.Segment index = new JournalIndex.Segment();
+	private long[] lastCheckpoints = new long[0];
+	private long checkpointIntervalNanos = DEFAULT_CHECKPOINT_INTERVAL_NANOS;
+
+	/**
+	 * Starts a new segment after the last one in the directory, segments already written are never changed.
+	 * @param directory, created if it does not exist
+	 */
+	public static MarketDataJournal open(File directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param directory, created if it does not exist
+	 * @param segmentSize, bytes per segment file
+	 */
+	public static MarketDataJournal open(File directory, int segmentSize) throws IOException {
+		if( !directory.isDirectory() && !directory.mkdirs() )
+			throw new IOException("Could not create the journal directory "+directory+".");
+		long next = 0l;
+		for( File file: segmentFiles(directory) )
+			next = Math.max(next, segmentIndex(file) + 1l);
+		return new MarketDataJournal(directory, segmentSize, next);
+	}
+
+	private MarketDataJournal(File directory, int segmentSize, long firstSegment) throws IOException {
+		if( segmentSize < SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH * 4 )
+			throw new IllegalArgumentException("Segments must be at least "+(SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH * 4)+" bytes.");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segmentIndex = firstSegment;
+		this.segment = mapSegment(firstSegment);
+		this.position = SEGMENT_HEADER_LENGTH;
+		this.nextSegment = this.mapper.submit(() -> mapSegment(firstSegment + 1l));
+	}
+
+	/**
+	 * @return Nanoseconds since the epoch, the receive timestamp of data received now
+	 */
+	public static long nowNanos() {
+		return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+	}
+
+	/**
+	 * @param nanos, time between two checkpoints of a book
+	 */
+	public void setCheckpointInterval(long nanos) {
+		this.checkpointIntervalNanos = nanos;
+	}
+
+	/**
+	 * Call after recording a change to a book as a delta.
+	 * @return True if the book has no checkpoint in the current segment or its last one is older than the
+	 * checkpoint interval, write it with writeSnapshot.
+	 */
+	public boolean isCheckpointDue(CurrencyPair pair, long receivedNanos) {
+		int id = pair.getId();
+		if( id >= this.lastCheckpoints.length || this.lastCheckpoints[id] == Long.MIN_VALUE )
+			return true;
+		return receivedNanos - this.lastCheckpoints[id] >= this.checkpointIntervalNanos;
+	}
+
+	/**
+	 * Records every level of both sides of the book, as a checkpoint of it.
+	 */
+	public void writeSnapshot(CurrencyPair pair, BookSnapshot book, long receivedNanos) {
+		BookSideSnapshot asks = book.getAsks();
+		BookSideSnapshot bids = book.getBids();
+		startBook(BOOK_SNAPSHOT, pair, asks.getPriceScale(), asks.getQuantityScale(), asks.size(), bids.size(), receivedNanos);
+		for( int depth = 0; depth < asks.size(); depth++ )
+			putLevel(asks.getPrice(depth), asks.getQuantity(depth));
+		for( int depth = 0; depth < bids.size(); depth++ )
+			putLevel(bids.getPrice(depth), bids.getQuantity(depth));
+		endBook();
+	}
+
+	/**
+	 * Records that the book has no levels, for example while it is out of sync.
+	 */
+	public void writeEmptyBook(CurrencyPair pair, int priceScale, int quantityScale, long receivedNanos) {
+		startBook(BOOK_SNAPSHOT, pair, priceScale, quantityScale, 0, 0, receivedNanos);
+		endBook();
+	}
+
+	/**
+	 * Records the levels of an update to the book as a delta.
+	 */
+	public void writeDelta(CurrencyPair pair, BookDelta delta, long receivedNanos) {
+		startBook(BOOK_DELTA, pair, delta.getPriceScale(), delta.getQuantityScale(), delta.getAskLevels(), delta.getBidLevels(), receivedNanos);
+		for( int level = 0; level < delta.getAskLevels() + delta.getBidLevels(); level++ )
+			putLevel(delta.getPrice(level), delta.getQuantity(level));
+		endBook();
+	}
+
+	/**
+	 * Starts a delta record. Call putLevel for every ask then every bid, then endBook.
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 */
+	public void startBookDelta(CurrencyPair pair, int priceScale, int quantityScale, int askLevels, int bidLevels, long receivedNanos) {
+		startBook(BOOK_DELTA, pair, priceScale, quantityScale, askLevels, bidLevels, receivedNanos);
+	}
+
+	/**
+	 * @param price, in ticks
+	 * @param quantity, in lots
+	 */
+	public void putLevel(long price, long quantity) {
+		if( this.levelsLeft == 0 )
+			throw new IllegalStateException("Every level of the book record was already written.");
+		int offset = this.bookStart + this.bookLength - this.levelsLeft * LEVEL_LENGTH;
+		this.segment.putLong(offset, price);
+		this.segment.putLong(offset + 8, quantity);
+		this.levelsLeft--;
+	}
+
+	public void endBook() {
+		if( this.bookStart < 0 || this.levelsLeft != 0 )
+			throw new IllegalStateException("The book record is not complete.");
+		commit(this.bookStart, this.bookLength);
+		if( this.segment.get(this.bookStart + 4) == BOOK_SNAPSHOT )
+			addCheckpoint(this.bookPair, this.bookStart, this.segment.getLong(this.bookStart + 8));
+		this.bookStart = -1;
+	}
+
+	private void addCheckpoint(CurrencyPair pair, int position, long receivedNanos) {
+		this.index.addCheckpoint(pair, position, receivedNanos);
+		int id = pair.getId();
+		if( id >= this.lastCheckpoints.length ) {
+			int length = this.lastCheckpoints.length;
+			this.lastCheckpoints = Arrays.copyOf(this.lastCheckpoints, Math.max(id + 1, length * 2));
+			Arrays.fill(this.lastCheckpoints, length, this.lastCheckpoints.length, Long.MIN_VALUE);
+		}
+		this.lastCheckpoints[id] = receivedNanos;
+	}
+
+	/**
+	 * @param priceScale, number of decimal places in bid and ask
+	 * @param exchangeMillis, time of the ticker on the exchange
+	 */
+	public void writeTicker(CurrencyPair pair, int priceScale, long bid, long ask, long exchangeMillis, long receivedNanos) {
+		int length = RECORD_HEADER_LENGTH + 24;
+		int start = begin(TICKER, length, pair, priceScale, 0, receivedNanos);
+		this.segment.putLong(start + RECORD_HEADER_LENGTH, bid);
+		this.segment.putLong(start + RECORD_HEADER_LENGTH + 8, ask);
+		this.segment.putLong(start + RECORD_HEADER_LENGTH + 16, exchangeMillis);
+		commit(start, length);
+	}
+
+	/**
+	 * @param asset, ASCII symbol
+	 * @param total, balance reported by the exchange at scale
+	 * @param scale, number of decimal places in total
+	 */
+	public void writeBalance(String asset, long total, int scale, long receivedNanos) {
+		int length = RECORD_HEADER_LENGTH + 1 + asset.length() + 8;
+		int start = begin(BALANCE, length, null, 0, scale, receivedNanos);
+		int offset = putAscii(start + RECORD_HEADER_LENGTH, asset);
+		this.segment.putLong(offset, total);
+		commit(start, length);
+	}
+
+	/**
+	 * Writes the current segment to disk and deletes the segment mapped ahead of it, which has no records.
+	 * Only call when the journal is no longer written.
+	 */
+	@Override
+	public void close() {
+		this.segment.force();
+		writeIndex(this.index, this.segmentIndex);
+		try {
+			this.nextSegment.get();
+		} catch( InterruptedException | ExecutionException e ) {
+			e.printStackTrace();
+		}
+		this.mapper.shutdown();
+		new File(this.directory, segmentName(this.segmentIndex + 1l)).delete();
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	private void startBook(byte type, CurrencyPair pair, int priceScale, int quantityScale, int askLevels, int bidLevels, long receivedNanos) {
+		if( this.bookStart >= 0 )
+			throw new IllegalStateException("The last book record was not ended.");
+		int levels = askLevels + bidLevels;
+		int length = RECORD_HEADER_LENGTH + 8 + levels * LEVEL_LENGTH;
+		int start = begin(type, length, pair, priceScale, quantityScale, receivedNanos);
+		this.segment.putInt(start + RECORD_HEADER_LENGTH, askLevels);
+		this.segment.putInt(start + RECORD_HEADER_LENGTH + 4, bidLevels);
+		this.bookStart = start;
+		this.bookLength = length;
+		this.levelsLeft = levels;
+		this.bookPair = pair;
+	}
+
+	/**
+	 * Makes room for the record, defining its pair first if the segment does not have it yet.
+	 * @param pair, null for records that are not about a pair
+	 * @return Offset of the record in the segment
+	 */
+	private int begin(byte type, int length, CurrencyPair pair, int priceScale, int quantityScale, long receivedNanos) {
+		int pairLength = pair == null || isDefined(pair) ? 0 : pairRecordLength(pair);
+		if( SEGMENT_HEADER_LENGTH + pairLength + length > this.segmentSize )
+			throw new IllegalArgumentException("A record of "+length+" bytes does not fit in a segment of "+this.segmentSize+" bytes.");
+		if( this.position + pairLength + length > this.segmentSize ) {
+			roll();
+			// The new segment has no pairs defined
+			pairLength = pair == null ? 0 : pairRecordLength(pair);
+		}
+		if( pairLength > 0 )
+			definePair(pair, receivedNanos);
+		this.index.addRecord(receivedNanos);
+
+		int start = this.position;
+		this.segment.put(start + 4, type);
+		this.segment.put(start + 5, (byte) priceScale);
+		this.segment.put(start + 6, (byte) quantityScale);
+		this.segment.putLong(start + 8, receivedNanos);
+		this.segment.putInt(start + 16, pair == null ? -1 : pair.getId());
+		return start;
+	}
+
+	private void commit(int start, int length) {
+		this.segment.putInt(start, length);
+		this.position = start + length;
+	}
+
+	private void definePair(CurrencyPair pair, long receivedNanos) {
+		int length = pairRecordLength(pair);
+		int start = this.position;
+		this.segment.put(start + 4, PAIR);
+		this.segment.putLong(start + 8, receivedNanos);
+		this.segment.putInt(start + 16, pair.getId());
+		int offset = putAscii(start + RECORD_HEADER_LENGTH, pair.getMajorCurrency());
+		putAscii(offset, pair.getMinorCurrency());
+		commit(start, length);
+
+		int word = pair.getId() >>> 6;
+		if( word >= this.definedPairs.length )
+			this.definedPairs = Arrays.copyOf(this.definedPairs, Math.max(word + 1, this.definedPairs.length * 2));
+		this.definedPairs[word] |= 1l << pair.getId();
+		this.index.addPair(pair);
+	}
+
+	private boolean isDefined(CurrencyPair pair) {
+		int word = pair.getId() >>> 6;
+		return word < this.definedPairs.length && (this.definedPairs[word] & (1l << pair.getId())) != 0l;
+	}
+
+	private static int pairRecordLength(CurrencyPair pair) {
+		return RECORD_HEADER_LENGTH + 2 + pair.getMajorCurrency().length() + pair.getMinorCurrency().length();
+	}
+
+	/**
+	 * @return Offset after the characters
+	 */
+	private int putAscii(int offset, String text) {
+		this.segment.put(offset, (byte) text.length());
+		for( int i = 0; i < text.length(); i++ )
+			this.segment.put(offset + 1 + i, (byte) text.charAt(i));
+		return offset + 1 + text.length();
+	}
+
+	/**
+	 * Switches to the segment mapped in the background and starts mapping the one after it. The full segment is
+	 * written to disk and indexed in the background as well.
+	 */
+	private void roll() {
+		final MappedByteBuffer full = this.segment;
+		final JournalIndex.Segment fullIndex = this.index;
+		final long fullSegment = this.segmentIndex;
+		try {
+			this.segment = this.nextSegment.get();
+		} catch( InterruptedException | ExecutionException e ) {
+			throw new IllegalStateException("Could not map the next journal segment.", e);
+		}
+		this.segmentIndex++;
+		this.position = SEGMENT_HEADER_LENGTH;
+		Arrays.fill(this.definedPairs, 0l);
+		// Every book gets a checkpoint in the new segment so it can be rebuilt from that segment alone
+		Arrays.fill(this.lastCheckpoints, Long.MIN_VALUE);
+		this.index = new JournalIndex.Segment();
+		final long following = this.segmentIndex + 1l;
+		this.nextSegment = this.mapper.submit(() -> {
+			full.force();
+			writeIndex(fullIndex, fullSegment);
+			return mapSegment(following);
+		});
+	}
+
+	/**
+	 * Only call once the segment was written to disk, an index file means the segment is complete.
+	 */
+	private void writeIndex(JournalIndex.Segment index, long segmentIndex) {
+		try {
+			index.write(JournalIndex.indexFile(new File(this.directory, segmentName(segmentIndex))));
+		} catch( IOException e ) {
+			// Readers index the segment by reading it instead
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates the segment and touches every page so writing to it does not fault.
+	 */
+	private MappedByteBuffer mapSegment(long index) throws IOException {
+		File file = new File(this.directory, segmentName(index));
+		try( RandomAccessFile raf = new RandomAccessFile(file, "rw") ) {
+			raf.setLength(this.segmentSize);
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			for( int offset = 0; offset < this.segmentSize; offset += PAGE_SIZE )
+				mapped.put(offset, (byte) 0);
+			mapped.putInt(0, MAGIC);
+			mapped.putInt(4, VERSION);
+			mapped.putLong(8, index);
+			return mapped;
+		}
+	}
+
+	static String segmentName(long index) {
+		return String.format("journal-%010d.dat", index);
+	}
+
+	static long segmentIndex(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring("journal-".length(), name.length() - ".dat".length()));
+	}
+
+	/**
+	 * @return Segment files of the directory from the oldest to the newest
+	 */
+	static File[] segmentFiles(File directory) {
+		File[] files = directory.listFiles((File dir, String name) -> name.matches("journal-\\d+\\.dat"));
+		if( files == null )
+			return new File[0];
+		Arrays.sort(files, (File a, File b) -> Long.compare(segmentIndex(a), segmentIndex(b)));
+		return files;
+	}
+}
@@ -8,7 +8,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -17,10 +16,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
-import org.apache.commons.io.FileUtils;
 
 import com.tobiascarryer.trading.ApiSecrets;
 import com.tobiascarryer.trading.HelperMethods;
+import com.tobiascarryer.trading.HttpClient;
 import com.tobiascarryer.trading.models.BooleanMarkovChainLink;
 import com.tobiascarryer.trading.models.ModelPrediction;
 import com.tobiascarryer.trading.models.ModelTestingResult;
@@ -46,10 +45,10 @@ public class SequentialProbabilitiesTool {
 		for( String ticker: allStocks) {
 			try {
 				// If there are problems with SSL certificates, follow this guide: https://www.alpha-vantage.community/post/getting-ssl-to-work-java-eclipse-windows-alphavantage-lets-encrypt-9783025
-				URL url = new URL("https://www.alphavantage.co/query?function=TIME_SERIES_DAILY&symbol="+ticker+"&apikey="+ApiSecrets.alphaVantageKey+"&datatype=csv&outputsize=full");
+				String url = "https://www.alphavantage.co/query?function=TIME_SERIES_DAILY&symbol="+ticker+"&apikey="+ApiSecrets.alphaVantageKey+"&datatype=csv&outputsize=full";
 				File historicalDataFile = new File(parentDirectory, SequentialProbabilitiesFileNames.historicalDataFileName(ticker));
 				System.out.println("Downloading historical data for "+ticker);
-				FileUtils.copyURLToFile(url, historicalDataFile);
+				HttpClient.getShared().download(url, historicalDataFile);
 			} catch (MalformedURLException e) {
 				e.printStackTrace();
 				System.out.println("MalformedURLException while downloading historical data for "+ticker);
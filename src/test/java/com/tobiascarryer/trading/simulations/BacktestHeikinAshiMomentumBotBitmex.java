@@ -1,28 +1,25 @@
 package com.tobiascarryer.trading.simulations;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.TimeZone;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import com.tobiascarryer.trading.ApiSecrets;
-import com.tobiascarryer.trading.JsonReader;
+import com.tobiascarryer.trading.HttpClient;
 import com.tobiascarryer.trading.charts.Candle;
+import com.tobiascarryer.trading.charts.CandleBuffer;
 import com.tobiascarryer.trading.charts.Candlesticks;
 import com.tobiascarryer.trading.charts.CandlesticksObserver;
 import com.tobiascarryer.trading.charts.ChildCandleUnifier;
 import com.tobiascarryer.trading.charts.ChildCandleUnifierObserver;
 import com.tobiascarryer.trading.charts.HeikinAshiCandlesticks;
 import com.tobiascarryer.trading.charts.indicators.TrueRange;
+import com.tobiascarryer.trading.exchanges.BitmexCandleDecoder;
 import com.tobiascarryer.trading.exchanges.BitmexExchange;
 
 public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver, ChildCandleUnifierObserver {
@@ -51,85 +48,73 @@ public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver
 	private boolean openShort = false;
 	private boolean synced = false;
 	
+	// Decimal places kept for historical prices, XBT/USD moves in increments of 0.5
+	private static final int PRICE_SCALE = 8;
+	private BitmexCandleDecoder candleDecoder = new BitmexCandleDecoder();
+	
 	public static void main(String[] args) {
 		BacktestHeikinAshiMomentumBotBitmex bot = new BacktestHeikinAshiMomentumBotBitmex();
 		bot.startTrading();
 	}
 	
 	public void startTrading() {
-		try {
-			int entryLimit = 3; // Only use current and previous, 3rd is kept just in case something is unaccounted for
-			trueRangeIndicator = new TrueRange(entryLimit);
-			Candlesticks candlesticks = new HeikinAshiCandlesticks(entryLimit);
-			candlesticks.attachOnCandleObserver(trueRangeIndicator);
-			candlesticks.attachOnCandleObserver(this);
-			
-			// Prepare to process historical data, the fewer format objects are created the more optimized
-			TimeZone tz = TimeZone.getTimeZone("UTC");
-			DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-			df.setTimeZone(tz);
-			
-			// 4 hours to milliseconds = 1.44e7
-			long timePerCandle = 14400000l;
-			
-			ChildCandleUnifier unifier = null;
-			
-			// Historical data from the backtest's perspective
-			JSONArray[] paginatedHistoricalData = paginateXBTHistoricalData(df, 5);
-			
-			for( int n = 0; n < paginatedHistoricalData.length; n++ ) {
-				JSONArray historicalData = paginatedHistoricalData[n];
-				
-				// Processing data starts with the first 1 hour historical candle
-				// The bot starts running in the middle of a candle by offsetting the endTime
-				// for the first candle to only have half the time as the other candles. This is
-				// justifiable because the first candle will never be used in decision making.
-				// It is only needed to calculate the following heikin ashi candles.
-				Date timestampOfFirstCandle = df.parse(historicalData.getJSONObject(0).getString("timestamp"));
-				long endTime = timestampOfFirstCandle.getTime() + (timePerCandle / 2l);
-				
-				if( unifier == null ) {
-					unifier = new ChildCandleUnifier(timePerCandle, endTime, candlesticks);
-					unifier.attachChildCandleUnifierObserver(this);
-				}
-				
-				// Process the historical data so there are heikin ashi candles for the bot to analyze
-				for( int i = 0; i < historicalData.length(); i++ ) {
-					JSONObject historicalEntry = historicalData.getJSONObject(i);
-					long entryTimestamp = df.parse(historicalEntry.getString("timestamp")).getTime();
-					unifier.processChildCandle(getCandleFromHistoricalData(historicalEntry), entryTimestamp);
-				}
-			}
-			synced = true;
+		int entryLimit = 3; // Only use current and previous, 3rd is kept just in case something is unaccounted for
+		trueRangeIndicator = new TrueRange(entryLimit);
+		Candlesticks candlesticks = new HeikinAshiCandlesticks(entryLimit);
+		candlesticks.attachOnCandleObserver(trueRangeIndicator);
+		candlesticks.attachOnCandleObserver(this);
+		
+		// Prepare to request historical data, the fewer format objects are created the more optimized
+		TimeZone tz = TimeZone.getTimeZone("UTC");
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		df.setTimeZone(tz);
+		
+		// 4 hours to milliseconds = 1.44e7
+		long timePerCandle = 14400000l;
+		
+		ChildCandleUnifier unifier = null;
+		
+		// Historical data from the backtest's perspective
+		CandleBuffer[] paginatedHistoricalData = paginateXBTHistoricalData(df, 5);
+		
+		for( int n = 0; n < paginatedHistoricalData.length; n++ ) {
+			CandleBuffer historicalData = paginatedHistoricalData[n];
+			if( historicalData.size() == 0 )
+				continue;
 			
-			// Backtest
-			JSONArray[] paginatedHistoricalBacktestData = getXBTBacktestData(df);
-			BigDecimal closePrice = null;
+			// Processing data starts with the first 1 hour historical candle
+			// The bot starts running in the middle of a candle by offsetting the endTime
+			// for the first candle to only have half the time as the other candles. This is
+			// justifiable because the first candle will never be used in decision making.
+			// It is only needed to calculate the following heikin ashi candles.
+			long endTime = historicalData.getTimestamp(0) + (timePerCandle / 2l);
 			
-			long lastTime = 0;
-			for( int n = 0; n < paginatedHistoricalBacktestData.length; n++ ) {
-				JSONArray historicalData = paginatedHistoricalBacktestData[n];
-				for( int i = 0; i < historicalData.length(); i++ ) {
-					JSONObject historicalEntry = historicalData.getJSONObject(i);
-					long entryTimestamp = df.parse(historicalEntry.getString("timestamp")).getTime();
-					
-					// Skip repeat entries
-					if( lastTime > entryTimestamp ) {
-						continue;
-					}
-					lastTime = entryTimestamp;
-					
-					unifier.processChildCandle(getCandleFromHistoricalData(historicalEntry), entryTimestamp);
-					closePrice = historicalEntry.getBigDecimal("close");
-				}
+			if( unifier == null ) {
+				unifier = new ChildCandleUnifier(timePerCandle, endTime, candlesticks);
+				unifier.attachChildCandleUnifierObserver(this);
 			}
 			
-			// Output backtest results
-			System.out.println("Final balance: "+balance+" XBT ("+balance.multiply(closePrice)+" CAD)");
-			System.out.println("Percent profitable: "+profitableTrades/(double)numberOfTrades);
-		} catch (JSONException | ParseException e) {
-			e.printStackTrace();
+			// Process the historical data so there are heikin ashi candles for the bot to analyze
+			historicalData.feed(unifier, Long.MIN_VALUE);
+		}
+		synced = true;
+		
+		// Backtest
+		CandleBuffer[] paginatedHistoricalBacktestData = getXBTBacktestData(df);
+		BigDecimal closePrice = null;
+		
+		// Pages overlap, feed skips the entries that were already processed
+		long lastTime = 0;
+		for( int n = 0; n < paginatedHistoricalBacktestData.length; n++ ) {
+			CandleBuffer historicalData = paginatedHistoricalBacktestData[n];
+			lastTime = historicalData.feed(unifier, lastTime);
+			if( historicalData.size() > 0 )
+				closePrice = historicalData.getCandle(historicalData.size()-1).getClose();
 		}
+		
+		// Output backtest results
+		System.out.println("Final balance: "+balance+" XBT ("+balance.multiply(closePrice)+" CAD)");
+		System.out.println("Percent profitable: "+profitableTrades/(double)numberOfTrades);
 	}
 
 	@Override
@@ -250,12 +235,8 @@ public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver
 		balance = newBalance;
 	}
 	
-	public Candle getCandleFromHistoricalData(JSONObject historicalEntry) {
-		return new Candle(historicalEntry.getBigDecimal("high"), historicalEntry.getBigDecimal("low"), historicalEntry.getBigDecimal("open"), historicalEntry.getBigDecimal("close"));
-	}
-	
-	public JSONArray[] paginateXBTHistoricalData(DateFormat df, int numberOfPages) {
-		JSONArray[] jsonPages = new JSONArray[numberOfPages];
+	public CandleBuffer[] paginateXBTHistoricalData(DateFormat df, int numberOfPages) {
+		CandleBuffer[] pages = new CandleBuffer[numberOfPages];
 		for( int page = 1; page <= numberOfPages; page++ ) {
 			// ISO 8603 format
 			Calendar fourteenDaysAgo = Calendar.getInstance();
@@ -265,16 +246,16 @@ public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver
 			fourteenDaysAgo.set(Calendar.MILLISECOND, 0);
 			fourteenDaysAgo.add(Calendar.HOUR, -336*page - 336); // Back 14 days starting from 14 days ago 
 			String startTime = df.format(fourteenDaysAgo.getTime());
-			jsonPages[numberOfPages-page] = getXBTHistoricalData(startTime, 337);;
+			pages[numberOfPages-page] = getXBTHistoricalData(startTime, 337);
 		}
-		return jsonPages;
+		return pages;
 	}
 	
 	/**
-	 * @param df, formatted to output dates in UTC
+	 * @param startTime, ISO 8601 time in UTC
 	 * @return Historical data sorted from oldest to newest in 1 hour candles. The most recent candle is incomplete
 	 */
-	public JSONArray getXBTHistoricalData(String startTime, int count) {
+	public CandleBuffer getXBTHistoricalData(String startTime, int count) {
 		// Encode reserved characters so startTime can be sent in a URL.
 		// This practice is known as percent encoding.
 		startTime = startTime.replaceAll(":", "%3A");
@@ -282,7 +263,12 @@ public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver
 		String tradeHistoryUrl = "https://www.bitmex.com/api/v1/trade/bucketed?binSize=1h&partial=true&symbol=XBTUSD&columns=timestamp%2C%20open%2C%20high%2C%20low%2C%20close&count="+count+"&reverse=false&startTime="+startTime;
 		
 		try {
-			return JsonReader.readJsonArrayFromUrl(tradeHistoryUrl);
+			CandleBuffer candles = new CandleBuffer(PRICE_SCALE, count);
+			HttpClient.getShared().get(tradeHistoryUrl, (InputStream body) -> {
+				candleDecoder.decode(body, candles);
+				return candles;
+			});
+			return candles;
 		} catch ( IOException e) {
 			e.printStackTrace();
 			System.out.println("Irrecoverable. Shutting down.");
@@ -291,9 +277,9 @@ public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver
 		}
 	}
 	
-	public JSONArray[] getXBTBacktestData(DateFormat df) {
+	public CandleBuffer[] getXBTBacktestData(DateFormat df) {
 		int numberOfPages = 41;
-		JSONArray[] jsonPages = new JSONArray[numberOfPages];
+		CandleBuffer[] pages = new CandleBuffer[numberOfPages];
 		for( int page = 0; page < numberOfPages; page++ ) {
 			// ISO 8603 format
 			Calendar timeAgo = Calendar.getInstance();
@@ -302,8 +288,8 @@ public class BacktestHeikinAshiMomentumBotBitmex implements CandlesticksObserver
 			timeAgo.set(Calendar.MILLISECOND, 0);
 			timeAgo.add(Calendar.MINUTE, -20160 + 500*page); // 14 days ago 
 			String startTime = df.format(timeAgo.getTime());
-			jsonPages[page] = getXBTHistoricalData(startTime, 500);
+			pages[page] = getXBTHistoricalData(startTime, 500);
 		}
-		return jsonPages;
+		return pages;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.tobiascarryer.trading.simulations;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.tobiascarryer.trading.bots.ArbitrageBot;
+import com.tobiascarryer.trading.exchanges.Exchange;
+import com.tobiascarryer.trading.simulations.exchanges.ReplayExchange;
+
+/**
+ * Runs ArbitrageBot over the books recorded by several exchanges and prints the balances it ends with, to compare
+ * the profit of two versions of the bot over the same data.
+ */
+public class ReplayArbitrageBot {
+
+	/**
+	 * @param args, the journal directory of every exchange to replay
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		// Arbitrage Bot Configuration
+		// Set before running
+		String minorCurrency = "BTC";
+		BigDecimal targetProfit = new BigDecimal("1.001");
+		String[] majorCurrenciesToArbitrage = {"ETH", "LTC"};
+		BigDecimal postTradingFee = new BigDecimal("0.999");
+		double speed = 0; // As fast as possible
+
+		VirtualClock clock = new VirtualClock();
+		ReplayEngine engine = new ReplayEngine(clock);
+		engine.setSpeed(speed);
+		Exchange[] exchangesToArbitrage = new Exchange[args.length];
+		for( int i = 0; i < args.length; i++ ) {
+			ReplayExchange exchange = new ReplayExchange(clock, postTradingFee);
+			engine.addJournal(new File(args[i]), exchange);
+			exchangesToArbitrage[i] = exchange;
+		}
+
+		ArbitrageBot bot = new ArbitrageBot(minorCurrency, targetProfit);
+		// Scans on the replay thread so every run trades the same way
+		bot.setScannerThreads(0);
+		bot.setClock(clock::getMillis);
+		bot.startArbitraging(majorCurrenciesToArbitrage, exchangesToArbitrage);
+		long started = System.currentTimeMillis();
+		long records = engine.run();
+		bot.stop();
+
+		System.out.println("Replayed "+records+" records in "+(System.currentTimeMillis() - started)+"ms.");
+		for( int i = 0; i < args.length; i++ ) {
+			System.out.println(args[i]+": "+exchangesToArbitrage[i].getBalance(minorCurrency)+" "+minorCurrency);
+			for( String majorCurrency: majorCurrenciesToArbitrage )
+				System.out.println(args[i]+": "+exchangesToArbitrage[i].getBalance(majorCurrency)+" "+majorCurrency);
+		}
+	}
+}
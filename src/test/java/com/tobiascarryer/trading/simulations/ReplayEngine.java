@@ -0,0 +1,114 @@
+package com.tobiascarryer.trading.simulations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.tobiascarryer.trading.journal.JournalReader;
+import com.tobiascarryer.trading.simulations.exchanges.ReplayExchange;
+
+/**
+ * Replays the journals recorded by several exchanges into ReplayExchanges, so the bots can be run over recorded
+ * books instead of live ones.
+ *
+ * Every journal was written by one exchange. The records of all of them are merged by the time they were received
+ * and applied one at a time on the thread that calls run, records received at the same time are applied in the
+ * order their journals were added. The bots attached to the exchanges are notified on that thread as well, so a
+ * bot that does not start threads of its own (an ArbitrageBot without scanner threads) trades the same way every
+ * time the journals are replayed.
+ *
+ * The VirtualClock is moved to every record before it is applied. By default records are replayed as fast as they
+ * can be applied, setSpeed replays them at a multiple of the time that passed while they were recorded.
+ */
+public class ReplayEngine {
+
+	private final VirtualClock clock;
+	private final List<File> journals = new ArrayList<File>();
+	private final List<ReplayExchange> exchanges = new ArrayList<ReplayExchange>();
+	private double speed = 0;
+	private volatile boolean replaying = false;
+
+	public ReplayEngine(VirtualClock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * @param directory, written by a MarketDataJournal
+	 * @param exchange, receives every record of the journal
+	 */
+	public void addJournal(File directory, ReplayExchange exchange) {
+		this.journals.add(directory);
+		this.exchanges.add(exchange);
+	}
+
+	/**
+	 * @param speed, multiple of the recorded time to replay at (2 replays an hour in 30 minutes). 0 to replay as
+	 * fast as possible, which is the default.
+	 */
+	public void setSpeed(double speed) {
+		assert(speed >= 0);
+		this.speed = speed;
+	}
+
+	/**
+	 * Replays every record, or until stop is called.
+	 * @return Number of records replayed
+	 */
+	public long run() throws IOException, InterruptedException {
+		int sources = this.journals.size();
+		JournalReader[] readers = new JournalReader[sources];
+		boolean[] hasRecord = new boolean[sources];
+		for( int i = 0; i < sources; i++ ) {
+			readers[i] = new JournalReader(this.journals.get(i));
+			hasRecord[i] = readers[i].next();
+		}
+
+		long replayed = 0l;
+		long firstNanos = 0l;
+		long startedNanos = System.nanoTime();
+		this.replaying = true;
+		try {
+			while( this.replaying ) {
+				// Only a few exchanges are replayed together, looking at every journal is faster than a heap
+				int earliest = -1;
+				for( int i = 0; i < sources; i++ ) {
+					if( hasRecord[i] && (earliest == -1 || readers[i].getReceivedNanos() < readers[earliest].getReceivedNanos()) )
+						earliest = i;
+				}
+				if( earliest == -1 )
+					break;
+
+				JournalReader reader = readers[earliest];
+				long receivedNanos = reader.getReceivedNanos();
+				if( replayed == 0l )
+					firstNanos = receivedNanos;
+				if( this.speed > 0 )
+					waitUntil(startedNanos + (long) ((receivedNanos - firstNanos) / this.speed));
+				this.clock.advanceTo(receivedNanos);
+				this.exchanges.get(earliest).apply(reader);
+				replayed++;
+				hasRecord[earliest] = reader.next();
+			}
+		} finally {
+			this.replaying = false;
+			for( JournalReader reader: readers )
+				reader.close();
+		}
+		return replayed;
+	}
+
+	/**
+	 * Stops run after the record it is replaying.
+	 */
+	public void stop() {
+		this.replaying = false;
+	}
+
+	private static void waitUntil(long nanoTime) throws InterruptedException {
+		long wait = nanoTime - System.nanoTime();
+		if( wait > 0l )
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+}
@@ -5,7 +5,6 @@ import java.util.Map;
 import com.tobiascarryer.trading.bots.ArbitrageOpportunity;
 import com.tobiascarryer.trading.exchanges.Exchange;
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
-import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
 import com.tobiascarryer.trading.simulations.exchanges.SimulationBinanceExchange;
 import com.tobiascarryer.trading.simulations.exchanges.SimulationCryptopiaExchange;
 import com.tobiascarryer.trading.simulations.exchanges.SimulationQuadrigaCXExchange;
@@ -104,9 +103,6 @@ public class SimulationArbitrageBot {
 											}
 										} catch( RatioDoesNotExistException e ) {
 											e.printStackTrace();
-										} catch( NotEnoughBalanceException e ) {
-											e.printStackTrace();
-											System.out.println("Not enough balance for the opportunity.");
 										}
 									}
 								}
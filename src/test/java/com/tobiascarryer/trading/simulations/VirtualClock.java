@@ -0,0 +1,35 @@
+package com.tobiascarryer.trading.simulations;
+
+/**
+ * Time of a replay. Only moves when ReplayEngine replays a record, to the time the record was received, so the
+ * bots see the time the data arrived instead of the time it is replayed at.
+ */
+public class VirtualClock {
+
+	// Only written by the replay thread
+	private volatile long nanos = 0l;
+
+	/**
+	 * @return Nanoseconds since the epoch
+	 */
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	/**
+	 * @return Milliseconds since the epoch, pass getMillis as the clock of a bot or a simulated exchange
+	 */
+	public long getMillis() {
+		return this.nanos / 1000000l;
+	}
+
+	/**
+	 * Never moves the clock back. Updates handed to an exchange's ingest thread by different threads can be
+	 * recorded slightly out of order.
+	 * @param nanos, nanoseconds since the epoch
+	 */
+	public void advanceTo(long nanos) {
+		if( nanos > this.nanos )
+			this.nanos = nanos;
+	}
+}
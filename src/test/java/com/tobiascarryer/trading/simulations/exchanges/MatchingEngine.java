@@ -0,0 +1,341 @@
+package com.tobiascarryer.trading.simulations.exchanges;
+
+import java.util.Arrays;
+
+/**
+ * Limit order book of one trading pair that matches orders with price-time priority: the best price fills first
+ * and orders at the same price fill in the order they arrived.
+ *
+ * Prices are in ticks and quantities in lots (see FixedPoint). Resting orders live in parallel arrays and are
+ * linked into a FIFO queue per price level, levels are sorted from the worst price to the best like
+ * FixedPointBookSide. Matching, resting and cancelling an order do not allocate once the arrays are large enough,
+ * so a single thread can match millions of orders per second.
+ * Not thread safe, callers lock around it. Listeners must not submit or cancel orders while they are being told
+ * about a change.
+ */
+public class MatchingEngine {
+
+	/**
+	 * Returned by submit when nothing of the order was left to rest in the book.
+	 */
+	public static final long NO_ORDER = -1l;
+
+	/**
+	 * Told about every trade, in the order they happen.
+	 */
+	public interface FillListener {
+		/**
+		 * @param takerOwner, owner of the order that was submitted
+		 * @param makerOwner, owner of the order that was resting in the book
+		 * @param takerBuys, true if the submitted order was a buy
+		 * @param price, in ticks. Always the price of the resting order.
+		 * @param quantity, in lots
+		 * @param makerOrderId, id of the resting order
+		 * @param makerFilled, true if the resting order has nothing left
+		 */
+		void onFill(int takerOwner, int makerOwner, boolean takerBuys, long price, long quantity, long makerOrderId, boolean makerFilled);
+	}
+
+	/**
+	 * Told every time the total quantity at a price level changes, to keep a copy of the book by level.
+	 */
+	public interface LevelListener {
+		/**
+		 * @param bid, true for the bids side
+		 * @param price, in ticks
+		 * @param quantity, in lots. Zero when the level is gone.
+		 */
+		void onLevelChanged(boolean bid, long price, long quantity);
+	}
+
+	private static final int INITIAL_ORDERS = 1024;
+	private static final int NONE = -1;
+
+	private final Side bids = new Side(true);
+	private final Side asks = new Side(false);
+	private FillListener fillListener;
+	private LevelListener levelListener;
+
+	// Resting orders by slot. A slot is reused once its order is gone, the generation tells ids of old orders apart.
+	private long[] orderPrices = new long[INITIAL_ORDERS];
+	private long[] orderQuantities = new long[INITIAL_ORDERS];
+	private int[] orderOwners = new int[INITIAL_ORDERS];
+	private boolean[] orderIsBid = new boolean[INITIAL_ORDERS];
+	private int[] generations = new int[INITIAL_ORDERS];
+	private int[] next = new int[INITIAL_ORDERS];
+	private int[] previous = new int[INITIAL_ORDERS];
+	private int slotsUsed = 0;
+	private int freeSlots = NONE;
+
+	public void setFillListener(FillListener fillListener) {
+		this.fillListener = fillListener;
+	}
+
+	public void setLevelListener(LevelListener levelListener) {
+		this.levelListener = levelListener;
+	}
+
+	/**
+	 * Matches the order against the other side of the book, then rests what is left.
+	 * @param owner, passed back to the FillListener
+	 * @param buy, true to buy and false to sell
+	 * @param price, limit in ticks
+	 * @param quantity, in lots
+	 * @param immediateOrCancel, true to cancel what is left instead of resting it
+	 * @return Id of the resting order, or NO_ORDER if it filled completely or was immediate or cancel
+	 */
+	public long submit(int owner, boolean buy, long price, long quantity, boolean immediateOrCancel) {
+		Side opposite = buy ? this.asks : this.bids;
+		long remaining = quantity;
+		while( remaining > 0l && !opposite.isEmpty() ) {
+			int level = opposite.size - 1;
+			long levelPrice = opposite.prices[level];
+			if( buy ? levelPrice > price : levelPrice < price )
+				break;
+
+			int maker = opposite.heads[level];
+			while( remaining > 0l && maker != NONE ) {
+				long fill = Math.min(remaining, this.orderQuantities[maker]);
+				remaining -= fill;
+				this.orderQuantities[maker] -= fill;
+				opposite.totals[level] -= fill;
+				boolean makerFilled = this.orderQuantities[maker] == 0l;
+				int makerOwner = this.orderOwners[maker];
+				long makerId = id(maker);
+				int nextMaker = this.next[maker];
+				if( makerFilled ) {
+					opposite.heads[level] = nextMaker;
+					if( nextMaker == NONE )
+						opposite.tails[level] = NONE;
+					else
+						this.previous[nextMaker] = NONE;
+					release(maker);
+				}
+				if( this.fillListener != null )
+					this.fillListener.onFill(owner, makerOwner, buy, levelPrice, fill, makerId, makerFilled);
+				maker = nextMaker;
+			}
+
+			long total = opposite.totals[level];
+			if( total == 0l )
+				opposite.size--;
+			if( this.levelListener != null )
+				this.levelListener.onLevelChanged(!buy, levelPrice, total);
+		}
+
+		if( remaining == 0l || immediateOrCancel )
+			return NO_ORDER;
+		return rest(owner, buy, price, remaining);
+	}
+
+	/**
+	 * @param orderId, returned by submit
+	 * @return Quantity that was cancelled in lots, 0 if the order had already filled or been cancelled
+	 */
+	public long cancel(long orderId) {
+		int slot = (int) orderId;
+		if( orderId < 0l || slot >= this.slotsUsed || this.generations[slot] != (int) (orderId >>> 32) || this.orderQuantities[slot] == 0l )
+			return 0l;
+
+		Side side = this.orderIsBid[slot] ? this.bids : this.asks;
+		long price = this.orderPrices[slot];
+		long quantity = this.orderQuantities[slot];
+		int level = side.search(price);
+		if( this.previous[slot] == NONE )
+			side.heads[level] = this.next[slot];
+		else
+			this.next[this.previous[slot]] = this.next[slot];
+		if( this.next[slot] == NONE )
+			side.tails[level] = this.previous[slot];
+		else
+			this.previous[this.next[slot]] = this.previous[slot];
+		side.totals[level] -= quantity;
+		long total = side.totals[level];
+		if( total == 0l )
+			side.remove(level);
+		release(slot);
+		if( this.levelListener != null )
+			this.levelListener.onLevelChanged(side.bids, price, total);
+		return quantity;
+	}
+
+	/**
+	 * @return Quantity left in lots, 0 if the order filled or was cancelled
+	 */
+	public long getRemainingQuantity(long orderId) {
+		int slot = (int) orderId;
+		if( orderId < 0l || slot >= this.slotsUsed || this.generations[slot] != (int) (orderId >>> 32) )
+			return 0l;
+		return this.orderQuantities[slot];
+	}
+
+	/**
+	 * @return Limit price of the order in ticks, 0 if the order filled or was cancelled
+	 */
+	public long getPrice(long orderId) {
+		return getRemainingQuantity(orderId) == 0l ? 0l : this.orderPrices[(int) orderId];
+	}
+
+	/**
+	 * @return Best bid in ticks, or Long.MIN_VALUE if there are no bids
+	 */
+	public long getBestBid() {
+		return this.bids.isEmpty() ? Long.MIN_VALUE : this.bids.prices[this.bids.size-1];
+	}
+
+	/**
+	 * @return Best ask in ticks, or Long.MAX_VALUE if there are no asks
+	 */
+	public long getBestAsk() {
+		return this.asks.isEmpty() ? Long.MAX_VALUE : this.asks.prices[this.asks.size-1];
+	}
+
+	/**
+	 * @param bid, true for the bids side
+	 * @param depth, 0 for the best level
+	 * @return Total quantity of the level in lots, 0 if the side has fewer levels
+	 */
+	public long getLevelQuantity(boolean bid, int depth) {
+		Side side = bid ? this.bids : this.asks;
+		return depth < side.size ? side.totals[side.size-1-depth] : 0l;
+	}
+
+	/**
+	 * @param bid, true for the bids side
+	 * @param depth, 0 for the best level
+	 * @return Price of the level in ticks
+	 */
+	public long getLevelPrice(boolean bid, int depth) {
+		Side side = bid ? this.bids : this.asks;
+		return side.prices[side.size-1-depth];
+	}
+
+	public int getLevelCount(boolean bid) {
+		return bid ? this.bids.size : this.asks.size;
+	}
+
+	private long rest(int owner, boolean buy, long price, long quantity) {
+		Side side = buy ? this.bids : this.asks;
+		int level = side.search(price);
+		if( level < 0 )
+			level = side.insert(-(level + 1), price);
+
+		int slot = allocate();
+		this.orderPrices[slot] = price;
+		this.orderQuantities[slot] = quantity;
+		this.orderOwners[slot] = owner;
+		this.orderIsBid[slot] = buy;
+		this.next[slot] = NONE;
+		this.previous[slot] = side.tails[level];
+		if( side.tails[level] == NONE )
+			side.heads[level] = slot;
+		else
+			this.next[side.tails[level]] = slot;
+		side.tails[level] = slot;
+		side.totals[level] += quantity;
+		if( this.levelListener != null )
+			this.levelListener.onLevelChanged(buy, price, side.totals[level]);
+		return id(slot);
+	}
+
+	private long id(int slot) {
+		return ((long) this.generations[slot] << 32) | slot;
+	}
+
+	private int allocate() {
+		if( this.freeSlots != NONE ) {
+			int slot = this.freeSlots;
+			this.freeSlots = this.next[slot];
+			return slot;
+		}
+		if( this.slotsUsed == this.orderPrices.length ) {
+			int capacity = this.slotsUsed * 2;
+			this.orderPrices = Arrays.copyOf(this.orderPrices, capacity);
+			this.orderQuantities = Arrays.copyOf(this.orderQuantities, capacity);
+			this.orderOwners = Arrays.copyOf(this.orderOwners, capacity);
+			this.orderIsBid = Arrays.copyOf(this.orderIsBid, capacity);
+			this.generations = Arrays.copyOf(this.generations, capacity);
+			this.next = Arrays.copyOf(this.next, capacity);
+			this.previous = Arrays.copyOf(this.previous, capacity);
+		}
+		return this.slotsUsed++;
+	}
+
+	private void release(int slot) {
+		this.orderQuantities[slot] = 0l;
+		// Ids of the order that used the slot stop matching it. Kept positive so ids are never negative.
+		this.generations[slot] = (this.generations[slot] + 1) & Integer.MAX_VALUE;
+		this.next[slot] = this.freeSlots;
+		this.freeSlots = slot;
+	}
+
+	/**
+	 * Price levels of one side sorted from the worst price to the best, so the best level is removed in O(1).
+	 */
+	private static final class Side {
+		private final boolean bids;
+		private long[] prices = new long[64];
+		private long[] totals = new long[64];
+		private int[] heads = new int[64];
+		private int[] tails = new int[64];
+		private int size = 0;
+
+		private Side(boolean bids) {
+			this.bids = bids;
+		}
+
+		private boolean isEmpty() {
+			return this.size == 0;
+		}
+
+		/**
+		 * @return Index of the level, or -(insertion point) - 1 if there is no level at price
+		 */
+		private int search(long price) {
+			int low = 0;
+			int high = this.size - 1;
+			while( low <= high ) {
+				int middle = (low + high) >>> 1;
+				long middlePrice = this.prices[middle];
+				if( middlePrice == price )
+					return middle;
+				boolean middleIsWorse = this.bids ? middlePrice < price : middlePrice > price;
+				if( middleIsWorse )
+					low = middle + 1;
+				else
+					high = middle - 1;
+			}
+			return -(low + 1);
+		}
+
+		private int insert(int index, long price) {
+			if( this.size == this.prices.length ) {
+				int capacity = this.size * 2;
+				this.prices = Arrays.copyOf(this.prices, capacity);
+				this.totals = Arrays.copyOf(this.totals, capacity);
+				this.heads = Arrays.copyOf(this.heads, capacity);
+				this.tails = Arrays.copyOf(this.tails, capacity);
+			}
+			int better = this.size - index;
+			System.arraycopy(this.prices, index, this.prices, index+1, better);
+			System.arraycopy(this.totals, index, this.totals, index+1, better);
+			System.arraycopy(this.heads, index, this.heads, index+1, better);
+			System.arraycopy(this.tails, index, this.tails, index+1, better);
+			this.prices[index] = price;
+			this.totals[index] = 0l;
+			this.heads[index] = NONE;
+			this.tails[index] = NONE;
+			this.size++;
+			return index;
+		}
+
+		private void remove(int index) {
+			int better = this.size - index - 1;
+			System.arraycopy(this.prices, index+1, this.prices, index, better);
+			System.arraycopy(this.totals, index+1, this.totals, index, better);
+			System.arraycopy(this.heads, index+1, this.heads, index, better);
+			System.arraycopy(this.tails, index+1, this.tails, index, better);
+			this.size--;
+		}
+	}
+}
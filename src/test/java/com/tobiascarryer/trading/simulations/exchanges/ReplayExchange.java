@@ -0,0 +1,282 @@
+package com.tobiascarryer.trading.simulations.exchanges;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.CompletableFuture;
+
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.exchanges.BalanceLedger;
+import com.tobiascarryer.trading.exchanges.BasicExchange;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSideSnapshot;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.journal.JournalReader;
+import com.tobiascarryer.trading.journal.MarketDataJournal;
+import com.tobiascarryer.trading.simulations.VirtualClock;
+
+/**
+ * Exchange whose books come from a MarketDataJournal, see ReplayEngine.
+ *
+ * Books and balances are changed by apply on the replay thread, which also notifies the observers. Pairs are
+ * supported once the journal has a book for them. The balances recorded in the journal are used until the first
+ * order fills, from then on the fills decide the balances. Ticker records are skipped.
+ *
+ * Orders fill right away against the replayed book up to their limit price and whatever does not fill is cancelled.
+ * What they fill is taken out of the book until the journal updates those levels again, and the fee from
+ * getPostTradingFee is taken from what is received.
+ */
+public class ReplayExchange extends BasicExchange {
+
+	private static final int BALANCE_SCALE = BalanceLedger.SCALE;
+
+	private final VirtualClock clock;
+	private final BigDecimal postTradingFee;
+	private final long postTradingFeeUnscaled;
+	// Only changed by the replay thread
+	private final OrderBooks<PriceLevelBook> books = new OrderBooks<PriceLevelBook>();
+	private boolean traded = false;
+
+	/**
+	 * @param clock, moved by the ReplayEngine, used to time the acks of the orders
+	 * @param postTradingFee, percentage of a trade kept after fees
+	 */
+	public ReplayExchange(VirtualClock clock, BigDecimal postTradingFee) {
+		this.clock = clock;
+		this.postTradingFee = postTradingFee;
+		this.postTradingFeeUnscaled = FixedPoint.fromBigDecimal(postTradingFee, BALANCE_SCALE);
+	}
+
+	/**
+	 * Applies the record the reader is on.
+	 */
+	public void apply(JournalReader record) {
+		switch( record.getType() ) {
+		case MarketDataJournal.BOOK_SNAPSHOT:
+		case MarketDataJournal.BOOK_DELTA:
+			applyBook(record);
+			break;
+		case MarketDataJournal.BALANCE:
+			if( !this.traded ) {
+				String asset = record.getAsset();
+				this.balances.getAccount(asset).setTotal(FixedPoint.rescale(record.getBalance(), record.getQuantityScale(), BALANCE_SCALE));
+				this.canWithdrawAsset.put(asset, true);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void applyBook(JournalReader record) {
+		CurrencyPair pair = record.getPair();
+		record.applyBook(getOrListBook(pair, record.getPriceScale(), record.getQuantityScale()));
+		notifyBookObservers(pair.getMajorCurrency(), pair.getMinorCurrency());
+	}
+
+	/**
+	 * Lists the pair with the scales of its first record.
+	 */
+	private PriceLevelBook getOrListBook(CurrencyPair pair, int priceScale, int quantityScale) {
+		try {
+			return this.books.get(pair);
+		} catch( BookNotFoundException e ) {
+			PriceLevelBook book = new PriceLevelBook(priceScale, quantityScale, publishedTopOfBookSlot(pair.getMajorCurrency(), pair.getMinorCurrency()));
+			this.books.put(pair, book);
+			this.tickersSupported.add(makeTicker(pair.getMajorCurrency(), pair.getMinorCurrency()));
+			this.canWithdrawAsset.put(pair.getMajorCurrency(), true);
+			this.canWithdrawAsset.put(pair.getMinorCurrency(), true);
+			return book;
+		}
+	}
+
+	///                                        ///
+	///                 Orders                 ///
+	///                                        ///
+
+	/**
+	 * Fills the order before returning, so the bot sending it stays on the replay thread.
+	 */
+	@Override
+	public CompletableFuture<OrderAck> submit(Order order) {
+		CompletableFuture<OrderAck> ack = new CompletableFuture<>();
+		long sent = this.clock.getNanos();
+		try {
+			fill(order);
+			ack.complete(new OrderAck(order, sent, this.clock.getNanos()));
+		} catch( BookNotFoundException | NotEnoughBalanceException e ) {
+			ack.completeExceptionally(e);
+		}
+		return ack;
+	}
+
+	@Override
+	public void buy(Order order) throws NotEnoughBalanceException {
+		send(order);
+	}
+
+	@Override
+	public void sell(Order order) throws NotEnoughBalanceException {
+		send(order);
+	}
+
+	private void send(Order order) throws NotEnoughBalanceException {
+		try {
+			fill(order);
+		} catch( BookNotFoundException e ) {
+			e.printStackTrace();
+		}
+	}
+
+	private void fill(Order order) throws BookNotFoundException, NotEnoughBalanceException {
+		PriceLevelBook book = this.books.get(order.getMajorCurrency(), order.getMinorCurrency());
+		boolean buy = order.getAction() == OrderType.BUY;
+		int priceScale = book.getPriceScale();
+		int quantityScale = book.getQuantityScale();
+		// Rounded so the order never trades past its limit or more than it asked for
+		long limit = order.getPrice().setScale(priceScale, buy ? RoundingMode.FLOOR : RoundingMode.CEILING).unscaledValue().longValueExact();
+		long remaining = order.getMajorAmountToTrade().setScale(quantityScale, RoundingMode.DOWN).unscaledValue().longValueExact();
+
+		// Price the fill against one version of the book before changing anything
+		BookSideSnapshot levels = buy ? book.getAsks() : book.getBids();
+		long filled = 0l;
+		long value = 0l;
+		int depth = 0;
+		while( remaining > 0l && depth < levels.size() ) {
+			long price = levels.getPrice(depth);
+			if( buy ? price > limit : price < limit )
+				break;
+			long quantity = Math.min(remaining, levels.getQuantity(depth));
+			filled += quantity;
+			value += notional(price, quantity, priceScale, quantityScale);
+			remaining -= quantity;
+			depth++;
+		}
+		if( filled == 0l )
+			return;
+
+		BalanceLedger.Account major = this.balances.getAccount(order.getMajorCurrency());
+		BalanceLedger.Account minor = this.balances.getAccount(order.getMinorCurrency());
+		long majorAmount = FixedPoint.rescale(filled, quantityScale, BALANCE_SCALE);
+		if( buy ) {
+			if( !minor.withdraw(value) )
+				throw new NotEnoughBalanceException();
+			major.add(afterFee(majorAmount));
+		} else {
+			if( !major.withdraw(majorAmount) )
+				throw new NotEnoughBalanceException();
+			minor.add(afterFee(value));
+		}
+		this.traded = true;
+
+		// The levels traded against stay smaller until the journal updates them
+		long toTake = filled;
+		for( int i = 0; i < depth; i++ ) {
+			long quantity = levels.getQuantity(i);
+			long taken = Math.min(toTake, quantity);
+			if( buy )
+				book.updateAsk(levels.getPrice(i), quantity - taken);
+			else
+				book.updateBid(levels.getPrice(i), quantity - taken);
+			toTake -= taken;
+		}
+		book.publish();
+		notifyBookObservers(order.getMajorCurrency().toUpperCase(), order.getMinorCurrency().toUpperCase());
+	}
+
+	/**
+	 * @param price, in ticks
+	 * @param quantity, in lots
+	 * @return price * quantity in BALANCE_SCALE, rounded half even
+	 */
+	private static long notional(long price, long quantity, int priceScale, int quantityScale) {
+		int scale = priceScale + quantityScale;
+		if( scale >= BALANCE_SCALE )
+			return FixedPoint.multiplyDivide(price, quantity, FixedPoint.powerOfTen(scale - BALANCE_SCALE));
+		return Math.multiplyExact(Math.multiplyExact(price, quantity), FixedPoint.powerOfTen(BALANCE_SCALE - scale));
+	}
+
+	private long afterFee(long amount) {
+		return FixedPoint.multiplyDivide(amount, this.postTradingFeeUnscaled, FixedPoint.powerOfTen(BALANCE_SCALE));
+	}
+
+	///                                        ///
+	///              Market data               ///
+	///                                        ///
+
+	/**
+	 * Does nothing, the books are the ones in the journal.
+	 */
+	@Override
+	public void startMonitoringBook(String[] majorCurrencies, String minorCurrency) {}
+
+	@Override
+	public BigDecimal getPostTradingFee() {
+		return this.postTradingFee;
+	}
+
+	@Override
+	public BigDecimal getLowestAsk(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.books.get(majorCurrency, minorCurrency).getLowestAsk();
+	}
+
+	@Override
+	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.books.get(majorCurrency, minorCurrency).getHighestBid();
+	}
+
+	@Override
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return publishedTopOfBookSlot(majorCurrency, minorCurrency);
+	}
+
+	@Override
+	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.books.get(majorCurrency, minorCurrency).getBidsIterator();
+	}
+
+	@Override
+	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.books.get(majorCurrency, minorCurrency).getAsksIterator();
+	}
+
+	@Override
+	public String makeTicker(String majorCurrency, String minorCurrency) {
+		return majorCurrency.toUpperCase()+minorCurrency.toUpperCase();
+	}
+
+	@Override
+	public int getQuantityDecimalPrecision(String majorCurrency, String minorCurrency) {
+		try {
+			return this.books.get(majorCurrency, minorCurrency).getQuantityScale();
+		} catch( BookNotFoundException e ) {
+			return BALANCE_SCALE;
+		}
+	}
+
+	@Override
+	public int getPriceDecimalPrecision(String majorCurrency, String minorCurrency) {
+		try {
+			return this.books.get(majorCurrency, minorCurrency).getPriceScale();
+		} catch( BookNotFoundException e ) {
+			return BALANCE_SCALE;
+		}
+	}
+
+	@Override
+	public BigDecimal getMinimumMinorVolume(String majorCurrency, String minorCurrency) {
+		return new BigDecimal("0");
+	}
+
+	@Override
+	public BigDecimal getMinimumQuantity(String majorCurrency, String minorCurrency) {
+		return new BigDecimal("0");
+	}
+}
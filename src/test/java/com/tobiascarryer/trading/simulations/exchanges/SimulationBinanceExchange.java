@@ -5,12 +5,15 @@ import com.binance.api.client.BinanceApiWebSocketClient;
 import com.binance.api.client.BinanceApiAsyncRestClient;
 import com.binance.api.client.domain.market.OrderBook;
 import com.binance.api.client.domain.market.OrderBookEntry;
+import com.tobiascarryer.trading.FixedPoint;
 import com.tobiascarryer.trading.JsonReader;
 import com.tobiascarryer.trading.exchanges.BasicExchange;
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
 import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSideSnapshot;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
 import com.tobiascarryer.trading.exchanges.orders.Order;
 import com.binance.api.client.domain.general.ExchangeInfo;
 import com.binance.api.client.domain.general.FilterType;
@@ -19,9 +22,7 @@ import com.binance.api.client.domain.event.DepthEvent;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -30,8 +31,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 
 public class SimulationBinanceExchange extends BasicExchange {
 	
@@ -45,9 +44,8 @@ public class SimulationBinanceExchange extends BasicExchange {
 	private Map<String, BigDecimal> minMinorVolume = new HashMap<String, BigDecimal>();
 	private Map<String, BigDecimal> minQuantity = new HashMap<String, BigDecimal>();
 	
-	// Binance API's OrderBookEntry, different than the OrderBookEntry in the orderbook package
-	private OrderBooks<List<OrderBookEntry>> asks = new OrderBooks<List<OrderBookEntry>>();
-	private OrderBooks<List<OrderBookEntry>> bids = new OrderBooks<List<OrderBookEntry>>();
+	// Only the websocket thread of a book updates it, orders read the versions it publishes
+	private OrderBooks<PriceLevelBook> books = new OrderBooks<PriceLevelBook>();
 	
 	public SimulationBinanceExchange(String key, String secret, boolean useBNB) {
 		this.clientFactory = BinanceApiClientFactory.newInstance(key, secret);
@@ -81,9 +79,9 @@ public class SimulationBinanceExchange extends BasicExchange {
         }), 0, 2000);
 		
 		// Make up the balances for simulation purposes
-		balances.put("ETH", new BigDecimal("2"));
-		balances.put("LTC", new BigDecimal("3"));
-		balances.put("BTC", new BigDecimal("0.5"));
+		balances.setTotal("ETH", new BigDecimal("2"));
+		balances.setTotal("LTC", new BigDecimal("3"));
+		balances.setTotal("BTC", new BigDecimal("0.5"));
 	}
 	
 	@Override
@@ -93,8 +91,13 @@ public class SimulationBinanceExchange extends BasicExchange {
 			
 			if( supports(majorCurrency, minorCurrency) ) {
 				this.asyncClient.getOrderBook(ticker, 1000, (OrderBook orderBookResponse) -> {
-					this.asks.put(majorCurrency, minorCurrency, orderBookResponse.getAsks());
-					this.bids.put(majorCurrency, minorCurrency, orderBookResponse.getBids());
+					final PriceLevelBook book = new PriceLevelBook(getPriceDecimalPrecision(majorCurrency, minorCurrency), getQuantityDecimalPrecision(majorCurrency, minorCurrency));
+					for( OrderBookEntry ask: orderBookResponse.getAsks() )
+						book.updateAsk(ask.getPrice(), ask.getQty());
+					for( OrderBookEntry bid: orderBookResponse.getBids() )
+						book.updateBid(bid.getPrice(), bid.getQty());
+					book.publish();
+					this.books.put(majorCurrency, minorCurrency, book);
 					
 					final long snapshotUpdateId = orderBookResponse.getLastUpdateId();
 					
@@ -104,47 +107,13 @@ public class SimulationBinanceExchange extends BasicExchange {
 						// Drop any event where u is <= lastUpdateId in the snapshot
 						if( depthEvent.getFinalUpdateId() <= snapshotUpdateId )
 							return; // Update is for data before the snapshot
-	
-						// Set up dictionary for what to update to make the updates take O(n)
-						// time rather than O(n^2) if each entry would have to be search to check if
-						// it was updated.
-						HashMap<String, String> toUpdate = new HashMap<String, String>();
-						Set<String> toRemove = new HashSet<String>();
-						for( int i=0; i < depthEvent.getBids().size(); i++ ) {
-							if( depthEvent.getBids().get(i).getQty().equals("0") )
-								toRemove.add(depthEvent.getBids().get(i).getPrice());
-							else
-								toUpdate.put(depthEvent.getBids().get(i).getPrice(), depthEvent.getBids().get(i).getQty());
-						}
 						
 						// Process the data sent to the websocket to keep the order book in sync.
-						try {
-							List<OrderBookEntry> asksToUpdate = this.asks.get(majorCurrency, minorCurrency);
-							List<OrderBookEntry> bidsToUpdate = this.bids.get(majorCurrency, minorCurrency);
-						
-							// Update amounts if they changed or remove them if their quantity is zero
-							for( Iterator<OrderBookEntry> iter = asksToUpdate.listIterator(); iter.hasNext(); ) {
-								OrderBookEntry ask = iter.next();
-								if( toUpdate.containsKey(ask.getPrice()) )
-									ask.setQty(toUpdate.get(ask.getPrice()));
-								else if( toRemove.contains(ask.getPrice()) )
-									iter.remove();
-							}
-							for( Iterator<OrderBookEntry> iter = bidsToUpdate.listIterator(); iter.hasNext(); ) {
-								OrderBookEntry bid = iter.next();
-								if( toUpdate.containsKey(bid.getPrice()) )
-									bid.setQty(toUpdate.get(bid.getPrice()));
-								else if( toRemove.contains(bid.getPrice()) )
-									iter.remove();
-							}
-							
-							// Set the updated data in the OrderBooks data structure
-							this.asks.put(majorCurrency, minorCurrency, asksToUpdate);
-							this.bids.put(majorCurrency, minorCurrency, bidsToUpdate);
-						} catch( BookNotFoundException e ) {
-							e.printStackTrace(System.out);
-							System.out.println("Book does not exist. Is it being set properly? Was the book fetched and set before trying to be kept in sync?");
-						}
+						for( OrderBookEntry ask: depthEvent.getAsks() )
+							book.updateAsk(ask.getPrice(), ask.getQty());
+						for( OrderBookEntry bid: depthEvent.getBids() )
+							book.updateBid(bid.getPrice(), bid.getQty());
+						book.publish();
 					});
 				});
 			}
@@ -162,12 +131,12 @@ public class SimulationBinanceExchange extends BasicExchange {
 	
 	@Override
 	public BigDecimal getLowestAsk(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return new BigDecimal(this.asks.get(majorCurrency, minorCurrency).get(0).getPrice());
+		return this.books.get(majorCurrency, minorCurrency).getLowestAsk();
 	}
 	
 	@Override
 	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return new BigDecimal(this.bids.get(majorCurrency, minorCurrency).get(0).getPrice());
+		return this.books.get(majorCurrency, minorCurrency).getHighestBid();
 	}
 	
 	@Override
@@ -177,12 +146,12 @@ public class SimulationBinanceExchange extends BasicExchange {
 	
 	@Override
 	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createBinanceIterator(this.bids.get(majorCurrency, minorCurrency));
+		return this.books.get(majorCurrency, minorCurrency).getBidsIterator();
 	}
 
 	@Override
 	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
-		return OrderBookIterator.createBinanceIterator(this.asks.get(majorCurrency, minorCurrency));
+		return this.books.get(majorCurrency, minorCurrency).getAsksIterator();
 	}
 	
 	@Override
@@ -190,10 +159,13 @@ public class SimulationBinanceExchange extends BasicExchange {
 		try {
 			System.out.println("Binance buying "+order.getMajorAmountToTrade()+" "+order.getMajorCurrency()+".");
 			BigDecimal amountLeft = order.getMajorAmountToTrade();
-			BigDecimal newMinorBalance = this.balances.get(order.getMinorCurrency());
-			for( OrderBookEntry ask: asks.get(order.getMajorCurrency(), order.getMinorCurrency()) ) {
-				BigDecimal amountToBuy = new BigDecimal(ask.getQty()).min(amountLeft);
-				BigDecimal toSpend = amountToBuy.multiply(new BigDecimal(ask.getPrice()));
+			BigDecimal minorBalance = this.balances.getTotal(order.getMinorCurrency());
+			BigDecimal newMinorBalance = minorBalance;
+			// Every level comes from the same version even if the book is updated while filling the order
+			BookSideSnapshot asks = this.books.get(order.getMajorCurrency(), order.getMinorCurrency()).getAsks();
+			for( int depth = 0; depth < asks.size(); depth++ ) {
+				BigDecimal amountToBuy = FixedPoint.toBigDecimal(asks.getQuantity(depth), asks.getQuantityScale()).min(amountLeft);
+				BigDecimal toSpend = amountToBuy.multiply(FixedPoint.toBigDecimal(asks.getPrice(depth), asks.getPriceScale()));
 				if( toSpend.compareTo(newMinorBalance) == 1 )
 					throw new NotEnoughBalanceException();
 				newMinorBalance = newMinorBalance.subtract(toSpend);
@@ -201,8 +173,8 @@ public class SimulationBinanceExchange extends BasicExchange {
 				if( amountLeft.compareTo(new BigDecimal("0")) == 0 )
 					break;
 			}
-			this.balances.put(order.getMinorCurrency(), newMinorBalance);
-			this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).add(order.getMajorAmountToTrade()));
+			this.balances.add(order.getMinorCurrency(), newMinorBalance.subtract(minorBalance));
+			this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade());
 		} catch (BookNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -211,18 +183,19 @@ public class SimulationBinanceExchange extends BasicExchange {
 	@Override
 	public void sell(Order order) throws NotEnoughBalanceException {
 		System.out.println("Binance selling "+order.getMajorAmountToTrade()+" "+order.getMajorCurrency()+".");
-		if( order.getMajorAmountToTrade().compareTo(this.balances.get(order.getMajorCurrency())) == 1 )
+		if( order.getMajorAmountToTrade().compareTo(this.balances.getTotal(order.getMajorCurrency())) == 1 )
 			throw new NotEnoughBalanceException();
 		try {
 			BigDecimal amountLeft = order.getMajorAmountToTrade();
-			for( OrderBookEntry bid: bids.get(order.getMajorCurrency(), order.getMinorCurrency()) ) {
-				BigDecimal toSell = (new BigDecimal(bid.getQty())).min(amountLeft);
-				this.balances.put(order.getMinorCurrency(), this.balances.get(order.getMinorCurrency()).add(toSell.multiply(new BigDecimal(bid.getPrice()))));
+			BookSideSnapshot bids = this.books.get(order.getMajorCurrency(), order.getMinorCurrency()).getBids();
+			for( int depth = 0; depth < bids.size(); depth++ ) {
+				BigDecimal toSell = FixedPoint.toBigDecimal(bids.getQuantity(depth), bids.getQuantityScale()).min(amountLeft);
+				this.balances.add(order.getMinorCurrency(), toSell.multiply(FixedPoint.toBigDecimal(bids.getPrice(depth), bids.getPriceScale())));
 				amountLeft = amountLeft.subtract(toSell);
 				if( amountLeft.compareTo(new BigDecimal("0")) == 0 )
 					break;
 			}
-			this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).subtract(order.getMajorAmountToTrade()));
+			this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade().negate());
 		} catch (BookNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -235,7 +208,7 @@ public class SimulationBinanceExchange extends BasicExchange {
 			e.printStackTrace();
 		}
 		asset = asset.toUpperCase();
-		BigDecimal balance = this.balances.get(asset);
+		BigDecimal balance = this.balances.getTotal(asset);
 		if( balance == null ) {
 			System.out.println("Asset ("+asset+") has no balance.");
 			System.exit(0);
@@ -244,7 +217,7 @@ public class SimulationBinanceExchange extends BasicExchange {
 			System.out.println("Amount to withdraw is larger than balance.");
 			System.exit(0);
 		}
-		this.balances.put(asset, balance.subtract(amount));
+		this.balances.add(asset, amount.negate());
 		return amount;
 	}
 
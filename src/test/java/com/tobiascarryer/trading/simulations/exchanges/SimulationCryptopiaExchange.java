@@ -49,9 +49,9 @@ public class SimulationCryptopiaExchange extends BasicExchange {
         }), 0, 5000);
 		
 		// Make up the balances for simulation purposes
-		balances.put("ETH", new BigDecimal("2"));
-		balances.put("LTC", new BigDecimal("3"));
-		balances.put("BTC", new BigDecimal("0.5"));
+		balances.setTotal("ETH", new BigDecimal("2"));
+		balances.setTotal("LTC", new BigDecimal("3"));
+		balances.setTotal("BTC", new BigDecimal("0.5"));
 	}
 	
 	public void startMonitoringBook(String[] majorCurrencies, final String minorCurrency) {
@@ -112,7 +112,8 @@ public class SimulationCryptopiaExchange extends BasicExchange {
 		try {
 			System.out.println("Cryptopia buying "+order.getMajorAmountToTrade()+" "+order.getMajorCurrency()+".");
 			BigDecimal amountLeft = order.getMajorAmountToTrade();
-			BigDecimal newMinorBalance = this.balances.get(order.getMinorCurrency());
+			BigDecimal minorBalance = this.balances.getTotal(order.getMinorCurrency());
+			BigDecimal newMinorBalance = minorBalance;
 			for( MarketOrder ask: asks.get(order.getMajorCurrency(), order.getMinorCurrency()) ) {
 				BigDecimal amountToBuy = ask.getVolume().min(amountLeft);
 				BigDecimal toSpend = amountToBuy.multiply(ask.getPrice());
@@ -123,8 +124,8 @@ public class SimulationCryptopiaExchange extends BasicExchange {
 				if( amountLeft.compareTo(new BigDecimal("0")) == 0 )
 					break;
 			}
-			this.balances.put(order.getMinorCurrency(), newMinorBalance);
-			this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).add(order.getMajorAmountToTrade()));
+			this.balances.add(order.getMinorCurrency(), newMinorBalance.subtract(minorBalance));
+			this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade());
 		} catch (BookNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -133,18 +134,18 @@ public class SimulationCryptopiaExchange extends BasicExchange {
 	@Override
 	public void sell(Order order) throws NotEnoughBalanceException {
 		System.out.println("Cryptopia selling "+order.getMajorAmountToTrade()+" "+order.getMajorCurrency()+".");
-		if( order.getMajorAmountToTrade().compareTo(this.balances.get(order.getMajorCurrency())) == 1 )
+		if( order.getMajorAmountToTrade().compareTo(this.balances.getTotal(order.getMajorCurrency())) == 1 )
 			throw new NotEnoughBalanceException();
 		try {
 			BigDecimal amountLeft = order.getMajorAmountToTrade();
 			for( MarketOrder bid: bids.get(order.getMajorCurrency(), order.getMinorCurrency()) ) {
 				BigDecimal toSell = bid.getVolume().min(amountLeft);
-				this.balances.put(order.getMinorCurrency(), this.balances.get(order.getMinorCurrency()).add(toSell.multiply(bid.getPrice())));
+				this.balances.add(order.getMinorCurrency(), toSell.multiply(bid.getPrice()));
 				amountLeft = amountLeft.subtract(toSell);
 				if( amountLeft.compareTo(new BigDecimal("0")) == 0 )
 					break;
 			}
-			this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).subtract(order.getMajorAmountToTrade()));
+			this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade().negate());
 		} catch (BookNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -157,7 +158,7 @@ public class SimulationCryptopiaExchange extends BasicExchange {
 			e.printStackTrace();
 		}
 		asset = asset.toUpperCase();
-		BigDecimal balance = this.balances.get(asset);
+		BigDecimal balance = this.balances.getTotal(asset);
 		if( balance == null ) {
 			System.out.println("Asset ("+asset+") has no balance.");
 			System.exit(0);
@@ -166,7 +167,7 @@ public class SimulationCryptopiaExchange extends BasicExchange {
 			System.out.println("Amount to withdraw is larger than balance.");
 			System.exit(0);
 		}
-		this.balances.put(asset, balance.subtract(amount));
+		this.balances.add(asset, amount.negate());
 		return amount;
 	}
 
@@ -0,0 +1,627 @@
+package com.tobiascarryer.trading.simulations.exchanges;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.tobiascarryer.trading.FixedPoint;
+import com.tobiascarryer.trading.charts.Candle;
+import com.tobiascarryer.trading.charts.ChildCandleUnifier;
+import com.tobiascarryer.trading.exchanges.BalanceLedger;
+import com.tobiascarryer.trading.exchanges.BasicExchange;
+import com.tobiascarryer.trading.exchanges.BitmexOrder;
+import com.tobiascarryer.trading.exchanges.MarginExchange;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBooks;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Exchange that matches orders in process instead of sending them over a network, to stress test the bots.
+ *
+ * Every pair has a MatchingEngine. The book is filled with addLiquidity, which stands for the other traders on the
+ * exchange, and the orders of the bots trade against it with price-time priority. Orders that do not fill rest in
+ * the book like real limit orders.
+ *
+ * Balances are settled as orders fill. A buy holds its cost in the minor currency and a sell holds its quantity in
+ * the major currency until they fill, the fee from getPostTradingFee is taken from what is received. Spot orders
+ * reach the book latency nanoseconds after they are submitted. When there is latency, books are published and
+ * observers are notified on another thread so an observer can wait for the acks of the orders it sends.
+ *
+ * Margin trading follows the operations of BitmexExchange on one pair, but positions are linear: quantities are in
+ * the major currency and the collateral is in the minor currency.
+ */
+public class SimulationMatchingExchange extends BasicExchange implements MarginExchange {
+
+	// Decimal places of balances
+	private static final int BALANCE_SCALE = BalanceLedger.SCALE;
+
+	// Owners of the orders in the engines
+	private static final int SPOT = 0;
+	private static final int MARGIN = 1;
+	private static final int LIQUIDITY = 2;
+
+	// Delivers orders once their latency has passed, one at a time in the order they are due
+	private static volatile Thread networkThread;
+	private static final ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor((Runnable task) -> {
+		Thread thread = new Thread(task, "simulated-network");
+		thread.setDaemon(true);
+		networkThread = thread;
+		return thread;
+	});
+	// Notifies observers of the changes made by delayed orders, never on the network thread
+	private static final ExecutorService feed = Executors.newSingleThreadExecutor((Runnable task) -> {
+		Thread thread = new Thread(task, "simulated-feed");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final int priceScale;
+	private final int quantityScale;
+	private final OrderBooks<Market> markets = new OrderBooks<Market>();
+	private final List<Market> marketList = new ArrayList<Market>();
+	private volatile BigDecimal postTradingFee;
+	private volatile long postTradingFeeUnscaled;
+	private volatile long latencyNanos = 0l;
+	private volatile LongSupplier clock = System::currentTimeMillis;
+	// Limit of the order being matched, a buy that fills below its limit gets the difference back
+	private long takerLimit;
+
+	// Margin account, only one pair can be traded on margin
+	private Market marginMarket;
+	private long marginCash; // minor currency
+	private long marginPosition; // lots of the major currency, negative when short
+	private BigDecimal margin, percentageToTrade, diffFromActualPriceToOrder, percentChangeToStop;
+	private final List<Stop> stops = new ArrayList<Stop>();
+	private long stopsCreated = 0l;
+
+	/**
+	 * @param priceScale, number of decimal places in a price
+	 * @param quantityScale, number of decimal places in a quantity
+	 * @param postTradingFee, percentage of a trade kept after fees
+	 */
+	public SimulationMatchingExchange(int priceScale, int quantityScale, BigDecimal postTradingFee) {
+		this.priceScale = priceScale;
+		this.quantityScale = quantityScale;
+		this.postTradingFee = postTradingFee;
+		this.postTradingFeeUnscaled = FixedPoint.fromBigDecimal(postTradingFee, BALANCE_SCALE);
+	}
+
+	/**
+	 * Lists the pair so it can be traded. Listing a pair twice does nothing.
+	 */
+	public synchronized void addMarket(String majorCurrency, String minorCurrency) {
+		Market market = new Market(majorCurrency.toUpperCase(), minorCurrency.toUpperCase());
+		if( this.markets.putIfAbsent(majorCurrency, minorCurrency, market) != market )
+			return;
+		this.marketList.add(market);
+		this.tickersSupported.add(makeTicker(majorCurrency, minorCurrency));
+		this.canWithdrawAsset.put(market.majorCurrency, true);
+		this.canWithdrawAsset.put(market.minorCurrency, true);
+	}
+
+	/**
+	 * @param asset, symbol
+	 * @param balance, replaces the spot balance
+	 */
+	public synchronized void setBalance(String asset, BigDecimal balance) {
+		this.balances.setTotal(asset, balance);
+	}
+
+	/**
+	 * Replaces the fee and notifies the fee observers.
+	 */
+	public void setPostTradingFee(BigDecimal postTradingFee) {
+		this.postTradingFeeUnscaled = FixedPoint.fromBigDecimal(postTradingFee, BALANCE_SCALE);
+		this.postTradingFee = postTradingFee;
+		notifyFeeObservers();
+	}
+
+	@Override
+	public BigDecimal getPostTradingFee() {
+		return this.postTradingFee;
+	}
+
+	/**
+	 * @param latencyNanos, time between sending an order and it reaching the book
+	 */
+	public void setLatencyNanos(long latencyNanos) {
+		this.latencyNanos = latencyNanos;
+	}
+
+	/**
+	 * @param clock, milliseconds since the epoch given to ticker observers. Replace it to replay historical data.
+	 */
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Adds an order of another trader. It fills against the resting orders it crosses, including the bots', and
+	 * rests what is left. Balances are only settled for the bots.
+	 * @return Id to cancel the order with, MatchingEngine.NO_ORDER if it filled completely
+	 */
+	public long addLiquidity(String majorCurrency, String minorCurrency, OrderType action, BigDecimal price, BigDecimal quantity) throws BookNotFoundException {
+		Market market = this.markets.get(majorCurrency, minorCurrency);
+		return match(market, LIQUIDITY, action == OrderType.BUY, FixedPoint.fromBigDecimal(price, this.priceScale), FixedPoint.fromBigDecimal(quantity, this.quantityScale), false);
+	}
+
+	/**
+	 * @param orderId, returned by addLiquidity
+	 */
+	public void cancelLiquidity(String majorCurrency, String minorCurrency, long orderId) throws BookNotFoundException {
+		Market market = this.markets.get(majorCurrency, minorCurrency);
+		synchronized( this ) {
+			market.engine.cancel(orderId);
+		}
+		notifyChanges();
+	}
+
+	@Override
+	public void startMonitoringBook(String[] majorCurrencies, String minorCurrency) {
+		for( String majorCurrency: majorCurrencies )
+			addMarket(majorCurrency, minorCurrency);
+	}
+
+	@Override
+	public BigDecimal getLowestAsk(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.markets.get(majorCurrency, minorCurrency).book.getLowestAsk();
+	}
+
+	@Override
+	public BigDecimal getHighestBid(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.markets.get(majorCurrency, minorCurrency).book.getHighestBid();
+	}
+
+	@Override
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		return publishedTopOfBookSlot(majorCurrency, minorCurrency);
+	}
+
+	@Override
+	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.markets.get(majorCurrency, minorCurrency).book.getBidsIterator();
+	}
+
+	@Override
+	public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
+		return this.markets.get(majorCurrency, minorCurrency).book.getAsksIterator();
+	}
+
+	@Override
+	public void buy(Order order) throws NotEnoughBalanceException {
+		send(order);
+	}
+
+	@Override
+	public void sell(Order order) throws NotEnoughBalanceException {
+		send(order);
+	}
+
+	/**
+	 * Waits for the order to reach the book.
+	 */
+	private void send(Order order) throws NotEnoughBalanceException {
+		try {
+			submit(order).get();
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch( ExecutionException e ) {
+			if( e.getCause() instanceof NotEnoughBalanceException )
+				throw (NotEnoughBalanceException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Holds the balance the order needs right away, then matches it once the latency has passed. Returns without
+	 * waiting for the match when there is latency.
+	 */
+	@Override
+	public CompletableFuture<OrderAck> submit(Order order) {
+		CompletableFuture<OrderAck> ack = new CompletableFuture<>();
+		long sent = System.nanoTime();
+		boolean buy = order.getAction() == OrderType.BUY;
+		long price = FixedPoint.fromBigDecimal(order.getPrice(), this.priceScale);
+		long quantity = FixedPoint.fromBigDecimal(order.getMajorAmountToTrade(), this.quantityScale);
+		Market market;
+		try {
+			market = this.markets.get(order.getMajorCurrency(), order.getMinorCurrency());
+			hold(market, buy, price, quantity);
+		} catch( BookNotFoundException | NotEnoughBalanceException e ) {
+			ack.completeExceptionally(e);
+			return ack;
+		}
+
+		return afterLatency(() -> {
+			match(market, SPOT, buy, price, quantity, false);
+			return new OrderAck(order, sent, System.nanoTime());
+		});
+	}
+
+	@Override
+	public String makeTicker(String majorCurrency, String minorCurrency) {
+		return majorCurrency.toUpperCase()+minorCurrency.toUpperCase();
+	}
+
+	@Override
+	public int getQuantityDecimalPrecision(String majorCurrency, String minorCurrency) {
+		return this.quantityScale;
+	}
+
+	@Override
+	public int getPriceDecimalPrecision(String majorCurrency, String minorCurrency) {
+		return this.priceScale;
+	}
+
+	@Override
+	public BigDecimal getMinimumMinorVolume(String majorCurrency, String minorCurrency) {
+		return new BigDecimal("0");
+	}
+
+	@Override
+	public BigDecimal getMinimumQuantity(String majorCurrency, String minorCurrency) {
+		return new BigDecimal("0");
+	}
+
+	///                                        ///
+	///            Margin operations           ///
+	///                                        ///
+
+	/**
+	 * Enables the margin operations on one pair. The parameters are the same as BitmexExchange's.
+	 * @param collateral, margin balance in the minor currency
+	 */
+	public synchronized void startMarginTrading(String majorCurrency, String minorCurrency, BigDecimal collateral, int margin, BigDecimal diffFromActualPriceToOrder, BigDecimal percentageToTrade, BigDecimal percentChangeToStop) throws BookNotFoundException {
+		this.marginMarket = this.markets.get(majorCurrency, minorCurrency);
+		this.marginCash = FixedPoint.fromBigDecimal(collateral, BALANCE_SCALE);
+		this.marginPosition = 0l;
+		this.margin = new BigDecimal(margin);
+		this.diffFromActualPriceToOrder = diffFromActualPriceToOrder;
+		this.percentageToTrade = percentageToTrade;
+		this.percentChangeToStop = percentChangeToStop;
+		this.stops.clear();
+	}
+
+	@Override
+	public Disposable startMonitoringTicker(String majorCurrency, String minorCurrency, ChildCandleUnifier unifier) {
+		Market market;
+		try {
+			market = this.markets.get(majorCurrency, minorCurrency);
+		} catch( BookNotFoundException e ) {
+			addMarket(majorCurrency, minorCurrency);
+			return startMonitoringTicker(majorCurrency, minorCurrency, unifier);
+		}
+		market.tickerUnifiers.add(unifier);
+		return new Disposable() {
+			private volatile boolean disposed = false;
+
+			@Override
+			public void dispose() {
+				this.disposed = true;
+				market.tickerUnifiers.remove(unifier);
+			}
+
+			@Override
+			public boolean isDisposed() {
+				return this.disposed;
+			}
+		};
+	}
+
+	/**
+	 * @return Collateral plus the profit of the open position, minus the margin the position uses
+	 */
+	@Override
+	public synchronized BigDecimal getAvailableMarginBalance() {
+		long mark = this.marginMarket.lastTradePrice;
+		long positionValue = notional(mark, Math.abs(this.marginPosition));
+		long equity = this.marginCash + (this.marginPosition < 0l ? -positionValue : positionValue);
+		BigDecimal used = FixedPoint.toBigDecimal(positionValue, BALANCE_SCALE).divide(this.margin, BALANCE_SCALE, RoundingMode.UP);
+		return FixedPoint.toBigDecimal(equity, BALANCE_SCALE).subtract(used);
+	}
+
+	/**
+	 * @return Signed quantity of the major currency held on margin
+	 */
+	public synchronized BigDecimal getMarginPosition() {
+		return FixedPoint.toBigDecimal(this.marginPosition, this.quantityScale);
+	}
+
+	@Override
+	public BitmexOrder openLong(BigDecimal price) {
+		return open(price, true);
+	}
+
+	@Override
+	public BitmexOrder openShort(BigDecimal price) {
+		return open(price, false);
+	}
+
+	private BitmexOrder open(BigDecimal price, boolean isLong) {
+		BigDecimal orderQty = getAvailableMarginBalance().multiply(this.percentageToTrade).multiply(this.margin).divide(price, this.quantityScale, RoundingMode.DOWN);
+		if( orderQty.signum() <= 0 )
+			return null;
+		BigDecimal limit = isLong ? price.add(this.diffFromActualPriceToOrder) : price.subtract(this.diffFromActualPriceToOrder);
+		BigDecimal stopPrice = price.multiply(isLong ? BigDecimal.ONE.subtract(this.percentChangeToStop) : BigDecimal.ONE.add(this.percentChangeToStop));
+		long quantity = FixedPoint.fromBigDecimal(orderQty, this.quantityScale);
+		long orderId = afterLatency(() -> match(this.marginMarket, MARGIN, isLong, FixedPoint.fromBigDecimal(limit, this.priceScale), quantity, false)).join();
+		Stop stop = addStop(isLong, FixedPoint.fromBigDecimal(stopPrice, this.priceScale), quantity);
+		return new BitmexOrder(stop.id, isLong ? orderQty : orderQty.negate(), Long.toString(orderId));
+	}
+
+	@Override
+	public void closeLong(BigDecimal orderQty) {
+		long quantity = FixedPoint.fromBigDecimal(orderQty, this.quantityScale);
+		afterLatency(() -> closeAtTopOfBook(false, quantity)).join();
+	}
+
+	@Override
+	public void closeShort(BigDecimal orderQty) {
+		long quantity = FixedPoint.fromBigDecimal(orderQty.negate(), this.quantityScale);
+		afterLatency(() -> closeAtTopOfBook(true, quantity)).join();
+	}
+
+	/**
+	 * Sends a limit order diffFromActualPriceToOrder past the best price on the other side, or a market order if
+	 * that side is empty.
+	 */
+	private long closeAtTopOfBook(boolean buy, long quantity) {
+		long limit;
+		synchronized( this ) {
+			long diff = FixedPoint.fromBigDecimal(this.diffFromActualPriceToOrder, this.priceScale);
+			if( buy ) {
+				long bestAsk = this.marginMarket.engine.getBestAsk();
+				limit = bestAsk == Long.MAX_VALUE ? bestAsk : bestAsk + diff;
+			} else {
+				long bestBid = this.marginMarket.engine.getBestBid();
+				limit = bestBid == Long.MIN_VALUE ? 0l : Math.max(0l, bestBid - diff);
+			}
+		}
+		return match(this.marginMarket, MARGIN, buy, limit, quantity, false);
+	}
+
+	/**
+	 * @param orderId, id of an order or a stop returned by openLong or openShort
+	 */
+	@Override
+	public void cancelOrder(String orderId) {
+		synchronized( this ) {
+			if( orderId.startsWith("stop-") ) {
+				this.stops.removeIf((Stop stop) -> stop.id.equals(orderId));
+				return;
+			}
+			this.marginMarket.engine.cancel(Long.parseLong(orderId));
+		}
+		notifyChanges();
+	}
+
+	private synchronized Stop addStop(boolean sell, long trigger, long quantity) {
+		Stop stop = new Stop("stop-"+(this.stopsCreated++), sell, trigger, quantity);
+		this.stops.add(stop);
+		return stop;
+	}
+
+	/**
+	 * Sends the stops the last trade went through as immediate or cancel orders, until none are left to trigger.
+	 */
+	private void triggerStops() {
+		if( this.marginMarket == null || !this.marginMarket.traded )
+			return;
+		boolean triggered = true;
+		while( triggered ) {
+			triggered = false;
+			long last = this.marginMarket.lastTradePrice;
+			Iterator<Stop> iterator = this.stops.iterator();
+			while( iterator.hasNext() ) {
+				Stop stop = iterator.next();
+				if( stop.sell ? last <= stop.trigger : last >= stop.trigger ) {
+					iterator.remove();
+					this.marginMarket.engine.submit(MARGIN, !stop.sell, stop.sell ? 0l : Long.MAX_VALUE, stop.quantity, true);
+					triggered = true;
+					break;
+				}
+			}
+		}
+	}
+
+	///                                        ///
+	///          Matching and settling         ///
+	///                                        ///
+
+	private long match(Market market, int owner, boolean buy, long price, long quantity, boolean immediateOrCancel) {
+		long orderId;
+		synchronized( this ) {
+			this.takerLimit = price;
+			orderId = market.engine.submit(owner, buy, price, quantity, immediateOrCancel);
+			triggerStops();
+		}
+		notifyChanges();
+		return orderId;
+	}
+
+	private synchronized void hold(Market market, boolean buy, long price, long quantity) throws NotEnoughBalanceException {
+		BalanceLedger.Account account = buy ? market.minor : market.major;
+		long amount = buy ? notional(price, quantity) : FixedPoint.rescale(quantity, this.quantityScale, BALANCE_SCALE);
+		if( !account.withdraw(amount) )
+			throw new NotEnoughBalanceException();
+	}
+
+	/**
+	 * Runs action once the latency has passed on the network thread.
+	 * @return Completed with what action returns or throws, right away when there is no latency
+	 */
+	private <T> CompletableFuture<T> afterLatency(Supplier<T> action) {
+		long latency = this.latencyNanos;
+		if( latency == 0l )
+			return CompletableFuture.completedFuture(action.get());
+		CompletableFuture<T> result = new CompletableFuture<>();
+		network.schedule(() -> {
+			try {
+				result.complete(action.get());
+			} catch( RuntimeException e ) {
+				result.completeExceptionally(e);
+			}
+		}, latency, TimeUnit.NANOSECONDS);
+		return result;
+	}
+
+	/**
+	 * Publishes the books that changed and notifies their observers. Runs on the feed thread when called from the
+	 * network thread, so observers can block until their own orders are delivered.
+	 */
+	private void notifyChanges() {
+		List<Market> changed = new ArrayList<Market>(1);
+		List<Candle> tickers = new ArrayList<Candle>(1);
+		long timestamp = this.clock.getAsLong();
+		synchronized( this ) {
+			for( Market market: this.marketList ) {
+				if( !market.changed )
+					continue;
+				market.changed = false;
+				market.book.publish();
+				changed.add(market);
+				tickers.add(market.tickerCandle());
+			}
+		}
+		if( changed.isEmpty() )
+			return;
+
+		Runnable notify = () -> {
+			for( int i = 0; i < changed.size(); i++ ) {
+				Market market = changed.get(i);
+				notifyBookObservers(market.majorCurrency, market.minorCurrency);
+				Candle ticker = tickers.get(i);
+				if( ticker != null )
+					for( ChildCandleUnifier unifier: market.tickerUnifiers )
+						unifier.processChildCandle(ticker, timestamp);
+			}
+		};
+		if( Thread.currentThread() == networkThread )
+			feed.execute(notify);
+		else
+			notify.run();
+	}
+
+	/**
+	 * @param price, in ticks
+	 * @param quantity, in lots
+	 * @return price * quantity in BALANCE_SCALE, rounded half even
+	 */
+	private long notional(long price, long quantity) {
+		int scale = this.priceScale + this.quantityScale;
+		if( scale >= BALANCE_SCALE )
+			return FixedPoint.multiplyDivide(price, quantity, FixedPoint.powerOfTen(scale - BALANCE_SCALE));
+		return Math.multiplyExact(Math.multiplyExact(price, quantity), FixedPoint.powerOfTen(BALANCE_SCALE - scale));
+	}
+
+	private long afterFee(long amount) {
+		return FixedPoint.multiplyDivide(amount, this.postTradingFeeUnscaled, FixedPoint.powerOfTen(BALANCE_SCALE));
+	}
+
+	/**
+	 * Engine, published book and balances of one pair.
+	 */
+	private class Market implements MatchingEngine.FillListener, MatchingEngine.LevelListener {
+		private final String majorCurrency;
+		private final String minorCurrency;
+		private final MatchingEngine engine = new MatchingEngine();
+		private final PriceLevelBook book;
+		private final BalanceLedger.Account major;
+		private final BalanceLedger.Account minor;
+		private final List<ChildCandleUnifier> tickerUnifiers = new CopyOnWriteArrayList<ChildCandleUnifier>();
+		// Both only changed while the exchange is locked
+		private boolean changed = false;
+		private boolean traded = false;
+		private long lastTradePrice = 0l;
+
+		private Market(String majorCurrency, String minorCurrency) {
+			this.majorCurrency = majorCurrency;
+			this.minorCurrency = minorCurrency;
+			this.book = new PriceLevelBook(priceScale, quantityScale, publishedTopOfBookSlot(majorCurrency, minorCurrency));
+			this.major = balances.getAccount(majorCurrency);
+			this.minor = balances.getAccount(minorCurrency);
+			this.engine.setFillListener(this);
+			this.engine.setLevelListener(this);
+		}
+
+		@Override
+		public void onFill(int takerOwner, int makerOwner, boolean takerBuys, long price, long quantity, long makerOrderId, boolean makerFilled) {
+			this.lastTradePrice = price;
+			this.traded = true;
+			settle(takerOwner, takerBuys, price, quantity, true);
+			settle(makerOwner, !takerBuys, price, quantity, false);
+		}
+
+		private void settle(int owner, boolean buys, long price, long quantity, boolean taker) {
+			if( owner == SPOT ) {
+				if( buys ) {
+					this.major.add(afterFee(FixedPoint.rescale(quantity, quantityScale, BALANCE_SCALE)));
+					// The cost was held at the limit price
+					if( taker )
+						this.minor.add(notional(takerLimit - price, quantity));
+				} else {
+					this.minor.add(afterFee(notional(price, quantity)));
+				}
+			} else if( owner == MARGIN ) {
+				long value = notional(price, quantity);
+				marginPosition += buys ? quantity : -quantity;
+				marginCash += (buys ? -value : value) - (value - afterFee(value));
+			}
+		}
+
+		@Override
+		public void onLevelChanged(boolean bid, long price, long quantity) {
+			if( bid )
+				this.book.updateBid(price, quantity);
+			else
+				this.book.updateAsk(price, quantity);
+			this.changed = true;
+		}
+
+		/**
+		 * @return Child candle made from the top of book the same way BitmexExchange makes it from the ticker,
+		 * null if there is no price yet
+		 */
+		private Candle tickerCandle() {
+			if( this.tickerUnifiers.isEmpty() || !this.traded )
+				return null;
+			long bid = this.engine.getBestBid() == Long.MIN_VALUE ? this.lastTradePrice : this.engine.getBestBid();
+			long ask = this.engine.getBestAsk() == Long.MAX_VALUE ? this.lastTradePrice : this.engine.getBestAsk();
+			BigDecimal bidPrice = FixedPoint.toBigDecimal(bid, priceScale);
+			return new Candle(FixedPoint.toBigDecimal(ask, priceScale), bidPrice, bidPrice, bidPrice);
+		}
+	}
+
+	private static final class Stop {
+		private final String id;
+		private final boolean sell;
+		private final long trigger;
+		private final long quantity;
+
+		private Stop(String id, boolean sell, long trigger, long quantity) {
+			this.id = id;
+			this.sell = sell;
+			this.trigger = trigger;
+			this.quantity = quantity;
+		}
+	}
+}
@@ -42,9 +42,9 @@ public class SimulationQuadrigaCXExchange extends BasicExchange {
 		this.canWithdrawAsset.put("BTG", true);
 		
 		// Make up the balances for simulation purposes
-		balances.put("ETH", new BigDecimal("2"));
-		balances.put("LTC", new BigDecimal("3"));
-		balances.put("BTC", new BigDecimal("0.5"));
+		balances.setTotal("ETH", new BigDecimal("2"));
+		balances.setTotal("LTC", new BigDecimal("3"));
+		balances.setTotal("BTC", new BigDecimal("0.5"));
 	}
 	
 	public void startMonitoringBook(String[] majorCurrencies, final String minorCurrency) {
@@ -126,7 +126,8 @@ public class SimulationQuadrigaCXExchange extends BasicExchange {
 		try {
 			System.out.println("Quadriga buying "+order.getMajorAmountToTrade()+" "+order.getMajorCurrency()+".");
 			BigDecimal amountLeft = order.getMajorAmountToTrade();
-			BigDecimal newMinorBalance = this.balances.get(order.getMinorCurrency());
+			BigDecimal minorBalance = this.balances.getTotal(order.getMinorCurrency());
+			BigDecimal newMinorBalance = minorBalance;
 			for( LimitOrder ask: asks.get(order.getMajorCurrency(), order.getMinorCurrency()) ) {
 				BigDecimal amountToBuy = ask.getRemainingAmount().min(amountLeft);
 				BigDecimal toSpend = amountToBuy.multiply(ask.getLimitPrice());
@@ -137,8 +138,8 @@ public class SimulationQuadrigaCXExchange extends BasicExchange {
 				if( amountLeft.compareTo(new BigDecimal("0")) == 0 )
 					break;
 			}
-			this.balances.put(order.getMinorCurrency(), newMinorBalance);
-			this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).add(order.getMajorAmountToTrade()));
+			this.balances.add(order.getMinorCurrency(), newMinorBalance.subtract(minorBalance));
+			this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade());
 		} catch (BookNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -147,18 +148,18 @@ public class SimulationQuadrigaCXExchange extends BasicExchange {
 	@Override
 	public void sell(Order order) throws NotEnoughBalanceException {
 		System.out.println("Quadriga selling "+order.getMajorAmountToTrade()+" "+order.getMajorCurrency()+".");
-		if( order.getMajorAmountToTrade().compareTo(this.balances.get(order.getMajorCurrency())) == 1 )
+		if( order.getMajorAmountToTrade().compareTo(this.balances.getTotal(order.getMajorCurrency())) == 1 )
 			throw new NotEnoughBalanceException();
 		try {
 			BigDecimal amountLeft = order.getMajorAmountToTrade();
 			for( LimitOrder bid: bids.get(order.getMajorCurrency(), order.getMinorCurrency()) ) {
 				BigDecimal toSell = bid.getRemainingAmount().min(amountLeft);
-				this.balances.put(order.getMinorCurrency(), this.balances.get(order.getMinorCurrency()).add(toSell.multiply(bid.getLimitPrice())));
+				this.balances.add(order.getMinorCurrency(), toSell.multiply(bid.getLimitPrice()));
 				amountLeft = amountLeft.subtract(toSell);
 				if( amountLeft.compareTo(new BigDecimal("0")) == 0 )
 					break;
 			}
-			this.balances.put(order.getMajorCurrency(), this.balances.get(order.getMajorCurrency()).subtract(order.getMajorAmountToTrade()));
+			this.balances.add(order.getMajorCurrency(), order.getMajorAmountToTrade().negate());
 		} catch (BookNotFoundException e) {
 			e.printStackTrace();
 		}
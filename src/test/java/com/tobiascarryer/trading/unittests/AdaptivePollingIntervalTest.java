@@ -0,0 +1,53 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.AdaptivePollingInterval;
+
+public class AdaptivePollingIntervalTest {
+
+	/**
+	 * Polls at the interval it asks for, observing a book that changes every changeMillis.
+	 */
+	private static long settle(AdaptivePollingInterval interval, long changeMillis) {
+		long now = 0;
+		long lastChange = 0;
+		for( int poll = 0; poll < 200; poll++ ) {
+			boolean changed = now / changeMillis != lastChange / changeMillis;
+			lastChange = now;
+			interval.polled(now, changed);
+			now += interval.getIntervalMillis();
+		}
+		return interval.getIntervalMillis();
+	}
+
+	@Test
+	public void testStartsAtMinimum() {
+		AdaptivePollingInterval interval = new AdaptivePollingInterval(1000, 30000, 0.2);
+		assertEquals(1000, interval.getIntervalMillis());
+		assertEquals(0, interval.getNextPollMillis());
+		interval.polled(5000, true);
+		assertEquals(6000, interval.getNextPollMillis());
+	}
+
+	@Test
+	public void testBusyBookPolledAtMinimum() {
+		assertEquals(1000, settle(new AdaptivePollingInterval(1000, 30000, 0.2), 100));
+	}
+
+	@Test
+	public void testIdleBookPolledAtMaximum() {
+		assertEquals(30000, settle(new AdaptivePollingInterval(1000, 30000, 0.2), Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testIntervalFollowsChangeRate() {
+		// About half of the polls see a change
+		long interval = settle(new AdaptivePollingInterval(1000, 30000, 0.2), 8000);
+		assertTrue(interval > 2000);
+		assertTrue(interval < 12000);
+	}
+}
@@ -7,10 +7,14 @@ import junit.framework.TestSuite;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.tobiascarryer.trading.bots.ArbitrageBot;
 import com.tobiascarryer.trading.exchanges.Exchange;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
 import com.tobiascarryer.trading.unittests.unittestimplementations.ExchangeUnitTestSimulation;
 
 /**
@@ -158,4 +162,148 @@ public class ArbitrageBotTest extends TestCase {
 		assertTrue(netMajor1.add(netMajor2).compareTo(new BigDecimal("0")) == 1);
 		assertTrue(netMinor1.add(netMinor2).compareTo(new BigDecimal("0")) == 1);
 	}
+    
+    /**
+     * Books that become profitable after the bot started are checked as soon as the exchange reports the change.
+     */
+    public void testBookChangeTriggersScan() {
+    	OrderBookEntry[] asks = {new OrderBookEntry("1.000", "0.5"),
+				 new OrderBookEntry("1.005", "0.75"),
+				 new OrderBookEntry("1.010", "1"),
+				 new OrderBookEntry("1.015", "1.25")};
+    	OrderBookEntry[] bids = {new OrderBookEntry("0.995", "0.5"),
+				 new OrderBookEntry("0.990", "0.75"),
+		 		 new OrderBookEntry("0.985", "1"),
+		 		 new OrderBookEntry("0.980", "1.25")};
+    	Map<String, BigDecimal> balances1 = new HashMap<>();
+		balances1.put("BTC", new BigDecimal("2"));
+		balances1.put("ETH", new BigDecimal("2"));
+		Map<String, BigDecimal> balances2 = new HashMap<>();
+		balances2.put("BTC", new BigDecimal("2"));
+		balances2.put("ETH", new BigDecimal("2"));
+		ExchangeUnitTestSimulation simulation1 = new ExchangeUnitTestSimulation(asks,bids,balances1);
+		ExchangeUnitTestSimulation simulation2 = new ExchangeUnitTestSimulation(asks,bids,balances2);
+		
+		String[] majorCurrenciesToTrade = {"ETH"};
+		Exchange[] exchanges = {simulation1, simulation2};
+		ArbitrageBot bot = new ArbitrageBot("BTC", new BigDecimal("1.005"));
+		bot.startArbitraging(majorCurrenciesToTrade, exchanges);
+		
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException interrupted) {
+			interrupted.printStackTrace();
+		}
+		assertTrue(simulation1.getBalance("ETH").compareTo(new BigDecimal("2")) == 0);
+		
+		// Exchange 2 now bids well above exchange 1's asks.
+		OrderBookEntry[] higherBids = {new OrderBookEntry("1.100", "0.5"),
+				 new OrderBookEntry("1.095", "0.75"),
+				 new OrderBookEntry("0.990", "1"),
+				 new OrderBookEntry("0.985", "1.25")};
+		simulation2.changeBooks(new OrderBookEntry[] {new OrderBookEntry("1.200", "0.5")}, higherBids, "ETH", "BTC");
+		
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException interrupted) {
+			interrupted.printStackTrace();
+		}
+		bot.stop();
+		
+		// Bought on exchange 1 and sold on exchange 2
+		assertTrue(simulation1.getBalance("ETH").compareTo(new BigDecimal("2")) == 1);
+		assertTrue(simulation2.getBalance("ETH").compareTo(new BigDecimal("2")) == -1);
+    }
+    
+    /**
+     * Lower fees make a spread that was too small profitable without the books changing.
+     */
+    public void testFeeChangeTriggersScan() {
+    	Map<String, BigDecimal> balances1 = new HashMap<>();
+		balances1.put("BTC", new BigDecimal("2"));
+		balances1.put("ETH", new BigDecimal("2"));
+		Map<String, BigDecimal> balances2 = new HashMap<>();
+		balances2.put("BTC", new BigDecimal("2"));
+		balances2.put("ETH", new BigDecimal("2"));
+		ExchangeUnitTestSimulation simulation1 = new ExchangeUnitTestSimulation(new OrderBookEntry[] {new OrderBookEntry("1.000", "0.5")},
+				new OrderBookEntry[] {new OrderBookEntry("0.900", "0.5")}, balances1);
+		ExchangeUnitTestSimulation simulation2 = new ExchangeUnitTestSimulation(new OrderBookEntry[] {new OrderBookEntry("1.200", "0.5")},
+				new OrderBookEntry[] {new OrderBookEntry("1.005", "0.5")}, balances2);
+		
+		String[] majorCurrenciesToTrade = {"ETH"};
+		Exchange[] exchanges = {simulation1, simulation2};
+		ArbitrageBot bot = new ArbitrageBot("BTC", new BigDecimal("1.001"));
+		bot.startArbitraging(majorCurrenciesToTrade, exchanges);
+		
+		// Still not profitable while the other exchange charges the higher fee.
+		simulation1.changePostTradingFee(new BigDecimal("0.9995"));
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException interrupted) {
+			interrupted.printStackTrace();
+		}
+		assertTrue(simulation1.getBalance("ETH").compareTo(new BigDecimal("2")) == 0);
+		
+		simulation2.changePostTradingFee(new BigDecimal("0.9995"));
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException interrupted) {
+			interrupted.printStackTrace();
+		}
+		bot.stop();
+		
+		// Bought on exchange 1 and sold on exchange 2
+		assertTrue(simulation1.getBalance("ETH").compareTo(new BigDecimal("2")) == 1);
+		assertTrue(simulation2.getBalance("ETH").compareTo(new BigDecimal("2")) == -1);
+    }
+    
+    /**
+     * Book changes while an opportunity is being executed do not let another scanner thread execute it again
+     * before its cooldown ends.
+     */
+    public void testOpportunityExecutedOncePerCooldown() {
+    	Map<String, BigDecimal> balances1 = new HashMap<>();
+		balances1.put("BTC", new BigDecimal("20"));
+		balances1.put("ETH", new BigDecimal("20"));
+		Map<String, BigDecimal> balances2 = new HashMap<>();
+		balances2.put("BTC", new BigDecimal("20"));
+		balances2.put("ETH", new BigDecimal("20"));
+		AtomicInteger sells = new AtomicInteger(0);
+		ExchangeUnitTestSimulation simulation1 = new ExchangeUnitTestSimulation(new OrderBookEntry[] {new OrderBookEntry("1.000", "0.5")},
+				new OrderBookEntry[] {new OrderBookEntry("0.900", "0.5")}, balances1);
+		ExchangeUnitTestSimulation simulation2 = new ExchangeUnitTestSimulation(new OrderBookEntry[] {new OrderBookEntry("1.200", "0.5")},
+				new OrderBookEntry[] {new OrderBookEntry("1.100", "0.5")}, balances2) {
+			@Override
+			public CompletableFuture<OrderAck> submit(Order order) {
+				sells.incrementAndGet();
+				// Slow to accept so the books change while the opportunity is executing
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException interrupted) {
+					interrupted.printStackTrace();
+				}
+				return super.submit(order);
+			}
+		};
+		
+		String[] majorCurrenciesToTrade = {"ETH"};
+		Exchange[] exchanges = {simulation1, simulation2};
+		ArbitrageBot bot = new ArbitrageBot("BTC", new BigDecimal("1.005"));
+		bot.setScannerThreads(4);
+		bot.startArbitraging(majorCurrenciesToTrade, exchanges);
+		
+		// The same prices every time, so the cooldown is not ended by the prices moving
+		for( int i = 0; i < 50; i++ ) {
+			simulation2.changeBooks(new OrderBookEntry[] {new OrderBookEntry("1.200", "0.5")},
+					new OrderBookEntry[] {new OrderBookEntry("1.100", "0.5")}, "ETH", "BTC");
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException interrupted) {
+				interrupted.printStackTrace();
+			}
+		}
+		bot.stop();
+		
+		assertEquals(1, sells.get());
+    }
 }
@@ -8,9 +8,18 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.tobiascarryer.trading.bots.ArbitrageOpportunity;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
 import com.tobiascarryer.trading.unittests.unittestimplementations.ExchangeUnitTestSimulation;
 
 /**
@@ -140,4 +149,203 @@ public class ArbitrageOpportunityTest extends TestCase {
 		opportunity.optimizeOrders(buySellRatio, simulation2.getBalance("BTC"), simulation1.getBalance("ETH"));
 		assertTrue(opportunity.getOpportunityVolume().compareTo(new BigDecimal("0")) == 0);
     }
+    
+    /**
+     * The fixed-point optimization must give exactly the same orders as the BigDecimal implementation,
+     * including the scale of every value.
+     */
+    public void testFixedPointMatchesBigDecimalWithEntries() {
+    	Random random = new Random(6);
+    	for( int test = 0; test < 2000; test++ ) {
+    		int quantityPrecision = random.nextInt(9);
+    		ExchangeUnitTestSimulation buyExchange = createSimulation(randomEntries(random, true), quantityPrecision);
+    		ExchangeUnitTestSimulation sellExchange = createSimulation(randomEntries(random, false), quantityPrecision);
+    		assertSameOrders(random, buyExchange, sellExchange);
+    	}
+    }
+    
+    public void testFixedPointMatchesBigDecimalWithSnapshots() {
+    	Random random = new Random(7);
+    	for( int test = 0; test < 2000; test++ ) {
+    		int quantityPrecision = random.nextInt(9);
+    		PriceLevelBook buyBook = randomBook(random);
+    		PriceLevelBook sellBook = randomBook(random);
+    		ExchangeUnitTestSimulation buyExchange = createSimulation(buyBook, quantityPrecision);
+    		ExchangeUnitTestSimulation sellExchange = createSimulation(sellBook, quantityPrecision);
+    		assertSameOrders(random, buyExchange, sellExchange);
+    	}
+    }
+    
+    public void testExhaustedBooks() {
+    	OrderBookEntry[] asks = {new OrderBookEntry("0.9", "0.5")};
+    	OrderBookEntry[] bids = {new OrderBookEntry("1.1", "0.5")};
+    	Map<String, BigDecimal> balances = new HashMap<String, BigDecimal>();
+		balances.put("BTC", new BigDecimal("2"));
+		balances.put("ETH", new BigDecimal("2"));
+		ExchangeUnitTestSimulation simulation1 = new ExchangeUnitTestSimulation(asks,bids,balances);
+		ExchangeUnitTestSimulation simulation2 = new ExchangeUnitTestSimulation(asks,bids,balances);
+		
+		// Every level is profitable, the optimization stops when a side runs out of levels.
+		ArbitrageOpportunity opportunity = new ArbitrageOpportunity(simulation1, simulation2, "ETH", "BTC");
+		opportunity.optimizeOrders(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2"));
+		assertEquals(new BigDecimal("0.4999"), opportunity.getOpportunityVolume());
+		opportunity.optimizeOrdersWithBigDecimal(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2"));
+		assertEquals(new BigDecimal("0.4999"), opportunity.getOpportunityVolume());
+    }
+    
+    /**
+     * The buy is sent while the sell is still waiting to be accepted.
+     */
+    public void testLegsSentConcurrently() throws NotEnoughBalanceException {
+    	OrderBookEntry[] asks = {new OrderBookEntry("0.9", "0.5")};
+    	OrderBookEntry[] bids = {new OrderBookEntry("1.1", "0.5")};
+    	Map<String, BigDecimal> balances = new HashMap<String, BigDecimal>();
+		balances.put("BTC", new BigDecimal("2"));
+		balances.put("ETH", new BigDecimal("2"));
+		CountDownLatch buySent = new CountDownLatch(1);
+		ExchangeUnitTestSimulation buyExchange = new ExchangeUnitTestSimulation(asks,bids,balances) {
+			@Override
+			public CompletableFuture<OrderAck> submit(Order order) {
+				buySent.countDown();
+				return super.submit(order);
+			}
+		};
+		ExchangeUnitTestSimulation sellExchange = new ExchangeUnitTestSimulation(asks,bids,balances) {
+			@Override
+			public CompletableFuture<OrderAck> submit(Order order) {
+				long sent = System.nanoTime();
+				// Only accepted once the buy was sent, an error if the buy waits for this sell.
+				return CompletableFuture.supplyAsync(() -> {
+					try {
+						if( !buySent.await(1, TimeUnit.SECONDS) )
+							throw new IllegalStateException("The buy was not sent");
+					} catch( InterruptedException e ) {
+						throw new IllegalStateException(e);
+					}
+					return new OrderAck(order, sent, System.nanoTime());
+				});
+			}
+		};
+		
+		ArbitrageOpportunity opportunity = new ArbitrageOpportunity(buyExchange, sellExchange, "ETH", "BTC");
+		opportunity.optimizeOrders(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2"));
+		assertEquals(ArbitrageOpportunity.Execution.BOTH, opportunity.executeOpportunity());
+		assertNotNull(opportunity.getSellAck());
+		assertNotNull(opportunity.getBuyAck());
+		assertTrue(opportunity.getSellAck().getLatencyNanos() >= 0);
+    }
+    
+    /**
+     * A leg that fails on its way to the exchange is not accepted, while the other leg still counts.
+     */
+    public void testOnlyOneLegAccepted() {
+    	OrderBookEntry[] asks = {new OrderBookEntry("0.9", "0.5")};
+    	OrderBookEntry[] bids = {new OrderBookEntry("1.1", "0.5")};
+    	Map<String, BigDecimal> balances = new HashMap<String, BigDecimal>();
+		balances.put("BTC", new BigDecimal("2"));
+		balances.put("ETH", new BigDecimal("2"));
+		ExchangeUnitTestSimulation unreachable = new ExchangeUnitTestSimulation(asks,bids,balances) {
+			@Override
+			public CompletableFuture<OrderAck> submit(Order order) {
+				return CompletableFuture.supplyAsync(() -> {
+					throw new IllegalStateException("Connection reset");
+				});
+			}
+		};
+		ExchangeUnitTestSimulation reachable = new ExchangeUnitTestSimulation(asks,bids,balances);
+		
+		ArbitrageOpportunity opportunity = new ArbitrageOpportunity(unreachable, reachable, "ETH", "BTC");
+		opportunity.optimizeOrders(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2"));
+		assertEquals(ArbitrageOpportunity.Execution.SELL_ONLY, opportunity.executeOpportunity());
+		assertNotNull(opportunity.getSellAck());
+		assertNull(opportunity.getBuyAck());
+		assertTrue(opportunity.executeOpportunity().isAnyAccepted());
+		
+		opportunity = new ArbitrageOpportunity(reachable, unreachable, "ETH", "BTC");
+		opportunity.optimizeOrders(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2"));
+		assertEquals(ArbitrageOpportunity.Execution.BUY_ONLY, opportunity.executeOpportunity());
+		
+		opportunity = new ArbitrageOpportunity(unreachable, unreachable, "ETH", "BTC");
+		opportunity.optimizeOrders(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2"));
+		assertEquals(ArbitrageOpportunity.Execution.NONE, opportunity.executeOpportunity());
+		assertFalse(ArbitrageOpportunity.Execution.NONE.isAnyAccepted());
+    }
+    
+    private static void assertSameOrders(Random random, ExchangeUnitTestSimulation buyExchange, ExchangeUnitTestSimulation sellExchange) {
+    	// Ratios close to 1 so the books are partly profitable, sometimes with more decimal places than the prices.
+    	BigDecimal buySellRatio = new BigDecimal(90000000l + random.nextInt(20000001)).movePointLeft(8);
+    	if( random.nextBoolean() )
+    		buySellRatio = buySellRatio.add(new BigDecimal(random.nextInt(1000)).movePointLeft(11));
+    	BigDecimal maxBuyVolume = new BigDecimal(random.nextInt(1000000000)).movePointLeft(random.nextInt(12));
+    	BigDecimal maxSellVolume = new BigDecimal(random.nextInt(1000000000)).movePointLeft(random.nextInt(12));
+    	
+    	ArbitrageOpportunity fixedPoint = new ArbitrageOpportunity(buyExchange, sellExchange, "ETH", "BTC");
+    	fixedPoint.optimizeOrders(buySellRatio, maxBuyVolume, maxSellVolume);
+    	ArbitrageOpportunity reference = new ArbitrageOpportunity(buyExchange, sellExchange, "ETH", "BTC");
+    	reference.optimizeOrdersWithBigDecimal(buySellRatio, maxBuyVolume, maxSellVolume);
+    	
+    	String inputs = "ratio "+buySellRatio+" max buy "+maxBuyVolume+" max sell "+maxSellVolume;
+    	assertSameOrder(inputs, reference.getBuyOrder(), fixedPoint.getBuyOrder());
+    	assertSameOrder(inputs, reference.getSellOrder(), fixedPoint.getSellOrder());
+    }
+    
+    private static void assertSameOrder(String inputs, Order expected, Order actual) {
+    	assertEquals(inputs, expected.getPrice(), actual.getPrice());
+    	assertEquals(inputs, expected.getMajorAmountToTrade(), actual.getMajorAmountToTrade());
+    }
+    
+    /**
+     * @param ascending, true for asks and false for bids
+     */
+    private static OrderBookEntry[] randomEntries(Random random, boolean ascending) {
+    	OrderBookEntry[] entries = new OrderBookEntry[1 + random.nextInt(6)];
+    	long price = 95000000l + random.nextInt(10000001);
+    	for( int i = 0; i < entries.length; i++ ) {
+    		BigDecimal minorCurrencyAmount = new BigDecimal(1 + random.nextInt(1000000000)).movePointLeft(random.nextInt(12));
+    		entries[i] = new OrderBookEntry(BigDecimal.valueOf(price, 8), minorCurrencyAmount);
+    		price += (ascending ? 1 : -1) * random.nextInt(1000000);
+    	}
+    	return entries;
+    }
+    
+    private static PriceLevelBook randomBook(Random random) {
+    	PriceLevelBook book = new PriceLevelBook(2 + random.nextInt(7), random.nextInt(9));
+    	long unit = (long) Math.pow(10, book.getPriceScale());
+    	for( int i = 0; i < 1 + random.nextInt(6); i++ ) {
+    		long quantity = 1 + random.nextInt(1000000000);
+    		book.updateAsk(unit * 95 / 100 + random.nextInt((int) unit / 10 + 1), quantity);
+    		book.updateBid(unit * 95 / 100 + random.nextInt((int) unit / 10 + 1), quantity);
+    	}
+    	book.publish();
+    	return book;
+    }
+    
+    private static ExchangeUnitTestSimulation createSimulation(OrderBookEntry[] entries, int quantityPrecision) {
+    	// Only the asks of the buy exchange and the bids of the sell exchange are used.
+    	return new ExchangeUnitTestSimulation(entries, entries, new HashMap<String, BigDecimal>()) {
+    		@Override
+    		public int getQuantityDecimalPrecision(String majorCurrency, String minorCurrency) {
+    			return quantityPrecision;
+    		}
+    	};
+    }
+    
+    private static ExchangeUnitTestSimulation createSimulation(PriceLevelBook book, int quantityPrecision) {
+    	return new ExchangeUnitTestSimulation(new OrderBookEntry[0], new OrderBookEntry[0], new HashMap<String, BigDecimal>()) {
+    		@Override
+    		public int getQuantityDecimalPrecision(String majorCurrency, String minorCurrency) {
+    			return quantityPrecision;
+    		}
+    		
+    		@Override
+    		public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) {
+    			return book.getAsksIterator();
+    		}
+    		
+    		@Override
+    		public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) {
+    			return book.getBidsIterator();
+    		}
+    	};
+    }
 }
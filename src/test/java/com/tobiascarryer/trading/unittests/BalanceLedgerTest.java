@@ -0,0 +1,115 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.BalanceLedger;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+
+public class BalanceLedgerTest {
+
+	@Test
+	public void testReserveShrinkAndRelease() throws NotEnoughBalanceException {
+		BalanceLedger ledger = new BalanceLedger();
+		assertNull(ledger.getAvailable("BTC"));
+		ledger.setTotal("btc", new BigDecimal("2"));
+
+		BalanceLedger.Reservation reservation = ledger.reserve("BTC", new BigDecimal("1.5"));
+		assertEquals(0, new BigDecimal("0.5").compareTo(ledger.getAvailable("BTC")));
+		assertEquals(0, new BigDecimal("2").compareTo(ledger.getTotal("BTC")));
+		try {
+			ledger.reserve("BTC", new BigDecimal("0.6"));
+			fail("Reserved more than is available");
+		} catch( NotEnoughBalanceException e ) {}
+
+		// Only what is left can be reserved
+		BalanceLedger.Reservation rest = ledger.reserveUpTo("BTC", new BigDecimal("1"));
+		assertEquals(0, new BigDecimal("0.5").compareTo(rest.getAmount()));
+		assertEquals(0, BigDecimal.ZERO.compareTo(ledger.getAvailable("BTC")));
+
+		reservation.shrinkTo(new BigDecimal("1"));
+		assertEquals(0, new BigDecimal("0.5").compareTo(ledger.getAvailable("BTC")));
+		reservation.release();
+		reservation.release();
+		rest.release();
+		assertEquals(0, new BigDecimal("2").compareTo(ledger.getAvailable("BTC")));
+
+		// A balance update from the exchange keeps the reservations
+		reservation = ledger.reserve("BTC", new BigDecimal("1"));
+		ledger.setTotal("BTC", new BigDecimal("3"));
+		assertEquals(0, new BigDecimal("2").compareTo(ledger.getAvailable("BTC")));
+	}
+
+	@Test
+	public void testCommitHoldsUntilTheTotalChanges() throws NotEnoughBalanceException {
+		BalanceLedger ledger = new BalanceLedger();
+		ledger.setTotal("BTC", new BigDecimal("2"));
+
+		// Accepted but the balance feed has not caught up yet
+		BalanceLedger.Reservation reservation = ledger.reserve("BTC", new BigDecimal("1.5"));
+		reservation.commit();
+		reservation.release();
+		assertEquals(0, BigDecimal.ZERO.compareTo(reservation.getAmount()));
+		assertEquals(0, new BigDecimal("0.5").compareTo(ledger.getAvailable("BTC")));
+		// A poll sent before the order filled reports the same total
+		ledger.setTotal("BTC", new BigDecimal("2"));
+		ledger.add("BTC", BigDecimal.ZERO);
+		assertEquals(0, new BigDecimal("0.5").compareTo(ledger.getAvailable("BTC")));
+		ledger.setTotal("BTC", new BigDecimal("0.5"));
+		assertEquals(0, new BigDecimal("0.5").compareTo(ledger.getAvailable("BTC")));
+
+		// Settled by the exchange before the order was accepted
+		reservation = ledger.reserve("BTC", new BigDecimal("0.5"));
+		ledger.getAccount("BTC").withdraw(50000000l);
+		reservation.commit();
+		assertEquals(0, BigDecimal.ZERO.compareTo(ledger.getTotal("BTC")));
+		assertEquals(0l, ledger.getAccount("BTC").getReserved());
+	}
+
+	@Test
+	public void testConcurrentReservationsNeverOversize() throws InterruptedException {
+		final BalanceLedger ledger = new BalanceLedger();
+		ledger.setTotal("ETH", new BigDecimal("10"));
+		final BigDecimal[] reserved = new BigDecimal[8];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[reserved.length];
+		for( int t = 0; t < threads.length; t++ ) {
+			final int index = t;
+			threads[t] = new Thread(() -> {
+				BigDecimal total = BigDecimal.ZERO;
+				try {
+					start.await();
+				} catch( InterruptedException e ) {
+					return;
+				}
+				for( int i = 0; i < 10000; i++ ) {
+					BalanceLedger.Reservation reservation = ledger.reserveUpTo("ETH", new BigDecimal("0.001"));
+					// Keep every other reservation, as if its order was still being sent
+					if( i % 2 == 0 )
+						total = total.add(reservation.getAmount());
+					else
+						reservation.release();
+				}
+				reserved[index] = total;
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for( Thread thread: threads )
+			thread.join();
+
+		BigDecimal kept = BigDecimal.ZERO;
+		for( BigDecimal total: reserved )
+			kept = kept.add(total);
+		// 40000 reservations of 0.001 were kept but only the 10 that exist could be held
+		assertEquals(0, new BigDecimal("10").compareTo(kept));
+		assertEquals(0, BigDecimal.ZERO.compareTo(ledger.getAvailable("ETH")));
+		assertEquals(0, new BigDecimal("10").compareTo(ledger.getTotal("ETH")));
+	}
+}
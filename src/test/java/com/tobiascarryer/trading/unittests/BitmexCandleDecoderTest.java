@@ -0,0 +1,56 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.charts.Candle;
+import com.tobiascarryer.trading.charts.CandleBuffer;
+import com.tobiascarryer.trading.exchanges.BitmexCandleDecoder;
+
+public class BitmexCandleDecoderTest {
+
+	@Test
+	public void testDecodesBuckets() throws IOException {
+		String response = "[{\"timestamp\":\"2018-05-31T01:00:00.000Z\",\"symbol\":\"XBTUSD\",\"open\":7500,\"high\":7512.5,\"low\":7490,\"close\":7505.5,\"extra\":{\"a\":[1,\"]\"]}},"
+				+ " {\"timestamp\":\"2018-05-31T02:00:00.000Z\",\"symbol\":\"XBTUSD\",\"open\":null,\"high\":null,\"low\":null,\"close\":null},\n"
+				+ " {\"close\":7520,\"low\":7501,\"high\":7525,\"open\":7505.5,\"timestamp\":\"2018-05-31T03:00:00.000Z\"}]";
+		CandleBuffer candles = new CandleBuffer(8, 1);
+		new BitmexCandleDecoder().decode(new StringReader(response), candles);
+
+		// The bucket without trades is skipped
+		assertEquals(2, candles.size());
+		assertEquals(751250000000l, candles.getHigh(0));
+		assertEquals(1527728400000l, candles.getTimestamp(0));
+		assertEquals(1527735600000l, candles.getTimestamp(1));
+
+		Candle candle = candles.getCandle(0);
+		assertEquals(new BigDecimal("7500"), candle.getOpen());
+		assertEquals(new BigDecimal("7505.5"), candle.getClose());
+	}
+
+	@Test
+	public void testEmptyResponse() throws IOException {
+		CandleBuffer candles = new CandleBuffer(8, 1);
+		new BitmexCandleDecoder().decode(new StringReader(" [ ] "), candles);
+		assertEquals(0, candles.size());
+	}
+
+	@Test
+	public void testParsesIsoTimestampsLikeSimpleDateFormat() throws IOException, ParseException {
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String[] times = { "1970-01-01T00:00:00.000Z", "2015-01-01T00:00:00.000Z", "2016-02-29T23:59:59.999Z", "2018-05-31T01:30:00.120Z" };
+		for( String time: times )
+			assertEquals(df.parse(time).getTime(), BitmexCandleDecoder.parseIsoMillis(time));
+
+		assertEquals(df.parse("2018-05-31T00:30:00.000Z").getTime(), BitmexCandleDecoder.parseIsoMillis("2018-05-31T01:30:00+01:00"));
+	}
+}
@@ -0,0 +1,72 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.bots.CooldownRegistry;
+
+public class CooldownRegistryTest {
+
+	@Test
+	public void testExpiresAfterTtl() {
+		CooldownRegistry cooldowns = new CooldownRegistry(4, 1000, 100, 0.01);
+		List<Integer> expired = new ArrayList<>();
+		cooldowns.advance(10000, expired::add);
+		cooldowns.start(1, 10000, 1.0, 1.1);
+		cooldowns.start(2, 10500, 1.0, 1.1);
+		assertTrue(cooldowns.isCoolingDown(1));
+		assertFalse(cooldowns.isCoolingDown(0));
+
+		cooldowns.advance(10900, expired::add);
+		assertTrue(expired.isEmpty());
+		cooldowns.advance(11100, expired::add);
+		assertEquals(1, expired.size());
+		assertEquals(1, (int) expired.get(0));
+		assertFalse(cooldowns.isCoolingDown(1));
+		assertTrue(cooldowns.isCoolingDown(2));
+
+		// Advancing past more than a turn of the wheel at once still expires everything
+		cooldowns.start(3, 11100, 1.0, 1.1);
+		cooldowns.advance(100000, expired::add);
+		assertEquals(3, expired.size());
+		assertFalse(cooldowns.isCoolingDown(2));
+		assertFalse(cooldowns.isCoolingDown(3));
+	}
+
+	@Test
+	public void testPriceMovementEndsCooldown() {
+		CooldownRegistry cooldowns = new CooldownRegistry(2, 30000, 250, 0.005);
+		cooldowns.start(0, 0, 1.000, 1.100);
+		assertTrue(cooldowns.isCoolingDown(0, 1.004, 1.096));
+		assertTrue(cooldowns.isCoolingDown(0, Double.NaN, Double.NaN));
+		assertFalse(cooldowns.isCoolingDown(0, 1.000, 1.090));
+		assertFalse(cooldowns.isCoolingDown(0));
+
+		// An ended cooldown is not expired again
+		List<Integer> expired = new ArrayList<>();
+		cooldowns.advance(60000, expired::add);
+		assertTrue(expired.isEmpty());
+	}
+
+	@Test
+	public void testRestartMovesExpiry() {
+		CooldownRegistry cooldowns = new CooldownRegistry(2, 1000, 100, 0.01);
+		List<Integer> expired = new ArrayList<>();
+		cooldowns.start(0, 0, 1.0, 1.1);
+		cooldowns.start(1, 0, 1.0, 1.1);
+		cooldowns.start(0, 500, 1.0, 1.1);
+		cooldowns.advance(1200, expired::add);
+		assertEquals(1, expired.size());
+		assertEquals(1, (int) expired.get(0));
+		assertTrue(cooldowns.isCoolingDown(0));
+		cooldowns.advance(1700, expired::add);
+		assertEquals(2, expired.size());
+		assertFalse(cooldowns.isCoolingDown(0));
+	}
+}
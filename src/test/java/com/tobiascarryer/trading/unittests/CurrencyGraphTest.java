@@ -0,0 +1,127 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.bots.CurrencyGraph;
+import com.tobiascarryer.trading.bots.CycleOpportunity;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.unittests.unittestimplementations.ExchangeUnitTestSimulation;
+
+public class CurrencyGraphTest {
+
+	private static final double FEE = 0.995;
+	private static final double MAX_WEIGHT = -Math.log(1.001);
+
+	/**
+	 * BTC to ETH to NEO and back to BTC is profitable because NEO/BTC is bid higher than NEO costs through ETH.
+	 */
+	private static CurrencyGraph createGraph() {
+		CurrencyGraph graph = new CurrencyGraph();
+		graph.addBook("ETH", "BTC");
+		graph.addBook("NEO", "ETH");
+		graph.addBook("NEO", "BTC");
+		setPrices(graph, "ETH", "BTC", 0.05, 0.0499);
+		setPrices(graph, "NEO", "ETH", 0.1, 0.099);
+		setPrices(graph, "NEO", "BTC", 0.0051, 0.0049);
+		return graph;
+	}
+
+	private static boolean[] setPrices(CurrencyGraph graph, String majorCurrency, String minorCurrency, double ask, double bid) {
+		return new boolean[] {graph.setRate(graph.getBuyEdge(majorCurrency, minorCurrency), FEE / ask),
+				graph.setRate(graph.getSellEdge(majorCurrency, minorCurrency), bid * FEE)};
+	}
+
+	private static List<String> findCycles(CurrencyGraph graph, CurrencyGraph.Edge changedEdge, int maxLength) {
+		List<String> cycles = new ArrayList<>();
+		graph.findCycles(changedEdge, maxLength, MAX_WEIGHT, (CurrencyGraph.Edge[] cycle, int length, double weight) -> {
+			String path = graph.getCurrency(cycle[0].getFrom());
+			for( int k = 0; k < length; k++ )
+				path += ">"+graph.getCurrency(cycle[k].getTo());
+			cycles.add(path);
+		});
+		return cycles;
+	}
+
+	@Test
+	public void testFindsCycleThroughChangedEdge() {
+		CurrencyGraph graph = createGraph();
+		assertTrue(findCycles(graph, graph.getSellEdge("NEO", "BTC"), 3).isEmpty());
+
+		// 1 BTC buys 20 ETH which buy 200 NEO, selling them for more than 1 BTC after three fees.
+		boolean[] improved = setPrices(graph, "NEO", "BTC", 0.0053, 0.0052);
+		assertFalse(improved[0]);
+		assertTrue(improved[1]);
+		List<String> cycles = findCycles(graph, graph.getSellEdge("NEO", "BTC"), 3);
+		assertEquals(1, cycles.size());
+		assertEquals("NEO>BTC>ETH>NEO", cycles.get(0));
+	}
+
+	@Test
+	public void testCycleLongerThanMaxLength() {
+		CurrencyGraph graph = createGraph();
+		setPrices(graph, "NEO", "BTC", 0.0053, 0.0052);
+		assertTrue(findCycles(graph, graph.getSellEdge("NEO", "BTC"), 2).isEmpty());
+	}
+
+	@Test
+	public void testBookWithoutOrders() {
+		CurrencyGraph graph = createGraph();
+		setPrices(graph, "NEO", "BTC", 0.0053, 0.0052);
+		assertFalse(graph.setRate(graph.getBuyEdge("NEO", "ETH"), 0));
+		assertTrue(findCycles(graph, graph.getSellEdge("NEO", "BTC"), 3).isEmpty());
+	}
+
+	@Test
+	public void testCycleOpportunityWalksDepth() {
+		Map<String, OrderBookEntry[]> asks = new HashMap<>();
+		Map<String, OrderBookEntry[]> bids = new HashMap<>();
+		asks.put("ETH/BTC", new OrderBookEntry[] {new OrderBookEntry("0.05", "0.1"), new OrderBookEntry("0.0505", "1")});
+		asks.put("NEO/ETH", new OrderBookEntry[] {new OrderBookEntry("0.1", "10")});
+		// Only the first bid is profitable
+		bids.put("NEO/BTC", new OrderBookEntry[] {new OrderBookEntry("0.0052", "0.5"), new OrderBookEntry("0.0049", "1")});
+		ExchangeUnitTestSimulation exchange = new ExchangeUnitTestSimulation(new OrderBookEntry[0], new OrderBookEntry[0], new HashMap<String, BigDecimal>()) {
+			@Override
+			public OrderBookIterator getAsksIterator(String majorCurrency, String minorCurrency) {
+				return OrderBookIterator.createIteratorByCloning(asks.get(majorCurrency+"/"+minorCurrency));
+			}
+
+			@Override
+			public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) {
+				return OrderBookIterator.createIteratorByCloning(bids.get(majorCurrency+"/"+minorCurrency));
+			}
+		};
+
+		CurrencyGraph graph = createGraph();
+		CurrencyGraph.Edge[] cycle = {graph.getBuyEdge("ETH", "BTC"), graph.getBuyEdge("NEO", "ETH"), graph.getSellEdge("NEO", "BTC")};
+		CycleOpportunity opportunity = new CycleOpportunity(exchange, cycle, cycle.length);
+		BigDecimal[] maxInputVolumes = {new BigDecimal("10"), new BigDecimal("100"), new BigDecimal("1000")};
+		opportunity.optimizeOrders(new BigDecimal("1.001"), maxInputVolumes);
+
+		// The first ETH/BTC ask is the smallest level, then the first NEO/BTC bid limits the volume.
+		assertEquals("BTC", opportunity.getStartCurrency());
+		assertTrue(opportunity.getOpportunityVolume().compareTo(new BigDecimal("0.1")) == 1);
+		assertTrue(opportunity.getOpportunityVolume().compareTo(new BigDecimal("0.5")) == -1);
+		assertTrue(opportunity.calculatePredictedProfit().signum() == 1);
+
+		Order[] orders = opportunity.getOrders();
+		assertEquals(OrderType.BUY, orders[0].getAction());
+		assertEquals(new BigDecimal("0.05050000"), orders[0].getPrice());
+		assertEquals(new BigDecimal("0.00520000"), orders[2].getPrice());
+		assertEquals(OrderType.SELL, orders[2].getAction());
+		// All of the NEO bought is sold
+		assertTrue(orders[2].getMajorAmountToTrade().compareTo(orders[1].getMajorAmountToTrade()) != 1);
+	}
+}
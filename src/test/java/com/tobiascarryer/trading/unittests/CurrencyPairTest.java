@@ -0,0 +1,54 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.exchanges.pairs.TradingPair;
+import com.tobiascarryer.trading.exchanges.pairs.TradingPairs;
+
+public class CurrencyPairTest {
+
+	@Test
+	public void testInterning() {
+		CurrencyPair pair = CurrencyPair.of("ETH", "BTC");
+		assertSame(pair, CurrencyPair.of("eth", "btc"));
+		assertSame(pair, CurrencyPair.of("Eth", "BTC"));
+		assertEquals("ETH", pair.getMajorCurrency());
+		assertEquals("BTC", pair.getMinorCurrency());
+
+		// The reverse pair is a different pair
+		CurrencyPair reverse = CurrencyPair.of("BTC", "ETH");
+		assertNotSame(pair, reverse);
+		assertTrue(pair.getId() != reverse.getId());
+		assertTrue(reverse.getId() < CurrencyPair.getPairCount());
+	}
+
+	@Test
+	public void testTickerMadeOnce() {
+		AtomicInteger tickersMade = new AtomicInteger();
+		TradingPairs tradingPairs = new TradingPairs((String majorCurrency, String minorCurrency) -> {
+			tickersMade.incrementAndGet();
+			return minorCurrency.toLowerCase()+"_"+majorCurrency.toLowerCase();
+		});
+		TradingPair tradingPair = tradingPairs.get("NEO", "ETH");
+		assertEquals("eth_neo", tradingPair.getTicker());
+		assertSame(CurrencyPair.of("NEO", "ETH"), tradingPair.getPair());
+		assertSame(tradingPair, tradingPairs.get("neo", "eth"));
+		assertSame(tradingPair, tradingPairs.get(CurrencyPair.of("NEO", "ETH")));
+		assertEquals(1, tickersMade.get());
+
+		// Pairs created after the array was sized are still found
+		for( int i = 0; i < 20; i++ )
+			tradingPairs.get("COIN"+i, "ETH");
+		assertSame(tradingPair, tradingPairs.get("NEO", "ETH"));
+		assertEquals("eth_coin7", tradingPairs.get("coin7", "eth").getTicker());
+		assertEquals(21, tickersMade.get());
+	}
+}
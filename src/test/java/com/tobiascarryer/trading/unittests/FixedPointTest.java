@@ -0,0 +1,113 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.FixedPoint;
+
+public class FixedPointTest {
+	
+	@Test
+	public void testParsing() {
+		assertEquals(123000l, FixedPoint.parse("0.00123000", 8));
+		assertEquals(100000000l, FixedPoint.parse("1", 8));
+		assertEquals(150l, FixedPoint.parse("1.5", 2));
+		assertEquals(-150l, FixedPoint.parse("-1.50", 2));
+		assertEquals(7l, FixedPoint.parse("7.", 0));
+		assertEquals(5l, FixedPoint.parse(".5", 1));
+	}
+	
+	// Digits past the scale are rounded the same way as BigDecimal.setScale(scale, RoundingMode.HALF_EVEN)
+	@Test
+	public void testRoundingMatchesBigDecimal() {
+		String[] numbers = {"0.125", "0.135", "0.1250001", "0.12499999", "2.5", "3.5", "0.00000000", "12.3456789"};
+		for( String number: numbers ) {
+			for( int scale = 0; scale <= 8; scale++ ) {
+				long expected = new BigDecimal(number).setScale(scale, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+				assertEquals(number+" at scale "+scale, expected, FixedPoint.parse(number, scale));
+			}
+		}
+		
+		Random random = new Random(7);
+		for( int i = 0; i < 10000; i++ ) {
+			String number = BigDecimal.valueOf(random.nextInt(Integer.MAX_VALUE), random.nextInt(12)).toPlainString();
+			int scale = random.nextInt(9);
+			long expected = new BigDecimal(number).setScale(scale, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+			assertEquals(number+" at scale "+scale, expected, FixedPoint.parse(number, scale));
+		}
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testNotANumber() {
+		FixedPoint.parse("1e-8", 8);
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testOverflow() {
+		FixedPoint.parse("100000000000", 8);
+	}
+	
+	@Test
+	public void testRescale() {
+		assertEquals(1230000l, FixedPoint.rescale(123l, 4, 8));
+		assertEquals(12l, FixedPoint.rescale(125l, 1, 0));
+		assertEquals(14l, FixedPoint.rescale(135l, 1, 0));
+		assertEquals(-12l, FixedPoint.rescale(-125l, 1, 0));
+		assertEquals(13l, FixedPoint.rescale(1251l, 2, 0));
+	}
+	
+	// Products wider than a long must still be compared exactly.
+	@Test
+	public void testCompareProductsMatchesBigInteger() {
+		Random random = new Random(11);
+		for( int i = 0; i < 100000; i++ ) {
+			long a = random.nextLong() >>> (1 + random.nextInt(63));
+			long b = random.nextLong() >>> (1 + random.nextInt(63));
+			long c = random.nextLong() >>> (1 + random.nextInt(63));
+			long d = random.nextLong() >>> (1 + random.nextInt(63));
+			if( i % 10 == 0 ) {
+				// Equal products
+				c = b;
+				d = a;
+			}
+			BigInteger ab = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b));
+			BigInteger cd = BigInteger.valueOf(c).multiply(BigInteger.valueOf(d));
+			assertEquals(ab.shiftRight(64).longValue(), FixedPoint.multiplyHigh(a, b));
+			assertEquals(Integer.signum(ab.compareTo(cd)), Integer.signum(FixedPoint.compareProducts(a, b, c, d)));
+		}
+		assertTrue(FixedPoint.compareProducts(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE - 1l, Long.MAX_VALUE) > 0);
+	}
+	
+	@Test
+	public void testMultiplyDivideMatchesBigDecimal() {
+		assertEquals(2l, FixedPoint.multiplyDivide(5l, 1l, 2l));
+		assertEquals(4l, FixedPoint.multiplyDivide(7l, 1l, 2l));
+		assertEquals(3l, FixedPoint.multiplyDivideFloor(7l, 1l, 2l));
+		
+		Random random = new Random(13);
+		for( int i = 0; i < 100000; i++ ) {
+			long a = random.nextLong() >>> (1 + random.nextInt(63));
+			long b = random.nextLong() >>> (1 + random.nextInt(63));
+			long d = (random.nextLong() >>> (1 + random.nextInt(63))) | 1l;
+			BigDecimal product = new BigDecimal(BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)));
+			BigInteger floor = product.divide(BigDecimal.valueOf(d), 0, RoundingMode.FLOOR).toBigInteger();
+			BigInteger halfEven = product.divide(BigDecimal.valueOf(d), 0, RoundingMode.HALF_EVEN).toBigInteger();
+			if( floor.bitLength() < 64 )
+				assertEquals(floor.longValue(), FixedPoint.multiplyDivideFloor(a, b, d));
+			if( halfEven.bitLength() < 64 )
+				assertEquals(halfEven.longValue(), FixedPoint.multiplyDivide(a, b, d));
+		}
+	}
+	
+	@Test(expected = ArithmeticException.class)
+	public void testMultiplyDivideOverflow() {
+		FixedPoint.multiplyDivide(Long.MAX_VALUE, 4l, 3l);
+	}
+}
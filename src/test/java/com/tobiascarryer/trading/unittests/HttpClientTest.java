@@ -0,0 +1,80 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+import com.tobiascarryer.trading.HttpClient;
+
+public class HttpClientTest {
+
+	private HttpServer server;
+	private String baseUrl;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/gzip", exchange -> {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write("[{\"assetCode\":\"BTC\"},{\"assetCode\":\"ETH\"}]".getBytes("UTF-8"));
+			gzip.close();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, compressed.size());
+			OutputStream body = exchange.getResponseBody();
+			body.write(compressed.toByteArray());
+			body.close();
+		});
+		server.createContext("/missing", exchange -> {
+			byte[] message = "not found".getBytes("UTF-8");
+			exchange.sendResponseHeaders(404, message.length);
+			OutputStream body = exchange.getResponseBody();
+			body.write(message);
+			body.close();
+		});
+		server.start();
+		baseUrl = "http://127.0.0.1:"+server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testDecompressesGzippedBody() throws IOException {
+		HttpClient client = new HttpClient(1000, 1000);
+		// Twice so the second request goes over the pooled connection
+		for( int i = 0; i < 2; i++ ) {
+			String body = client.get(baseUrl+"/gzip", (InputStream in) -> {
+				ByteArrayOutputStream read = new ByteArrayOutputStream();
+				int b;
+				while( (b = in.read()) != -1 )
+					read.write(b);
+				return read.toString("UTF-8");
+			});
+			assertEquals("[{\"assetCode\":\"BTC\"},{\"assetCode\":\"ETH\"}]", body);
+		}
+	}
+
+	@Test
+	public void testErrorStatusThrows() {
+		try {
+			new HttpClient(1000, 1000).getJsonArray(baseUrl+"/missing");
+			fail("Expected an IOException");
+		} catch( IOException e ) {
+			assertEquals("HTTP 404 from "+baseUrl+"/missing", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.orderbook.BookDelta;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSideSnapshot;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSnapshot;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.journal.BookHistory;
+import com.tobiascarryer.trading.journal.JournalReader;
+import com.tobiascarryer.trading.journal.MarketDataJournal;
+
+public class MarketDataJournalTest {
+
+	@Test
+	public void testMalformedLevelLeavesTheJournalWritable() throws IOException {
+		File directory = Files.createTempDirectory("journal").toFile();
+		CurrencyPair ethBtc = CurrencyPair.of("ETH", "BTC");
+		PriceLevelBook book = new PriceLevelBook(3, 2);
+		BookDelta delta = new BookDelta(3, 2);
+		MarketDataJournal journal = MarketDataJournal.open(directory);
+
+		delta.addAsk("1.000", "0.5");
+		try {
+			delta.addBid("0.99x", "1");
+			fail("Parsed a malformed level");
+		} catch( NumberFormatException e ) {}
+
+		// The ask parsed before the malformed bid is dropped with it
+		delta.clear();
+		delta.addAsk("1.005", "0.75");
+		delta.addBid("0.995", "2");
+		delta.applyTo(book);
+		book.publish();
+		journal.writeDelta(ethBtc, delta, 100l);
+		journal.close();
+
+		assertEquals(1005l, book.getAsks().getPrice(0));
+		assertEquals(1, book.getAsks().size());
+		JournalReader reader = new JournalReader(directory);
+		assertTrue(reader.next());
+		assertEquals(MarketDataJournal.BOOK_DELTA, reader.getType());
+		assertEquals(1, reader.getAskLevels());
+		assertEquals(1, reader.getBidLevels());
+		assertEquals(1005l, reader.getLevelPrice(0));
+		assertEquals(75l, reader.getLevelQuantity(0));
+		assertEquals(995l, reader.getLevelPrice(1));
+		assertEquals(200l, reader.getLevelQuantity(1));
+		assertFalse(reader.next());
+		reader.close();
+	}
+
+	@Test
+	public void testRecordsAreReadBackInOrder() throws IOException {
+		File directory = Files.createTempDirectory("journal").toFile();
+		CurrencyPair ethBtc = CurrencyPair.of("ETH", "BTC");
+		PriceLevelBook book = new PriceLevelBook(3, 2);
+		book.updateAsk("1.005", "0.75");
+		book.updateAsk("1.000", "0.5");
+		book.updateBid("0.995", "2");
+		book.publish();
+
+		MarketDataJournal journal = MarketDataJournal.open(directory);
+		journal.writeSnapshot(ethBtc, book.getSnapshot(), 100l);
+		journal.startBookDelta(ethBtc, 3, 2, 1, 1, 200l);
+		journal.putLevel(1000l, 0l);
+		journal.putLevel(990l, 150l);
+		journal.endBook();
+		journal.writeTicker(ethBtc, 8, 99000000l, 101000000l, 1500000000000l, 300l);
+		journal.writeBalance("BTC", 150000000l, 8, 400l);
+		journal.close();
+
+		JournalReader reader = new JournalReader(directory);
+		assertTrue(reader.next());
+		assertEquals(MarketDataJournal.BOOK_SNAPSHOT, reader.getType());
+		assertSame(ethBtc, reader.getPair());
+		assertEquals(100l, reader.getReceivedNanos());
+		assertEquals(3, reader.getPriceScale());
+		assertEquals(2, reader.getQuantityScale());
+		assertEquals(2, reader.getAskLevels());
+		assertEquals(1, reader.getBidLevels());
+		// Best ask first, then the bids
+		assertEquals(1000l, reader.getLevelPrice(0));
+		assertEquals(50l, reader.getLevelQuantity(0));
+		assertEquals(1005l, reader.getLevelPrice(1));
+		assertEquals(995l, reader.getLevelPrice(2));
+		assertEquals(200l, reader.getLevelQuantity(2));
+
+		assertTrue(reader.next());
+		assertEquals(MarketDataJournal.BOOK_DELTA, reader.getType());
+		assertEquals(0l, reader.getLevelQuantity(0));
+		assertEquals(990l, reader.getLevelPrice(1));
+
+		assertTrue(reader.next());
+		assertEquals(MarketDataJournal.TICKER, reader.getType());
+		assertEquals(99000000l, reader.getBid());
+		assertEquals(101000000l, reader.getAsk());
+		assertEquals(1500000000000l, reader.getExchangeMillis());
+
+		assertTrue(reader.next());
+		assertEquals(MarketDataJournal.BALANCE, reader.getType());
+		assertNull(reader.getPair());
+		assertEquals("BTC", reader.getAsset());
+		assertEquals(150000000l, reader.getBalance());
+		assertEquals(8, reader.getQuantityScale());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testRollsSegmentsAndDefinesPairsInEach() throws IOException {
+		File directory = Files.createTempDirectory("journal").toFile();
+		CurrencyPair ethBtc = CurrencyPair.of("ETH", "BTC");
+		CurrencyPair ltcBtc = CurrencyPair.of("LTC", "BTC");
+		// Room for a few records per segment
+		MarketDataJournal journal = MarketDataJournal.open(directory, 256);
+		for( int i = 0; i < 100; i++ )
+			journal.writeTicker(i % 2 == 0 ? ethBtc : ltcBtc, 8, i, i + 1l, i, i);
+		journal.close();
+		assertTrue(directory.listFiles().length > 10);
+
+		// A journal opened again starts after the segments already written
+		MarketDataJournal reopened = MarketDataJournal.open(directory, 256);
+		reopened.writeTicker(ethBtc, 8, 100l, 101l, 100l, 100l);
+		reopened.close();
+
+		JournalReader reader = new JournalReader(directory);
+		for( int i = 0; i <= 100; i++ ) {
+			assertTrue(reader.next());
+			assertSame(i % 2 == 0 ? ethBtc : ltcBtc, reader.getPair());
+			assertEquals(i, reader.getBid());
+			assertEquals(i, reader.getReceivedNanos());
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testSeeksToTheBookAtAnyTime() throws IOException {
+		File directory = Files.createTempDirectory("journal").toFile();
+		CurrencyPair ethBtc = CurrencyPair.of("ETH", "BTC");
+		CurrencyPair ltcBtc = CurrencyPair.of("LTC", "BTC");
+		PriceLevelBook book = new PriceLevelBook(3, 2);
+		// Book of ETH/BTC after the update received at nanos i
+		List<BookSnapshot> expected = new ArrayList<BookSnapshot>();
+		MarketDataJournal journal = MarketDataJournal.open(directory, 1024);
+		journal.setCheckpointInterval(10l);
+		for( int i = 0; i < 100; i++ ) {
+			long price = 1000l + i % 7;
+			long quantity = i % 3 == 0 ? 0l : i;
+			book.updateAsk(price, quantity);
+			book.updateBid(price - 10l, quantity);
+			book.publish();
+			journal.startBookDelta(ethBtc, 3, 2, 1, 1, i);
+			journal.putLevel(price, quantity);
+			journal.putLevel(price - 10l, quantity);
+			journal.endBook();
+			if( journal.isCheckpointDue(ethBtc, i) )
+				journal.writeSnapshot(ethBtc, book.getSnapshot(), i);
+			expected.add(book.getSnapshot());
+			// Another pair's records between the ones of the book
+			journal.writeTicker(ltcBtc, 8, i, i + 1l, i, i);
+		}
+		journal.close();
+		assertTrue(directory.listFiles().length > 20);
+
+		assertBookHistory(directory, ethBtc, expected);
+		// Segments without an index file are indexed by reading them
+		for( File file: directory.listFiles() ) {
+			if( file.getName().endsWith(".idx") )
+				assertTrue(file.delete());
+		}
+		assertBookHistory(directory, ethBtc, expected);
+	}
+
+	private static void assertBookHistory(File directory, CurrencyPair pair, List<BookSnapshot> expected) throws IOException {
+		try( BookHistory history = new BookHistory(directory) ) {
+			assertEquals(0l, history.getIndex().getFirstNanos());
+			assertEquals(99l, history.getIndex().getLastNanos());
+			assertFalse(history.seek(pair, -1l));
+			for( int i = 0; i < expected.size(); i += 13 ) {
+				assertTrue(history.seek(pair, i));
+				assertEquals(i, history.getReceivedNanos());
+				assertSameLevels(expected.get(i), history.getBook().getSnapshot());
+			}
+			// Streams forward from a seek, checkpoints are read as updates that do not change the book
+			assertTrue(history.seek(pair, 40l));
+			int updates = 0;
+			while( history.next() ) {
+				assertSameLevels(expected.get((int) history.getReceivedNanos()), history.getBook().getSnapshot());
+				updates++;
+			}
+			assertEquals(99l, history.getReceivedNanos());
+			assertTrue(updates >= 59);
+		}
+	}
+
+	private static void assertSameLevels(BookSnapshot expected, BookSnapshot actual) {
+		assertSameLevels(expected.getAsks(), actual.getAsks());
+		assertSameLevels(expected.getBids(), actual.getBids());
+	}
+
+	private static void assertSameLevels(BookSideSnapshot expected, BookSideSnapshot actual) {
+		assertEquals(expected.size(), actual.size());
+		for( int depth = 0; depth < expected.size(); depth++ ) {
+			assertEquals(expected.getPrice(depth), actual.getPrice(depth));
+			assertEquals(expected.getQuantity(depth), actual.getQuantity(depth));
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
+import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.simulations.exchanges.MatchingEngine;
+import com.tobiascarryer.trading.simulations.exchanges.SimulationMatchingExchange;
+
+public class MatchingEngineTest {
+
+	@Test
+	public void testPriceTimePriority() {
+		MatchingEngine engine = new MatchingEngine();
+		List<Long> makers = new ArrayList<>();
+		List<Long> fills = new ArrayList<>();
+		engine.setFillListener((taker, maker, takerBuys, price, quantity, makerOrderId, makerFilled) -> {
+			makers.add(makerOrderId);
+			fills.add(quantity);
+		});
+
+		long first = engine.submit(1, false, 101, 5, false);
+		long second = engine.submit(2, false, 100, 5, false);
+		long third = engine.submit(3, false, 100, 5, false);
+		assertEquals(100, engine.getBestAsk());
+		assertEquals(10, engine.getLevelQuantity(false, 0));
+
+		// Crosses both levels, the better price first and the older order first within it
+		long rest = engine.submit(4, true, 101, 12, false);
+		assertEquals(MatchingEngine.NO_ORDER, rest);
+		assertEquals(3, makers.size());
+		assertEquals(second, (long) makers.get(0));
+		assertEquals(third, (long) makers.get(1));
+		assertEquals(first, (long) makers.get(2));
+		assertEquals(2l, (long) fills.get(2));
+
+		// The first order is partially filled and stays at the top
+		assertEquals(3, engine.getRemainingQuantity(first));
+		assertEquals(101, engine.getBestAsk());
+		assertEquals(3, engine.cancel(first));
+		assertEquals(0, engine.cancel(first));
+		assertEquals(Long.MAX_VALUE, engine.getBestAsk());
+
+		// What does not fill rests at its limit
+		long bid = engine.submit(5, true, 99, 4, false);
+		assertEquals(99, engine.getBestBid());
+		assertEquals(4, engine.getRemainingQuantity(bid));
+		assertEquals(MatchingEngine.NO_ORDER, engine.submit(6, false, 100, 4, true));
+		assertEquals(0, engine.getLevelCount(false));
+	}
+
+	@Test
+	public void testSettlesBalancesWithFees() throws BookNotFoundException, NotEnoughBalanceException {
+		SimulationMatchingExchange exchange = new SimulationMatchingExchange(2, 4, new BigDecimal("0.99"));
+		exchange.addMarket("ETH", "BTC");
+		exchange.setBalance("BTC", new BigDecimal("10"));
+		exchange.addLiquidity("ETH", "BTC", OrderType.SELL, new BigDecimal("1.00"), new BigDecimal("2"));
+		exchange.addLiquidity("ETH", "BTC", OrderType.SELL, new BigDecimal("2.00"), new BigDecimal("2"));
+
+		// Fills 2 at 1.00, 1 at 2.00 and gets the difference from its 3.00 limit back
+		exchange.buy(new Order(OrderType.BUY, new BigDecimal("3"), new BigDecimal("3.00"), "ETH", "BTC"));
+		assertEquals(0, new BigDecimal("2.97").compareTo(exchange.getBalance("ETH")));
+		assertEquals(0, new BigDecimal("6").compareTo(exchange.getBalance("BTC")));
+		assertEquals(0, new BigDecimal("2.00").compareTo(exchange.getLowestAsk("ETH", "BTC")));
+
+		try {
+			exchange.sell(new Order(OrderType.SELL, new BigDecimal("5"), new BigDecimal("1.00"), "ETH", "BTC"));
+			assertTrue("Expected NotEnoughBalanceException", false);
+		} catch( NotEnoughBalanceException e ) {}
+
+		// A resting sell is paid when another trader takes it
+		exchange.sell(new Order(OrderType.SELL, new BigDecimal("1"), new BigDecimal("1.50"), "ETH", "BTC"));
+		assertEquals(0, new BigDecimal("1.50").compareTo(exchange.getLowestAsk("ETH", "BTC")));
+		exchange.addLiquidity("ETH", "BTC", OrderType.BUY, new BigDecimal("1.50"), new BigDecimal("1"));
+		assertEquals(0, new BigDecimal("1.97").compareTo(exchange.getBalance("ETH")));
+		assertEquals(0, new BigDecimal("7.485").compareTo(exchange.getBalance("BTC")));
+	}
+
+	@Test
+	public void testSubmitDoesNotWaitForTheLatency() throws BookNotFoundException {
+		SimulationMatchingExchange exchange = new SimulationMatchingExchange(2, 4, new BigDecimal("1"));
+		exchange.addMarket("ETH", "BTC");
+		exchange.setBalance("BTC", new BigDecimal("10"));
+		exchange.addLiquidity("ETH", "BTC", OrderType.SELL, new BigDecimal("1.00"), new BigDecimal("2"));
+		exchange.setLatencyNanos(TimeUnit.MILLISECONDS.toNanos(200));
+
+		long start = System.nanoTime();
+		CompletableFuture<OrderAck> ack = exchange.submit(new Order(OrderType.BUY, new BigDecimal("1"), new BigDecimal("1.00"), "ETH", "BTC"));
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+		assertFalse(ack.isDone());
+		// The cost is held while the order is on its way
+		assertEquals(0, new BigDecimal("9").compareTo(exchange.getBalance("BTC")));
+
+		assertTrue(ack.join().getLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(0, new BigDecimal("1").compareTo(exchange.getBalance("ETH")));
+	}
+
+	@Test
+	public void testStopClosesLong() throws BookNotFoundException {
+		SimulationMatchingExchange exchange = new SimulationMatchingExchange(1, 4, new BigDecimal("1"));
+		exchange.addMarket("XBT", "USD");
+		exchange.startMarginTrading("XBT", "USD", new BigDecimal("1000"), 2, new BigDecimal("1"), new BigDecimal("0.5"), new BigDecimal("0.1"));
+		exchange.addLiquidity("XBT", "USD", OrderType.SELL, new BigDecimal("100"), new BigDecimal("100"));
+		exchange.addLiquidity("XBT", "USD", OrderType.BUY, new BigDecimal("95"), new BigDecimal("100"));
+
+		// 1000 * 0.5 * 2 / 100 = 10 XBT, filled at 100 with a stop at 90
+		exchange.openLong(new BigDecimal("100"));
+		assertEquals(0, new BigDecimal("10").compareTo(exchange.getMarginPosition()));
+
+		// The bids at 95 do not reach the stop, a trade at 90 does
+		exchange.addLiquidity("XBT", "USD", OrderType.SELL, new BigDecimal("95"), new BigDecimal("100"));
+		assertEquals(0, new BigDecimal("10").compareTo(exchange.getMarginPosition()));
+		exchange.addLiquidity("XBT", "USD", OrderType.BUY, new BigDecimal("90"), new BigDecimal("50"));
+		exchange.addLiquidity("XBT", "USD", OrderType.SELL, new BigDecimal("90"), new BigDecimal("1"));
+		assertEquals(0, exchange.getMarginPosition().signum());
+		assertEquals(0, new BigDecimal("900").compareTo(exchange.getAvailableMarginBalance()));
+	}
+}
@@ -0,0 +1,40 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.bots.OpportunityQueue;
+
+public class OpportunityQueueTest {
+
+	@Test
+	public void testEmptyQueue() {
+		OpportunityQueue queue = new OpportunityQueue(0);
+		assertEquals(Double.NEGATIVE_INFINITY, queue.peekScore(), 0);
+	}
+
+	@Test
+	public void testPeekIsHighestScore() {
+		Random random = new Random(8);
+		OpportunityQueue queue = new OpportunityQueue(50);
+		double[] scores = new double[50];
+		Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+		for( int test = 0; test < 10000; test++ ) {
+			int id = random.nextInt(scores.length);
+			// Some opportunities stop being tradeable, most are re-scored
+			scores[id] = random.nextInt(10) == 0 ? Double.NEGATIVE_INFINITY : random.nextGaussian();
+			queue.update(id, scores[id]);
+
+			double highest = Double.NEGATIVE_INFINITY;
+			for( double score: scores )
+				highest = Math.max(highest, score);
+			assertEquals(highest, queue.peekScore(), 0);
+			assertEquals(highest, scores[queue.peek()], 0);
+			assertEquals(scores[id], queue.getScore(id), 0);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.PollingScheduler;
+import com.tobiascarryer.trading.exchanges.RequestQueue;
+import com.tobiascarryer.trading.exchanges.TokenBucket;
+
+public class PollingSchedulerTest {
+
+	@Test
+	public void testTokenBucketRefills() {
+		long second = 1000000000l;
+		TokenBucket bucket = new TokenBucket(2, 1, 0);
+		assertTrue(bucket.tryAcquire(1, 0));
+		assertTrue(bucket.tryAcquire(1, 0));
+		assertFalse(bucket.tryAcquire(1, 0));
+		assertEquals(second / 2, bucket.nanosUntilAvailable(1, second / 2));
+		assertTrue(bucket.tryAcquire(1, second));
+
+		// Never holds more than its capacity
+		assertFalse(bucket.tryAcquire(3, 100 * second));
+		assertTrue(bucket.tryAcquire(2, 100 * second));
+	}
+
+	@Test
+	public void testBooksBeforeMetadataWhenOverBudget() throws InterruptedException {
+		PollingScheduler scheduler = new PollingScheduler(1);
+		// Only one poll can run at once, the next one every 100ms
+		PollingScheduler.Budget budget = scheduler.newBudget(1, 10);
+		List<String> runs = new CopyOnWriteArrayList<>();
+		scheduler.schedule(budget, PollingScheduler.Priority.METADATA, 1, 60000, 0, () -> runs.add("first"));
+		Thread.sleep(20);
+		// Both are due while the budget is empty, the book was scheduled last but runs first.
+		PollingScheduler.Poll metadata = scheduler.schedule(budget, PollingScheduler.Priority.METADATA, 1, 60000, 0, () -> runs.add("metadata"));
+		PollingScheduler.Poll book = scheduler.schedule(budget, PollingScheduler.Priority.BOOK, 1, 60000, 0, () -> runs.add("book"));
+		Thread.sleep(400);
+		metadata.cancel();
+		book.cancel();
+		scheduler.shutdown();
+		assertEquals(3, runs.size());
+		assertEquals("first", runs.get(0));
+		assertEquals("book", runs.get(1));
+		assertEquals("metadata", runs.get(2));
+	}
+
+	@Test
+	public void testWeightAboveCapacityRejected() {
+		PollingScheduler scheduler = new PollingScheduler(1);
+		PollingScheduler.Budget budget = scheduler.newBudget(2, 10);
+		List<String> runs = new CopyOnWriteArrayList<>();
+		try {
+			scheduler.schedule(budget, PollingScheduler.Priority.BOOK, 3, 60000, 0, () -> runs.add("poll"));
+			fail("A poll the budget can never afford was scheduled.");
+		} catch( IllegalArgumentException expected ) {
+		}
+		try {
+			scheduler.submit(budget, PollingScheduler.Priority.BOOK, 3, () -> runs.add("request"));
+			fail("A request the budget can never afford was submitted.");
+		} catch( IllegalArgumentException expected ) {
+		}
+		// The full capacity is still allowed
+		PollingScheduler.Poll poll = scheduler.schedule(budget, PollingScheduler.Priority.BOOK, 2, 60000, 0, () -> runs.add("full"));
+		poll.cancel();
+		scheduler.shutdown();
+		assertFalse(runs.contains("poll"));
+		assertFalse(runs.contains("request"));
+	}
+
+	@Test
+	public void testRequestQueueLimitsRequestsInFlight() throws InterruptedException {
+		PollingScheduler scheduler = new PollingScheduler(1);
+		PollingScheduler.Budget budget = scheduler.newBudget(100, 100);
+		RequestQueue queue = new RequestQueue(scheduler, budget, PollingScheduler.Priority.BOOK, 2);
+		List<Integer> sent = new CopyOnWriteArrayList<>();
+		List<Runnable> responses = new CopyOnWriteArrayList<>();
+		for( int i = 0; i < 5; i++ ) {
+			final int request = i;
+			queue.add(1, (Runnable done) -> {
+				sent.add(request);
+				responses.add(done);
+			});
+		}
+		Thread.sleep(100);
+		assertEquals(2, sent.size());
+		assertEquals(3, queue.size());
+
+		// A response lets the next request be sent, running done twice does not send two
+		responses.get(0).run();
+		responses.get(0).run();
+		Thread.sleep(100);
+		assertEquals(3, sent.size());
+		responses.get(1).run();
+		responses.get(2).run();
+		Thread.sleep(100);
+		scheduler.shutdown();
+		assertEquals(5, sent.size());
+		for( int i = 0; i < 5; i++ )
+			assertEquals(i, (int) sent.get(i));
+	}
+}
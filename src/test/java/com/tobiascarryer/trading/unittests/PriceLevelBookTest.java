@@ -0,0 +1,250 @@
+package com.tobiascarryer.trading.unittests;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSideSnapshot;
+import com.tobiascarryer.trading.exchanges.orderbook.BookSnapshot;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
+import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBook;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for PriceLevelBook.
+ */
+public class PriceLevelBookTest extends TestCase {
+    /**
+     * Create the test case
+     * @param testName name of the test case
+     */
+    public PriceLevelBookTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( PriceLevelBookTest.class );
+    }
+
+    /**
+     * Levels inserted in any order should be read from the best price to the worst.
+     */
+    public void testSorting() throws BookNotFoundException {
+    	PriceLevelBook book = new PriceLevelBook(8, 8);
+    	book.updateAsk("1.010", "1");
+    	book.updateAsk("1.000", "0.5");
+    	book.updateAsk("1.005", "0.75");
+    	book.updateBid("0.990", "0.75");
+    	book.updateBid("0.995", "0.5");
+    	book.updateBid("0.985", "1");
+    	book.publish();
+    	
+    	assertTrue(book.getLowestAsk().compareTo(new BigDecimal("1.000")) == 0);
+    	assertTrue(book.getHighestBid().compareTo(new BigDecimal("0.995")) == 0);
+    	
+    	OrderBookIterator asks = book.getAsksIterator();
+    	assertTrue(asks.next().getPrice().compareTo(new BigDecimal("1.000")) == 0);
+    	assertTrue(asks.next().getPrice().compareTo(new BigDecimal("1.005")) == 0);
+    	assertTrue(asks.next().getPrice().compareTo(new BigDecimal("1.010")) == 0);
+    	assertFalse(asks.hasNext());
+    	
+    	OrderBookIterator bids = book.getBidsIterator();
+    	assertTrue(bids.next().getPrice().compareTo(new BigDecimal("0.995")) == 0);
+    	assertTrue(bids.next().getPrice().compareTo(new BigDecimal("0.990")) == 0);
+    	assertTrue(bids.next().getPrice().compareTo(new BigDecimal("0.985")) == 0);
+    	assertFalse(bids.hasNext());
+    }
+    
+    /**
+     * Updates replace the quantity at a price regardless of how the price is written and a quantity of zero removes the level.
+     */
+    public void testUpdatingAndRemoving() throws BookNotFoundException {
+    	PriceLevelBook book = new PriceLevelBook(8, 8);
+    	book.updateAsk("1.000", "0.5");
+    	book.updateAsk("1.005", "0.75");
+    	
+    	book.updateAsk("1.00000000", "2");
+    	book.publish();
+    	OrderBookEntry best = book.getAsksIterator().next();
+    	assertTrue(best.getMajorCurrencyAmount().compareTo(new BigDecimal("2")) == 0);
+    	
+    	book.updateAsk("1.0", "0.00000000");
+    	book.publish();
+    	assertTrue(book.getLowestAsk().compareTo(new BigDecimal("1.005")) == 0);
+    	
+    	// Removing a level that does not exist does nothing.
+    	book.updateAsk("0.5", "0");
+    	book.publish();
+    	assertTrue(book.getLowestAsk().compareTo(new BigDecimal("1.005")) == 0);
+    }
+    
+    /**
+     * Reading the best price of an empty side must be handled by the caller.
+     */
+    public void testEmptySide() {
+    	PriceLevelBook book = new PriceLevelBook(8, 8);
+    	book.updateAsk("1.000", "0.5");
+    	book.publish();
+    	try {
+    		book.getHighestBid();
+    		fail();
+    	} catch( BookNotFoundException e ) {
+    		// Expected, there are no bids.
+    	}
+    }
+    
+    /**
+     * Many random inserts, updates and removals should leave the book in the same state as a sorted map.
+     */
+    public void testRandomUpdatesMatchSortedMap() {
+    	Random random = new Random(42);
+    	PriceLevelBook book = new PriceLevelBook(2, 4);
+    	TreeMap<Long, Long> expectedBids = new TreeMap<Long, Long>(Collections.reverseOrder());
+    	for( int i = 0; i < 20000; i++ ) {
+    		long price = 1000 + random.nextInt(300);
+    		long quantity = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(100000);
+    		book.updateBid(price, quantity);
+    		if( quantity == 0 )
+    			expectedBids.remove(price);
+    		else
+    			expectedBids.put(price, quantity);
+    	}
+    	book.publish();
+    	
+    	OrderBookIterator bids = book.getBidsIterator();
+    	for( Map.Entry<Long, Long> expected: expectedBids.entrySet() ) {
+    		OrderBookEntry bid = bids.next();
+    		assertTrue(bid.getPrice().compareTo(BigDecimal.valueOf(expected.getKey(), 2)) == 0);
+    		assertTrue(bid.getMinorCurrencyAmount().compareTo(BigDecimal.valueOf(expected.getKey(), 2).multiply(BigDecimal.valueOf(expected.getValue(), 4)).setScale(8)) == 0);
+    	}
+    	assertFalse(bids.hasNext());
+    }
+    
+    /**
+     * Every published version keeps its levels while later versions share the unchanged parts of it,
+     * even when the book is deep enough to span many chunks.
+     */
+    public void testPublishedVersionsArePersistent() {
+    	Random random = new Random(7);
+    	PriceLevelBook book = new PriceLevelBook(2, 4);
+    	TreeMap<Long, Long> expectedAsks = new TreeMap<Long, Long>();
+    	List<BookSnapshot> versions = new ArrayList<BookSnapshot>();
+    	List<long[]> expectedVersions = new ArrayList<long[]>();
+    	assertEquals(0l, book.getVersion());
+    	for( int batch = 0; batch < 200; batch++ ) {
+    		for( int i = 0; i < 10; i++ ) {
+    			// Mostly near the best price, sometimes deep in the book
+    			long price = random.nextInt(5) == 0 ? 1000 + random.nextInt(500) : 1000 + random.nextInt(20);
+    			long quantity = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(100000);
+    			book.updateAsk(price, quantity);
+    			if( quantity == 0 )
+    				expectedAsks.remove(price);
+    			else
+    				expectedAsks.put(price, quantity);
+    		}
+    		book.publish();
+    		BookSnapshot snapshot = book.getSnapshot();
+    		assertEquals(batch + 1l, snapshot.getVersion());
+    		versions.add(snapshot);
+    		long[] expected = new long[expectedAsks.size() * 2];
+    		int index = 0;
+    		for( Map.Entry<Long, Long> level: expectedAsks.entrySet() ) {
+    			expected[index++] = level.getKey();
+    			expected[index++] = level.getValue();
+    		}
+    		expectedVersions.add(expected);
+    	}
+    	
+    	for( int v = 0; v < versions.size(); v++ ) {
+    		BookSideSnapshot asks = versions.get(v).getAsks();
+    		long[] expected = expectedVersions.get(v);
+    		assertEquals(expected.length / 2, asks.size());
+    		for( int depth = 0; depth < asks.size(); depth++ ) {
+    			assertEquals(expected[depth*2], asks.getPrice(depth));
+    			assertEquals(expected[depth*2+1], asks.getQuantity(depth));
+    		}
+    		// The bids never changed so every version holds the same side
+    		assertSame(versions.get(0).getBids(), versions.get(v).getBids());
+    	}
+    	
+    	// Publishing without any updates does not make a new version
+    	book.publish();
+    	assertSame(versions.get(versions.size() - 1), book.getSnapshot());
+    }
+    
+    /**
+     * Iterators read the snapshot from when they were created. Neither later updates to the book nor
+     * consuming an entry returned by another iterator should change what they return.
+     */
+    public void testIteratorsAreIsolated() {
+    	PriceLevelBook book = new PriceLevelBook(8, 8);
+    	book.updateAsk("1.000", "0.5");
+    	book.updateAsk("1.005", "0.75");
+    	book.publish();
+    	
+    	OrderBookIterator first = book.getAsksIterator();
+    	OrderBookIterator second = book.getAsksIterator();
+    	
+    	book.updateAsk("0.995", "3");
+    	book.updateAsk("1.000", "0");
+    	// Not published yet, new iterators still see the old levels.
+    	assertTrue(book.getAsksIterator().next().getPrice().compareTo(new BigDecimal("1.000")) == 0);
+    	book.publish();
+    	
+    	OrderBookEntry consumed = first.next();
+    	consumed.setMajorCurrencyAmount(new BigDecimal("0.1"));
+    	OrderBookEntry untouched = second.next();
+    	assertTrue(untouched.getPrice().compareTo(new BigDecimal("1.000")) == 0);
+    	assertTrue(untouched.getMajorCurrencyAmount().compareTo(new BigDecimal("0.5")) == 0);
+    	assertTrue(book.getAsksIterator().next().getPrice().compareTo(new BigDecimal("0.995")) == 0);
+    }
+    
+    /**
+     * The top of book is published with the book, normalized to TopOfBook.PRICE_SCALE, and is only
+     * replaced when the best levels change.
+     */
+    public void testTopOfBook() {
+    	TopOfBookSlot slot = new TopOfBookSlot();
+    	PriceLevelBook book = new PriceLevelBook(3, 2, slot);
+    	assertFalse(slot.get().hasAsk());
+    	assertFalse(slot.get().hasBid());
+    	
+    	book.updateAsk("1.005", "0.75");
+    	book.updateAsk("1.000", "0.5");
+    	book.updateBid("0.995", "2");
+    	assertFalse(slot.get().hasAsk()); // Not published yet
+    	book.publish();
+    	
+    	TopOfBook top = slot.get();
+    	assertEquals(100000000l, top.getAskPrice());
+    	assertEquals(50l, top.getAskQuantity());
+    	assertEquals(99500000l, top.getBidPrice());
+    	assertEquals(200l, top.getBidQuantity());
+    	
+    	// A change deeper in the book does not replace the top of book.
+    	book.updateAsk("1.010", "1");
+    	book.publish();
+    	assertSame(top, slot.get());
+    	
+    	// Books that replace this one can keep publishing to the same slot.
+    	PriceLevelBook replacement = new PriceLevelBook(3, 2, slot);
+    	replacement.updateBid("0.990", "1");
+    	replacement.publish();
+    	assertFalse(slot.get().hasAsk());
+    	assertEquals(99000000l, slot.get().getBidPrice());
+    }
+}
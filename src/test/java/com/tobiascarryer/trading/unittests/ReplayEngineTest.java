@@ -0,0 +1,115 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.bots.ArbitrageBot;
+import com.tobiascarryer.trading.exchanges.Exchange;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.orderbook.PriceLevelBook;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.journal.MarketDataJournal;
+import com.tobiascarryer.trading.simulations.ReplayEngine;
+import com.tobiascarryer.trading.simulations.VirtualClock;
+import com.tobiascarryer.trading.simulations.exchanges.ReplayExchange;
+
+public class ReplayEngineTest {
+
+	private static final CurrencyPair ETH_BTC = CurrencyPair.of("ETH", "BTC");
+
+	@Test
+	public void testMergesJournalsByReceiveTime() throws IOException, InterruptedException, BookNotFoundException {
+		File first = Files.createTempDirectory("journal").toFile();
+		MarketDataJournal journal = MarketDataJournal.open(first);
+		writeBook(journal, "0.0100", "0.0090", 100l);
+		writeBook(journal, "0.0101", "0.0091", 300l);
+		journal.close();
+		File second = Files.createTempDirectory("journal").toFile();
+		journal = MarketDataJournal.open(second);
+		writeBook(journal, "0.0200", "0.0190", 200l);
+		// Received at the same time as the second book of the first journal
+		writeBook(journal, "0.0201", "0.0191", 300l);
+		journal.close();
+
+		VirtualClock clock = new VirtualClock();
+		ReplayEngine engine = new ReplayEngine(clock);
+		ReplayExchange firstExchange = new ReplayExchange(clock, BigDecimal.ONE);
+		ReplayExchange secondExchange = new ReplayExchange(clock, BigDecimal.ONE);
+		engine.addJournal(first, firstExchange);
+		engine.addJournal(second, secondExchange);
+		List<String> replayed = new ArrayList<String>();
+		firstExchange.attachBookObserver((Exchange exchange, String major, String minor) -> replayed.add("first@"+clock.getNanos()));
+		secondExchange.attachBookObserver((Exchange exchange, String major, String minor) -> replayed.add("second@"+clock.getNanos()));
+
+		assertEquals(4l, engine.run());
+		assertEquals("[first@100, second@200, first@300, second@300]", replayed.toString());
+		assertEquals(300l, clock.getNanos());
+		assertEquals(new BigDecimal("0.0101"), firstExchange.getLowestAsk("ETH", "BTC"));
+		assertEquals(new BigDecimal("0.0191"), secondExchange.getHighestBid("ETH", "BTC"));
+	}
+
+	@Test
+	public void testArbitrageReplaysTheSameWayEveryTime() throws IOException, InterruptedException {
+		File cheap = Files.createTempDirectory("journal").toFile();
+		MarketDataJournal journal = MarketDataJournal.open(cheap);
+		writeBalances(journal, 10l);
+		writeBook(journal, "0.0100", "0.0090", 100l);
+		journal.close();
+		File expensive = Files.createTempDirectory("journal").toFile();
+		journal = MarketDataJournal.open(expensive);
+		writeBalances(journal, 20l);
+		writeBook(journal, "0.0120", "0.0110", 200l);
+		journal.close();
+
+		String first = replayArbitrage(cheap, expensive);
+		// Buys the ask of the cheap exchange and sells less than it bought to the bid of the expensive one, the
+		// profit is kept in ETH
+		assertEquals("2.00000000 ETH 0.99000000 BTC, 0.09000000 ETH 1.01001000 BTC", first);
+		assertEquals(first, replayArbitrage(cheap, expensive));
+	}
+
+	private static String replayArbitrage(File cheap, File expensive) throws IOException, InterruptedException {
+		VirtualClock clock = new VirtualClock();
+		ReplayEngine engine = new ReplayEngine(clock);
+		ReplayExchange cheapExchange = new ReplayExchange(clock, BigDecimal.ONE);
+		ReplayExchange expensiveExchange = new ReplayExchange(clock, BigDecimal.ONE);
+		engine.addJournal(cheap, cheapExchange);
+		engine.addJournal(expensive, expensiveExchange);
+
+		ArbitrageBot bot = new ArbitrageBot("BTC", new BigDecimal("1.001"));
+		bot.setScannerThreads(0);
+		bot.setClock(clock::getMillis);
+		bot.startArbitraging(new String[] {"ETH"}, new Exchange[] {cheapExchange, expensiveExchange});
+		engine.run();
+		bot.stop();
+		return cheapExchange.getBalance("ETH")+" ETH "+cheapExchange.getBalance("BTC")+" BTC, "
+				+expensiveExchange.getBalance("ETH")+" ETH "+expensiveExchange.getBalance("BTC")+" BTC";
+	}
+
+	/**
+	 * One ETH and one BTC.
+	 */
+	private static void writeBalances(MarketDataJournal journal, long receivedNanos) {
+		journal.writeBalance("ETH", 100000000l, 8, receivedNanos);
+		journal.writeBalance("BTC", 100000000l, 8, receivedNanos);
+	}
+
+	/**
+	 * Writes a book with one ask and one bid of one ETH.
+	 */
+	private static void writeBook(MarketDataJournal journal, String ask, String bid, long receivedNanos) {
+		PriceLevelBook book = new PriceLevelBook(4, 2);
+		book.updateAsk(ask, "1");
+		book.updateBid(bid, "1");
+		book.publish();
+		journal.writeSnapshot(ETH_BTC, book.getSnapshot(), receivedNanos);
+	}
+}
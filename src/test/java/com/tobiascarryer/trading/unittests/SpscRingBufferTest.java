@@ -0,0 +1,82 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.BookEvent;
+import com.tobiascarryer.trading.exchanges.BookEventStream;
+import com.tobiascarryer.trading.exchanges.SpscRingBuffer;
+import com.tobiascarryer.trading.exchanges.SpscRingBuffer.WaitStrategy;
+import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
+import com.tobiascarryer.trading.simulations.exchanges.SimulationMatchingExchange;
+
+public class SpscRingBufferTest {
+
+	@Test
+	public void testRejectsEntriesWhenFull() {
+		SpscRingBuffer<Integer> buffer = new SpscRingBuffer<Integer>(3);
+		assertEquals(4, buffer.capacity());
+		for( int i = 0; i < 4; i++ )
+			assertTrue(buffer.offer(i));
+		assertFalse(buffer.offer(4));
+		assertEquals(Integer.valueOf(0), buffer.poll());
+		// Reading one makes room for one
+		assertTrue(buffer.offer(4));
+		for( int i = 1; i <= 4; i++ )
+			assertEquals(Integer.valueOf(i), buffer.poll());
+		assertNull(buffer.poll());
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void testEveryWaitStrategyReceivesEntriesInOrder() throws InterruptedException {
+		for( WaitStrategy waitStrategy: WaitStrategy.values() ) {
+			final SpscRingBuffer<Long> buffer = new SpscRingBuffer<Long>(64);
+			final long entries = 100000l;
+			Thread producer = new Thread(() -> {
+				for( long i = 0; i < entries; i++ ) {
+					// A producer that must not lose entries retries while the consumer catches up
+					while( !buffer.offer(i) )
+						Thread.yield();
+				}
+			});
+			producer.start();
+			for( long i = 0; i < entries; i++ )
+				assertEquals(Long.valueOf(i), buffer.take(waitStrategy));
+			producer.join();
+			assertNull(buffer.poll());
+		}
+	}
+
+	@Test
+	public void testBookEventStreamDropsEventsWhenFull() throws BookNotFoundException, InterruptedException {
+		SimulationMatchingExchange exchange = new SimulationMatchingExchange(2, 4, new BigDecimal("1"));
+		exchange.addMarket("ETH", "BTC");
+		BookEventStream stream = exchange.openBookEventStream(2);
+		// Every order changes the book, nothing reads the stream until all three were published
+		exchange.addLiquidity("ETH", "BTC", OrderType.SELL, new BigDecimal("1.00"), new BigDecimal("1"));
+		exchange.addLiquidity("ETH", "BTC", OrderType.SELL, new BigDecimal("1.01"), new BigDecimal("1"));
+		exchange.addLiquidity("ETH", "BTC", OrderType.BUY, new BigDecimal("0.99"), new BigDecimal("1"));
+		long deadline = System.currentTimeMillis() + 5000;
+		while( stream.getMissedEvents() == 0 && System.currentTimeMillis() < deadline )
+			Thread.sleep(1);
+		assertEquals(1, stream.getMissedEvents());
+
+		for( int i = 0; i < 2; i++ ) {
+			BookEvent event = stream.take(WaitStrategy.PARK);
+			assertSame(exchange, event.getExchange());
+			assertSame(CurrencyPair.of("ETH", "BTC"), event.getPair());
+		}
+		assertNull(stream.poll());
+		exchange.closeBookEventStream(stream);
+	}
+}
@@ -0,0 +1,32 @@
+package com.tobiascarryer.trading.unittests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.tobiascarryer.trading.exchanges.orderbook.UpdateIdSequence;
+import com.tobiascarryer.trading.exchanges.orderbook.UpdateIdSequence.Result;
+
+public class UpdateIdSequenceTest {
+
+	@Test
+	public void testFirstEventMayStartBeforeTheSnapshot() {
+		UpdateIdSequence sequence = new UpdateIdSequence(100);
+		assertEquals(Result.OLD, sequence.next(90, 100));
+		// Straddles the snapshot, the updates after it are still needed
+		assertEquals(Result.APPLY, sequence.next(95, 105));
+		assertEquals(105, sequence.getLastUpdateId());
+		assertEquals(Result.APPLY, sequence.next(106, 110));
+	}
+
+	@Test
+	public void testDetectsMissedEvents() {
+		UpdateIdSequence sequence = new UpdateIdSequence(100);
+		assertEquals(Result.APPLY, sequence.next(101, 103));
+		assertEquals(Result.GAP, sequence.next(105, 107));
+		// A gap does not move the sequence on
+		assertEquals(103, sequence.getLastUpdateId());
+		assertEquals(Result.APPLY, sequence.next(104, 107));
+		assertEquals(Result.OLD, sequence.next(104, 107));
+	}
+}
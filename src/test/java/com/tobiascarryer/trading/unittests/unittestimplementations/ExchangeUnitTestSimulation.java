@@ -1,15 +1,26 @@
 package com.tobiascarryer.trading.unittests.unittestimplementations;
 
 import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import com.tobiascarryer.trading.exchanges.BalanceLedger;
+import com.tobiascarryer.trading.exchanges.BookEvent;
+import com.tobiascarryer.trading.exchanges.BookEventStream;
+import com.tobiascarryer.trading.exchanges.BookObserver;
 import com.tobiascarryer.trading.exchanges.Exchange;
+import com.tobiascarryer.trading.exchanges.FeeObserver;
 import com.tobiascarryer.trading.exchanges.exceptions.BookNotFoundException;
 import com.tobiascarryer.trading.exchanges.exceptions.NotEnoughBalanceException;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookEntry;
 import com.tobiascarryer.trading.exchanges.orderbook.OrderBookIterator;
+import com.tobiascarryer.trading.exchanges.orderbook.TopOfBookSlot;
 import com.tobiascarryer.trading.exchanges.orders.Order;
+import com.tobiascarryer.trading.exchanges.orders.OrderAck;
+import com.tobiascarryer.trading.exchanges.orders.OrderType;
+import com.tobiascarryer.trading.exchanges.pairs.CurrencyPair;
 
 /**
  * Intended to be used by tests that require an Exchange.
@@ -24,24 +35,38 @@ public class ExchangeUnitTestSimulation implements Exchange {
 			 								 new OrderBookEntry("0.990", "0.75"),
 	 								 		 new OrderBookEntry("0.985", "1"),
 	 								 		 new OrderBookEntry("0.980", "1.25")};
-	private OrderBookEntry[] asks;
-	private OrderBookEntry[] bids;
-	private Map<String, BigDecimal> balances = new HashMap<String, BigDecimal>();
+	private volatile OrderBookEntry[] asks;
+	private volatile OrderBookEntry[] bids;
+	private final BalanceLedger balances = new BalanceLedger();
+	private List<BookObserver> bookObservers = new CopyOnWriteArrayList<BookObserver>();
+	private List<BookEventStream> bookEventStreams = new CopyOnWriteArrayList<BookEventStream>();
+	private List<FeeObserver> feeObservers = new CopyOnWriteArrayList<FeeObserver>();
+	private volatile BigDecimal postTradingFee = new BigDecimal("0.995");
 	
 	/**
 	 * @param asks
 	 * @param bids
-	 * @param balances, keys must be all uppercase
+	 * @param balances, copied into the simulation's ledger
 	 */
 	public ExchangeUnitTestSimulation(OrderBookEntry[] asks, OrderBookEntry[] bids, Map<String, BigDecimal> balances) {
 		this.asks = asks;
 		this.bids = bids;
-		this.balances = balances;
+		for( Map.Entry<String, BigDecimal> balance: balances.entrySet() )
+			this.balances.setTotal(balance.getKey(), balance.getValue());
 	}
 	
 	@Override
 	public BigDecimal getPostTradingFee() {
-		return new BigDecimal("0.995");
+		return this.postTradingFee;
+	}
+	
+	/**
+	 * Replaces the fee and notifies the observers as if the fee changed on the exchange.
+	 */
+	public void changePostTradingFee(BigDecimal postTradingFee) {
+		this.postTradingFee = postTradingFee;
+		for( FeeObserver observer: this.feeObservers )
+			observer.onFeeChanged(this);
 	}
 
 	@Override
@@ -49,10 +74,55 @@ public class ExchangeUnitTestSimulation implements Exchange {
 		System.out.println("Unexpected method call: startMonitoringBook");
 	}
 
+	/**
+	 * Replaces the books and notifies the observers and streams as if the books changed on the exchange. The thread
+	 * calling it is the producer of the streams, only change the books from one thread.
+	 */
+	public void changeBooks(OrderBookEntry[] asks, OrderBookEntry[] bids, String majorCurrency, String minorCurrency) {
+		this.asks = asks;
+		this.bids = bids;
+		for( BookObserver observer: this.bookObservers )
+			observer.onBookChanged(this, majorCurrency, minorCurrency);
+		for( BookEventStream stream: this.bookEventStreams )
+			stream.publish(new BookEvent(this, CurrencyPair.of(majorCurrency, minorCurrency)));
+	}
+
+	@Override
+	public void attachBookObserver(BookObserver observer) {
+		this.bookObservers.add(observer);
+	}
+
+	@Override
+	public void detachBookObserver(BookObserver observer) {
+		this.bookObservers.remove(observer);
+	}
+
+	@Override
+	public BookEventStream openBookEventStream(int capacity) {
+		BookEventStream stream = new BookEventStream(capacity);
+		this.bookEventStreams.add(stream);
+		return stream;
+	}
+
+	@Override
+	public void closeBookEventStream(BookEventStream stream) {
+		this.bookEventStreams.remove(stream);
+	}
+
+	@Override
+	public void attachFeeObserver(FeeObserver observer) {
+		this.feeObservers.add(observer);
+	}
+
+	@Override
+	public void detachFeeObserver(FeeObserver observer) {
+		this.feeObservers.remove(observer);
+	}
+
 	@Override
 	public Boolean supports(String majorCurrency, String minorCurrency) {
 		// Does not truly simulate checking a ticker since the minor currency would be supported as a "ticker" as well
-		return balances.containsKey(majorCurrency.toUpperCase());
+		return this.balances.getTotal(majorCurrency) != null;
 	}
 
 	@Override
@@ -65,6 +135,12 @@ public class ExchangeUnitTestSimulation implements Exchange {
 		return this.bids[0].getPrice();
 	}
 
+	@Override
+	public TopOfBookSlot getTopOfBookSlot(String majorCurrency, String minorCurrency) {
+		// Does not publish its top of book, tests use getLowestAsk and getHighestBid.
+		return null;
+	}
+
 	@Override
 	public OrderBookIterator getBidsIterator(String majorCurrency, String minorCurrency) throws BookNotFoundException {
 		return OrderBookIterator.createIteratorByCloning(this.bids);
@@ -84,10 +160,11 @@ public class ExchangeUnitTestSimulation implements Exchange {
 			if( this.asks[i].getPrice().compareTo(order.getPrice()) == 1 )
 				System.out.println("There are not enough orders to fill the buy order.");
 			BigDecimal toBuy = this.asks[i].getMajorCurrencyAmount().min(remaining);
-			this.balances.put(order.getMajorCurrency().toUpperCase(), this.balances.get(order.getMajorCurrency().toUpperCase()).add(toBuy));
-			this.balances.put(order.getMinorCurrency().toUpperCase(), this.balances.get(order.getMinorCurrency().toUpperCase()).subtract(toBuy.multiply(this.asks[i].getPrice())));
+			this.balances.add(order.getMajorCurrency(), toBuy);
+			this.balances.add(order.getMinorCurrency(), toBuy.multiply(this.asks[i].getPrice()).negate());
 			this.asks[i].setMajorCurrencyAmount(this.asks[i].getMajorCurrencyAmount().subtract(toBuy));
 			remaining = remaining.subtract(toBuy);
+			i++;
 		}
 	}
 
@@ -100,16 +177,41 @@ public class ExchangeUnitTestSimulation implements Exchange {
 			if( this.bids[i].getPrice().compareTo(order.getPrice()) == -1 )
 				System.out.println("There are not enough orders to fill the sell order.");
 			BigDecimal toSell = this.bids[i].getMajorCurrencyAmount().min(remaining);
-			this.balances.put(order.getMajorCurrency().toUpperCase(), this.balances.get(order.getMajorCurrency().toUpperCase()).subtract(toSell));
-			this.balances.put(order.getMinorCurrency().toUpperCase(), this.balances.get(order.getMinorCurrency().toUpperCase()).add(toSell.multiply(this.bids[i].getPrice())));
+			this.balances.add(order.getMajorCurrency(), toSell.negate());
+			this.balances.add(order.getMinorCurrency(), toSell.multiply(this.bids[i].getPrice()));
 			this.bids[i].setMajorCurrencyAmount(this.bids[i].getMajorCurrencyAmount().subtract(toSell));
 			remaining = remaining.subtract(toSell);
+			i++;
+		}
+	}
+
+	/**
+	 * Fills the order before returning, as if the exchange accepted it immediately.
+	 */
+	@Override
+	public CompletableFuture<OrderAck> submit(Order order) {
+		CompletableFuture<OrderAck> ack = new CompletableFuture<>();
+		long sent = System.nanoTime();
+		try {
+			if( order.getAction() == OrderType.BUY )
+				buy(order);
+			else
+				sell(order);
+			ack.complete(new OrderAck(order, sent, System.nanoTime()));
+		} catch( NotEnoughBalanceException e ) {
+			ack.completeExceptionally(e);
 		}
+		return ack;
 	}
 
 	@Override
 	public BigDecimal getBalance(String currency) {
-		return this.balances.get(currency.toUpperCase());
+		return this.balances.getAvailable(currency);
+	}
+
+	@Override
+	public BalanceLedger getBalanceLedger() {
+		return this.balances;
 	}
 
 	@Override